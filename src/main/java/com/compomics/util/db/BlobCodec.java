@@ -0,0 +1,160 @@
+package com.compomics.util.db;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Converts the objects stored in the database to and from the content of the
+ * blobs. Objects supported by a registered codec are written in a compact
+ * binary record, the others using Java serialization. The format is given by
+ * the first byte of the blob so that databases written using Java
+ * serialization only can still be read.
+ *
+ * @author Marc Vaudel
+ */
+public class BlobCodec {
+
+    /**
+     * The first byte of a blob written using Java serialization.
+     */
+    public static final int SERIALIZATION_TAG = 0xAC;
+    /**
+     * The first byte of a blob written using a codec.
+     */
+    public static final int CODEC_TAG = 1;
+    /**
+     * The registered codecs in order of registration.
+     */
+    private static final ArrayList<ObjectCodec> codecs = new ArrayList<ObjectCodec>();
+    /**
+     * The registered codecs indexed by identifier.
+     */
+    private static final HashMap<Integer, ObjectCodec> codecsMap = new HashMap<Integer, ObjectCodec>();
+
+    /**
+     * Empty default constructor.
+     */
+    private BlobCodec() {
+    }
+
+    /**
+     * Registers a codec. A codec already registered under the same identifier
+     * is replaced.
+     *
+     * @param codec the codec to register
+     */
+    public static synchronized void registerCodec(ObjectCodec codec) {
+        ObjectCodec previous = codecsMap.put(codec.getId(), codec);
+        if (previous != null) {
+            codecs.remove(previous);
+        }
+        codecs.add(codec);
+    }
+
+    /**
+     * Returns the codec able to write the given object, null if none.
+     *
+     * @param object the object
+     *
+     * @return the codec able to write the given object
+     */
+    private static synchronized ObjectCodec getCodec(Object object) {
+        for (ObjectCodec codec : codecs) {
+            if (codec.canEncode(object)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the codec registered under the given identifier, null if none.
+     *
+     * @param id the identifier of the codec
+     *
+     * @return the codec registered under the given identifier
+     */
+    private static synchronized ObjectCodec getCodec(int id) {
+        return codecsMap.get(id);
+    }
+
+    /**
+     * Returns the content of the blob for the given object.
+     *
+     * @param object the object
+     *
+     * @return the content of the blob
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public static byte[] serialize(Object object) throws IOException {
+        ObjectCodec codec = getCodec(object);
+        if (codec != null) {
+            RecordOutput output = new RecordOutput();
+            try {
+                output.write(CODEC_TAG);
+                output.writeVarInt(codec.getId());
+                codec.encode(object, output);
+                return output.toByteArray();
+            } finally {
+                output.close();
+            }
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads an object from the content of a blob. The stream is closed.
+     *
+     * @param inputStream the stream of the blob content
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public static Object deserialize(InputStream inputStream) throws IOException, ClassNotFoundException {
+        BufferedInputStream bis = new BufferedInputStream(inputStream);
+        try {
+            bis.mark(1);
+            int tag = bis.read();
+            if (tag == CODEC_TAG) {
+                RecordInput input = new RecordInput(bis);
+                int id = input.readVarInt();
+                ObjectCodec codec = getCodec(id);
+                if (codec == null) {
+                    throw new IOException("No codec registered for identifier " + id + ".");
+                }
+                return codec.decode(input);
+            } else if (tag == SERIALIZATION_TAG) {
+                bis.reset();
+                ObjectInputStream in = new ObjectInputStream(bis);
+                try {
+                    return in.readObject();
+                } finally {
+                    in.close();
+                }
+            } else {
+                throw new IOException("Unknown blob format " + tag + ".");
+            }
+        } finally {
+            bis.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.compomics.util.db;
+
+import java.io.IOException;
+
+/**
+ * Interface for the codecs writing objects to the database in a compact
+ * binary format. Objects not supported by any codec are stored using Java
+ * serialization.
+ *
+ * @author Marc Vaudel
+ */
+public interface ObjectCodec {
+
+    /**
+     * Returns the unique identifier of the codec, stored in the records
+     * written by this codec.
+     *
+     * @return the unique identifier of the codec
+     */
+    public int getId();
+
+    /**
+     * Indicates whether the codec can write the given object.
+     *
+     * @param object the object
+     *
+     * @return a boolean indicating whether the codec can write the given
+     * object
+     */
+    public boolean canEncode(Object object);
+
+    /**
+     * Writes an object.
+     *
+     * @param object the object
+     * @param output the output where to write the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void encode(Object object, RecordOutput output) throws IOException;
+
+    /**
+     * Reads an object.
+     *
+     * @param input the input where to read the object
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing an object embedded in the record
+     */
+    public Object decode(RecordInput input) throws IOException, ClassNotFoundException;
+}
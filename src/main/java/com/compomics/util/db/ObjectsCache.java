@@ -7,8 +7,13 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An object cache can be combined to an ObjectDB to improve its performance. A
@@ -16,6 +21,24 @@ import java.util.concurrent.Semaphore;
  * serialized. The length of lists/maps in the cache shall stay independent from
  * the number of objects in cache.
  *
+ * The cache is a segmented LRU: new objects enter a probation segment and are
+ * promoted to a protected segment when used again, objects are evicted from
+ * the probation segment first. The size of the cache is given by the
+ * estimated size of the objects in memory, see the SizedObject interface, and
+ * is limited by an explicit byte budget.
+ *
+ * The segments are split in stripes according to the hash of the cache keys,
+ * every stripe having its own mutex, so that threads adding, updating and
+ * removing objects of different stripes do not wait for each other. The size
+ * of the cache is counted over all stripes and the objects are evicted from
+ * the stripes in turn, the least recently used first within a stripe.
+ *
+ * Modified objects evicted from the cache are written to the databases by a
+ * background thread. They remain available from the cache until written. When
+ * too many objects are waiting, the threads evicting objects wait for the
+ * queue to be processed. The flush method waits for the queued objects to be
+ * written.
+ *
  * @author Marc Vaudel
  */
 public class ObjectsCache {
@@ -30,14 +53,33 @@ public class ObjectsCache {
     private int cacheSize = 0;
     /**
      * Boolean indicating whether the memory management should be done
-     * automatically. If true, the cache size will be extended to reach 99% of
-     * the available heap size. True by default.
+     * automatically. If true, the cache size will be limited by the estimated
+     * size of the objects in memory. True by default.
      */
     private boolean automatedMemoryManagement = true;
     /**
-     * Share of the memory to be used.
+     * Share of the heap size used as maximal estimated size of the objects in
+     * cache when no maximal cache weight is set.
      */
     private double memoryShare = 0.8;
+    /**
+     * The maximal estimated size of the objects in cache in bytes. If 0, the
+     * share of the heap size given by memoryShare is used.
+     */
+    private long maxCacheWeight = 0;
+    /**
+     * The share of the cache reserved to the protected segment.
+     */
+    private double protectedShare = 0.8;
+    /**
+     * The estimated size used for objects not implementing the SizedObject
+     * interface.
+     */
+    public static final long DEFAULT_OBJECT_SIZE = 512;
+    /**
+     * The estimated size of an entry of the cache without object and key.
+     */
+    private static final long ENTRY_OVERHEAD = 96;
     /**
      * Map of the loaded matches. db &gt; table &gt; object key &gt; object.
      */
@@ -47,13 +89,26 @@ public class ObjectsCache {
      */
     private HashMap<String, MapMutex<String>> dbCacheMutexMap = new HashMap<String, MapMutex<String>>(1);
     /**
-     * List of the loaded objects with the most used matches in the end.
+     * The number of stripes of the cache segments.
+     */
+    private static final int N_STRIPES = 16;
+    /**
+     * The stripes of the cache segments.
      */
-    private LinkedBlockingDeque<String> loadedObjectsKeys = new LinkedBlockingDeque<String>();
+    private final CacheStripe[] stripes = new CacheStripe[N_STRIPES];
     /**
-     * Mutex for the edition of the object keys list.
+     * The stripe from which the next object is evicted, guarded by the cache
+     * monitor.
      */
-    private Semaphore loadedObjectKeysMutex = new Semaphore(1);
+    private int evictionStripe = 0;
+    /**
+     * The estimated size of the objects in the cache segments in bytes.
+     */
+    private final AtomicLong cacheWeight = new AtomicLong();
+    /**
+     * The number of objects in the cache segments.
+     */
+    private final AtomicInteger nObjects = new AtomicInteger();
     /**
      * Separator used to concatenate strings.
      */
@@ -75,11 +130,83 @@ public class ObjectsCache {
      * consumption.
      */
     private boolean reducingMemoryConsumption = false;
+    /**
+     * The default maximal number of objects waiting to be written to the
+     * databases.
+     */
+    public static final int DEFAULT_WRITE_QUEUE_SIZE = 10000;
+    /**
+     * The maximal number of objects waiting to be written to the databases.
+     */
+    private int writeQueueSize = DEFAULT_WRITE_QUEUE_SIZE;
+    /**
+     * The cache keys of the objects waiting to be written to the databases.
+     */
+    private ArrayBlockingQueue<String> writeQueue = null;
+    /**
+     * The thread writing the queued objects to the databases.
+     */
+    private Thread writeBehindThread = null;
+    /**
+     * Element of the write queue stopping the write behind thread, cache
+     * keys are never empty.
+     */
+    private static final String WRITE_QUEUE_END = "";
+    /**
+     * The estimated size of the objects waiting to be written to the
+     * databases in bytes.
+     */
+    private final AtomicLong queuedWeight = new AtomicLong();
+    /**
+     * The number of objects queued and not yet written, guarded by the write
+     * monitor.
+     */
+    private int nPendingWrites = 0;
+    /**
+     * Monitor for the write behind thread and the number of pending writes.
+     */
+    private final Object writeMonitor = new Object();
+    /**
+     * The first exception encountered by the write behind thread, null if
+     * none.
+     */
+    private volatile Exception writeBehindException = null;
+    /**
+     * The time spent waiting for space in the write queue in nanoseconds.
+     */
+    private final AtomicLong writeQueueWaitTime = new AtomicLong();
+    /**
+     * The number of objects found in cache.
+     */
+    private final AtomicLong nHits = new AtomicLong();
+    /**
+     * The number of objects not found in cache.
+     */
+    private final AtomicLong nMisses = new AtomicLong();
+    /**
+     * The number of objects evicted from the cache.
+     */
+    private final AtomicLong nEvictions = new AtomicLong();
+    /**
+     * The number of objects written to the databases.
+     */
+    private final AtomicLong nWrittenObjects = new AtomicLong();
+    /**
+     * The number of batches of objects written to the databases.
+     */
+    private final AtomicLong nWriteBacks = new AtomicLong();
+    /**
+     * The time spent writing objects to the databases in nanoseconds.
+     */
+    private final AtomicLong writeBackTime = new AtomicLong();
 
     /**
      * Constructor.
      */
     public ObjectsCache() {
+        for (int i = 0; i < N_STRIPES; i++) {
+            stripes[i] = new CacheStripe();
+        }
     }
 
     /**
@@ -139,27 +266,114 @@ public class ObjectsCache {
     }
 
     /**
-     * Returns the share of heap size which can be used before emptying the
-     * cache. 0.99 (default) means that objects will be removed from the cache
-     * as long as more than 99% of the heap size is used.
+     * Returns the maximal number of objects waiting to be written to the
+     * databases.
      *
-     * @return the share of heap size which can be used before emptying the
-     * cache
+     * @return the maximal number of objects waiting to be written to the
+     * databases
+     */
+    public int getWriteQueueSize() {
+        return writeQueueSize;
+    }
+
+    /**
+     * Sets the maximal number of objects waiting to be written to the
+     * databases. The new size is used when the write behind thread is
+     * started, i.e. upon first write or after closing the cache.
+     *
+     * @param writeQueueSize the maximal number of objects waiting to be
+     * written to the databases
+     */
+    public void setWriteQueueSize(int writeQueueSize) {
+        this.writeQueueSize = writeQueueSize;
+    }
+
+    /**
+     * Returns the share of the heap size used as maximal estimated size of
+     * the cache when no maximal cache weight is set.
+     *
+     * @return the share of heap size which can be used by the cache
      */
     public double getMemoryShare() {
         return memoryShare;
     }
 
     /**
-     * Sets the share of heap size which can be used before emptying the cache.
+     * Sets the share of the heap size used as maximal estimated size of the
+     * cache when no maximal cache weight is set.
      *
-     * @param memoryShare the share of heap size which can be used before
-     * emptying the cache
+     * @param memoryShare the share of heap size which can be used by the cache
      */
     public void setMemoryShare(double memoryShare) {
         this.memoryShare = memoryShare;
     }
 
+    /**
+     * Returns the maximal estimated size of the objects in cache in bytes. 0
+     * if the memory share is used.
+     *
+     * @return the maximal estimated size of the objects in cache in bytes
+     */
+    public long getMaxCacheWeight() {
+        return maxCacheWeight;
+    }
+
+    /**
+     * Sets the maximal estimated size of the objects in cache in bytes. Used
+     * in automated memory management mode. If 0, the share of the heap size
+     * given by the memory share is used.
+     *
+     * @param maxCacheWeight the maximal estimated size of the objects in cache
+     * in bytes
+     */
+    public void setMaxCacheWeight(long maxCacheWeight) {
+        this.maxCacheWeight = maxCacheWeight;
+    }
+
+    /**
+     * Returns the share of the cache reserved to the objects used more than
+     * once.
+     *
+     * @return the share of the cache reserved to the objects used more than
+     * once
+     */
+    public double getProtectedShare() {
+        return protectedShare;
+    }
+
+    /**
+     * Sets the share of the cache reserved to the objects used more than once.
+     *
+     * @param protectedShare the share of the cache reserved to the objects
+     * used more than once
+     */
+    public void setProtectedShare(double protectedShare) {
+        this.protectedShare = protectedShare;
+    }
+
+    /**
+     * Returns the estimated size of the objects in cache in bytes, including
+     * the objects waiting to be written to the databases.
+     *
+     * @return the estimated size of the objects in cache in bytes
+     */
+    public long getCacheWeight() {
+        return cacheWeight.get() + queuedWeight.get();
+    }
+
+    /**
+     * Returns the maximal estimated size of the objects in cache in bytes as
+     * used by the cache.
+     *
+     * @return the maximal estimated size of the objects in cache in bytes
+     */
+    private long getWeightLimit() {
+        if (maxCacheWeight > 0) {
+            return maxCacheWeight;
+        }
+        return (long) (memoryShare * Runtime.getRuntime().maxMemory());
+    }
+
     /**
      * Adds a database in the list of the databases handled by the cache. If a
      * database with the same name is already present it will be silently
@@ -191,16 +405,17 @@ public class ObjectsCache {
     public void removeObject(String dbName, String tableName, String objectKey) throws InterruptedException {
         if (!readOnly) {
             String cacheKey = getCacheKey(dbName, tableName, objectKey);
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.remove(cacheKey);
-            loadedObjectKeysMutex.release();
+            CacheStripe stripe = getStripe(cacheKey);
+            stripe.mutex.acquire();
+            removeFromSegments(stripe, cacheKey);
+            stripe.mutex.release();
             HashMap<String, HashMap<String, CacheEntry>> dbObjects = loadedObjectsMap.get(dbName);
             if (dbObjects != null) {
                 MapMutex<String> dbMutexMap = getMapMutex(dbName);
                 dbMutexMap.acquire(tableName);
                 HashMap<String, CacheEntry> tableObjects = dbObjects.get(tableName);
                 if (tableObjects != null) {
-                    tableObjects.remove(objectKey);
+                    dequeue(tableObjects.remove(objectKey));
                 }
                 dbMutexMap.release(tableName);
             }
@@ -243,8 +458,11 @@ public class ObjectsCache {
     public Object getObject(String dbName, String tableName, String objectKey) {
         CacheEntry entry = getEntry(dbName, tableName, objectKey);
         if (entry != null) {
+            entry.setAccessed(true);
+            nHits.incrementAndGet();
             return entry.getObject();
         } else {
+            nMisses.incrementAndGet();
             return null;
         }
     }
@@ -273,6 +491,12 @@ public class ObjectsCache {
                 if (entry != null && !readOnly) {
                     entry.setModified(true);
                     entry.setObject(object);
+                    entry.setAccessed(true);
+                    long weight = getEstimatedSize(objectKey, object);
+                    CacheStripe stripe = getStripe(getCacheKey(dbName, tableName, objectKey));
+                    stripe.mutex.acquire();
+                    updateWeight(stripe, entry, weight);
+                    stripe.mutex.release();
                     result = true;
                 }
                 dbMutexMap.release(tableName);
@@ -307,6 +531,7 @@ public class ObjectsCache {
             if (objectKey.contains(cacheSeparator)) {
                 throw new IllegalArgumentException("Object key (" + objectKey + ") should not contain " + cacheSeparator + ".");
             }
+            long weight = getEstimatedSize(objectKey, object);
             HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
             MapMutex<String> dbMutexMap = getMapMutex(dbName);
             dbMutexMap.acquire(tableName);
@@ -321,13 +546,30 @@ public class ObjectsCache {
                     dbCache.put(tableName, tableCache);
                 }
             }
-            if (!tableCache.containsKey(objectKey)) {
-                String key = getCacheKey(dbName, tableName, objectKey);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.add(key);
-                loadedObjectKeysMutex.release();
+            CacheEntry entry = tableCache.get(objectKey);
+            if (entry == null) {
+                entry = new CacheEntry(object, modifiedOrNew);
+                tableCache.put(objectKey, entry);
+            } else {
+                entry.setObject(object);
+                // an entry waiting to be written must stay modified
+                entry.setModified(entry.isModified() || modifiedOrNew);
+            }
+            String cacheKey = getCacheKey(dbName, tableName, objectKey);
+            CacheStripe stripe = getStripe(cacheKey);
+            stripe.mutex.acquire();
+            if (entry.getSegment() == CacheEntry.NO_SEGMENT) {
+                // an entry waiting to be written is counted in the segments again
+                dequeue(entry);
+                entry.setWeight(weight);
+                entry.setSegment(CacheEntry.PROBATION_SEGMENT);
+                stripe.probationSegment.put(cacheKey, entry);
+                cacheWeight.addAndGet(weight);
+                nObjects.incrementAndGet();
+            } else {
+                updateWeight(stripe, entry, weight);
             }
-            tableCache.put(objectKey, new CacheEntry(object, modifiedOrNew));
+            stripe.mutex.release();
             dbMutexMap.release(tableName);
             if (updateCache) {
                 updateCache();
@@ -336,11 +578,208 @@ public class ObjectsCache {
     }
 
     /**
-     * Indicates whether the memory used by the application is lower than 99% of
-     * the heap size.
+     * Returns the estimated size of a cache entry in bytes.
+     *
+     * @param objectKey the key of the object
+     * @param object the object
+     *
+     * @return the estimated size of the cache entry in bytes
+     */
+    private long getEstimatedSize(String objectKey, Object object) {
+        long size = ENTRY_OVERHEAD + 2 * objectKey.length();
+        if (object instanceof SizedObject) {
+            size += ((SizedObject) object).getEstimatedSize();
+        } else {
+            size += DEFAULT_OBJECT_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the stripe of the cache segments of a cache key.
+     *
+     * @param cacheKey the cache key
+     *
+     * @return the stripe of the cache segments
+     */
+    private CacheStripe getStripe(String cacheKey) {
+        return stripes[(cacheKey.hashCode() & Integer.MAX_VALUE) % N_STRIPES];
+    }
+
+    /**
+     * Updates the weight of an entry in the cache. The mutex of the stripe of
+     * the entry must be acquired by the caller.
+     *
+     * @param stripe the stripe of the entry
+     * @param entry the entry
+     * @param weight the new weight
+     */
+    private void updateWeight(CacheStripe stripe, CacheEntry entry, long weight) {
+        long delta = weight - entry.getWeight();
+        entry.setWeight(weight);
+        if (entry.getSegment() != CacheEntry.NO_SEGMENT) {
+            cacheWeight.addAndGet(delta);
+            if (entry.getSegment() == CacheEntry.PROTECTED_SEGMENT) {
+                stripe.protectedWeight += delta;
+            }
+        } else if (entry.isQueued()) {
+            queuedWeight.addAndGet(delta);
+        }
+    }
+
+    /**
+     * Stops counting the weight of an entry waiting to be written to its
+     * database, if queued. The table mutex of the entry must be acquired by
+     * the caller.
+     *
+     * @param entry the entry, can be null
+     */
+    private void dequeue(CacheEntry entry) {
+        if (entry != null && entry.isQueued()) {
+            entry.setQueued(false);
+            queuedWeight.addAndGet(-entry.getWeight());
+        }
+    }
+
+    /**
+     * Removes an entry from the segments of the cache. The mutex of the stripe
+     * must be acquired by the caller.
+     *
+     * @param stripe the stripe of the entry
+     * @param cacheKey the cache key of the entry
+     */
+    private void removeFromSegments(CacheStripe stripe, String cacheKey) {
+        CacheEntry entry = stripe.probationSegment.remove(cacheKey);
+        if (entry == null) {
+            entry = stripe.protectedSegment.remove(cacheKey);
+            if (entry != null) {
+                stripe.protectedWeight -= entry.getWeight();
+            }
+        }
+        if (entry != null) {
+            cacheWeight.addAndGet(-entry.getWeight());
+            nObjects.decrementAndGet();
+            entry.setSegment(CacheEntry.NO_SEGMENT);
+        }
+    }
+
+    /**
+     * Returns the number of objects in the segments of the cache.
+     *
+     * @return the number of objects in the segments of the cache
+     */
+    private int getnObjects() {
+        return nObjects.get();
+    }
+
+    /**
+     * Indicates whether the protected segment of a stripe exceeds its share
+     * of the cache.
+     *
+     * @param stripe the stripe
+     *
+     * @return a boolean indicating whether the protected segment exceeds its
+     * share of the cache
+     */
+    private boolean protectedSegmentFull(CacheStripe stripe) {
+        if (automatedMemoryManagement) {
+            return stripe.protectedWeight > protectedShare * getWeightLimit() / N_STRIPES;
+        }
+        return stripe.protectedSegment.size() > protectedShare * cacheSize / N_STRIPES;
+    }
+
+    /**
+     * Indicates whether the cache exceeds its size. In automated memory
+     * management mode, the objects waiting to be written count in the size.
+     *
+     * @return a boolean indicating whether the cache exceeds its size
+     */
+    private boolean cacheFull() {
+        if (automatedMemoryManagement) {
+            return cacheWeight.get() + queuedWeight.get() > getWeightLimit();
+        }
+        return getnObjects() > cacheSize;
+    }
+
+    /**
+     * Removes objects from the cache segments until the estimated size and
+     * number of objects are below the given targets, and returns their cache
+     * keys. The stripes are visited in turn, one object being removed per
+     * visit. Objects used since their last visit of the segments are given a
+     * second chance. Must be called with the cache monitor, the mutexes of the
+     * stripes are acquired by this method.
+     *
+     * @param targetWeight the targeted estimated size of the cache in bytes
+     * @param targetSize the targeted number of objects in cache
+     *
+     * @return the cache keys of the objects to evict
+     *
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private ArrayList<String> selectVictims(long targetWeight, int targetSize) throws InterruptedException {
+        ArrayList<String> victims = new ArrayList<String>();
+        int secondChances = 2 * getnObjects() + 1;
+        while ((cacheWeight.get() > targetWeight || getnObjects() > targetSize) && getnObjects() > 0) {
+            CacheStripe stripe = stripes[evictionStripe];
+            evictionStripe = (evictionStripe + 1) % N_STRIPES;
+            stripe.mutex.acquire();
+            LinkedHashMap<String, CacheEntry> probationSegment = stripe.probationSegment;
+            LinkedHashMap<String, CacheEntry> protectedSegment = stripe.protectedSegment;
+            if (!probationSegment.isEmpty()) {
+                Iterator<Map.Entry<String, CacheEntry>> it = probationSegment.entrySet().iterator();
+                Map.Entry<String, CacheEntry> mapEntry = it.next();
+                it.remove();
+                String cacheKey = mapEntry.getKey();
+                CacheEntry entry = mapEntry.getValue();
+                if (entry.isAccessed() && secondChances-- > 0) {
+                    entry.setAccessed(false);
+                    entry.setSegment(CacheEntry.PROTECTED_SEGMENT);
+                    protectedSegment.put(cacheKey, entry);
+                    stripe.protectedWeight += entry.getWeight();
+                    while (protectedSegmentFull(stripe) && protectedSegment.size() > 1) {
+                        Iterator<Map.Entry<String, CacheEntry>> protectedIt = protectedSegment.entrySet().iterator();
+                        Map.Entry<String, CacheEntry> demoted = protectedIt.next();
+                        protectedIt.remove();
+                        stripe.protectedWeight -= demoted.getValue().getWeight();
+                        demoted.getValue().setSegment(CacheEntry.PROBATION_SEGMENT);
+                        probationSegment.put(demoted.getKey(), demoted.getValue());
+                    }
+                } else {
+                    entry.setSegment(CacheEntry.NO_SEGMENT);
+                    cacheWeight.addAndGet(-entry.getWeight());
+                    nObjects.decrementAndGet();
+                    victims.add(cacheKey);
+                }
+            } else if (!protectedSegment.isEmpty()) {
+                Iterator<Map.Entry<String, CacheEntry>> it = protectedSegment.entrySet().iterator();
+                Map.Entry<String, CacheEntry> mapEntry = it.next();
+                it.remove();
+                CacheEntry entry = mapEntry.getValue();
+                stripe.protectedWeight -= entry.getWeight();
+                if (entry.isAccessed() && secondChances-- > 0) {
+                    entry.setAccessed(false);
+                    protectedSegment.put(mapEntry.getKey(), entry);
+                    stripe.protectedWeight += entry.getWeight();
+                } else {
+                    entry.setSegment(CacheEntry.NO_SEGMENT);
+                    cacheWeight.addAndGet(-entry.getWeight());
+                    nObjects.decrementAndGet();
+                    victims.add(mapEntry.getKey());
+                }
+            }
+            stripe.mutex.release();
+        }
+        nEvictions.addAndGet(victims.size());
+        return victims;
+    }
+
+    /**
+     * Indicates whether the memory used by the application is lower than the
+     * memory share of the heap size. Not used by the cache to evict objects as
+     * the heap usage only decreases after a garbage collection.
      *
      * @return a boolean indicating whether the memory used by the application
-     * is lower than 99% of the heap
+     * is lower than the memory share of the heap size
      */
     public boolean memoryCheck() {
         return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory() < (long) (memoryShare * Runtime.getRuntime().maxMemory());
@@ -406,6 +845,7 @@ public class ObjectsCache {
             // temporary map for batch saving
             HashMap<String, HashMap<String, HashMap<String, Object>>> toSave = new HashMap<String, HashMap<String, HashMap<String, Object>>>(1);
             HashMap<String, HashSet<String>> blockedTablesMap = new HashMap<String, HashSet<String>>(1);
+            int nToSave = 0;
             for (String entryKey : entryKeys) {
                 String[] splittedKey = getKeyComponents(entryKey);
                 String dbName = splittedKey[0];
@@ -437,6 +877,7 @@ public class ObjectsCache {
                         dbMap.put(tableName, tableMap);
                     }
                     tableMap.put(objectKey, entry.getObject());
+                    nToSave++;
                 }
 
                 if (waitingHandler != null) {
@@ -446,12 +887,18 @@ public class ObjectsCache {
                     }
                 }
             }
+            long start = System.nanoTime();
             for (String dbName : toSave.keySet()) {
                 ObjectsDB objectsDB = databases.get(dbName);
                 for (String tableName : toSave.get(dbName).keySet()) {
                     objectsDB.insertObjects(tableName, toSave.get(dbName).get(tableName), waitingHandler);
                 }
             }
+            if (nToSave > 0) {
+                writeBackTime.addAndGet(System.nanoTime() - start);
+                nWrittenObjects.addAndGet(nToSave);
+                nWriteBacks.incrementAndGet();
+            }
             if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
                 if (clearEntries) {
                     for (String entryKey : entryKeys) {
@@ -463,6 +910,14 @@ public class ObjectsCache {
                         if (dbMap != null) {
                             HashMap<String, CacheEntry> tableMap = dbMap.get(tableName);
                             if (tableMap != null) {
+                                CacheEntry entry = tableMap.get(objectKey);
+                                if (entry != null && entry.getSegment() != CacheEntry.NO_SEGMENT) {
+                                    CacheStripe stripe = getStripe(entryKey);
+                                    stripe.mutex.acquire();
+                                    removeFromSegments(stripe, entryKey);
+                                    stripe.mutex.release();
+                                }
+                                dequeue(entry);
                                 tableMap.remove(objectKey);
                                 if (tableMap.isEmpty()) {
                                     dbMap.remove(tableName);
@@ -534,6 +989,7 @@ public class ObjectsCache {
             mapMutex.acquire(tableName);
             CacheEntry entry = loadedObjectsMap.get(dbName).get(tableName).get(objectKey);
             if (entry.isModified()) {
+                long start = System.nanoTime();
                 try {
                     ObjectsDB objectsDB = databases.get(dbName);
                     if (objectsDB == null) {
@@ -551,14 +1007,18 @@ public class ObjectsCache {
                     e.printStackTrace();
                     throw new SQLException("Error while writing match " + objectKey + " in table " + tableName + " in database" + dbName + ".");
                 }
+                writeBackTime.addAndGet(System.nanoTime() - start);
+                nWrittenObjects.incrementAndGet();
+                nWriteBacks.incrementAndGet();
             }
             if (clearEntry) {
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.remove(entryKey);
-                loadedObjectKeysMutex.release();
+                CacheStripe stripe = getStripe(entryKey);
+                stripe.mutex.acquire();
+                removeFromSegments(stripe, entryKey);
+                stripe.mutex.release();
                 HashMap<String, HashMap<String, ObjectsCache.CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
                 HashMap<String, ObjectsCache.CacheEntry> tableCache = dbCache.get(tableName);
-                tableCache.remove(objectKey);
+                dequeue(tableCache.remove(objectKey));
                 if (tableCache.isEmpty()) {
                     dbCache.remove(tableName);
                 }
@@ -583,7 +1043,12 @@ public class ObjectsCache {
     }
 
     /**
-     * Updates the cache according to the memory settings.
+     * Updates the cache according to the memory settings. In automated memory
+     * management mode, objects are evicted until the cache is filled at 75% of
+     * its byte budget to avoid frequent small write backs. The heap usage is
+     * not used as it only decreases after a garbage collection. Modified
+     * objects are queued for writing, this method only waits if the write
+     * queue is full.
      *
      * @throws SQLException exception thrown whenever an error occurred while
      * adding the object in the database
@@ -593,28 +1058,346 @@ public class ObjectsCache {
      */
     public synchronized void updateCacheSynchronized() throws IOException, SQLException, InterruptedException {
         updating = true;
-        while ((!automatedMemoryManagement && loadedObjectsKeys.size() > cacheSize)
-                || (automatedMemoryManagement && !memoryCheck())) {
-            int toRemove = (int) (((double) loadedObjectsKeys.size()) * 0.25); // remove 25% of the objects from the cache
-            if (toRemove <= 1) {
-                loadedObjectKeysMutex.acquire();
-                String objectKey = loadedObjectsKeys.take();
-                loadedObjectKeysMutex.release();
-                saveObject(objectKey);
+        while (cacheFull()) {
+            ArrayList<String> keysToRemove;
+            if (automatedMemoryManagement) {
+                keysToRemove = selectVictims((long) (0.75 * getWeightLimit()) - queuedWeight.get(), Integer.MAX_VALUE);
             } else {
-                ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-                loadedObjectKeysMutex.acquire();
-                loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-                loadedObjectKeysMutex.release();
-                saveObjects(keysToRemove);
+                keysToRemove = selectVictims(Long.MAX_VALUE, cacheSize);
             }
-            if (loadedObjectsKeys.isEmpty()) {
+            evictObjects(keysToRemove);
+            if (getnObjects() == 0) {
                 break;
             }
         }
         updating = false;
     }
 
+    /**
+     * Removes objects taken out of the cache segments from the cache. Objects
+     * not modified are removed directly, modified objects are queued for
+     * writing and removed when written.
+     *
+     * @param cacheKeys the cache keys of the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void evictObjects(ArrayList<String> cacheKeys) throws IOException, SQLException, InterruptedException {
+        ArrayList<String> toWrite = new ArrayList<String>(cacheKeys.size());
+        for (String cacheKey : cacheKeys) {
+            String[] splittedKey = getKeyComponents(cacheKey);
+            String dbName = splittedKey[0];
+            String tableName = splittedKey[1];
+            String objectKey = splittedKey[2];
+            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
+            if (dbCache != null) {
+                MapMutex<String> mapMutex = getMapMutex(dbName);
+                mapMutex.acquire(tableName);
+                HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
+                if (tableCache != null) {
+                    CacheEntry entry = tableCache.get(objectKey);
+                    if (entry != null && entry.getSegment() == CacheEntry.NO_SEGMENT) {
+                        if (entry.isModified()) {
+                            if (!entry.isQueued()) {
+                                entry.setQueued(true);
+                                queuedWeight.addAndGet(entry.getWeight());
+                            }
+                            toWrite.add(cacheKey);
+                        } else {
+                            tableCache.remove(objectKey);
+                        }
+                    }
+                }
+                mapMutex.release(tableName);
+            }
+        }
+        // queue outside the table mutexes, they are needed to empty the queue
+        for (String cacheKey : toWrite) {
+            queueWrite(cacheKey);
+        }
+    }
+
+    /**
+     * Queues an object to be written to its database by the write behind
+     * thread. Waits if the queue is full.
+     *
+     * @param cacheKey the cache key of the object
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing previously queued objects
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void queueWrite(String cacheKey) throws IOException, SQLException, InterruptedException {
+        checkWriteBehindException();
+        ArrayBlockingQueue<String> queue;
+        synchronized (writeMonitor) {
+            if (writeBehindThread == null) {
+                startWriteBehindThread();
+            }
+            queue = writeQueue;
+            nPendingWrites++;
+        }
+        if (!queue.offer(cacheKey)) {
+            long start = System.nanoTime();
+            queue.put(cacheKey);
+            writeQueueWaitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts the thread writing the queued objects to the databases. The
+     * write monitor must be held by the caller.
+     */
+    private void startWriteBehindThread() {
+        final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<String>(Math.max(writeQueueSize, 1));
+        writeQueue = queue;
+        writeBehindThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    ArrayList<String> batch = new ArrayList<String>();
+                    try {
+                        batch.add(queue.take());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    queue.drainTo(batch, Math.max(batchSize, 1) - 1);
+                    boolean end = batch.remove(WRITE_QUEUE_END);
+                    try {
+                        writeObjects(batch);
+                    } catch (Exception e) {
+                        if (writeBehindException == null) {
+                            writeBehindException = e;
+                        }
+                        try {
+                            dequeue(batch);
+                        } catch (InterruptedException ie) {
+                            end = true;
+                        }
+                    } finally {
+                        synchronized (writeMonitor) {
+                            nPendingWrites -= batch.size();
+                            writeMonitor.notifyAll();
+                        }
+                    }
+                    if (end) {
+                        return;
+                    }
+                }
+            }
+        }, "ObjectsCache write behind");
+        writeBehindThread.setDaemon(true);
+        writeBehindThread.start();
+    }
+
+    /**
+     * Writes a batch of queued objects to their databases and removes them
+     * from the cache unless they were added back to the cache segments in the
+     * meantime. Objects failing to be written stay in the cache as modified
+     * and will be saved with the cache.
+     *
+     * @param cacheKeys the cache keys of the objects
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding the object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void writeObjects(ArrayList<String> cacheKeys) throws IOException, SQLException, InterruptedException {
+        HashMap<String, HashMap<String, ArrayList<String>>> keysMap = new HashMap<String, HashMap<String, ArrayList<String>>>(1);
+        for (String cacheKey : cacheKeys) {
+            String[] splittedKey = getKeyComponents(cacheKey);
+            HashMap<String, ArrayList<String>> dbKeys = keysMap.get(splittedKey[0]);
+            if (dbKeys == null) {
+                dbKeys = new HashMap<String, ArrayList<String>>(1);
+                keysMap.put(splittedKey[0], dbKeys);
+            }
+            ArrayList<String> tableKeys = dbKeys.get(splittedKey[1]);
+            if (tableKeys == null) {
+                tableKeys = new ArrayList<String>();
+                dbKeys.put(splittedKey[1], tableKeys);
+            }
+            tableKeys.add(splittedKey[2]);
+        }
+        for (String dbName : keysMap.keySet()) {
+            ObjectsDB objectsDB = databases.get(dbName);
+            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(dbName);
+            if (objectsDB == null || dbCache == null) {
+                throw new IllegalStateException("Database " + dbName + " not loaded in cache");
+            }
+            MapMutex<String> mapMutex = getMapMutex(dbName);
+            HashMap<String, ArrayList<String>> dbKeys = keysMap.get(dbName);
+            for (String tableName : dbKeys.keySet()) {
+                // the table mutex is kept while writing so that the objects cannot be edited or deleted in the meantime
+                mapMutex.acquire(tableName);
+                try {
+                    HashMap<String, CacheEntry> tableCache = dbCache.get(tableName);
+                    if (tableCache == null) {
+                        continue;
+                    }
+                    ArrayList<String> tableKeys = dbKeys.get(tableName);
+                    HashMap<String, Object> objectsToStore = new HashMap<String, Object>(tableKeys.size());
+                    for (String objectKey : tableKeys) {
+                        CacheEntry entry = tableCache.get(objectKey);
+                        if (entry != null && entry.isModified()) {
+                            objectsToStore.put(objectKey, entry.getObject());
+                        }
+                    }
+                    if (!objectsToStore.isEmpty()) {
+                        long start = System.nanoTime();
+                        objectsDB.insertObjects(tableName, objectsToStore, null);
+                        writeBackTime.addAndGet(System.nanoTime() - start);
+                        nWrittenObjects.addAndGet(objectsToStore.size());
+                        nWriteBacks.incrementAndGet();
+                    }
+                    for (String objectKey : tableKeys) {
+                        CacheEntry entry = tableCache.get(objectKey);
+                        if (entry != null) {
+                            dequeue(entry);
+                            entry.setModified(false);
+                            if (entry.getSegment() == CacheEntry.NO_SEGMENT) {
+                                tableCache.remove(objectKey);
+                            }
+                        }
+                    }
+                } finally {
+                    mapMutex.release(tableName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops counting the weight of the entries of a batch which could not be
+     * written. The entries stay in the cache as modified and will be saved
+     * with the cache.
+     *
+     * @param cacheKeys the cache keys of the entries
+     *
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    private void dequeue(ArrayList<String> cacheKeys) throws InterruptedException {
+        for (String cacheKey : cacheKeys) {
+            String[] splittedKey = getKeyComponents(cacheKey);
+            HashMap<String, HashMap<String, CacheEntry>> dbCache = loadedObjectsMap.get(splittedKey[0]);
+            if (dbCache != null) {
+                MapMutex<String> mapMutex = getMapMutex(splittedKey[0]);
+                mapMutex.acquire(splittedKey[1]);
+                HashMap<String, CacheEntry> tableCache = dbCache.get(splittedKey[1]);
+                if (tableCache != null) {
+                    dequeue(tableCache.get(splittedKey[2]));
+                }
+                mapMutex.release(splittedKey[1]);
+            }
+        }
+    }
+
+    /**
+     * Throws the exception encountered by the write behind thread, if any,
+     * and clears it.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding an object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws java.lang.InterruptedException if the write behind thread was
+     * interrupted
+     */
+    private void checkWriteBehindException() throws IOException, SQLException, InterruptedException {
+        Exception e = writeBehindException;
+        if (e != null) {
+            writeBehindException = null;
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            } else if (e instanceof SQLException) {
+                throw (SQLException) e;
+            } else if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            throw new IOException("Error while writing objects to the database.", e);
+        }
+    }
+
+    /**
+     * Waits until the objects queued for writing are written to their
+     * databases.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding an object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void flush() throws IOException, SQLException, InterruptedException {
+        synchronized (writeMonitor) {
+            while (nPendingWrites > 0 && writeBehindThread != null && writeBehindThread.isAlive()) {
+                writeMonitor.wait(100);
+            }
+        }
+        checkWriteBehindException();
+    }
+
+    /**
+     * Writes the queued objects to their databases and stops the write behind
+     * thread once its current write is done. The thread is started again upon
+     * next write. Note that the objects in cache are not saved, see
+     * saveCache.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * adding an object in the database
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing an object
+     * @throws java.lang.InterruptedException if the thread is interrupted
+     */
+    public void close() throws IOException, SQLException, InterruptedException {
+        try {
+            flush();
+        } finally {
+            Thread thread;
+            ArrayBlockingQueue<String> queue;
+            synchronized (writeMonitor) {
+                thread = writeBehindThread;
+                queue = writeQueue;
+                writeBehindThread = null;
+                writeQueue = null;
+            }
+            if (thread != null) {
+                // the thread stops after the objects queued, interrupting it could abort a database write
+                queue.put(WRITE_QUEUE_END);
+                thread.join();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of objects waiting to be written to the databases.
+     *
+     * @return the number of objects waiting to be written to the databases
+     */
+    public int getnPendingWrites() {
+        synchronized (writeMonitor) {
+            return nPendingWrites;
+        }
+    }
+
+    /**
+     * Returns the time spent waiting for space in the write queue since the
+     * last reset of the statistics in nanoseconds.
+     *
+     * @return the time spent waiting for space in the write queue in
+     * nanoseconds
+     */
+    public long getWriteQueueWaitTime() {
+        return writeQueueWaitTime.get();
+    }
+
     /**
      * Reduces the memory consumption by saving the given share of cache
      * content.
@@ -653,11 +1436,8 @@ public class ObjectsCache {
      */
     private synchronized void reduceMemoryConsumptionSynchronized(double share, WaitingHandler waitingHandler) throws IOException, SQLException, InterruptedException {
         reducingMemoryConsumption = true;
-        int toRemove = (int) (share * loadedObjectsKeys.size());
-        ArrayList<String> keysToRemove = new ArrayList<String>(toRemove);
-        loadedObjectKeysMutex.acquire();
-        loadedObjectsKeys.drainTo(keysToRemove, toRemove);
-        loadedObjectKeysMutex.release();
+        int toRemove = (int) (share * getnObjects());
+        ArrayList<String> keysToRemove = selectVictims(Long.MAX_VALUE, getnObjects() - toRemove);
         saveObjects(keysToRemove, waitingHandler);
         reducingMemoryConsumption = false;
     }
@@ -675,7 +1455,8 @@ public class ObjectsCache {
     }
 
     /**
-     * Saves the cache content in the database.
+     * Saves the cache content in the database. The objects queued for writing
+     * are written first.
      *
      * @param waitingHandler a waiting handler on which the progress will be
      * @param emptyCache boolean indicating whether the cache content shall be
@@ -689,8 +1470,10 @@ public class ObjectsCache {
      */
     public synchronized void saveCache(WaitingHandler waitingHandler, boolean emptyCache) throws IOException, SQLException, InterruptedException {
 
+        flush();
+
         if (waitingHandler != null) {
-            waitingHandler.setMaxSecondaryProgressCounter((loadedObjectsKeys.size() * 2) + 1);
+            waitingHandler.setMaxSecondaryProgressCounter((getnObjects() * 2) + 1);
             waitingHandler.setSecondaryProgressCounterIndeterminate(false);
             waitingHandler.setSecondaryProgressCounter(0);
         }
@@ -724,7 +1507,13 @@ public class ObjectsCache {
                     }
                 }
 
+                long start = System.nanoTime();
                 objectsDB.insertObjects(tableName, objectsToStore, waitingHandler);
+                if (!objectsToStore.isEmpty()) {
+                    writeBackTime.addAndGet(System.nanoTime() - start);
+                    nWrittenObjects.addAndGet(objectsToStore.size());
+                    nWriteBacks.incrementAndGet();
+                }
 
                 mapMutex.release(tableName);
             }
@@ -732,10 +1521,105 @@ public class ObjectsCache {
 
         if (emptyCache && !readOnly) {
             loadedObjectsMap.clear();
-            loadedObjectKeysMutex.acquire();
-            loadedObjectsKeys.clear();
-            loadedObjectKeysMutex.release();
+            for (CacheStripe stripe : stripes) {
+                stripe.mutex.acquire();
+                stripe.probationSegment.clear();
+                stripe.protectedSegment.clear();
+                stripe.protectedWeight = 0;
+                stripe.mutex.release();
+            }
+            cacheWeight.set(0);
+            nObjects.set(0);
+            queuedWeight.set(0);
+        }
+    }
+
+    /**
+     * Returns the number of objects found in cache since the last reset of
+     * the statistics.
+     *
+     * @return the number of objects found in cache
+     */
+    public long getnHits() {
+        return nHits.get();
+    }
+
+    /**
+     * Returns the number of objects not found in cache since the last reset
+     * of the statistics.
+     *
+     * @return the number of objects not found in cache
+     */
+    public long getnMisses() {
+        return nMisses.get();
+    }
+
+    /**
+     * Returns the share of objects found in cache since the last reset of the
+     * statistics. NaN if no object was queried.
+     *
+     * @return the share of objects found in cache
+     */
+    public double getHitRate() {
+        long hits = nHits.get();
+        long total = hits + nMisses.get();
+        if (total == 0) {
+            return Double.NaN;
         }
+        return ((double) hits) / total;
+    }
+
+    /**
+     * Returns the number of objects evicted from the cache since the last
+     * reset of the statistics.
+     *
+     * @return the number of objects evicted from the cache
+     */
+    public long getnEvictions() {
+        return nEvictions.get();
+    }
+
+    /**
+     * Returns the number of objects written to the databases since the last
+     * reset of the statistics.
+     *
+     * @return the number of objects written to the databases
+     */
+    public long getnWrittenObjects() {
+        return nWrittenObjects.get();
+    }
+
+    /**
+     * Returns the number of batches of objects written to the databases since
+     * the last reset of the statistics.
+     *
+     * @return the number of batches of objects written to the databases
+     */
+    public long getnWriteBacks() {
+        return nWriteBacks.get();
+    }
+
+    /**
+     * Returns the time spent writing objects to the databases since the last
+     * reset of the statistics in nanoseconds.
+     *
+     * @return the time spent writing objects to the databases in nanoseconds
+     */
+    public long getWriteBackTime() {
+        return writeBackTime.get();
+    }
+
+    /**
+     * Resets the statistics of the cache.
+     */
+    public void resetStatistics() {
+        nHits.set(0);
+        nMisses.set(0);
+        nEvictions.set(0);
+        nWrittenObjects.set(0);
+        nWriteBacks.set(0);
+        writeBackTime.set(0);
+        writeQueueWaitTime.set(0);
     }
 
     /**
@@ -771,7 +1655,7 @@ public class ObjectsCache {
      * @return a boolean indicating whether the cache is empty
      */
     public boolean isEmpty() {
-        return loadedObjectsKeys.isEmpty();
+        return getnObjects() == 0;
     }
 
     /**
@@ -791,13 +1675,15 @@ public class ObjectsCache {
      *
      * @return the map mutex corresponding to the database
      */
-    private synchronized MapMutex<String> addMapMutex(String dbName) {
-        MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
-        if (mapMutex == null) {
-            mapMutex = new MapMutex<String>();
-            dbCacheMutexMap.put(dbName, mapMutex);
+    private MapMutex<String> addMapMutex(String dbName) {
+        synchronized (dbCacheMutexMap) {
+            MapMutex<String> mapMutex = dbCacheMutexMap.get(dbName);
+            if (mapMutex == null) {
+                mapMutex = new MapMutex<String>();
+                dbCacheMutexMap.put(dbName, mapMutex);
+            }
+            return mapMutex;
         }
-        return mapMutex;
     }
 
     /**
@@ -815,11 +1701,48 @@ public class ObjectsCache {
         return dbMutexMap;
     }
 
+    /**
+     * Stripe of the cache segments.
+     */
+    private class CacheStripe {
+
+        /**
+         * Mutex for the edition of the segments of the stripe.
+         */
+        private final Semaphore mutex = new Semaphore(1);
+        /**
+         * The probation segment: objects loaded and not used since, indexed by
+         * cache key, the least recently used first.
+         */
+        private final LinkedHashMap<String, CacheEntry> probationSegment = new LinkedHashMap<String, CacheEntry>();
+        /**
+         * The protected segment: objects used after being loaded, indexed by
+         * cache key, the least recently used first.
+         */
+        private final LinkedHashMap<String, CacheEntry> protectedSegment = new LinkedHashMap<String, CacheEntry>();
+        /**
+         * The estimated size of the objects in the protected segment in bytes.
+         */
+        private long protectedWeight = 0;
+    }
+
     /**
      * Class representing a cache entry.
      */
     private class CacheEntry {
 
+        /**
+         * Segment value for an entry not in the cache segments.
+         */
+        public static final int NO_SEGMENT = 0;
+        /**
+         * Segment value for an entry in the probation segment.
+         */
+        public static final int PROBATION_SEGMENT = 1;
+        /**
+         * Segment value for an entry in the protected segment.
+         */
+        public static final int PROTECTED_SEGMENT = 2;
         /**
          * The object of this entry.
          */
@@ -830,6 +1753,24 @@ public class ObjectsCache {
          * the cache is emptied.
          */
         private boolean modified;
+        /**
+         * The estimated size of the entry in bytes.
+         */
+        private long weight = 0;
+        /**
+         * A boolean indicating whether the entry was used since its last
+         * visit of the cache segments.
+         */
+        private volatile boolean accessed = false;
+        /**
+         * The segment of the cache containing this entry.
+         */
+        private volatile int segment = NO_SEGMENT;
+        /**
+         * A boolean indicating whether the entry is waiting to be written and
+         * its weight counted as such, guarded by the table mutex.
+         */
+        private boolean queued = false;
 
         /**
          * Constructor.
@@ -881,5 +1822,81 @@ public class ObjectsCache {
         public void setObject(Object object) {
             this.object = object;
         }
+
+        /**
+         * Returns the estimated size of the entry in bytes.
+         *
+         * @return the estimated size of the entry in bytes
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Sets the estimated size of the entry in bytes.
+         *
+         * @param weight the estimated size of the entry in bytes
+         */
+        public void setWeight(long weight) {
+            this.weight = weight;
+        }
+
+        /**
+         * Indicates whether the entry was used since its last visit of the
+         * cache segments.
+         *
+         * @return a boolean indicating whether the entry was used
+         */
+        public boolean isAccessed() {
+            return accessed;
+        }
+
+        /**
+         * Sets whether the entry was used since its last visit of the cache
+         * segments.
+         *
+         * @param accessed a boolean indicating whether the entry was used
+         */
+        public void setAccessed(boolean accessed) {
+            this.accessed = accessed;
+        }
+
+        /**
+         * Returns the segment of the cache containing this entry.
+         *
+         * @return the segment of the cache containing this entry
+         */
+        public int getSegment() {
+            return segment;
+        }
+
+        /**
+         * Sets the segment of the cache containing this entry.
+         *
+         * @param segment the segment of the cache containing this entry
+         */
+        public void setSegment(int segment) {
+            this.segment = segment;
+        }
+
+        /**
+         * Indicates whether the entry is waiting to be written.
+         *
+         * @return a boolean indicating whether the entry is waiting to be
+         * written
+         */
+        public boolean isQueued() {
+            return queued;
+        }
+
+        /**
+         * Sets whether the entry is waiting to be written.
+         *
+         * @param queued a boolean indicating whether the entry is waiting to
+         * be written
+         */
+        public void setQueued(boolean queued) {
+            this.queued = queued;
+        }
     }
 }
@@ -7,7 +7,12 @@ import java.sql.*;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.sql.rowset.serial.SerialBlob;
 
 /**
@@ -111,9 +116,52 @@ public class ObjectsDB implements Serializable {
      */
     private boolean loading = false;
     /**
-     * Mutex for the interaction with the database.
+     * Mutex for the writer connection to the database.
      */
     private Semaphore dbMutex = new Semaphore(1);
+    /**
+     * The default number of read only connections to open on the database.
+     */
+    public static final int DEFAULT_N_READ_CONNECTIONS = 4;
+    /**
+     * The number of read only connections to open on the database.
+     */
+    private int nReadConnections = DEFAULT_N_READ_CONNECTIONS;
+    /**
+     * The pool of read only connections to the database.
+     */
+    private transient volatile ArrayBlockingQueue<PooledConnection> readConnections;
+    /**
+     * Indicates whether read only connections can be acquired. When the
+     * database is closed, the connections in use are still returned to the
+     * pool where they are closed.
+     */
+    private transient volatile boolean readConnectionsOpen = false;
+    /**
+     * The writer connection with its prepared statements.
+     */
+    private transient PooledConnection writeConnection;
+    /**
+     * Read/write locks of the tables indexed by table name. Reads on a table
+     * can run concurrently, writes are exclusive.
+     */
+    private transient ConcurrentHashMap<String, ReentrantReadWriteLock> tableLocks;
+    /**
+     * The time spent waiting for read access in nanoseconds.
+     */
+    private transient AtomicLong readWaitTime;
+    /**
+     * The number of read accesses.
+     */
+    private transient AtomicLong nReads;
+    /**
+     * The time spent waiting for write access in nanoseconds.
+     */
+    private transient AtomicLong writeWaitTime;
+    /**
+     * The number of write accesses.
+     */
+    private transient AtomicLong nWrites;
     /**
      * A queue of entire tables to load.
      */
@@ -174,6 +222,35 @@ public class ObjectsDB implements Serializable {
      * threading error occurred while establishing the connection
      */
     public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        this(folder, dbName, deleteOldDatabase, objectsCache, DEFAULT_N_READ_CONNECTIONS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param folder absolute path of the folder where to establish the database
+     * @param dbName name of the database
+     * @param deleteOldDatabase if true, tries to delete the old database
+     * @param objectsCache a cache to store objects without interacting with the
+     * database
+     * @param nReadConnections the number of read only connections to open on
+     * the database, reads on different connections can be conducted
+     * concurrently
+     *
+     * @throws SQLException exception thrown whenever a problem occurred when
+     * establishing the connection to the database
+     * @throws java.io.IOException exception thrown whenever an error occurred
+     * while reading or writing a file
+     * @throws java.lang.ClassNotFoundException exception thrown whenever an
+     * error occurred while deserializing a file
+     * @throws java.lang.InterruptedException exception thrown whenever a
+     * threading error occurred while establishing the connection
+     */
+    public ObjectsDB(String folder, String dbName, boolean deleteOldDatabase, ObjectsCache objectsCache, int nReadConnections) throws SQLException, IOException, ClassNotFoundException, InterruptedException {
+        if (nReadConnections < 1) {
+            throw new IllegalArgumentException("At least one read connection is needed.");
+        }
+        this.nReadConnections = nReadConnections;
         this.dbName = dbName;
         objectsCache.addDb(this);
         establishConnection(folder, deleteOldDatabase, objectsCache);
@@ -351,30 +428,19 @@ public class ObjectsDB implements Serializable {
         if (usedTables != null) {
             usedTables.add(tableName);
         }
-        dbMutex.acquire();
-        PreparedStatement ps = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+        acquireWriteLock(tableName);
         try {
+            PreparedStatement ps = writeConnection.getStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
             ps.setString(1, correctedKey);
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try {
-                ObjectOutputStream oos = new ObjectOutputStream(bos);
-                try {
-                    oos.writeObject(object);
-                } finally {
-                    oos.close();
-                }
-            } finally {
-                bos.close();
-            }
-            ps.setBytes(2, bos.toByteArray());
+            ps.setBytes(2, BlobCodec.serialize(object));
             ps.executeUpdate();
+
+            synchronized (tablesContentCache) {
+                tablesContentCache.remove(tableName);
+            }
         } finally {
-            ps.close();
+            releaseWriteLock(tableName);
         }
-
-        tablesContentCache.remove(tableName);
-
-        dbMutex.release();
     }
 
     /**
@@ -400,7 +466,7 @@ public class ObjectsDB implements Serializable {
             usedTables.add(tableName);
         }
 
-        dbMutex.acquire();
+        acquireWriteLock(tableName);
 
         dbConnection.setAutoCommit(false);
 
@@ -438,29 +504,17 @@ public class ObjectsDB implements Serializable {
                 if (tableContent.contains(correctedKey)) {
                     updateKeys.put(objectKey, correctedKey);
                 } else {
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    try {
-                        ObjectOutputStream oos = new ObjectOutputStream(bos);
-                        try {
-
-                            oos.writeObject(objects.get(objectKey));
-                            insertStatement.setString(1, correctedKey);
-                            insertStatement.setBytes(2, bos.toByteArray());
-                            insertStatement.addBatch();
-
-                            if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                                insertStatement.executeBatch();
-                                insertStatement.clearParameters();
-                                dbConnection.commit();
-                                insertStatement.close();
-                                insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
-                                rowCounter = 0;
-                            }
-                        } finally {
-                            oos.close();
-                        }
-                    } finally {
-                        bos.close();
+                    insertStatement.setString(1, correctedKey);
+                    insertStatement.setBytes(2, BlobCodec.serialize(objects.get(objectKey)));
+                    insertStatement.addBatch();
+
+                    if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                        insertStatement.executeBatch();
+                        insertStatement.clearParameters();
+                        dbConnection.commit();
+                        insertStatement.close();
+                        insertStatement = dbConnection.prepareStatement("INSERT INTO " + tableName + " VALUES (?, ?)");
+                        rowCounter = 0;
                     }
 
                     addedKeys.add(correctedKey);
@@ -513,29 +567,17 @@ public class ObjectsDB implements Serializable {
                     debugContentWriter.flush();
                 }
 
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(objects.get(objectKey));
-
-                        updateStatement.setString(2, correctedKey);
-                        updateStatement.setBytes(1, bos.toByteArray());
-                        updateStatement.addBatch();
-
-                        if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
-                            updateStatement.executeBatch();
-                            updateStatement.clearParameters();
-                            dbConnection.commit();
-                            updateStatement.close();
-                            updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
-                            rowCounter = 0;
-                        }
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
+                updateStatement.setString(2, correctedKey);
+                updateStatement.setBytes(1, BlobCodec.serialize(objects.get(objectKey)));
+                updateStatement.addBatch();
+
+                if ((++rowCounter) % objectsCache.getBatchSize() == 0) {
+                    updateStatement.executeBatch();
+                    updateStatement.clearParameters();
+                    dbConnection.commit();
+                    updateStatement.close();
+                    updateStatement = dbConnection.prepareStatement("UPDATE " + tableName + " SET MATCH_BLOB=? WHERE NAME=?");
+                    rowCounter = 0;
                 }
 
                 if (waitingHandler != null) {
@@ -558,7 +600,7 @@ public class ObjectsDB implements Serializable {
         }
         dbConnection.setAutoCommit(true);
 
-        dbMutex.release();
+        releaseWriteLock(tableName);
     }
 
     /**
@@ -592,17 +634,19 @@ public class ObjectsDB implements Serializable {
                     waitingHandler.setSecondaryProgressCounterIndeterminate(true);
 
                     // note that using the count statement might take a couple of seconds for a big table, but still better than an indeterminate progressbar.
-                    dbMutex.acquire();
-                    Statement rowCountStatement = dbConnection.createStatement();
+                    PooledConnection connection = acquireReadConnection(tableName);
                     Integer numberOfRows = null;
                     try {
-                        results = rowCountStatement.executeQuery("select count(*) from " + tableName);
-                        results.next();
-                        numberOfRows = results.getInt(1);
+                        results = connection.getStatement("select count(*) from " + tableName).executeQuery();
+                        try {
+                            results.next();
+                            numberOfRows = results.getInt(1);
+                        } finally {
+                            results.close();
+                        }
                     } finally {
-                        rowCountStatement.close();
+                        releaseReadConnection(tableName, connection);
                     }
-                    dbMutex.release();
 
                     if (numberOfRows != null) {
                         waitingHandler.setSecondaryProgressCounterIndeterminate(false);
@@ -613,67 +657,52 @@ public class ObjectsDB implements Serializable {
 
                 HashMap<String, Object> objectsFromDb = new HashMap<String, Object>();
 
-                dbMutex.acquire();
+                PooledConnection connection = acquireReadConnection(tableName);
                 loading = true;
 
                 try {
-                    Statement stmt = dbConnection.createStatement();
-                    try {
-                        results = stmt.executeQuery("select * from " + tableName);
+                    results = connection.getStatement("select * from " + tableName).executeQuery();
 
-                        try {
-                            while (results.next()) {
+                    try {
+                        while (results.next()) {
 
-                                if (waitingHandler != null) {
-                                    if (waitingHandler.isRunCanceled()) {
-                                        break;
-                                    }
-                                    if (displayProgress) {
-                                        waitingHandler.increaseSecondaryProgressCounter();
-                                    }
+                            if (waitingHandler != null) {
+                                if (waitingHandler.isRunCanceled()) {
+                                    break;
+                                }
+                                if (displayProgress) {
+                                    waitingHandler.increaseSecondaryProgressCounter();
                                 }
+                            }
 
-                                String key = results.getString(1);
+                            String key = results.getString(1);
 
-                                if (!objectsCache.inCache(dbName, tableName, key)) {
+                            if (!objectsCache.inCache(dbName, tableName, key)) {
 
-                                    Blob tempBlob;
+                                Blob tempBlob;
 
-                                    if (useSQLite) {
-                                        byte[] bytes = results.getBytes(2);
-                                        tempBlob = new SerialBlob(bytes);
-                                    } else {
-                                        tempBlob = results.getBlob(2);
-                                    }
-
-                                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                    try {
-                                        ObjectInputStream in = new ObjectInputStream(bis);
-                                        try {
-                                            Object object = in.readObject();
-                                            objectsFromDb.put(key, object);
-                                        } finally {
-                                            in.close();
-                                        }
-                                    } finally {
-                                        bis.close();
-                                    }
+                                if (useSQLite) {
+                                    byte[] bytes = results.getBytes(2);
+                                    tempBlob = new SerialBlob(bytes);
+                                } else {
+                                    tempBlob = results.getBlob(2);
                                 }
+
+                                Object object = BlobCodec.deserialize(tempBlob.getBinaryStream());
+                                objectsFromDb.put(key, object);
                             }
+                        }
 
-                            tableQueue.remove(tableName);
+                        tableQueue.remove(tableName);
 
-                        } finally {
-                            results.close();
-                        }
                     } finally {
-                        stmt.close();
+                        results.close();
                     }
 
                 } finally {
                     loading = false;
+                    releaseReadConnection(tableName, connection);
                 }
-                dbMutex.release();
 
                 for (String key : objectsFromDb.keySet()) {
                     if (!objectsCache.inCache(dbName, tableName, key)) {
@@ -778,64 +807,46 @@ public class ObjectsDB implements Serializable {
 
                     HashMap<String, Object> objectsFromDb = new HashMap<String, Object>(toLoad.size());
 
-                    dbMutex.acquire();
+                    PooledConnection connection = acquireReadConnection(tableName);
                     loading = true;
 
                     try {
-                        Statement stmt = dbConnection.createStatement();
-                        //Statement stmt = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY); // @TODO: test if this is faster
-                        //stmt.setFetchSize(toLoad.size()); // @TODO: test if this is faster
+                        ResultSet results = connection.getStatement("select * from " + tableName).executeQuery();
 
                         try {
-                            ResultSet results = stmt.executeQuery("select * from " + tableName);
-
-                            try {
-                                int found = 0;
-
-                                while (results.next() && found < toLoad.size()) {
-                                    String key = results.getString(1);
-                                    if (toLoad.contains(key)) {
-                                        found++;
-                                        Blob tempBlob;
-
-                                        if (useSQLite) {
-                                            byte[] bytes = results.getBytes(2);
-                                            tempBlob = new SerialBlob(bytes);
-                                        } else {
-                                            tempBlob = results.getBlob(2);
-                                        }
-
-                                        BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                                        try {
-                                            ObjectInputStream in = new ObjectInputStream(bis);
-                                            try {
-                                                Object object = in.readObject();
-                                                objectsFromDb.put(key, object);
-                                            } finally {
-                                                in.close();
-                                            }
-                                        } finally {
-                                            bis.close();
-                                        }
-                                        if (waitingHandler != null && displayProgress) {
-                                            waitingHandler.increaseSecondaryProgressCounter();
-                                        }
+                            int found = 0;
+
+                            while (results.next() && found < toLoad.size()) {
+                                String key = results.getString(1);
+                                if (toLoad.contains(key)) {
+                                    found++;
+                                    Blob tempBlob;
+
+                                    if (useSQLite) {
+                                        byte[] bytes = results.getBytes(2);
+                                        tempBlob = new SerialBlob(bytes);
+                                    } else {
+                                        tempBlob = results.getBlob(2);
                                     }
-                                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                                        break;
+
+                                    Object object = BlobCodec.deserialize(tempBlob.getBinaryStream());
+                                    objectsFromDb.put(key, object);
+                                    if (waitingHandler != null && displayProgress) {
+                                        waitingHandler.increaseSecondaryProgressCounter();
                                     }
                                 }
-                            } finally {
-                                results.close();
+                                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                                    break;
+                                }
                             }
                         } finally {
-                            stmt.close();
+                            results.close();
                         }
 
                     } finally {
                         loading = false;
+                        releaseReadConnection(tableName, connection);
                     }
-                    dbMutex.release();
 
                     for (String key : objectsFromDb.keySet()) {
                         if (!objectsCache.inCache(dbName, tableName, key)) {
@@ -965,18 +976,18 @@ public class ObjectsDB implements Serializable {
             System.out.println(System.currentTimeMillis() + " Retrieving object, table: " + tableName + ", key: " + objectKey);
         }
 
-        if (dbConnection == null || usedTables != null && !usedTables.contains(tableName)) {
+        if (!readConnectionsOpen || usedTables != null && !usedTables.contains(tableName)) {
             return object;
         }
 
-        dbMutex.acquire();
-
         long start = System.currentTimeMillis();
 
-        Statement stmt = dbConnection.createStatement();
+        PooledConnection connection = acquireReadConnection(tableName);
 
         try {
-            ResultSet results = stmt.executeQuery("select MATCH_BLOB from " + tableName + " where NAME='" + correctedKey + "'");
+            PreparedStatement stmt = connection.getStatement("select MATCH_BLOB from " + tableName + " where NAME=?");
+            stmt.setString(1, correctedKey);
+            ResultSet results = stmt.executeQuery();
             try {
 
                 if (results.next()) {
@@ -990,17 +1001,7 @@ public class ObjectsDB implements Serializable {
                         tempBlob = results.getBlob(1);
                     }
 
-                    BufferedInputStream bis = new BufferedInputStream(tempBlob.getBinaryStream());
-                    try {
-                        ObjectInputStream in = new ObjectInputStream(bis);
-                        try {
-                            object = in.readObject();
-                        } finally {
-                            in.close();
-                        }
-                    } finally {
-                        bis.close();
-                    }
+                    object = BlobCodec.deserialize(tempBlob.getBinaryStream());
 
                     if (debugSpeed) {
                         long loaded = System.currentTimeMillis();
@@ -1017,7 +1018,7 @@ public class ObjectsDB implements Serializable {
                         long written = System.currentTimeMillis();
 
                         FileInputStream fis = new FileInputStream(debugObjectFile);
-                        bis = new BufferedInputStream(fis);
+                        BufferedInputStream bis = new BufferedInputStream(fis);
                         ObjectInputStream in = new ObjectInputStream(bis);
                         Object match = in.readObject();
                         fis.close();
@@ -1039,11 +1040,9 @@ public class ObjectsDB implements Serializable {
                 results.close();
             }
         } finally {
-            stmt.close();
+            releaseReadConnection(tableName, connection);
         }
 
-        dbMutex.release();
-
         if (useCache) {
             if (!objectsCache.inCache(dbName, tableName, objectKey)) {
                 objectsCache.addObject(dbName, tableName, objectKey, object, false, true);
@@ -1103,20 +1102,20 @@ public class ObjectsDB implements Serializable {
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName + ", key: " + objectKey);
         }
-        dbMutex.acquire();
-        Statement stmt = dbConnection.createStatement();
+        PooledConnection connection = acquireReadConnection(tableName);
         boolean result = false;
         try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName + " where NAME='" + correctedKey + "'");
+            PreparedStatement stmt = connection.getStatement("select NAME from " + tableName + " where NAME=?");
+            stmt.setString(1, correctedKey);
+            ResultSet results = stmt.executeQuery();
             try {
                 result = results.next();
             } finally {
                 results.close();
             }
         } finally {
-            stmt.close();
+            releaseReadConnection(tableName, connection);
         }
-        dbMutex.release();
 
         return result;
     }
@@ -1134,12 +1133,9 @@ public class ObjectsDB implements Serializable {
      */
     public HashSet<String> getTableContent(String tableName) throws SQLException, InterruptedException {
 
-        HashSet<String> tableContent;
-        if (tablesContentCache != null) {
-            tableContent = tablesContentCache.get(tableName);
-            if (tableContent != null) {
-                return tableContent;
-            }
+        HashSet<String> tableContent = getTableContentFromCache(tableName);
+        if (tableContent != null) {
+            return tableContent;
         }
         return getTableContentFromDB(tableName);
     }
@@ -1157,17 +1153,24 @@ public class ObjectsDB implements Serializable {
      */
     private HashSet<String> getTableContentFromDB(String tableName) throws SQLException, InterruptedException {
 
-        dbMutex.acquire();
-
-        HashSet<String> result = getTableContentFromDBNoMutex(tableName);
+        HashSet<String> tableContent = getTableContentFromCache(tableName);
+        if (tableContent != null) {
+            return tableContent;
+        }
 
-        dbMutex.release();
+        PooledConnection connection = acquireReadConnection(tableName);
+        try {
+            tableContent = getTableContentFromDB(tableName, connection.getConnection());
+        } finally {
+            releaseReadConnection(tableName, connection);
+        }
 
-        return result;
+        return tableContent;
     }
 
     /**
-     * Returns the content of a table from the database without using the mutex.
+     * Returns the content of a table from the database using the writer
+     * connection. The write lock of the table must be held by the caller.
      *
      * @param tableName the name of the table to get the content for
      *
@@ -1179,23 +1182,54 @@ public class ObjectsDB implements Serializable {
      */
     private HashSet<String> getTableContentFromDBNoMutex(String tableName) throws SQLException, InterruptedException {
 
-        HashSet<String> tableContent;
-        if (tablesContentCache != null) {
-            tableContent = tablesContentCache.get(tableName);
-            if (tableContent != null) {
-                return tableContent;
-            }
+        HashSet<String> tableContent = getTableContentFromCache(tableName);
+        if (tableContent != null) {
+            return tableContent;
+        }
+
+        return getTableContentFromDB(tableName, dbConnection);
+    }
+
+    /**
+     * Returns the content of a table from the cache of table contents, null if
+     * not in cache.
+     *
+     * @param tableName the name of the table to get the content for
+     *
+     * @return the content of the table
+     */
+    private HashSet<String> getTableContentFromCache(String tableName) {
+        if (tablesContentCache == null) {
+            return null;
         }
+        synchronized (tablesContentCache) {
+            return tablesContentCache.get(tableName);
+        }
+    }
+
+    /**
+     * Queries the content of a table using the given connection and stores it
+     * in the cache of table contents.
+     *
+     * @param tableName the name of the table to get the content for
+     * @param connection the connection to use
+     *
+     * @return an arraylist with the content of the table
+     *
+     * @throws SQLException exception thrown whenever an error occurs while
+     * interacting with the database
+     */
+    private HashSet<String> getTableContentFromDB(String tableName, Connection connection) throws SQLException {
 
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Checking db content, table: " + tableName);
         }
 
-        tableContent = new HashSet<String>();
-        Statement stmt = dbConnection.createStatement();
+        HashSet<String> tableContent = new HashSet<String>();
+        Statement stmt = connection.createStatement();
 
         try {
-            ResultSet results = stmt.executeQuery("select * from " + tableName);
+            ResultSet results = stmt.executeQuery("select NAME from " + tableName);
             try {
                 while (results.next()) {
                     String key = results.getString(1);
@@ -1212,19 +1246,21 @@ public class ObjectsDB implements Serializable {
         }
 
         if (tablesContentCache != null) {
-            if (tablesContentCache.size() == tablesContentCacheSize) {
-                String keyToRemove = null;
-                for (String key : tablesContentCache.keySet()) {
-                    if (!key.equals(tableName)) {
-                        keyToRemove = key;
-                        break;
+            synchronized (tablesContentCache) {
+                if (tablesContentCache.size() == tablesContentCacheSize) {
+                    String keyToRemove = null;
+                    for (String key : tablesContentCache.keySet()) {
+                        if (!key.equals(tableName)) {
+                            keyToRemove = key;
+                            break;
+                        }
+                    }
+                    if (keyToRemove != null) {
+                        tablesContentCache.remove(keyToRemove);
                     }
                 }
-                if (keyToRemove != null) {
-                    tablesContentCache.remove(keyToRemove);
-                }
+                tablesContentCache.put(tableName, tableContent);
             }
-            tablesContentCache.put(tableName, tableContent);
         }
 
         return tableContent;
@@ -1250,22 +1286,22 @@ public class ObjectsDB implements Serializable {
         objectsCache.removeObject(dbName, tableName, correctedKey);
 
         // delete from database
-        dbMutex.acquire();
         if (debugInteractions) {
             System.out.println(System.currentTimeMillis() + " Removing object, table: " + tableName + ", key: " + objectKey);
         }
         if (usedTables == null || usedTables.contains(tableName)) {
-            Statement stmt = dbConnection.createStatement();
+            acquireWriteLock(tableName);
             try {
-                stmt.executeUpdate("delete from " + tableName + " where NAME='" + correctedKey + "'"); // @TODO: what if the accession contains (') ..? - a single quotation mark is the escape character for a single quotation mark
+                PreparedStatement stmt = writeConnection.getStatement("delete from " + tableName + " where NAME=?");
+                stmt.setString(1, correctedKey);
+                stmt.executeUpdate();
             } catch (SQLSyntaxErrorException e) {
                 System.out.println("SQL Exception. SQL call: " + "delete from " + tableName + " where NAME='" + correctedKey + "'");
                 throw e;
             } finally {
-                stmt.close();
+                releaseWriteLock(tableName);
             }
         }
-        dbMutex.release();
     }
 
     /**
@@ -1342,31 +1378,19 @@ public class ObjectsDB implements Serializable {
 
         if (!cacheUpdated && (usedTables == null || usedTables.contains(tableName))) {
 
-            dbMutex.acquire();
-
             if (debugInteractions) {
                 System.out.println(System.currentTimeMillis() + " Updating object, table: " + tableName + ", key: " + objectKey);
             }
-            PreparedStatement ps = dbConnection.prepareStatement("update " + tableName + " set MATCH_BLOB=? where NAME='" + objectKey + "'");
+
+            acquireWriteLock(tableName);
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                try {
-                    ObjectOutputStream oos = new ObjectOutputStream(bos);
-                    try {
-                        oos.writeObject(object);
-                    } finally {
-                        oos.close();
-                    }
-                } finally {
-                    bos.close();
-                }
-                ps.setBytes(1, bos.toByteArray());
+                PreparedStatement ps = writeConnection.getStatement("update " + tableName + " set MATCH_BLOB=? where NAME=?");
+                ps.setBytes(1, BlobCodec.serialize(object));
+                ps.setString(2, correctedKey);
                 ps.executeUpdate();
             } finally {
-                ps.close();
+                releaseWriteLock(tableName);
             }
-
-            dbMutex.release();
         }
     }
 
@@ -1468,6 +1492,15 @@ public class ObjectsDB implements Serializable {
      */
     public void close() throws SQLException, InterruptedException {
 
+        // write the objects queued by the cache and stop its writer, restarted if the cache is used again
+        if (objectsCache != null) {
+            try {
+                objectsCache.close();
+            } catch (IOException e) {
+                throw new SQLException("Error while writing the cache content to " + dbName + ".", e);
+            }
+        }
+
         // Make sure that previous queries are done
         dbMutex.acquire();
         while (dbMutex.getQueueLength() > 0) {
@@ -1491,9 +1524,23 @@ public class ObjectsDB implements Serializable {
         dbMutex.acquire();
         objectsCache = null;
 
+        // wait for the ongoing reads to return their connection and close the read connections
+        readConnectionsOpen = false;
+        ArrayBlockingQueue<PooledConnection> connectionsPool = readConnections;
+        if (connectionsPool != null) {
+            int nConnections = connectionsPool.size() + connectionsPool.remainingCapacity();
+            for (int i = 0; i < nConnections; i++) {
+                try {
+                    connectionsPool.take().close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
         try {
             if (dbConnection != null && isConnectionActive()) {
-                dbConnection.close();
+                writeConnection.close();
                 DerbyUtil.removeActiveConnection(derbyConnectionID, path);
             }
         } catch (Exception e) {
@@ -1519,6 +1566,7 @@ public class ObjectsDB implements Serializable {
         }
 
         dbConnection = null;
+        writeConnection = null;
 
         dbMutex.release();
     }
@@ -1593,7 +1641,34 @@ public class ObjectsDB implements Serializable {
         // special fix for if derby breaks down and restarts in read only mode
         if (dbConnection != null) {
             dbConnection.setReadOnly(false);
+            writeConnection = new PooledConnection(dbConnection);
+        }
+
+        // open the read only connections
+        if (tableLocks == null) {
+            tableLocks = new ConcurrentHashMap<String, ReentrantReadWriteLock>();
+            readWaitTime = new AtomicLong();
+            nReads = new AtomicLong();
+            writeWaitTime = new AtomicLong();
+            nWrites = new AtomicLong();
+        }
+        if (nReadConnections < 1) {
+            // databases serialized before the number of connections was set per database
+            nReadConnections = DEFAULT_N_READ_CONNECTIONS;
+        }
+        ArrayBlockingQueue<PooledConnection> connectionsPool = new ArrayBlockingQueue<PooledConnection>(nReadConnections);
+        for (int i = 0; i < nReadConnections; i++) {
+            Connection readConnection;
+            if (useSQLite) {
+                readConnection = DriverManager.getConnection("jdbc:sqlite:" + path);
+            } else {
+                readConnection = DriverManager.getConnection("jdbc:derby:" + path);
+                readConnection.setReadOnly(true);
+            }
+            connectionsPool.add(new PooledConnection(readConnection));
         }
+        readConnections = connectionsPool;
+        readConnectionsOpen = true;
 
         this.objectsCache = objectsCache;
 
@@ -1637,6 +1712,154 @@ public class ObjectsDB implements Serializable {
         loadAttributes();
     }
 
+    /**
+     * Returns the read/write lock of the given table.
+     *
+     * @param tableName the name of the table
+     *
+     * @return the read/write lock of the given table
+     */
+    private ReentrantReadWriteLock getTableLock(String tableName) {
+        ReentrantReadWriteLock lock = tableLocks.get(tableName);
+        if (lock == null) {
+            ReentrantReadWriteLock newLock = new ReentrantReadWriteLock();
+            lock = tableLocks.putIfAbsent(tableName, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Acquires the read lock of the given table and a read only connection
+     * from the pool. Both need to be released using releaseReadConnection.
+     *
+     * @param tableName the name of the table to read
+     *
+     * @return a read only connection
+     *
+     * @throws SQLException exception thrown if the connection to the database
+     * is closed
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private PooledConnection acquireReadConnection(String tableName) throws SQLException, InterruptedException {
+        long start = System.nanoTime();
+        ReentrantReadWriteLock.ReadLock lock = getTableLock(tableName).readLock();
+        lock.lockInterruptibly();
+        PooledConnection connection = null;
+        try {
+            while (connection == null) {
+                if (!readConnectionsOpen) {
+                    throw new SQLException("Connection to the database " + dbName + " closed.");
+                }
+                connection = readConnections.poll(10, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            if (connection == null) {
+                lock.unlock();
+            }
+        }
+        readWaitTime.addAndGet(System.nanoTime() - start);
+        nReads.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * Returns a read only connection to the pool and releases the read lock of
+     * the given table. The connection is returned to the pool also when the
+     * database is being closed, where it will be closed.
+     *
+     * @param tableName the name of the table read
+     * @param connection the connection to release
+     */
+    private void releaseReadConnection(String tableName, PooledConnection connection) {
+        readConnections.add(connection);
+        getTableLock(tableName).readLock().unlock();
+    }
+
+    /**
+     * Acquires the write lock of the given table and the writer connection.
+     * Both need to be released using releaseWriteLock.
+     *
+     * @param tableName the name of the table to write
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private void acquireWriteLock(String tableName) throws InterruptedException {
+        long start = System.nanoTime();
+        ReentrantReadWriteLock.WriteLock lock = getTableLock(tableName).writeLock();
+        lock.lockInterruptibly();
+        try {
+            dbMutex.acquire();
+        } catch (InterruptedException e) {
+            lock.unlock();
+            throw e;
+        }
+        writeWaitTime.addAndGet(System.nanoTime() - start);
+        nWrites.incrementAndGet();
+    }
+
+    /**
+     * Releases the writer connection and the write lock of the given table.
+     *
+     * @param tableName the name of the table written
+     */
+    private void releaseWriteLock(String tableName) {
+        dbMutex.release();
+        getTableLock(tableName).writeLock().unlock();
+    }
+
+    /**
+     * Returns the total time spent waiting for read access to the tables in
+     * nanoseconds.
+     *
+     * @return the total time spent waiting for read access in nanoseconds
+     */
+    public long getReadWaitTime() {
+        return readWaitTime.get();
+    }
+
+    /**
+     * Returns the number of read accesses to the tables.
+     *
+     * @return the number of read accesses to the tables
+     */
+    public long getnReads() {
+        return nReads.get();
+    }
+
+    /**
+     * Returns the total time spent waiting for write access to the tables in
+     * nanoseconds.
+     *
+     * @return the total time spent waiting for write access in nanoseconds
+     */
+    public long getWriteWaitTime() {
+        return writeWaitTime.get();
+    }
+
+    /**
+     * Returns the number of write accesses to the tables.
+     *
+     * @return the number of write accesses to the tables
+     */
+    public long getnWrites() {
+        return nWrites.get();
+    }
+
+    /**
+     * Resets the lock wait time metrics.
+     */
+    public void resetLockMetrics() {
+        readWaitTime.set(0);
+        nReads.set(0);
+        writeWaitTime.set(0);
+        nWrites.set(0);
+    }
+
     /**
      * Surrounds the table name with quotation marks such that spaces etc are
      * allowed.
@@ -1721,6 +1944,29 @@ public class ObjectsDB implements Serializable {
         return path;
     }
 
+    /**
+     * Returns the number of read only connections of this database.
+     *
+     * @return the number of read only connections
+     */
+    public int getnReadConnections() {
+        return nReadConnections;
+    }
+
+    /**
+     * Sets the number of read only connections of this database. The new
+     * number is used the next time the connection is established. Reads on
+     * different connections can be conducted concurrently.
+     *
+     * @param nReadConnections the number of read only connections
+     */
+    public void setnReadConnections(int nReadConnections) {
+        if (nReadConnections < 1) {
+            throw new IllegalArgumentException("At least one read connection is needed.");
+        }
+        this.nReadConnections = nReadConnections;
+    }
+
     /**
      * Turn the debugging of interactions on or off.
      *
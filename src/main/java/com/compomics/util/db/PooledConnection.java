@@ -0,0 +1,110 @@
+package com.compomics.util.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection to the database keeping the prepared statements for reuse. A
+ * pooled connection shall be used by one thread at a time.
+ *
+ * @author Marc Vaudel
+ */
+public class PooledConnection {
+
+    /**
+     * The default maximal number of prepared statements kept.
+     */
+    public static final int DEFAULT_STATEMENTS_CACHE_SIZE = 64;
+    /**
+     * The connection to the database.
+     */
+    private final Connection connection;
+    /**
+     * The prepared statements indexed by query, in access order.
+     */
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    /**
+     * Constructor.
+     *
+     * @param connection the connection to the database
+     */
+    public PooledConnection(Connection connection) {
+        this(connection, DEFAULT_STATEMENTS_CACHE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connection the connection to the database
+     * @param statementsCacheSize the maximal number of prepared statements
+     * kept
+     */
+    public PooledConnection(Connection connection, final int statementsCacheSize) {
+        this.connection = connection;
+        statements = new LinkedHashMap<String, PreparedStatement>(statementsCacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementsCacheSize) {
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the connection to the database.
+     *
+     * @return the connection to the database
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns a prepared statement for the given query. The statement is
+     * created upon first request and reused afterwards. The statement shall
+     * not be closed by the caller.
+     *
+     * @param query the query
+     *
+     * @return a prepared statement for the given query
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * preparing the statement
+     */
+    public PreparedStatement getStatement(String query) throws SQLException {
+        PreparedStatement statement = statements.get(query);
+        if (statement == null) {
+            statement = connection.prepareStatement(query);
+            statements.put(query, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Closes the prepared statements and the connection.
+     *
+     * @throws SQLException exception thrown whenever an error occurred while
+     * closing the connection
+     */
+    public void close() throws SQLException {
+        try {
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.compomics.util.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+
+/**
+ * Input stream for the binary records of the database, reading the records
+ * written by the record output.
+ *
+ * @author Marc Vaudel
+ */
+public class RecordInput extends DataInputStream {
+
+    /**
+     * The interned strings already read.
+     */
+    private final ArrayList<String> internedStrings = new ArrayList<String>();
+
+    /**
+     * Constructor.
+     *
+     * @param inputStream the stream to read
+     */
+    public RecordInput(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    /**
+     * Reads a non negative integer written as variable length integer.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the value
+     */
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Reads an integer written as signed variable length integer.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the value
+     */
+    public int readSignedVarInt() throws IOException {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads a string which can be null.
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the string
+     */
+    public String readString() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads a string written as interned string. The strings are interned in
+     * the virtual machine.
+     *
+     * @return the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the string
+     */
+    public String readInternedString() throws IOException {
+        int index = readVarInt();
+        if (index > 0) {
+            return internedStrings.get(index - 1);
+        }
+        String value = readString();
+        if (value != null) {
+            value = value.intern();
+        }
+        internedStrings.add(value);
+        return value;
+    }
+
+    /**
+     * Reads a double which can be null.
+     *
+     * @return the double
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the double
+     */
+    public Double readNullableDouble() throws IOException {
+        if (readBoolean()) {
+            return readDouble();
+        }
+        return null;
+    }
+
+    /**
+     * Reads an array of doubles which can be null.
+     *
+     * @return the array of doubles
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the array
+     */
+    public double[] readDoubleArray() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        double[] values = new double[length];
+        for (int i = 0; i < length; ++i) {
+            values[i] = Double.longBitsToDouble(readLong());
+        }
+        return values;
+    }
+
+    /**
+     * Reads an object written using Java serialization.
+     *
+     * @return the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    public Object readSerializedObject() throws IOException, ClassNotFoundException {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
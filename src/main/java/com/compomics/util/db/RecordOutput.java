@@ -0,0 +1,182 @@
+package com.compomics.util.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+/**
+ * Output stream for the binary records of the database, adding variable
+ * length integers, strings and interned strings to the data output stream.
+ *
+ * @author Marc Vaudel
+ */
+public class RecordOutput extends DataOutputStream {
+
+    /**
+     * The buffer where the record is written.
+     */
+    private final ByteArrayOutputStream buffer;
+    /**
+     * The index of the interned strings already written.
+     */
+    private final HashMap<String, Integer> internedStrings = new HashMap<String, Integer>();
+
+    /**
+     * Constructor.
+     */
+    public RecordOutput() {
+        this(new ByteArrayOutputStream(256));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param buffer the buffer where the record is written
+     */
+    private RecordOutput(ByteArrayOutputStream buffer) {
+        super(buffer);
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns the bytes written.
+     *
+     * @return the bytes written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * flushing the stream
+     */
+    public byte[] toByteArray() throws IOException {
+        flush();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes a non negative integer using one to five bytes.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the value
+     */
+    public void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        write(value);
+    }
+
+    /**
+     * Writes an integer using one to five bytes, small negative values being
+     * written on few bytes.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the value
+     */
+    public void writeSignedVarInt(int value) throws IOException {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes a string which can be null.
+     *
+     * @param value the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeVarInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarInt(bytes.length + 1);
+        write(bytes);
+    }
+
+    /**
+     * Writes a string expected to be repeated in the record, like a
+     * modification name. Only the index of the string is written when already
+     * present in the record.
+     *
+     * @param value the string
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the string
+     */
+    public void writeInternedString(String value) throws IOException {
+        Integer index = internedStrings.get(value);
+        if (index != null) {
+            writeVarInt(index + 1);
+        } else {
+            writeVarInt(0);
+            writeString(value);
+            internedStrings.put(value, internedStrings.size());
+        }
+    }
+
+    /**
+     * Writes a double which can be null.
+     *
+     * @param value the double
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the double
+     */
+    public void writeNullableDouble(Double value) throws IOException {
+        writeBoolean(value != null);
+        if (value != null) {
+            writeDouble(value);
+        }
+    }
+
+    /**
+     * Writes an array of doubles which can be null.
+     *
+     * @param values the array of doubles
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the array
+     */
+    public void writeDoubleArray(double[] values) throws IOException {
+        if (values == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(values.length + 1);
+        for (double value : values) {
+            writeLong(Double.doubleToRawLongBits(value));
+        }
+    }
+
+    /**
+     * Writes an object using Java serialization, the object can be null.
+     *
+     * @param object the object
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    public void writeSerializedObject(Object object) throws IOException {
+        if (object == null) {
+            writeVarInt(0);
+            return;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(object);
+        } finally {
+            oos.close();
+        }
+        byte[] bytes = bos.toByteArray();
+        writeVarInt(bytes.length + 1);
+        write(bytes);
+    }
+}
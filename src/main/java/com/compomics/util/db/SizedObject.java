@@ -0,0 +1,17 @@
+package com.compomics.util.db;
+
+/**
+ * Interface for objects able to estimate their size in memory. The estimate is
+ * used by the objects cache to enforce its memory budget.
+ *
+ * @author Marc Vaudel
+ */
+public interface SizedObject {
+
+    /**
+     * Returns an estimate of the size of the object in memory in bytes.
+     *
+     * @return an estimate of the size of the object in memory in bytes
+     */
+    public long getEstimatedSize();
+}
@@ -1,5 +1,6 @@
 package com.compomics.util.experiment.identification;
 
+import com.compomics.util.db.BlobCodec;
 import com.compomics.util.db.ObjectsCache;
 import com.compomics.util.db.ObjectsDB;
 import com.compomics.util.experiment.identification.matches.PeptideMatch;
@@ -58,6 +59,10 @@ public class IdentificationDB implements Serializable {
      * The suffix for a PSM parameters table.
      */
     private static String psmParametersTableSuffix = "_psm_parameters";
+
+    static {
+        BlobCodec.registerCodec(new IdentificationMatchCodec());
+    }
     /**
      * List of all raw assumptions tables.
      */
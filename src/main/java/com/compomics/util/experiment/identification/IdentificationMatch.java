@@ -1,13 +1,19 @@
 package com.compomics.util.experiment.identification;
 
+import com.compomics.util.db.SizedObject;
 import com.compomics.util.experiment.personalization.ExperimentObject;
+import java.util.Collection;
 
 /**
  * This is an abstract class for an identification match.
  *
+ * The estimated sizes of the matches in memory are built from the sizes of
+ * their components, measured on a 64-bit JVM with compressed references as
+ * the heap used by 50,000 instances divided by 50,000, and rounded up.
+ *
  * @author Marc Vaudel
  */
-public abstract class IdentificationMatch extends ExperimentObject {
+public abstract class IdentificationMatch extends ExperimentObject implements SizedObject {
 
     /**
      * Serial number for backward compatibility.
@@ -39,4 +45,87 @@ public abstract class IdentificationMatch extends ExperimentObject {
      * @return the key of a match
      */
     public abstract String getKey();
+
+    /**
+     * The estimated size of a match without its fields in bytes (measured 48
+     * to 56 bytes for the spectrum and peptide matches).
+     */
+    protected static final long MATCH_SIZE = 48;
+    /**
+     * The estimated size of a string without its characters in bytes, the
+     * characters take two bytes each.
+     */
+    protected static final long STRING_SIZE = 40;
+    /**
+     * The estimated size of an array list without its elements in bytes
+     * (measured 80 bytes with two elements).
+     */
+    protected static final long LIST_SIZE = 64;
+    /**
+     * The estimated size of a reference in an array list in bytes, including
+     * the unused capacity of the list.
+     */
+    protected static final long LIST_ELEMENT_SIZE = 8;
+    /**
+     * The estimated size of a hash map with its table of default capacity
+     * without its entries in bytes.
+     */
+    protected static final long MAP_SIZE = 128;
+    /**
+     * The estimated size of a hash map entry with a boxed key in bytes.
+     */
+    protected static final long MAP_ENTRY_SIZE = 48;
+    /**
+     * The estimated size of a peptide without its sequence, parent proteins
+     * and modifications in bytes (measured 216 bytes with a sequence of 11
+     * amino acids).
+     */
+    protected static final long PEPTIDE_SIZE = 168;
+    /**
+     * The estimated size of a modification match in bytes, the name of the
+     * modification being shared.
+     */
+    protected static final long MODIFICATION_MATCH_SIZE = 56;
+    /**
+     * The estimated size of a peptide assumption with its charge without the
+     * peptide in bytes.
+     */
+    protected static final long PEPTIDE_ASSUMPTION_SIZE = 96;
+    /**
+     * The estimated size of an assumption other than a peptide assumption in
+     * bytes (measured 285 bytes for a tag assumption with four amino acids).
+     */
+    protected static final long OTHER_ASSUMPTION_SIZE = 288;
+
+    /**
+     * Returns an estimate of the size of a string in memory in bytes.
+     *
+     * @param string the string, can be null
+     *
+     * @return an estimate of the size of the string in memory in bytes
+     */
+    protected static long getEstimatedSize(String string) {
+        if (string == null) {
+            return 0;
+        }
+        return STRING_SIZE + 2 * string.length();
+    }
+
+    /**
+     * Returns an estimate of the size of a list of strings in memory in bytes.
+     *
+     * @param strings the strings, can be null
+     *
+     * @return an estimate of the size of the strings in memory in bytes
+     */
+    protected static long getEstimatedSize(Collection<String> strings) {
+        if (strings == null) {
+            return 0;
+        }
+        long size = LIST_SIZE + LIST_ELEMENT_SIZE * strings.size();
+        for (String string : strings) {
+            size += getEstimatedSize(string);
+        }
+        return size;
+    }
 }
@@ -0,0 +1,661 @@
+package com.compomics.util.experiment.identification;
+
+import com.compomics.util.db.ObjectCodec;
+import com.compomics.util.db.RecordInput;
+import com.compomics.util.db.RecordOutput;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.identification.spectrum_assumptions.TagAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.experiment.personalization.UrParameter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Codec writing the spectrum, peptide and protein matches to the database in
+ * a compact binary format. The parts of the matches which are not supported,
+ * like variants or user parameters, are written using Java serialization.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationMatchCodec implements ObjectCodec {
+
+    /**
+     * The identifier of this codec.
+     */
+    public static final int CODEC_ID = 1;
+    /**
+     * Type of record for a spectrum match.
+     */
+    private static final int SPECTRUM_MATCH = 0;
+    /**
+     * Type of record for a peptide match.
+     */
+    private static final int PEPTIDE_MATCH = 1;
+    /**
+     * Type of record for a protein match.
+     */
+    private static final int PROTEIN_MATCH = 2;
+    /**
+     * Flag for a null object.
+     */
+    private static final int NULL = 0;
+    /**
+     * Flag for an object written in the compact format.
+     */
+    private static final int COMPACT = 1;
+    /**
+     * Flag for an object written using Java serialization.
+     */
+    private static final int SERIALIZED = 2;
+
+    @Override
+    public int getId() {
+        return CODEC_ID;
+    }
+
+    @Override
+    public boolean canEncode(Object object) {
+        if (object == null) {
+            return false;
+        }
+        Class<?> objectClass = object.getClass();
+        return objectClass == SpectrumMatch.class
+                || objectClass == PeptideMatch.class
+                || objectClass == ProteinMatch.class;
+    }
+
+    @Override
+    public void encode(Object object, RecordOutput output) throws IOException {
+        if (object instanceof SpectrumMatch) {
+            output.write(SPECTRUM_MATCH);
+            writeSpectrumMatch((SpectrumMatch) object, output);
+        } else if (object instanceof PeptideMatch) {
+            output.write(PEPTIDE_MATCH);
+            writePeptideMatch((PeptideMatch) object, output);
+        } else if (object instanceof ProteinMatch) {
+            output.write(PROTEIN_MATCH);
+            writeProteinMatch((ProteinMatch) object, output);
+        } else {
+            throw new IllegalArgumentException("Object of type " + object.getClass() + " not supported.");
+        }
+    }
+
+    @Override
+    public Object decode(RecordInput input) throws IOException, ClassNotFoundException {
+        int type = input.readUnsignedByte();
+        switch (type) {
+            case SPECTRUM_MATCH:
+                return readSpectrumMatch(input);
+            case PEPTIDE_MATCH:
+                return readPeptideMatch(input);
+            case PROTEIN_MATCH:
+                return readProteinMatch(input);
+            default:
+                throw new IOException("Unknown match type " + type + ".");
+        }
+    }
+
+    /**
+     * Writes a spectrum match.
+     *
+     * @param spectrumMatch the spectrum match
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the match
+     */
+    private void writeSpectrumMatch(SpectrumMatch spectrumMatch, RecordOutput output) throws IOException {
+        output.writeString(spectrumMatch.getKey());
+        Integer spectrumNumber = spectrumMatch.getSpectrumNumber();
+        output.writeBoolean(spectrumNumber != null);
+        if (spectrumNumber != null) {
+            output.writeSignedVarInt(spectrumNumber);
+        }
+        IdentityHashMap<SpectrumIdentificationAssumption, Integer> assumptionsIndexes = new IdentityHashMap<SpectrumIdentificationAssumption, Integer>();
+        HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = spectrumMatch.getAssumptionsMap();
+        output.writeBoolean(assumptionsMap != null);
+        if (assumptionsMap != null) {
+            output.writeVarInt(assumptionsMap.size());
+            for (Integer advocate : assumptionsMap.keySet()) {
+                output.writeSignedVarInt(advocate);
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> scoreMap = assumptionsMap.get(advocate);
+                output.writeVarInt(scoreMap.size());
+                for (Double score : scoreMap.keySet()) {
+                    output.writeDouble(score);
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = scoreMap.get(score);
+                    output.writeVarInt(assumptions.size());
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        writeAssumption(assumption, output);
+                        if (!assumptionsIndexes.containsKey(assumption)) {
+                            assumptionsIndexes.put(assumption, assumptionsIndexes.size());
+                        }
+                    }
+                }
+            }
+        }
+        writeAssumptionReference(spectrumMatch.getBestPeptideAssumption(), assumptionsIndexes, output);
+        writeAssumptionReference(spectrumMatch.getBestTagAssumption(), assumptionsIndexes, output);
+        writeUrParams(spectrumMatch, output);
+    }
+
+    /**
+     * Reads a spectrum match.
+     *
+     * @param input the input
+     *
+     * @return the spectrum match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the match
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a part of the match
+     */
+    private SpectrumMatch readSpectrumMatch(RecordInput input) throws IOException, ClassNotFoundException {
+        SpectrumMatch spectrumMatch = new SpectrumMatch(input.readString());
+        if (input.readBoolean()) {
+            spectrumMatch.setSpectrumNumber(input.readSignedVarInt());
+        }
+        ArrayList<SpectrumIdentificationAssumption> assumptionsList = new ArrayList<SpectrumIdentificationAssumption>();
+        if (input.readBoolean()) {
+            int nAdvocates = input.readVarInt();
+            HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap = new HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>>(nAdvocates);
+            for (int i = 0; i < nAdvocates; i++) {
+                int advocate = input.readSignedVarInt();
+                int nScores = input.readVarInt();
+                HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> scoreMap = new HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>(nScores);
+                for (int j = 0; j < nScores; j++) {
+                    double score = input.readDouble();
+                    int nAssumptions = input.readVarInt();
+                    ArrayList<SpectrumIdentificationAssumption> assumptions = new ArrayList<SpectrumIdentificationAssumption>(nAssumptions);
+                    for (int k = 0; k < nAssumptions; k++) {
+                        SpectrumIdentificationAssumption assumption = readAssumption(input);
+                        assumptions.add(assumption);
+                        assumptionsList.add(assumption);
+                    }
+                    scoreMap.put(score, assumptions);
+                }
+                assumptionsMap.put(advocate, scoreMap);
+            }
+            spectrumMatch.setAssumptionsMap(assumptionsMap);
+        }
+        spectrumMatch.setBestPeptideAssumption((PeptideAssumption) readAssumptionReference(assumptionsList, input));
+        spectrumMatch.setBestTagAssumption((TagAssumption) readAssumptionReference(assumptionsList, input));
+        readUrParams(spectrumMatch, input);
+        return spectrumMatch;
+    }
+
+    /**
+     * Writes a reference to an assumption, the assumption is written if not
+     * found in the assumptions already written.
+     *
+     * @param assumption the assumption
+     * @param assumptionsIndexes the index of the assumptions already written
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the assumption
+     */
+    private void writeAssumptionReference(SpectrumIdentificationAssumption assumption, IdentityHashMap<SpectrumIdentificationAssumption, Integer> assumptionsIndexes, RecordOutput output) throws IOException {
+        if (assumption == null) {
+            output.writeVarInt(0);
+            return;
+        }
+        Integer index = assumptionsIndexes.get(assumption);
+        if (index != null) {
+            output.writeVarInt(index + 2);
+        } else {
+            output.writeVarInt(1);
+            writeAssumption(assumption, output);
+        }
+    }
+
+    /**
+     * Reads a reference to an assumption.
+     *
+     * @param assumptionsList the assumptions already read
+     * @param input the input
+     *
+     * @return the assumption
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the assumption
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the assumption
+     */
+    private SpectrumIdentificationAssumption readAssumptionReference(ArrayList<SpectrumIdentificationAssumption> assumptionsList, RecordInput input) throws IOException, ClassNotFoundException {
+        int reference = input.readVarInt();
+        if (reference == 0) {
+            return null;
+        } else if (reference == 1) {
+            return readAssumption(input);
+        }
+        return assumptionsList.get(reference - 2);
+    }
+
+    /**
+     * Writes an assumption. Peptide assumptions are written in the compact
+     * format, other assumptions using Java serialization.
+     *
+     * @param assumption the assumption
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the assumption
+     */
+    private void writeAssumption(SpectrumIdentificationAssumption assumption, RecordOutput output) throws IOException {
+        if (assumption == null) {
+            output.write(NULL);
+        } else if (assumption.getClass() == PeptideAssumption.class && assumption.getScore() != null) {
+            PeptideAssumption peptideAssumption = (PeptideAssumption) assumption;
+            output.write(COMPACT);
+            output.writeSignedVarInt(peptideAssumption.getRank());
+            output.writeSignedVarInt(peptideAssumption.getAdvocate());
+            writeCharge(peptideAssumption.getIdentificationCharge(), output);
+            output.writeDouble(peptideAssumption.getScore());
+            output.writeInternedString(peptideAssumption.getIdentificationFile());
+            output.writeNullableDouble(peptideAssumption.getRawScore());
+            ArrayList<double[]> aminoAcidScores = peptideAssumption.getAminoAcidScores();
+            if (aminoAcidScores == null) {
+                output.writeVarInt(0);
+            } else {
+                output.writeVarInt(aminoAcidScores.size() + 1);
+                for (double[] scores : aminoAcidScores) {
+                    output.writeDoubleArray(scores);
+                }
+            }
+            writeUrParams(peptideAssumption, output);
+            writePeptide(peptideAssumption.getPeptide(), output);
+        } else {
+            output.write(SERIALIZED);
+            output.writeSerializedObject(assumption);
+        }
+    }
+
+    /**
+     * Reads an assumption.
+     *
+     * @param input the input
+     *
+     * @return the assumption
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the assumption
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the assumption
+     */
+    private SpectrumIdentificationAssumption readAssumption(RecordInput input) throws IOException, ClassNotFoundException {
+        int flag = input.readUnsignedByte();
+        switch (flag) {
+            case NULL:
+                return null;
+            case COMPACT:
+                int rank = input.readSignedVarInt();
+                int advocate = input.readSignedVarInt();
+                Charge charge = readCharge(input);
+                double score = input.readDouble();
+                String identificationFile = input.readInternedString();
+                Double rawScore = input.readNullableDouble();
+                ArrayList<double[]> aminoAcidScores = null;
+                int nScores = input.readVarInt() - 1;
+                if (nScores >= 0) {
+                    aminoAcidScores = new ArrayList<double[]>(nScores);
+                    for (int i = 0; i < nScores; i++) {
+                        aminoAcidScores.add(input.readDoubleArray());
+                    }
+                }
+                Object urParams = input.readSerializedObject();
+                Peptide peptide = readPeptide(input);
+                PeptideAssumption peptideAssumption = new PeptideAssumption(peptide, rank, advocate, charge, score, identificationFile);
+                peptideAssumption.setRawScore(rawScore);
+                peptideAssumption.setAminoAcidScores(aminoAcidScores);
+                setUrParams(peptideAssumption, urParams);
+                return peptideAssumption;
+            case SERIALIZED:
+                return (SpectrumIdentificationAssumption) input.readSerializedObject();
+            default:
+                throw new IOException("Unknown assumption format " + flag + ".");
+        }
+    }
+
+    /**
+     * Writes a charge.
+     *
+     * @param charge the charge
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the charge
+     */
+    private void writeCharge(Charge charge, RecordOutput output) throws IOException {
+        if (charge == null) {
+            output.write(NULL);
+        } else if (charge.getUrParams() == null) {
+            output.write(COMPACT);
+            output.writeSignedVarInt(charge.sign);
+            output.writeSignedVarInt(charge.value);
+        } else {
+            output.write(SERIALIZED);
+            output.writeSerializedObject(charge);
+        }
+    }
+
+    /**
+     * Reads a charge.
+     *
+     * @param input the input
+     *
+     * @return the charge
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the charge
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the charge
+     */
+    private Charge readCharge(RecordInput input) throws IOException, ClassNotFoundException {
+        int flag = input.readUnsignedByte();
+        switch (flag) {
+            case NULL:
+                return null;
+            case COMPACT:
+                int sign = input.readSignedVarInt();
+                int value = input.readSignedVarInt();
+                return new Charge(sign, value);
+            case SERIALIZED:
+                return (Charge) input.readSerializedObject();
+            default:
+                throw new IOException("Unknown charge format " + flag + ".");
+        }
+    }
+
+    /**
+     * Writes a peptide. Peptides carrying variants are written using Java
+     * serialization. The mass of the peptide is not written and will be
+     * estimated again when needed.
+     *
+     * @param peptide the peptide
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the peptide
+     */
+    private void writePeptide(Peptide peptide, RecordOutput output) throws IOException {
+        if (peptide == null) {
+            output.write(NULL);
+        } else if (peptide.getClass() == Peptide.class && peptide.getVariantMatches() == null) {
+            output.write(COMPACT);
+            output.writeString(peptide.getSequence());
+            writeStringList(peptide.getParentProteinsNoRemapping(), output);
+            ArrayList<ModificationMatch> modificationMatches = peptide.getModificationMatches();
+            if (modificationMatches == null) {
+                output.writeVarInt(0);
+            } else {
+                output.writeVarInt(modificationMatches.size() + 1);
+                for (ModificationMatch modificationMatch : modificationMatches) {
+                    output.writeInternedString(modificationMatch.getTheoreticPtm());
+                    int flags = 0;
+                    if (modificationMatch.isVariable()) {
+                        flags |= 1;
+                    }
+                    if (modificationMatch.isConfident()) {
+                        flags |= 2;
+                    }
+                    if (modificationMatch.isInferred()) {
+                        flags |= 4;
+                    }
+                    if (modificationMatch.getUrParams() != null) {
+                        flags |= 8;
+                    }
+                    output.write(flags);
+                    output.writeSignedVarInt(modificationMatch.getModificationSite());
+                    if (modificationMatch.getUrParams() != null) {
+                        output.writeSerializedObject(modificationMatch.getUrParams());
+                    }
+                }
+            }
+            writeUrParams(peptide, output);
+        } else {
+            output.write(SERIALIZED);
+            output.writeSerializedObject(peptide);
+        }
+    }
+
+    /**
+     * Reads a peptide.
+     *
+     * @param input the input
+     *
+     * @return the peptide
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the peptide
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the peptide
+     */
+    private Peptide readPeptide(RecordInput input) throws IOException, ClassNotFoundException {
+        int flag = input.readUnsignedByte();
+        switch (flag) {
+            case NULL:
+                return null;
+            case COMPACT:
+                String sequence = input.readString();
+                ArrayList<String> parentProteins = readStringList(input);
+                ArrayList<ModificationMatch> modificationMatches = null;
+                int nModifications = input.readVarInt() - 1;
+                if (nModifications >= 0) {
+                    modificationMatches = new ArrayList<ModificationMatch>(nModifications);
+                    for (int i = 0; i < nModifications; i++) {
+                        String ptmName = input.readInternedString();
+                        int flags = input.readUnsignedByte();
+                        int site = input.readSignedVarInt();
+                        ModificationMatch modificationMatch = new ModificationMatch(ptmName, (flags & 1) != 0, site);
+                        modificationMatch.setConfident((flags & 2) != 0);
+                        modificationMatch.setInferred((flags & 4) != 0);
+                        if ((flags & 8) != 0) {
+                            setUrParams(modificationMatch, input.readSerializedObject());
+                        }
+                        modificationMatches.add(modificationMatch);
+                    }
+                }
+                Peptide peptide = new Peptide(sequence, modificationMatches, false, null);
+                if (parentProteins != null) {
+                    peptide.setParentProteins(parentProteins);
+                }
+                readUrParams(peptide, input);
+                return peptide;
+            case SERIALIZED:
+                return (Peptide) input.readSerializedObject();
+            default:
+                throw new IOException("Unknown peptide format " + flag + ".");
+        }
+    }
+
+    /**
+     * Writes a peptide match.
+     *
+     * @param peptideMatch the peptide match
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the match
+     */
+    private void writePeptideMatch(PeptideMatch peptideMatch, RecordOutput output) throws IOException {
+        output.writeString(peptideMatch.getKey());
+        writePeptide(peptideMatch.getTheoreticPeptide(), output);
+        writeStringList(peptideMatch.getSpectrumMatchesKeys(), output);
+        writeUrParams(peptideMatch, output);
+    }
+
+    /**
+     * Reads a peptide match.
+     *
+     * @param input the input
+     *
+     * @return the peptide match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the match
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a part of the match
+     */
+    private PeptideMatch readPeptideMatch(RecordInput input) throws IOException, ClassNotFoundException {
+        PeptideMatch peptideMatch = new PeptideMatch();
+        peptideMatch.setKey(input.readString());
+        peptideMatch.setTheoreticPeptide(readPeptide(input));
+        ArrayList<String> spectrumKeys = readStringList(input);
+        if (spectrumKeys != null) {
+            peptideMatch.getSpectrumMatchesKeys().addAll(spectrumKeys);
+        }
+        readUrParams(peptideMatch, input);
+        return peptideMatch;
+    }
+
+    /**
+     * Writes a protein match.
+     *
+     * @param proteinMatch the protein match
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the match
+     */
+    private void writeProteinMatch(ProteinMatch proteinMatch, RecordOutput output) throws IOException {
+        writeStringList(proteinMatch.getTheoreticProteinsAccessions(), output);
+        output.writeString(proteinMatch.getMainMatch());
+        writeStringList(proteinMatch.getPeptideMatchesKeys(), output);
+        writeUrParams(proteinMatch, output);
+    }
+
+    /**
+     * Reads a protein match.
+     *
+     * @param input the input
+     *
+     * @return the protein match
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the match
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing a part of the match
+     */
+    private ProteinMatch readProteinMatch(RecordInput input) throws IOException, ClassNotFoundException {
+        ProteinMatch proteinMatch = new ProteinMatch();
+        ArrayList<String> accessions = readStringList(input);
+        if (accessions != null) {
+            for (String accession : accessions) {
+                proteinMatch.addTheoreticProtein(accession);
+            }
+        }
+        proteinMatch.setMainMatch(input.readString());
+        ArrayList<String> peptideKeys = readStringList(input);
+        if (peptideKeys != null) {
+            proteinMatch.setPeptideKeys(peptideKeys);
+        }
+        readUrParams(proteinMatch, input);
+        return proteinMatch;
+    }
+
+    /**
+     * Writes a list of strings which can be null.
+     *
+     * @param list the list
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the list
+     */
+    private void writeStringList(ArrayList<String> list, RecordOutput output) throws IOException {
+        if (list == null) {
+            output.writeVarInt(0);
+            return;
+        }
+        output.writeVarInt(list.size() + 1);
+        for (String value : list) {
+            output.writeString(value);
+        }
+    }
+
+    /**
+     * Reads a list of strings.
+     *
+     * @param input the input
+     *
+     * @return the list of strings
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the list
+     */
+    private ArrayList<String> readStringList(RecordInput input) throws IOException {
+        int size = input.readVarInt() - 1;
+        if (size < 0) {
+            return null;
+        }
+        ArrayList<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(input.readString());
+        }
+        return list;
+    }
+
+    /**
+     * Writes the user parameters of an object.
+     *
+     * @param experimentObject the object
+     * @param output the output
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the parameters
+     */
+    private void writeUrParams(ExperimentObject experimentObject, RecordOutput output) throws IOException {
+        HashMap<String, UrParameter> urParams = experimentObject.getUrParams();
+        if (urParams != null && urParams.isEmpty()) {
+            urParams = null;
+        }
+        output.writeSerializedObject(urParams);
+    }
+
+    /**
+     * Reads the user parameters of an object.
+     *
+     * @param experimentObject the object
+     * @param input the input
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the parameters
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the parameters
+     */
+    private void readUrParams(ExperimentObject experimentObject, RecordInput input) throws IOException, ClassNotFoundException {
+        setUrParams(experimentObject, input.readSerializedObject());
+    }
+
+    /**
+     * Sets the user parameters of an object.
+     *
+     * @param experimentObject the object
+     * @param urParams the user parameters map as deserialized, can be null
+     *
+     * @throws IOException exception thrown whenever the deserialized object
+     * is not a map of user parameters
+     */
+    private void setUrParams(ExperimentObject experimentObject, Object urParams) throws IOException {
+        if (urParams != null) {
+            if (!(urParams instanceof HashMap)) {
+                throw new IOException("Unexpected user parameters of type " + urParams.getClass().getName() + ".");
+            }
+            for (Object urParameter : ((HashMap<?, ?>) urParams).values()) {
+                if (!(urParameter instanceof UrParameter)) {
+                    throw new IOException("Unexpected user parameter of type " + urParameter.getClass().getName() + ".");
+                }
+                experimentObject.addUrParam((UrParameter) urParameter);
+            }
+        }
+    }
+}
@@ -116,4 +116,27 @@ public class PeptideMatch extends IdentificationMatch {
     public MatchType getType() {
         return MatchType.Peptide;
     }
+
+    @Override
+    public long getEstimatedSize() {
+        return MATCH_SIZE + getEstimatedSize(matchKey) + getEstimatedSize(spectrumMatchesKeys) + getEstimatedSize(theoreticPeptide);
+    }
+
+    /**
+     * Returns an estimate of the size of a peptide in memory in bytes.
+     *
+     * @param peptide the peptide, can be null
+     *
+     * @return an estimate of the size of the peptide in memory in bytes
+     */
+    public static long getEstimatedSize(Peptide peptide) {
+        if (peptide == null) {
+            return 0;
+        }
+        long size = PEPTIDE_SIZE + getEstimatedSize(peptide.getSequence()) + getEstimatedSize(peptide.getParentProteinsNoRemapping());
+        if (peptide.isModified()) {
+            size += MODIFICATION_MATCH_SIZE * peptide.getModificationMatches().size();
+        }
+        return size;
+    }
 }
@@ -457,4 +457,9 @@ public class ProteinMatch extends IdentificationMatch {
     public MatchType getType() {
         return MatchType.Protein;
     }
+
+    @Override
+    public long getEstimatedSize() {
+        return MATCH_SIZE + getEstimatedSize(mainMatch) + getEstimatedSize(theoreticProtein) + getEstimatedSize(peptideMatchesKeys);
+    }
 }
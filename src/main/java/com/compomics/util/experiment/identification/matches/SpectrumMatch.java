@@ -171,6 +171,16 @@ public class SpectrumMatch extends IdentificationMatch {
         return assumptionsMap;
     }
 
+    /**
+     * Sets the assumptions map: advocate id &gt; score &gt; list of
+     * assumptions.
+     *
+     * @param assumptionsMap the assumptions map
+     */
+    public void setAssumptionsMap(HashMap<Integer, HashMap<Double, ArrayList<SpectrumIdentificationAssumption>>> assumptionsMap) {
+        this.assumptionsMap = assumptionsMap;
+    }
+
     /**
      * Removes all assumptions but the best ones from the spectrum map.
      */
@@ -209,6 +219,28 @@ public class SpectrumMatch extends IdentificationMatch {
         return MatchType.Spectrum;
     }
 
+    @Override
+    public long getEstimatedSize() {
+        long size = MATCH_SIZE + getEstimatedSize(spectrumKey);
+        if (assumptionsMap != null) {
+            size += MAP_SIZE;
+            for (HashMap<Double, ArrayList<SpectrumIdentificationAssumption>> advocateMap : assumptionsMap.values()) {
+                size += MAP_ENTRY_SIZE + MAP_SIZE;
+                for (ArrayList<SpectrumIdentificationAssumption> assumptions : advocateMap.values()) {
+                    size += MAP_ENTRY_SIZE + LIST_SIZE + LIST_ELEMENT_SIZE * assumptions.size();
+                    for (SpectrumIdentificationAssumption assumption : assumptions) {
+                        if (assumption instanceof PeptideAssumption) {
+                            size += PEPTIDE_ASSUMPTION_SIZE + PeptideMatch.getEstimatedSize(((PeptideAssumption) assumption).getPeptide());
+                        } else {
+                            size += OTHER_ASSUMPTION_SIZE;
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
     /**
      * Replaces the new key. The key of the PSM should always be the same as the
      * spectrum key it links to.
@@ -0,0 +1,199 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the mapping of a batch of peptides in blocks processed by a pool of
+ * threads. The peptides are deduplicated and sorted by reversed sequence so
+ * that peptides sharing a C-terminal suffix are mapped one after the other.
+ * The results are handed to the callback in the calling thread in the order
+ * of the sorted peptides.
+ *
+ * @author Marc Vaudel
+ * @author Dominik Kopczynski
+ */
+public class PeptideBatchMapper {
+
+    /**
+     * The number of peptides mapped by a thread at a time.
+     */
+    public static final int BLOCK_SIZE = 1000;
+
+    /**
+     * Interface for the mapping of a block of sorted peptides.
+     */
+    public interface BlockMapper {
+
+        /**
+         * Returns the protein mappings of the given peptides, in the same
+         * order.
+         *
+         * @param peptideSequences the peptide sequences sorted by reversed
+         * sequence
+         *
+         * @return the protein mappings of every peptide
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading or writing a file
+         * @throws ClassNotFoundException exception thrown whenever an error
+         * occurs while deserializing an object
+         * @throws InterruptedException exception thrown whenever a threading
+         * issue occurred while mapping
+         * @throws SQLException exception thrown whenever a problem occurred
+         * while interacting with a database
+         */
+        public ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(List<String> peptideSequences)
+                throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+    }
+
+    /**
+     * Empty constructor, static methods only.
+     */
+    private PeptideBatchMapper() {
+    }
+
+    /**
+     * Returns the distinct peptide sequences sorted by reversed sequence.
+     *
+     * @param peptideSequences the peptide sequences
+     *
+     * @return the distinct peptide sequences sorted by reversed sequence
+     */
+    public static ArrayList<String> getSortedSequences(Collection<String> peptideSequences) {
+        HashSet<String> distinctSequences = new HashSet<String>(peptideSequences);
+        String[] reversedSequences = new String[distinctSequences.size()];
+        int i = 0;
+        for (String peptideSequence : distinctSequences) {
+            reversedSequences[i++] = new StringBuilder(peptideSequence).reverse().toString();
+        }
+        Arrays.sort(reversedSequences);
+        ArrayList<String> result = new ArrayList<String>(reversedSequences.length);
+        for (String reversedSequence : reversedSequences) {
+            result.add(new StringBuilder(reversedSequence).reverse().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Maps the given peptides using the given block mapper in a pool of
+     * threads and passes the results to the callback.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param nThreads the number of threads to use
+     * @param blockMapper the mapper for a block of peptides
+     * @param callback the callback receiving the results
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with a database
+     */
+    public static void getProteinMappings(Collection<String> peptideSequences, int nThreads, final BlockMapper blockMapper, PeptideMappingCallback callback)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+
+        ArrayList<String> sortedSequences = getSortedSequences(peptideSequences);
+
+        if (nThreads <= 1 || sortedSequences.size() <= BLOCK_SIZE) {
+            for (int start = 0; start < sortedSequences.size(); start += BLOCK_SIZE) {
+                List<String> block = sortedSequences.subList(start, Math.min(start + BLOCK_SIZE, sortedSequences.size()));
+                processResults(block, blockMapper.getProteinMappings(block), callback);
+            }
+            return;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        LinkedList<List<String>> blocks = new LinkedList<List<String>>();
+        LinkedList<Future<ArrayList<ArrayList<PeptideProteinMapping>>>> futures = new LinkedList<Future<ArrayList<ArrayList<PeptideProteinMapping>>>>();
+        try {
+            for (int start = 0; start < sortedSequences.size(); start += BLOCK_SIZE) {
+                final List<String> block = sortedSequences.subList(start, Math.min(start + BLOCK_SIZE, sortedSequences.size()));
+                futures.add(pool.submit(new Callable<ArrayList<ArrayList<PeptideProteinMapping>>>() {
+                    @Override
+                    public ArrayList<ArrayList<PeptideProteinMapping>> call() throws Exception {
+                        return blockMapper.getProteinMappings(block);
+                    }
+                }));
+                blocks.add(block);
+
+                // keep a bounded number of blocks in memory
+                while (futures.size() >= 2 * nThreads) {
+                    processResults(blocks.removeFirst(), getResult(futures.removeFirst()), callback);
+                }
+            }
+            while (!futures.isEmpty()) {
+                processResults(blocks.removeFirst(), getResult(futures.removeFirst()), callback);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Passes the results of a block to the callback.
+     *
+     * @param block the peptide sequences of the block
+     * @param results the results of the block
+     * @param callback the callback
+     */
+    private static void processResults(List<String> block, ArrayList<ArrayList<PeptideProteinMapping>> results, PeptideMappingCallback callback) {
+        for (int i = 0; i < block.size(); i++) {
+            callback.peptideMapped(block.get(i), results.get(i));
+        }
+    }
+
+    /**
+     * Waits for the result of a block and rethrows the exceptions encountered
+     * while mapping.
+     *
+     * @param future the future of the block
+     *
+     * @return the result of the block
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while mapping
+     * @throws SQLException exception thrown whenever a problem occurred while
+     * interacting with a database
+     */
+    private static ArrayList<ArrayList<PeptideProteinMapping>> getResult(Future<ArrayList<ArrayList<PeptideProteinMapping>>> future)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            } else if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * Interface for a class mapping peptides to a protein.
@@ -39,6 +40,30 @@ public interface PeptideMapper {
     public ArrayList<PeptideProteinMapping> getProteinMapping(String peptideSequence, SequenceMatchingPreferences proteinInferencePreferences)
             throws IOException, InterruptedException, ClassNotFoundException, SQLException;
 
+    /**
+     * Maps a batch of peptide sequences to the proteins of the FASTA file
+     * loaded in the sequence factory. Duplicate sequences are mapped once.
+     * The results are passed to the callback in the calling thread, one
+     * peptide at a time, with the peptides sorted by reversed sequence as
+     * done by the PeptideBatchMapper.
+     *
+     * @param peptideSequences the peptide sequences
+     * @param sequenceMatchingPreferences the sequence matching preferences
+     * @param nThreads the number of threads to use
+     * @param callback the callback receiving the mapping of every peptide
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading or writing a file
+     * @throws ClassNotFoundException exception thrown whenever an error occurs
+     * while deserializing an object
+     * @throws InterruptedException exception thrown whenever a threading issue
+     * occurred while interacting with the tree
+     * @throws SQLException if an SQLException exception thrown whenever a
+     * problem occurred while interacting with the tree database
+     */
+    public void getProteinMappings(Collection<String> peptideSequences, SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads, PeptideMappingCallback callback)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException;
+
     /**
      * Returns the protein mappings for the given peptide sequence. Peptide
      * sequence | Protein accession | Index in the protein. An empty map if not
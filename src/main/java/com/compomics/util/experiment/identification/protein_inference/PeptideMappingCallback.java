@@ -0,0 +1,21 @@
+package com.compomics.util.experiment.identification.protein_inference;
+
+import java.util.ArrayList;
+
+/**
+ * Callback receiving the results of a batch peptide to protein mapping.
+ *
+ * @author Marc Vaudel
+ * @author Dominik Kopczynski
+ */
+public interface PeptideMappingCallback {
+
+    /**
+     * Called when the mapping of a peptide sequence is complete.
+     *
+     * @param peptideSequence the peptide sequence as given in the batch
+     * @param peptideProteinMappings the protein mappings of this peptide, empty
+     * if not found
+     */
+    public void peptideMapped(String peptideSequence, ArrayList<PeptideProteinMapping> peptideProteinMappings);
+}
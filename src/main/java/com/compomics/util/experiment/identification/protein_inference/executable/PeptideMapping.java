@@ -103,7 +103,12 @@ public class PeptideMapping {
         long startTimeIndex = System.nanoTime();
         PeptideMapper peptideMapper = null;
         if (peptideMapperType == PeptideMapperType.fm_index) {
-            peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters);
+            try {
+                peptideMapper = new FMIndex(waitingHandlerCLIImpl, true, peptideVariantsPreferences, searchParameters);
+            } catch (Exception e) {
+                System.err.println("Error: could not set up index");
+                System.exit(-1);
+            }
         } else {
             try {
                 peptideMapper = new ProteinTree(1000, 1000);
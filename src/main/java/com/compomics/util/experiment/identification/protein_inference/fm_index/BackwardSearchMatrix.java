@@ -0,0 +1,299 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.preferences.SequenceMatchingPreferences;
+import java.util.Arrays;
+
+/**
+ * Matrix of the backward search stored as a structure of arrays. A cell is
+ * referenced by its index in the arrays and the cells of a row are chained
+ * in insertion order. The arrays only grow so that an instance can be reused
+ * by a thread for all its searches without allocating objects per cell.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public class BackwardSearchMatrix {
+
+    /**
+     * Value of the parent and next indexes when none.
+     */
+    public static final int NONE = -1;
+    /**
+     * The initial number of cells.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Left index of the cells.
+     */
+    public int[] left = new int[INITIAL_CAPACITY];
+    /**
+     * Right index of the cells.
+     */
+    public int[] right = new int[INITIAL_CAPACITY];
+    /**
+     * Character chosen in the cells.
+     */
+    public int[] character = new int[INITIAL_CAPACITY];
+    /**
+     * Index of the originating cell, negative for the seeds of the search.
+     */
+    public int[] parent = new int[INITIAL_CAPACITY];
+    /**
+     * Number of X of the cells.
+     */
+    public int[] numX = new int[INITIAL_CAPACITY];
+    /**
+     * Length of the peptides of the cells.
+     */
+    public int[] length = new int[INITIAL_CAPACITY];
+    /**
+     * Modification position of the cells.
+     */
+    public int[] modificationPos = new int[INITIAL_CAPACITY];
+    /**
+     * Ambiguous character of the cells.
+     */
+    public int[] ambiguousChar = new int[INITIAL_CAPACITY];
+    /**
+     * Tag component of the cells.
+     */
+    public int[] tagComponent = new int[INITIAL_CAPACITY];
+    /**
+     * Mass of the cells.
+     */
+    public double[] mass = new double[INITIAL_CAPACITY];
+    /**
+     * Mass difference covered by X of the cells, -1 if none.
+     */
+    public double[] xMassDiff = new double[INITIAL_CAPACITY];
+    /**
+     * Index of the next cell in the same row.
+     */
+    private int[] next = new int[INITIAL_CAPACITY];
+    /**
+     * Index of the first cell of every row.
+     */
+    private int[] rowFirst = new int[0];
+    /**
+     * Index of the last cell of every row.
+     */
+    private int[] rowLast = new int[0];
+    /**
+     * The number of cells.
+     */
+    private int size = 0;
+    /**
+     * Buffer for the range queries.
+     */
+    public final int[] range = new int[2];
+    /**
+     * Buffer for the characters of the peptides.
+     */
+    private char[] chars = new char[64];
+    /**
+     * Buffer for the matrix contents.
+     */
+    private MatrixContent[] contents = new MatrixContent[INITIAL_CAPACITY];
+    /**
+     * The sequence matching type of the combinations.
+     */
+    private SequenceMatchingPreferences.MatchingType combinationsType = null;
+    /**
+     * The amino acids matching every ASCII character according to the
+     * sequence matching type, filled on demand.
+     */
+    private final String[] combinations = new String[128];
+
+    /**
+     * Empties the matrix and prepares the given number of rows.
+     *
+     * @param nRows the number of rows
+     */
+    public void reset(int nRows) {
+        size = 0;
+        if (rowFirst.length < nRows) {
+            rowFirst = new int[nRows];
+            rowLast = new int[nRows];
+        }
+        Arrays.fill(rowFirst, NONE);
+        Arrays.fill(rowLast, NONE);
+    }
+
+    /**
+     * Prepares the given number of rows keeping the cells of the first rows.
+     * Only valid if the cells were added row after row.
+     *
+     * @param nRows the number of rows
+     * @param keptRows the number of rows to keep
+     */
+    public void reset(int nRows, int keptRows) {
+        if (keptRows < rowFirst.length && rowFirst[keptRows] != NONE) {
+            size = rowFirst[keptRows];
+        }
+        if (rowFirst.length < nRows) {
+            int oldLength = rowFirst.length;
+            rowFirst = Arrays.copyOf(rowFirst, nRows);
+            rowLast = Arrays.copyOf(rowLast, nRows);
+            Arrays.fill(rowFirst, oldLength, nRows, NONE);
+            Arrays.fill(rowLast, oldLength, nRows, NONE);
+        }
+        Arrays.fill(rowFirst, keptRows, rowFirst.length, NONE);
+        Arrays.fill(rowLast, keptRows, rowLast.length, NONE);
+    }
+
+    /**
+     * Returns the number of cells.
+     *
+     * @return the number of cells
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the first cell of a row.
+     *
+     * @param row the row
+     *
+     * @return the index of the first cell of the row, NONE if empty
+     */
+    public int first(int row) {
+        return rowFirst[row];
+    }
+
+    /**
+     * Returns the index of the cell following the given cell in its row.
+     *
+     * @param cell the index of the cell
+     *
+     * @return the index of the next cell, NONE if last
+     */
+    public int next(int cell) {
+        return next[cell];
+    }
+
+    /**
+     * Adds a cell at the end of a row.
+     *
+     * @param row the row
+     * @param left the left index
+     * @param right the right index
+     * @param character the character
+     * @param parent the index of the originating cell
+     * @param numX the number of X
+     *
+     * @return the index of the new cell
+     */
+    public int add(int row, int left, int right, int character, int parent, int numX) {
+        return add(row, left, right, character, parent, 0, 0, numX, -1, -1, -1);
+    }
+
+    /**
+     * Adds a cell at the end of a row.
+     *
+     * @param row the row
+     * @param left the left index
+     * @param right the right index
+     * @param character the character
+     * @param parent the index of the originating cell
+     * @param mass the mass
+     * @param length the length
+     * @param numX the number of X
+     * @param modificationPos the modification position
+     * @param ambiguousChar the ambiguous character
+     * @param tagComponent the tag component
+     *
+     * @return the index of the new cell
+     */
+    public int add(int row, int left, int right, int character, int parent, double mass, int length, int numX, int modificationPos, int ambiguousChar, int tagComponent) {
+        if (size == next.length) {
+            grow();
+        }
+        int cell = size++;
+        this.left[cell] = left;
+        this.right[cell] = right;
+        this.character[cell] = character;
+        this.parent[cell] = parent;
+        this.mass[cell] = mass;
+        this.length[cell] = length;
+        this.numX[cell] = numX;
+        this.modificationPos[cell] = modificationPos;
+        this.ambiguousChar[cell] = ambiguousChar;
+        this.tagComponent[cell] = tagComponent;
+        this.xMassDiff[cell] = -1;
+        next[cell] = NONE;
+        if (rowLast[row] == NONE) {
+            rowFirst[row] = cell;
+        } else {
+            next[rowLast[row]] = cell;
+        }
+        rowLast[row] = cell;
+        return cell;
+    }
+
+    /**
+     * Returns a buffer for the characters of a peptide.
+     *
+     * @param length the length of the peptide
+     *
+     * @return a buffer of at least the given length
+     */
+    public char[] getChars(int length) {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+        }
+        return chars;
+    }
+
+    /**
+     * Returns a buffer for matrix contents, keeping the contents already in
+     * the buffer. The buffer must be emptied after use so that the contents
+     * can be garbage collected.
+     *
+     * @param length the number of contents
+     *
+     * @return a buffer of at least the given length
+     */
+    public MatrixContent[] getContents(int length) {
+        if (contents.length < length) {
+            contents = Arrays.copyOf(contents, Math.max(length, 2 * contents.length));
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the table of the amino acids matching every ASCII character
+     * for the given sequence matching type. The table is emptied when the
+     * sequence matching type changes, missing entries are null.
+     *
+     * @param sequenceMatchingType the sequence matching type
+     *
+     * @return the table of the amino acids matching every ASCII character
+     */
+    public String[] getCombinations(SequenceMatchingPreferences.MatchingType sequenceMatchingType) {
+        if (sequenceMatchingType != combinationsType) {
+            Arrays.fill(combinations, null);
+            combinationsType = sequenceMatchingType;
+        }
+        return combinations;
+    }
+
+    /**
+     * Doubles the capacity of the arrays.
+     */
+    private void grow() {
+        int capacity = 2 * next.length;
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        character = Arrays.copyOf(character, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        numX = Arrays.copyOf(numX, capacity);
+        length = Arrays.copyOf(length, capacity);
+        modificationPos = Arrays.copyOf(modificationPos, capacity);
+        ambiguousChar = Arrays.copyOf(ambiguousChar, capacity);
+        tagComponent = Arrays.copyOf(tagComponent, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        xMassDiff = Arrays.copyOf(xMassDiff, capacity);
+        next = Arrays.copyOf(next, capacity);
+    }
+}
@@ -17,24 +17,39 @@ import com.compomics.util.experiment.identification.identification_parameters.Pt
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
+import com.compomics.util.experiment.identification.protein_inference.PeptideBatchMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingCallback;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.IntBuffer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
 import org.jsuffixarrays.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.Semaphore;
 
 /**
@@ -44,10 +59,20 @@ import java.util.concurrent.Semaphore;
  * @author Marc Vaudel
  */
 public class FMIndex implements PeptideMapper {
+
+    /**
+     * The extension of the index files stored next to the FASTA files.
+     */
+    public static final String INDEX_FILE_EXTENSION = ".fmi";
+    /**
+     * Magic number at the beginning of the index files.
+     */
+    private static final long INDEX_FILE_MAGIC = 0x315845444e494d46L;
     /**
-     * Semaphore for caching.
+     * Version of the index file format, to be incremented whenever the
+     * content of the index changes.
      */
-    static Semaphore cacheMutex = new Semaphore(1);
+    private static final int INDEX_FILE_VERSION = 3;
     /**
     * Number of chunks of complete index.
     */
@@ -57,17 +82,56 @@ public class FMIndex implements PeptideMapper {
      */
     private final int indexChunkSize = 100 * 1024 * 1024;
     /**
-     * Sampled suffix array.
+     * Approximate number of bytes needed per indexed character while building
+     * an index part (text, integer text, suffix array, BWT and wavelet tree).
      */
-    private final ArrayList<int[]> suffixArraysPrimary = new ArrayList<int[]>();
+    private static final long BUILD_BYTES_PER_CHARACTER = 14;
+    /**
+     * The number of progress steps of the building of an index part.
+     */
+    private static final int INDEX_PART_PROGRESS_STEPS = 8;
+    /**
+     * The number of threads to use to build the index parts.
+     */
+    private final int nThreads;
+    /**
+     * If true, the cells of the backward searches are stored in primitive
+     * arrays reused by every thread instead of objects.
+     */
+    private final boolean arraySearch;
+    /**
+     * If true, the occurrence tables are stored in wavelet matrices instead
+     * of wavelet trees.
+     */
+    private final boolean waveletMatrix;
+    /**
+     * If true, the index is stored next to the FASTA file and loaded from
+     * there when available.
+     */
+    private final boolean persistIndex;
+    /**
+     * The backward search matrices of the threads.
+     */
+    private final ThreadLocal<BackwardSearchMatrix> searchMatrices = new ThreadLocal<BackwardSearchMatrix>() {
+        @Override
+        protected BackwardSearchMatrix initialValue() {
+            return new BackwardSearchMatrix();
+        }
+    };
     /**
-     * Wavelet tree for storing the burrows wheeler transform.
+     * Sampled suffix array. Read-only view on the mapped index file when the
+     * index was loaded from disk.
      */
-    public ArrayList<WaveletTree> occurrenceTablesPrimary = new ArrayList<WaveletTree>();
+    private final ArrayList<IntBuffer> suffixArraysPrimary = new ArrayList<IntBuffer>();
     /**
-     * Wavelet tree for storing the burrows wheeler transform reversed.
+     * Wavelet tree or matrix for storing the burrows wheeler transform.
      */
-    public ArrayList<WaveletTree> occurrenceTablesReversed = new ArrayList<WaveletTree>();
+    public ArrayList<OccurrenceTable> occurrenceTablesPrimary = new ArrayList<OccurrenceTable>();
+    /**
+     * Wavelet tree or matrix for storing the burrows wheeler transform
+     * reversed.
+     */
+    public ArrayList<OccurrenceTable> occurrenceTablesReversed = new ArrayList<OccurrenceTable>();
     /**
      * Less table for doing an update step according to the LF step.
      */
@@ -93,9 +157,10 @@ public class FMIndex implements PeptideMapper {
      */
     private final int sampling = 1 << samplingShift;
     /**
-     * Storing the starting positions of the protein sequences.
+     * Storing the starting positions of the protein sequences. Read-only view
+     * on the mapped index file when the index was loaded from disk.
      */
-    private final ArrayList<int[]> boundaries = new ArrayList<int[]>();
+    private final ArrayList<IntBuffer> boundaries = new ArrayList<IntBuffer>();
     /**
      * List of all accession IDs in the FASTA file.
      */
@@ -301,19 +366,19 @@ public class FMIndex implements PeptideMapper {
      * @return he position of a value in the array or if not found the position
      * of the closest smaller value
      */
-    private static int binarySearch(int[] array, int key) {
+    private static int binarySearch(IntBuffer array, int key) {
         int low = 0;
         int mid = 0;
-        int high = array.length - 1;
+        int high = array.limit() - 1;
         while (low <= high) {
             mid = (low + high) >> 1;
-            if (array[mid] <= key) {
+            if (array.get(mid) <= key) {
                 low = mid + 1;
             } else {
                 high = mid - 1;
             }
         }
-        if (mid > 0 && key < array[mid]) {
+        if (mid > 0 && key < array.get(mid)) {
             mid -= 1;
         }
         return mid;
@@ -465,7 +530,7 @@ public class FMIndex implements PeptideMapper {
     public long getAllocatedBytes() {
         long bytes = 0;
         for (int indexPart = 0; indexPart < indexParts; ++indexPart){
-            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).length * 4;
+            bytes += occurrenceTablesPrimary.get(indexPart).getAllocatedBytes() + occurrenceTablesReversed.get(indexPart).getAllocatedBytes() + suffixArraysPrimary.get(indexPart).capacity() * 4;
         }
         return bytes;
     }
@@ -473,7 +538,8 @@ public class FMIndex implements PeptideMapper {
     
     /**
      * Constructor. If PTM settings are provided the index will contain
-     * modification information, ignored if null.
+     * modification information, ignored if null. The index is built or loaded
+     * using the default settings.
      *
      * @param waitingHandler the waiting handler
      * @param displayProgress if true, the progress is displayed
@@ -481,23 +547,104 @@ public class FMIndex implements PeptideMapper {
      * @param searchParameters the search parameters
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters) {
+        this(new FMIndexSettings());
         massTolerance = searchParameters.getFragmentIonAccuracy();
         massAccuracyType = searchParameters.getFragmentAccuracyType();
-        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
+        initUnchecked(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
     }
-    
+
     /**
      * Constructor. If PTM settings are provided the index will contain
      * modification information, ignored if null.
      *
      * @param waitingHandler the waiting handler
      * @param displayProgress if true, the progress is displayed
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param searchParameters the search parameters
+     * @param fmIndexSettings the settings for the building and the storage of
+     * the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted while building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PeptideVariantsPreferences peptideVariantsPreferences, SearchParameters searchParameters, FMIndexSettings fmIndexSettings) throws IOException, InterruptedException {
+        this(fmIndexSettings);
+        massTolerance = searchParameters.getFragmentIonAccuracy();
+        massAccuracyType = searchParameters.getFragmentAccuracyType();
+        init(waitingHandler, displayProgress, searchParameters.getPtmSettings(), peptideVariantsPreferences);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null. The index is built or loaded
+     * using the default settings.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
      * @param ptmSettings contains modification parameters for identification
      * @param peptideVariantsPreferences contains all parameters for variants
      */
     public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
+        this(new FMIndexSettings());
+        initUnchecked(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
+    }
+
+    /**
+     * Constructor. If PTM settings are provided the index will contain
+     * modification information, ignored if null.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param ptmSettings contains modification parameters for identification
+     * @param peptideVariantsPreferences contains all parameters for variants
+     * @param fmIndexSettings the settings for the building and the storage of
+     * the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted while building the index
+     */
+    public FMIndex(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences, FMIndexSettings fmIndexSettings) throws IOException, InterruptedException {
+        this(fmIndexSettings);
         init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
     }
+
+    /**
+     * Constructor setting the building and storage settings, only called by
+     * the other constructors.
+     *
+     * @param fmIndexSettings the settings for the building and the storage of
+     * the index
+     */
+    private FMIndex(FMIndexSettings fmIndexSettings) {
+        nThreads = Math.max(fmIndexSettings.getnThreads(), 1);
+        arraySearch = fmIndexSettings.isArraySearch();
+        waveletMatrix = fmIndexSettings.isWaveletMatrix();
+        persistIndex = fmIndexSettings.isPersistIndex();
+    }
+
+    /**
+     * Calls the init function, wrapping the checked exceptions in an
+     * unchecked exception for the constructors which do not declare them.
+     *
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     * @param ptmSettings contains modification parameters for identification
+     * @param peptideVariantsPreferences contains all parameters for variants
+     */
+    private void initUnchecked(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) {
+        try {
+            init(waitingHandler, displayProgress, ptmSettings, peptideVariantsPreferences);
+        } catch (IOException e) {
+            throw new IllegalStateException("An error occurred while reading the FASTA file.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while building the index.", e);
+        }
+    }
         
     /**
      * init function only called by the constructors. If PTM settings are provided the index will contain
@@ -507,9 +654,13 @@ public class FMIndex implements PeptideMapper {
      * @param displayProgress if true, the progress is displayed
      * @param ptmSettings contains modification parameters for identification
      * @param peptideVariantsPreferences contains all parameters for variants
-     * @param massTolerance the mass tolerance
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted while building the index
      */
-    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences){
+    private void init(WaitingHandler waitingHandler, boolean displayProgress, PtmSettings ptmSettings, PeptideVariantsPreferences peptideVariantsPreferences) throws IOException, InterruptedException {
 
         // load all variant preferences
         maxNumberVariants = peptideVariantsPreferences.getnVariants();
@@ -950,53 +1101,35 @@ public class FMIndex implements PeptideMapper {
             alphabet[sortedAas[i] >> 6] |= 1L << (sortedAas[i] & 63);
         }
 
-        // reading all proteins in a first pass to get information about number and total length
-        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
-        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
-        long ticker = indexChunkSize;
-        try {
-            int indexStringLength = 1;
-            int numProteins = 0;
-            ProteinIterator pi = sf.getProteinIterator(false);
-            while (pi.hasNext()) {
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                indexStringLength += proteinLen;
-                ++numProteins;
-                if (indexStringLength > ticker){
-                    tmpLengths.add(indexStringLength);
-                    tmpProteins.add(numProteins);
-                    indexStringLength = 1;
-                    numProteins = 0;
+        // load the index from disk if it was already built for this database, build it otherwise
+        File fastaFile = sf.getCurrentFastaFile();
+        File indexFile = persistIndex && fastaFile != null ? getIndexFile(fastaFile) : null;
+        boolean loaded = false;
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                loaded = readIndex(indexFile, fastaFile);
+            } catch (Exception e) {
+                clearIndex();
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("Impossible to read the index file " + indexFile.getName() + ", the index will be rebuilt. (" + e.getLocalizedMessage() + ")", true, true);
                 }
             }
-            tmpLengths.add(indexStringLength);
-            tmpProteins.add(numProteins);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-        
-        int maxProgressBar = 10 * tmpLengths.size();
-
-        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
-            waitingHandler.setSecondaryProgressCounter(0);
         }
-        
-        try {
-            ProteinIterator pi = sf.getProteinIterator(false);
-            for (int i = 0; i < tmpLengths.size(); ++i){
-                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+        if (!loaded) {
+            if (!buildIndex(sf, alphabet, waitingHandler, displayProgress)) {
+                return;
+            }
+            if (indexFile != null && (waitingHandler == null || !waitingHandler.isRunCanceled())) {
+                try {
+                    writeIndex(indexFile, fastaFile);
+                } catch (IOException e) {
+                    if (waitingHandler != null) {
+                        waitingHandler.appendReport("Impossible to write the index file " + indexFile.getName() + ", the index will be rebuilt next time. (" + e.getLocalizedMessage() + ")", true, true);
+                    }
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        
+
         int lookupLength = ((int) ((lookupMaxMass + computeInverseMassValue(massTolerance, lookupMaxMass)) * lookupMultiplier));
         lookupMasses = new long[(lookupLength >>> 6) + 3];
         for (int i = 0; i < lookupMasses.length; ++i) {
@@ -1019,8 +1152,254 @@ public class FMIndex implements PeptideMapper {
                return (int)((m1.mass - m2.mass) * 1000000.);
            } 
         });
-        cache = (HashMap<String, CacheElement>[])new HashMap[indexParts];
-        for (int indexPart = 0; indexPart < indexParts; ++indexPart) cache[indexPart] = new HashMap<String, CacheElement>();
+    }
+
+    /**
+     * Builds the index parts from the proteins of the database loaded in the
+     * sequence factory.
+     *
+     * @param sf the sequence factory
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if true, the progress is displayed
+     *
+     * @return false if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted while building the index
+     */
+    private boolean buildIndex(SequenceFactory sf, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
+
+        // reading all proteins in a first pass to get information about number and total length
+        ArrayList<Integer> tmpLengths = new ArrayList<Integer>();
+        ArrayList<Integer> tmpProteins = new ArrayList<Integer>();
+        long ticker = indexChunkSize;
+        int indexStringLength = 1;
+        int numProteins = 0;
+        ProteinIterator proteinIterator = sf.getProteinIterator(false);
+        while (proteinIterator.hasNext()) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return false;
+            }
+            Protein currentProtein = proteinIterator.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            indexStringLength += proteinLen;
+            ++numProteins;
+            if (indexStringLength > ticker){
+                tmpLengths.add(indexStringLength);
+                tmpProteins.add(numProteins);
+                indexStringLength = 1;
+                numProteins = 0;
+            }
+        }
+        tmpLengths.add(indexStringLength);
+        tmpProteins.add(numProteins);
+        
+        int maxProgressBar = 10 * tmpLengths.size();
+
+        if (waitingHandler != null && displayProgress && !waitingHandler.isRunCanceled()) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(maxProgressBar);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+        
+        ProteinIterator pi = sf.getProteinIterator(false);
+        if (nThreads > 1 && tmpLengths.size() > 1) {
+            addDataToIndexConcurrently(pi, tmpLengths, tmpProteins, alphabet, waitingHandler, displayProgress);
+        } else {
+            for (int i = 0; i < tmpLengths.size(); ++i){
+                addDataToIndex(pi, tmpLengths.get(i), tmpProteins.get(i), alphabet, waitingHandler, displayProgress);
+            }
+        }
+
+        return waitingHandler == null || !waitingHandler.isRunCanceled();
+    }
+
+    /**
+     * Returns the file where the index of the given FASTA file is stored.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the file where the index is stored
+     */
+    public static File getIndexFile(File fastaFile) {
+        return new File(fastaFile.getParentFile(), fastaFile.getName() + INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Returns a checksum of the FASTA file computed on its length and complete
+     * content, so that an edited file is detected even if its length and
+     * modification date were preserved.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the checksum of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public static long getFastaChecksum(File fastaFile) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1024 * 1024];
+        long length = 0;
+        FileInputStream fis = new FileInputStream(fastaFile);
+        try {
+            int read;
+            while ((read = fis.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                length += read;
+            }
+        } finally {
+            fis.close();
+        }
+        return (length << 32) ^ crc.getValue();
+    }
+
+    /**
+     * Writes the index parts to a binary file which can be memory mapped. The
+     * file is written under a temporary name and renamed when complete so
+     * that concurrent processes never read a partial index.
+     *
+     * @param indexFile the index file
+     * @param fastaFile the indexed FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeIndex(File indexFile, File fastaFile) throws IOException {
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+        try {
+            BinaryFileWriter writer = new BinaryFileWriter(tempFile);
+            try {
+                writer.writeLong(INDEX_FILE_MAGIC);
+                writer.writeInt(INDEX_FILE_VERSION);
+                writer.writeLong(getFastaChecksum(fastaFile));
+                writer.writeInt(numMasses);
+                writer.writeBoolean(hasPTMatTerminus);
+                writer.writeBoolean(waveletMatrix);
+                writer.writeInt(samplingShift);
+                writer.writeInt(indexParts);
+                for (int indexPart = 0; indexPart < indexParts; ++indexPart) {
+                    writer.writeInt(indexStringLengths.get(indexPart));
+                    writer.writeIntBuffer(suffixArraysPrimary.get(indexPart));
+                    writer.writeIntArray(lessTablesPrimary.get(indexPart));
+                    writer.writeIntArray(lessTablesReversed.get(indexPart));
+                    writer.writeIntBuffer(boundaries.get(indexPart));
+                    writer.writeStringArray(accessions.get(indexPart));
+                    occurrenceTablesPrimary.get(indexPart).write(writer);
+                    occurrenceTablesReversed.get(indexPart).write(writer);
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tempFile.renameTo(indexFile)) {
+                    throw new IOException("Impossible to write the index file " + indexFile.getAbsolutePath() + ".");
+                }
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the index parts from a binary file. The file is ignored if it was
+     * built from another version of the FASTA file or with other modification
+     * settings. The sampled suffix arrays, protein boundaries and the bit
+     * fields of the occurrence tables are read-only views on the mapped file,
+     * they are not copied to the heap and their pages are shared by all
+     * processes mapping the same index file. The accessions and the less
+     * tables, which only have one entry per character, are read on the heap.
+     *
+     * @param indexFile the index file
+     * @param fastaFile the indexed FASTA file
+     *
+     * @return true if the index could be loaded from the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public boolean readIndex(File indexFile, File fastaFile) throws IOException {
+        MappedFileReader reader = new MappedFileReader(indexFile);
+        try {
+            if (reader.readLong() != INDEX_FILE_MAGIC
+                    || reader.readInt() != INDEX_FILE_VERSION
+                    || reader.readLong() != getFastaChecksum(fastaFile)
+                    || reader.readInt() != numMasses
+                    || reader.readBoolean() != hasPTMatTerminus
+                    || reader.readBoolean() != waveletMatrix
+                    || reader.readInt() != samplingShift) {
+                return false;
+            }
+            int nParts = reader.readInt();
+            for (int indexPart = 0; indexPart < nParts; ++indexPart) {
+                indexStringLengths.add(reader.readInt());
+                suffixArraysPrimary.add(reader.mapIntArray());
+                lessTablesPrimary.add(reader.readIntArray());
+                lessTablesReversed.add(reader.readIntArray());
+                boundaries.add(reader.mapIntArray());
+                accessions.add(reader.readStringArray());
+                occurrenceTablesPrimary.add(readOccurrenceTable(reader));
+                occurrenceTablesReversed.add(readOccurrenceTable(reader));
+            }
+            indexParts = nParts;
+            return true;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads an occurrence table from a binary file.
+     *
+     * @param reader the reader positioned at the beginning of the table
+     *
+     * @return the occurrence table
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private OccurrenceTable readOccurrenceTable(MappedFileReader reader) throws IOException {
+        if (waveletMatrix) {
+            return new WaveletMatrix(reader);
+        }
+        return new WaveletTree(reader);
+    }
+
+    /**
+     * Creates an occurrence table for the given Burrows-Wheeler transform.
+     *
+     * @param bwt the Burrows-Wheeler transform
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     *
+     * @return the occurrence table
+     */
+    private OccurrenceTable createOccurrenceTable(byte[] bwt, long[] alphabet, WaitingHandler waitingHandler) {
+        if (waveletMatrix) {
+            return new WaveletMatrix(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+        }
+        return new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+    }
+
+    /**
+     * Removes all index parts.
+     */
+    private void clearIndex() {
+        indexParts = 0;
+        indexStringLengths.clear();
+        suffixArraysPrimary.clear();
+        lessTablesPrimary.clear();
+        lessTablesReversed.clear();
+        boundaries.clear();
+        accessions.clear();
+        occurrenceTablesPrimary.clear();
+        occurrenceTablesReversed.clear();
     }
 
     /**
@@ -1032,8 +1411,118 @@ public class FMIndex implements PeptideMapper {
      * @param alphabet the alphabet
      * @param waitingHandler the waiting handler
      * @param displayProgress if progress is to be displayed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
+        byte[] T = readIndexText(pi, indexStringLength, numProteins, waitingHandler, displayProgress);
+        if (T == null) {
+            return;
+        }
+        IndexPart indexPart = buildIndexPart(T, alphabet, waitingHandler, displayProgress);
+        if (indexPart != null) {
+            addIndexPart(indexPart);
+        }
+    }
+
+    /**
+     * Builds the index parts concurrently. The protein sequences are read in
+     * the calling thread, the index structures are built in a pool of
+     * nThreads threads. The number of parts held in memory at the same time
+     * is limited according to the free memory. The progress is only updated
+     * by the calling thread, the building threads only check whether the
+     * process was canceled.
+     *
+     * @param pi the protein iterator
+     * @param lengths the index string lengths of the parts
+     * @param numProteins the number of proteins of the parts
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if progress is to be displayed
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
      */
-    void addDataToIndex(ProteinIterator pi, int indexStringLength, int numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress){
+    private void addDataToIndexConcurrently(ProteinIterator pi, ArrayList<Integer> lengths, ArrayList<Integer> numProteins, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
+
+        int maxLength = Collections.max(lengths) + Collections.max(numProteins) + 1;
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        int nPartsInMemory = (int) Math.min(nThreads, Math.max(1, freeMemory / (BUILD_BYTES_PER_CHARACTER * maxLength)));
+        final Semaphore memoryPermits = new Semaphore(nPartsInMemory);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, lengths.size()));
+        ArrayList<Future<IndexPart>> futures = new ArrayList<Future<IndexPart>>(lengths.size());
+        try {
+            for (int i = 0; i < lengths.size(); ++i) {
+                memoryPermits.acquire();
+                final byte[] T = readIndexText(pi, lengths.get(i), numProteins.get(i), waitingHandler, displayProgress);
+                if (T == null) {
+                    memoryPermits.release();
+                    return;
+                }
+                final long[] partAlphabet = alphabet;
+                final WaitingHandler partWaitingHandler = waitingHandler;
+                futures.add(pool.submit(new Callable<IndexPart>() {
+                    @Override
+                    public IndexPart call() {
+                        try {
+                            return buildIndexPart(T, partAlphabet, partWaitingHandler, false);
+                        } finally {
+                            memoryPermits.release();
+                        }
+                    }
+                }));
+            }
+            for (Future<IndexPart> future : futures) {
+                IndexPart indexPart;
+                try {
+                    indexPart = future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+                if (indexPart == null) {
+                    return;
+                }
+                addIndexPart(indexPart);
+                if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
+                    waitingHandler.increaseSecondaryProgressCounter(INDEX_PART_PROGRESS_STEPS);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads the protein sequences of an index part and returns the text to
+     * index. The length, boundaries and accessions of the part are stored.
+     *
+     * @param pi the protein iterator
+     * @param indexStringLength the index string length
+     * @param numProteins the number of proteins
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if progress is to be displayed
+     *
+     * @return the text to index, null if the process was canceled
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the FASTA file
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private byte[] readIndexText(ProteinIterator pi, int indexStringLength, int numProteins, WaitingHandler waitingHandler, boolean displayProgress) throws IOException, InterruptedException {
         indexParts += 1;
         indexStringLength += numProteins + 1; // delimiters between protein sequences + sentinal
         indexStringLengths.add(indexStringLength);
@@ -1047,35 +1536,49 @@ public class FMIndex implements PeptideMapper {
         T[indexStringLength - 1] = '$'; // adding the sentinal
 
         int[] bndaries = new int[numProteins + 1];
-        boundaries.add(bndaries);
+        boundaries.add(IntBuffer.wrap(bndaries));
         String[] accssions = new String[numProteins];
         accessions.add(accssions);
-        boundaries.get(0)[0] = 1;
+        boundaries.get(0).put(0, 1);
 
         // reading proteins in a second pass to store their amino acid sequences and their accession numbers
         int tmpN = 0;
         int tmpNumProtein = 0;
-        try {
-            for (int i = 0; i < numProteins; ++i){
-                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                    return;
-                }
-                if (!pi.hasNext()) throw new Exception("More sequences from database requested than contained.");
-                Protein currentProtein = pi.getNextProtein();
-                int proteinLen = currentProtein.getLength();
-                T[tmpN++] = '/'; // adding the delimiters
-                System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
-                tmpN += proteinLen;
-                accssions[tmpNumProtein++] = currentProtein.getAccession();
-                bndaries[tmpNumProtein] = tmpN + 1;
-
+        for (int i = 0; i < numProteins; ++i){
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return null;
+            }
+            if (!pi.hasNext()) {
+                throw new IllegalArgumentException("More sequences from database requested than contained.");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            Protein currentProtein = pi.getNextProtein();
+            int proteinLen = currentProtein.getLength();
+            T[tmpN++] = '/'; // adding the delimiters
+            System.arraycopy(currentProtein.getSequence().toUpperCase().getBytes(), 0, T, tmpN, proteinLen);
+            tmpN += proteinLen;
+            accssions[tmpNumProtein++] = currentProtein.getAccession();
+            bndaries[tmpNumProtein] = tmpN + 1;
         }
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
+        return T;
+    }
+
+    /**
+     * Builds the suffix arrays, Burrows-Wheeler transforms and occurrence
+     * tables of an index part. Can be called concurrently for different
+     * parts.
+     *
+     * @param T the text to index
+     * @param alphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param displayProgress if progress is to be displayed
+     *
+     * @return the index part, null if the process was canceled
+     */
+    private IndexPart buildIndexPart(byte[] T, long[] alphabet, WaitingHandler waitingHandler, boolean displayProgress) {
+        int indexStringLength = T.length;
 
         int[] T_int = new int[indexStringLength];
         for (int i = 0; i < indexStringLength; ++i) {
@@ -1102,17 +1605,17 @@ public class FMIndex implements PeptideMapper {
         int sampledIndex = 0;
         for (int i = 0; i < indexStringLength; i += sampling) {
             if (waitingHandler != null && waitingHandler.isRunCanceled()) {
-                return;
+                return null;
             }
             sampledSuffixArray[sampledIndex++] = suffixArrayPrimary[i];
         }
-        suffixArraysPrimary.add(sampledSuffixArray);
+        suffixArrayPrimary = null;
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
 
         // creating the occurrence table and less table for backward search over forward text
-        WaveletTree occurrenceTablePrimary = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+        OccurrenceTable occurrenceTablePrimary = createOccurrenceTable(bwt, alphabet, waitingHandler);
         int[] lessTablePrimary = occurrenceTablePrimary.createLessTable();
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
@@ -1135,6 +1638,7 @@ public class FMIndex implements PeptideMapper {
             T_int[i] = TReversed[i];
         }
         int[] suffixArrayReversed = (new DivSufSort()).buildSuffixArray(T_int, 0, indexStringLength);
+        T_int = null;
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
@@ -1144,21 +1648,78 @@ public class FMIndex implements PeptideMapper {
         for (int i = 0; i < indexStringLength; ++i) {
             bwt[i] = (suffixArrayReversed[i] != 0) ? TReversed[suffixArrayReversed[i] - 1] : TReversed[indexStringLength - 1];
         }
+        suffixArrayReversed = null;
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
 
         // create inversed less and occurrence table
-        WaveletTree occurrenceTableReversed = new WaveletTree(bwt, alphabet, waitingHandler, numMasses, hasPTMatTerminus);
+        OccurrenceTable occurrenceTableReversed = createOccurrenceTable(bwt, alphabet, waitingHandler);
         int[] lessTableReversed = occurrenceTableReversed.createLessTable();
         if (displayProgress && waitingHandler != null && !waitingHandler.isRunCanceled()) {
             waitingHandler.increaseSecondaryProgressCounter();
         }
         
-        occurrenceTablesPrimary.add(occurrenceTablePrimary);
-        occurrenceTablesReversed.add(occurrenceTableReversed);
-        lessTablesPrimary.add(lessTablePrimary);
-        lessTablesReversed.add(lessTableReversed);
+        return new IndexPart(sampledSuffixArray, occurrenceTablePrimary, occurrenceTableReversed, lessTablePrimary, lessTableReversed);
+    }
+
+    /**
+     * Adds the structures of a built index part to the index.
+     *
+     * @param indexPart the index part
+     */
+    private void addIndexPart(IndexPart indexPart) {
+        suffixArraysPrimary.add(IntBuffer.wrap(indexPart.sampledSuffixArray));
+        occurrenceTablesPrimary.add(indexPart.occurrenceTablePrimary);
+        occurrenceTablesReversed.add(indexPart.occurrenceTableReversed);
+        lessTablesPrimary.add(indexPart.lessTablePrimary);
+        lessTablesReversed.add(indexPart.lessTableReversed);
+    }
+
+    /**
+     * The structures of an index part built from a chunk of the proteome.
+     */
+    private static class IndexPart {
+
+        /**
+         * The sampled suffix array.
+         */
+        final int[] sampledSuffixArray;
+        /**
+         * The occurrence table of the forward text.
+         */
+        final OccurrenceTable occurrenceTablePrimary;
+        /**
+         * The occurrence table of the reversed text.
+         */
+        final OccurrenceTable occurrenceTableReversed;
+        /**
+         * The less table of the forward text.
+         */
+        final int[] lessTablePrimary;
+        /**
+         * The less table of the reversed text.
+         */
+        final int[] lessTableReversed;
+
+        /**
+         * Constructor.
+         *
+         * @param sampledSuffixArray the sampled suffix array
+         * @param occurrenceTablePrimary the occurrence table of the forward
+         * text
+         * @param occurrenceTableReversed the occurrence table of the reversed
+         * text
+         * @param lessTablePrimary the less table of the forward text
+         * @param lessTableReversed the less table of the reversed text
+         */
+        IndexPart(int[] sampledSuffixArray, OccurrenceTable occurrenceTablePrimary, OccurrenceTable occurrenceTableReversed, int[] lessTablePrimary, int[] lessTableReversed) {
+            this.sampledSuffixArray = sampledSuffixArray;
+            this.occurrenceTablePrimary = occurrenceTablePrimary;
+            this.occurrenceTableReversed = occurrenceTableReversed;
+            this.lessTablePrimary = lessTablePrimary;
+            this.lessTableReversed = lessTableReversed;
+        }
     }
 
     /**
@@ -1224,36 +1785,50 @@ public class FMIndex implements PeptideMapper {
                 combinations.add(peptide.substring(i, i + 1));
             }
         } else if (sequenceMatchingType == SequenceMatchingPreferences.MatchingType.aminoAcid || sequenceMatchingType == SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids) {
-            boolean indistinghuishable = sequenceMatchingType == SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids;
-
             for (int i = 0; i < peptide.length(); ++i) {
-                String chars = peptide.substring(i, i + 1);
-                char[] aaCombinations = AminoAcid.getAminoAcid(peptide.charAt(i)).getCombinations();
-                for (int j = 0; j < aaCombinations.length; ++j) {
-                    chars += aaCombinations[j];
-                }
-                if (peptide.charAt(i) == 'B' || peptide.charAt(i) == 'J' || peptide.charAt(i) == 'Z') {
-                    aaCombinations = AminoAcid.getAminoAcid(peptide.charAt(i)).getSubAminoAcids(false);
-                    for (int j = 0; j < aaCombinations.length; ++j) {
-                        chars += aaCombinations[j];
-                    }
-                }
+                combinations.add(getCombinationSequence(peptide.charAt(i), sequenceMatchingType));
+            }
+        }
+        return combinations;
+    }
 
-                if (indistinghuishable && (peptide.charAt(i) == 'I' || peptide.charAt(i) == 'L')) {
-                    switch (peptide.charAt(i)) {
-                        case 'I':
-                            chars += "L";
-                            break;
-                        case 'L':
-                            chars += "I";
-                            break;
-                    }
+    /**
+     * Returns the amino acids matching the given amino acid according to the
+     * sequence matching type, starting with the amino acid itself.
+     *
+     * @param aminoAcid the amino acid
+     * @param sequenceMatchingType the sequence matching type
+     *
+     * @return the amino acids matching the given amino acid
+     */
+    private String getCombinationSequence(char aminoAcid, SequenceMatchingPreferences.MatchingType sequenceMatchingType) {
+        String chars = String.valueOf(aminoAcid);
+        if (sequenceMatchingType == SequenceMatchingPreferences.MatchingType.string) {
+            return chars;
+        }
+        char[] aaCombinations = AminoAcid.getAminoAcid(aminoAcid).getCombinations();
+        for (int j = 0; j < aaCombinations.length; ++j) {
+            chars += aaCombinations[j];
+        }
+        if (aminoAcid == 'B' || aminoAcid == 'J' || aminoAcid == 'Z') {
+            aaCombinations = AminoAcid.getAminoAcid(aminoAcid).getSubAminoAcids(false);
+            for (int j = 0; j < aaCombinations.length; ++j) {
+                chars += aaCombinations[j];
+            }
+        }
 
-                }
-                combinations.add(chars);
+        if (sequenceMatchingType == SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids && (aminoAcid == 'I' || aminoAcid == 'L')) {
+            switch (aminoAcid) {
+                case 'I':
+                    chars += "L";
+                    break;
+                case 'L':
+                    chars += "I";
+                    break;
             }
+
         }
-        return combinations;
+        return chars;
     }
 
     /**
@@ -1335,9 +1910,9 @@ public class FMIndex implements PeptideMapper {
      * @return the text position
      */
     private int getTextPosition(int index, int indexPart) {
-        int[] suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
+        IntBuffer suffixArrayPrimary = suffixArraysPrimary.get(indexPart);
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int indexStringLength = indexStringLengths.get(indexPart);
         int numIterations = 0;
         while (((index & samplingMask) != 0) && (index != 0)) {
@@ -1346,7 +1921,7 @@ public class FMIndex implements PeptideMapper {
 
             ++numIterations;
         }
-        int pos = suffixArrayPrimary[index >> samplingShift] + numIterations;
+        int pos = suffixArrayPrimary.get(index >> samplingShift) + numIterations;
         return (pos < indexStringLength) ? pos : pos - indexStringLength;
     }
 
@@ -1382,6 +1957,47 @@ public class FMIndex implements PeptideMapper {
         }
     }
 
+    @Override
+    public void getProteinMappings(Collection<String> peptideSequences, final SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads, PeptideMappingCallback callback)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        PeptideBatchMapper.getProteinMappings(peptideSequences, nThreads, new PeptideBatchMapper.BlockMapper() {
+            @Override
+            public ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(List<String> peptideSequences) {
+                return FMIndex.this.getProteinMappings(peptideSequences, sequenceMatchingPreferences);
+            }
+        }, callback);
+    }
+
+    /**
+     * Maps a block of peptides sorted by reversed sequence against all
+     * registered proteins.
+     *
+     * @param peptides the peptides sorted by reversed sequence
+     * @param seqMatchPref the sequence matching preferences
+     *
+     * @return the protein mappings of every peptide, in the same order
+     */
+    private ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(List<String> peptides, SequenceMatchingPreferences seqMatchPref) {
+        ArrayList<ArrayList<PeptideProteinMapping>> allMatches = new ArrayList<ArrayList<PeptideProteinMapping>>(peptides.size());
+        if (maxNumberVariants > 0 || maxNumberDeletions > 0 || maxNumberInsertions > 0 || maxNumberSubstitutions > 0) {
+            for (String peptide : peptides) {
+                allMatches.add(getProteinMapping(peptide, seqMatchPref));
+            }
+        } else {
+            for (int p = 0; p < peptides.size(); ++p) {
+                allMatches.add(new ArrayList<PeptideProteinMapping>());
+            }
+            for (int i = 0; i < indexParts; ++i) {
+                if (arraySearch) {
+                    getProteinMappingsWithoutVariantsArrays(peptides, seqMatchPref, i, allMatches);
+                } else {
+                    getProteinMappingsWithoutVariants(peptides, seqMatchPref, i, allMatches);
+                }
+            }
+        }
+        return allMatches;
+    }
+
     /**
      * Exact mapping peptides against the proteome.
      *
@@ -1391,8 +2007,13 @@ public class FMIndex implements PeptideMapper {
      * @return the mapping
      */
     public ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart) {
+        if (arraySearch) {
+            ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
+            getProteinMappingWithoutVariantsArrays(peptide, null, -1, seqMatchPref, indexPart, allMatches);
+            return allMatches;
+        }
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
 
         String pep_rev = new StringBuilder(peptide).reverse().toString();
@@ -1440,34 +2061,408 @@ public class FMIndex implements PeptideMapper {
             }
 
             // traceback
-            for (MatrixContent content : backwardList[lenPeptide]) {
-                MatrixContent currentContent = content;
-                String currentPeptide = "";
+            addExactMatches(backwardList[lenPeptide], indexPart, allMatches);
+        }
 
-                while (currentContent.previousContent != null) {
-                    currentPeptide += (char) currentContent.character;
-                    currentContent = currentContent.previousContent;
+        return allMatches;
+    }
+
+    /**
+     * Exact mapping of a block of peptides sorted by reversed sequence
+     * against the proteome. The rows of the backward search shared with the
+     * previous peptide, i.e. the common C-terminal suffix, are not computed
+     * again.
+     *
+     * @param peptides the peptides sorted by reversed sequence
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param allMatches the list of mappings of every peptide where to add
+     * the mappings found in this index part
+     */
+    private void getProteinMappingsWithoutVariants(List<String> peptides, SequenceMatchingPreferences seqMatchPref, int indexPart, ArrayList<ArrayList<PeptideProteinMapping>> allMatches) {
+        int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+
+        ArrayList<MatrixContent>[] backwardList = (ArrayList<MatrixContent>[]) new ArrayList[1];
+        String previousPepRev = "";
+        int previousMaxX = -1;
+        int validRows = 0;
+
+        for (int p = 0; p < peptides.size(); ++p) {
+            String peptide = peptides.get(p);
+            String pep_rev = new StringBuilder(peptide).reverse().toString();
+            int lenPeptide = peptide.length();
+            int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+
+            int countX = 0;
+            for (int i = 0; i < lenPeptide; ++i) {
+                if (pep_rev.charAt(i) == 'X') {
+                    ++countX;
                 }
+            }
+            if (countX > maxX) {
+                continue;
+            }
 
-                int leftIndex = content.left;
-                int rightIndex = content.right;
+            if (backwardList.length < lenPeptide + 1) {
+                ArrayList<MatrixContent>[] newBackwardList = (ArrayList<MatrixContent>[]) new ArrayList[lenPeptide + 1];
+                System.arraycopy(backwardList, 0, newBackwardList, 0, backwardList.length);
+                backwardList = newBackwardList;
+            }
+            if (backwardList[0] == null) {
+                backwardList[0] = new ArrayList<MatrixContent>(1);
+                backwardList[0].add(new MatrixContent(indexStringLengths.get(indexPart) - 1)); // L, R, char, previous content, num of X
+            }
 
-                for (int j = leftIndex; j <= rightIndex; ++j) {
-                    int pos = getTextPosition(j, indexPart);
-                    int index = binarySearch(boundaries.get(indexPart), pos);
-                    String accession = accessions.get(indexPart)[index];
+            // rows are reused for the common prefix of the reversed peptides
+            int reused = 0;
+            if (maxX == previousMaxX) {
+                int maxReused = Math.min(Math.min(lenPeptide, previousPepRev.length()), validRows);
+                while (reused < maxReused && pep_rev.charAt(reused) == previousPepRev.charAt(reused)) {
+                    ++reused;
+                }
+            }
+
+            ArrayList<String> combinations = createPeptideCombinations(pep_rev, seqMatchPref);
+            for (int j = reused; j < lenPeptide; ++j) {
+                String combinationSequence = combinations.get(j);
+                ArrayList<MatrixContent> cell = backwardList[j];
+                ArrayList<MatrixContent> nextCell = backwardList[j + 1];
+                if (nextCell == null) {
+                    nextCell = new ArrayList<MatrixContent>(10);
+                    backwardList[j + 1] = nextCell;
+                } else {
+                    nextCell.clear();
+                }
+                for (MatrixContent content : cell) {
+                    int leftIndexOld = content.left;
+                    int rightIndexOld = content.right;
+                    int numX = content.numX;
+
+                    for (int c = 0; c < combinationSequence.length(); ++c) {
+                        int aminoAcid = combinationSequence.charAt(c);
+
+                        int lessValue = lessTablePrimary[aminoAcid];
+                        int[] range = occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid);
+                        final int leftIndex = lessValue + range[0];
+                        final int rightIndex = lessValue + range[1] - 1;
 
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart)[index]);
-                    allMatches.add(peptideProteinMapping);
+                        if (leftIndex <= rightIndex) {
+                            int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                            if (newNumX > maxX) {
+                                continue;
+                            }
+                            nextCell.add(new MatrixContent(leftIndex, rightIndex, aminoAcid, content, newNumX));
+                        }
+                    }
                 }
             }
+
+            // traceback
+            addExactMatches(backwardList[lenPeptide], indexPart, allMatches.get(p));
+
+            previousPepRev = pep_rev;
+            previousMaxX = maxX;
+            validRows = lenPeptide;
+        }
+    }
+
+    /**
+     * Exact mapping of a block of peptides sorted by reversed sequence
+     * against the proteome where the backward search is stored in the
+     * primitive arrays of the thread. The rows shared with the previous
+     * peptide are not computed again.
+     *
+     * @param peptides the peptides sorted by reversed sequence
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param allMatches the list of mappings of every peptide where to add
+     * the mappings found in this index part
+     */
+    private void getProteinMappingsWithoutVariantsArrays(List<String> peptides, SequenceMatchingPreferences seqMatchPref, int indexPart, ArrayList<ArrayList<PeptideProteinMapping>> allMatches) {
+        String previousPeptide = null;
+        int previousMaxX = -1;
+        for (int p = 0; p < peptides.size(); ++p) {
+            String peptide = peptides.get(p);
+            int maxX = getProteinMappingWithoutVariantsArrays(peptide, previousPeptide, previousMaxX, seqMatchPref, indexPart, allMatches.get(p));
+            if (maxX >= 0) {
+                previousPeptide = peptide;
+                previousMaxX = maxX;
+            }
         }
+    }
 
-        /*
-        for (PeptideProteinMapping ppm : allMatches){
-            System.out.println(ppm.getPeptideSequence() + " " + ppm.getProteinAccession() + " " + ppm.getIndex());
-        }*/
-        return allMatches;
+    /**
+     * Exact mapping of a peptide against the proteome where the backward
+     * search is stored in the primitive arrays of the thread. If the
+     * previous peptide mapped by the thread is given, the rows computed for
+     * the suffix shared by both peptides are reused.
+     *
+     * Apart from the mappings returned, the only objects created are the
+     * range queries of the occurrence table that are not in the array of the
+     * thread, the combination sequences of amino acids not yet encountered by
+     * the thread, and the sequence of every hit.
+     *
+     * @param peptide the peptide
+     * @param previousPeptide the peptide previously mapped by the thread in
+     * this index part, null if none
+     * @param previousMaxX the maximal number of X of the previous peptide
+     * @param seqMatchPref the sequence matching preferences
+     * @param indexPart the index part
+     * @param peptideMatches the list where to add the mappings found
+     *
+     * @return the maximal number of X of the peptide, -1 if the peptide was
+     * not searched
+     */
+    private int getProteinMappingWithoutVariantsArrays(String peptide, String previousPeptide, int previousMaxX, SequenceMatchingPreferences seqMatchPref, int indexPart, ArrayList<PeptideProteinMapping> peptideMatches) {
+        int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        IntBuffer boundariesPart = boundaries.get(indexPart);
+        String[] accessionsPart = accessions.get(indexPart);
+
+        BackwardSearchMatrix searchMatrix = searchMatrices.get();
+        int[] range = searchMatrix.range;
+        SequenceMatchingPreferences.MatchingType sequenceMatchingType = seqMatchPref.getSequenceMatchingType();
+        String[] combinations = searchMatrix.getCombinations(sequenceMatchingType);
+
+        int lenPeptide = peptide.length();
+        int maxX = (int) (((seqMatchPref.getLimitX() != null) ? seqMatchPref.getLimitX() : 1) * lenPeptide);
+
+        int countX = 0;
+        for (int i = 0; i < lenPeptide; ++i) {
+            if (peptide.charAt(i) == 'X') {
+                ++countX;
+            }
+        }
+        if (countX > maxX) {
+            return -1;
+        }
+
+        // rows are reused for the common suffix of the peptides, i.e. the common prefix of the reversed peptides
+        int reused = 0;
+        if (previousPeptide != null && maxX == previousMaxX) {
+            int previousLength = previousPeptide.length();
+            int maxReused = Math.min(lenPeptide, previousLength);
+            while (reused < maxReused && peptide.charAt(lenPeptide - 1 - reused) == previousPeptide.charAt(previousLength - 1 - reused)) {
+                ++reused;
+            }
+        }
+        if (reused == 0) {
+            searchMatrix.reset(lenPeptide + 1);
+            searchMatrix.add(0, 0, indexStringLengths.get(indexPart) - 1, 0, BackwardSearchMatrix.NONE, 0);
+        } else {
+            searchMatrix.reset(lenPeptide + 1, reused + 1);
+        }
+
+        for (int j = reused; j < lenPeptide; ++j) {
+            char residue = peptide.charAt(lenPeptide - 1 - j);
+            String combinationSequence = residue < combinations.length ? combinations[residue] : null;
+            if (combinationSequence == null) {
+                combinationSequence = getCombinationSequence(residue, sequenceMatchingType);
+                if (residue < combinations.length) {
+                    combinations[residue] = combinationSequence;
+                }
+            }
+            for (int cell = searchMatrix.first(j); cell != BackwardSearchMatrix.NONE; cell = searchMatrix.next(cell)) {
+                int leftIndexOld = searchMatrix.left[cell];
+                int rightIndexOld = searchMatrix.right[cell];
+                int numX = searchMatrix.numX[cell];
+
+                for (int c = 0; c < combinationSequence.length(); ++c) {
+                    int aminoAcid = combinationSequence.charAt(c);
+
+                    int lessValue = lessTablePrimary[aminoAcid];
+                    occurrenceTablePrimary.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcid, range);
+                    final int leftIndex = lessValue + range[0];
+                    final int rightIndex = lessValue + range[1] - 1;
+
+                    if (leftIndex <= rightIndex) {
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                        if (newNumX > maxX) {
+                            continue;
+                        }
+                        searchMatrix.add(j + 1, leftIndex, rightIndex, aminoAcid, cell, newNumX);
+                    }
+                }
+            }
+        }
+
+        // traceback, the strings are only built for the hits
+        char[] peptideChars = searchMatrix.getChars(lenPeptide);
+        for (int cell = searchMatrix.first(lenPeptide); cell != BackwardSearchMatrix.NONE; cell = searchMatrix.next(cell)) {
+            int i = 0;
+            for (int currentCell = cell; searchMatrix.parent[currentCell] != BackwardSearchMatrix.NONE; currentCell = searchMatrix.parent[currentCell]) {
+                peptideChars[i++] = (char) searchMatrix.character[currentCell];
+            }
+            String currentPeptide = new String(peptideChars, 0, lenPeptide);
+
+            for (int j = searchMatrix.left[cell]; j <= searchMatrix.right[cell]; ++j) {
+                int pos = getTextPosition(j, indexPart);
+                int index = binarySearch(boundariesPart, pos);
+                peptideMatches.add(new PeptideProteinMapping(accessionsPart[index], currentPeptide, pos - boundariesPart.get(index)));
+            }
+        }
+
+        return maxX;
+    }
+
+    /**
+     * Mapping the tag elements to the reference text where the backward
+     * search is stored in the primitive arrays of the thread. The cells of
+     * the first row of the matrix are used as seeds and only the cells
+     * leading to the last row are converted into matrix contents.
+     *
+     * @param combinations the combinations
+     * @param matrix the matrix
+     * @param less the less array
+     * @param occurrence the wavelet tree
+     */
+    private void mappingSequenceAndMassesArrays(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, OccurrenceTable occurrence) {
+        final boolean ppm = massAccuracyType == SearchParameters.MassAccuracyType.PPM;
+        final int lastRow = combinations.length;
+        BackwardSearchMatrix searchMatrix = searchMatrices.get();
+        searchMatrix.reset(lastRow + 1);
+        int[] range = searchMatrix.range;
+
+        int nSeeds = 0;
+        while (!matrix[0].isEmpty()) {
+            MatrixContent seed = matrix[0].removeFirst();
+            int cell = searchMatrix.add(0, seed.left, seed.right, seed.character, -1 - nSeeds, seed.mass, seed.length, seed.numX, seed.modificationPos, seed.ambiguousChar, seed.tagComponent);
+            searchMatrix.xMassDiff[cell] = seed.XMassDiff;
+            searchMatrix.getContents(nSeeds + 1)[nSeeds++] = seed;
+        }
+
+        for (int j = 0; j < lastRow; ++j) {
+            TagElement combination = combinations[j];
+
+            for (int cell = searchMatrix.first(j); cell != BackwardSearchMatrix.NONE; cell = searchMatrix.next(cell)) {
+                final int length = searchMatrix.length[cell];
+                final int leftIndexOld = searchMatrix.left[cell];
+                final int rightIndexOld = searchMatrix.right[cell];
+                final int numX = searchMatrix.numX[cell];
+
+                if (combination.isMass) {
+                    final double combinationMass = combination.mass;
+                    final double oldMass = searchMatrix.mass[cell];
+                    // the range query, shared with the object based search, returns a new array per query
+                    int[][] setCharacter = occurrence.rangeQuery(leftIndexOld - 1, rightIndexOld);
+                    addAmbiguous(setCharacter);
+                    if (withVariableModifications) addModifications(setCharacter);
+
+                    for (int b = 0; b < setCharacter[numMasses][0]; ++b) {
+                        int[] borders = setCharacter[b];
+                        final int aminoAcid = borders[0];
+                        if (aminoAcid == '/') continue;
+                        int newNumX = numX + ((aminoAcid == 'X') ? 1 : 0);
+                        if (newNumX > combination.xNumLimit) continue;
+                        final double newMass = oldMass + (aminoAcid != 'X' ? aaMasses[borders[3]] : 0);
+
+                        // check if not exceeding tag mass
+                        if (newMass - computeInverseMassValue(massTolerance, combinationMass) <= combinationMass) {
+                            final int aminoAcidSearch = (borders[4] == -1) ? aminoAcid : borders[4];
+                            final int lessValue = less[aminoAcidSearch];
+                            final int leftIndex = lessValue + borders[1];
+                            final int rightIndex = lessValue + borders[2] - 1;
+                            final double massDiff = Math.abs(combinationMass - newMass);
+
+                            // make a lookup when mass difference is below 800Da if it is still possible to reach by a AA combination
+                            if (massNotValid(massDiff)) continue;
+                            boolean withinMass = withinMassTolerance(massDiff, newNumX);
+                            boolean massReached = ppm ? computeMassValue(newMass, combinationMass) <= massTolerance : massDiff <= massTolerance;
+                            int offset = (massReached || withinMass) ? 1 : 0;
+
+                            if (offset > 0) newNumX = 0;
+                            int newCell = searchMatrix.add(j + offset, leftIndex, rightIndex, aminoAcid, cell, newMass, length + 1, newNumX, borders[3], borders[4], j);
+                            if (withinMass) searchMatrix.xMassDiff[newCell] = massDiff;
+                        }
+                    }
+                } else {
+                    final String combinationSequence = combination.sequence;
+                    final int xNumLimit = combination.xNumLimit;
+                    final int aminoAcid = combinationSequence.charAt(0);
+                    for (int i = 0; i < combinationSequence.length(); ++i) {
+                        final int aminoAcidSearch = combinationSequence.charAt(i);
+                        final int lessValue = less[aminoAcidSearch];
+                        occurrence.singleRangeQuery(leftIndexOld - 1, rightIndexOld, aminoAcidSearch, range);
+                        final int leftIndex = lessValue + range[0];
+                        final int rightIndex = lessValue + range[1] - 1;
+                        int newNumX = numX + ((aminoAcidSearch == 'X') ? 1 : 0);
+                        if (leftIndex <= rightIndex && newNumX <= xNumLimit) {
+                            if (j < lastRow - 1 && combinations[j].isMass != combinations[j + 1].isMass) newNumX = 0;
+                            searchMatrix.add(j + 1, leftIndex, rightIndex, aminoAcid, cell, 0, length + 1, newNumX, -1, aminoAcidSearch, j);
+                        }
+                    }
+                }
+            }
+        }
+
+        // the seeds are followed by the contents of the cells in the buffer of the thread
+        int nContents = nSeeds + searchMatrix.size();
+        MatrixContent[] contents = searchMatrix.getContents(nContents);
+        for (int cell = searchMatrix.first(lastRow); cell != BackwardSearchMatrix.NONE; cell = searchMatrix.next(cell)) {
+            matrix[lastRow].add(getMatrixContent(searchMatrix, cell, nSeeds, contents));
+        }
+        Arrays.fill(contents, 0, nContents, null);
+    }
+
+    /**
+     * Returns the matrix content corresponding to a cell of the backward
+     * search arrays, creating the contents of its path if needed.
+     *
+     * @param searchMatrix the backward search arrays
+     * @param cell the index of the cell
+     * @param nSeeds the number of seeds of the search
+     * @param contents the seeds of the search followed by the matrix
+     * contents already created
+     *
+     * @return the matrix content
+     */
+    private MatrixContent getMatrixContent(BackwardSearchMatrix searchMatrix, int cell, int nSeeds, MatrixContent[] contents) {
+        int parent = searchMatrix.parent[cell];
+        if (parent < 0) {
+            return contents[-1 - parent];
+        }
+        MatrixContent matrixContent = contents[nSeeds + cell];
+        if (matrixContent == null) {
+            MatrixContent previousContent = getMatrixContent(searchMatrix, parent, nSeeds, contents);
+            matrixContent = new MatrixContent(searchMatrix.left[cell], searchMatrix.right[cell], searchMatrix.character[cell], previousContent, searchMatrix.mass[cell], searchMatrix.length[cell],
+                    searchMatrix.numX[cell], searchMatrix.modificationPos[cell], searchMatrix.ambiguousChar[cell], searchMatrix.tagComponent[cell]);
+            matrixContent.XMassDiff = searchMatrix.xMassDiff[cell];
+            contents[nSeeds + cell] = matrixContent;
+        }
+        return matrixContent;
+    }
+
+    /**
+     * Adds the protein mappings of the given cell of the backward search to
+     * the list of matches.
+     *
+     * @param cell the last cell of the backward search
+     * @param indexPart the index part
+     * @param allMatches the list of matches
+     */
+    private void addExactMatches(ArrayList<MatrixContent> cell, int indexPart, ArrayList<PeptideProteinMapping> allMatches) {
+        for (MatrixContent content : cell) {
+            MatrixContent currentContent = content;
+            String currentPeptide = "";
+
+            while (currentContent.previousContent != null) {
+                currentPeptide += (char) currentContent.character;
+                currentContent = currentContent.previousContent;
+            }
+
+            int leftIndex = content.left;
+            int rightIndex = content.right;
+
+            for (int j = leftIndex; j <= rightIndex; ++j) {
+                int pos = getTextPosition(j, indexPart);
+                int index = binarySearch(boundaries.get(indexPart), pos);
+                String accession = accessions.get(indexPart)[index];
+
+                PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, currentPeptide, pos - boundaries.get(indexPart).get(index));
+                allMatches.add(peptideProteinMapping);
+            }
+        }
     }
 
     /**
@@ -1480,7 +2475,7 @@ public class FMIndex implements PeptideMapper {
      */
     public ArrayList<PeptideProteinMapping> getProteinMappingWithVariantsGeneric(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart) {
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
         String pep_rev = new StringBuilder(peptide).reverse().toString();
         int lenPeptide = peptide.length();
@@ -1591,7 +2586,7 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        int startPosition = pos - boundaries.get(indexPart)[index];
+                        int startPosition = pos - boundaries.get(indexPart).get(index);
                         boolean newPeptide = true;
 
                         for (PeptideProteinMapping ppm : allMatches) {
@@ -1646,7 +2641,7 @@ public class FMIndex implements PeptideMapper {
      */
     public ArrayList<PeptideProteinMapping> getProteinMappingWithVariantsSpecific(String peptide, SequenceMatchingPreferences seqMatchPref, int indexPart) {
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
 
         String pep_rev = new StringBuilder(peptide).reverse().toString();
@@ -1764,7 +2759,7 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        int startPosition = pos - boundaries.get(indexPart)[index];
+                        int startPosition = pos - boundaries.get(indexPart).get(index);
                         boolean newPeptide = true;
 
                         for (PeptideProteinMapping ppm : allMatches) {
@@ -1917,7 +2912,11 @@ public class FMIndex implements PeptideMapper {
      * @param less the less array
      * @param occurrence the wavelet tree
      */
-    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, OccurrenceTable occurrence) {
+        if (arraySearch) {
+            mappingSequenceAndMassesArrays(combinations, matrix, less, occurrence);
+            return;
+        }
         
         for (int j = 0; j < combinations.length; ++j) {
             LinkedList<MatrixContent> content = matrix[j];
@@ -1994,7 +2993,11 @@ public class FMIndex implements PeptideMapper {
      * @param less the less array
      * @param occurrence the wavelet tree
      */
-    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, OccurrenceTable occurrence) {
+        if (arraySearch) {
+            mappingSequenceAndMassesArrays(combinations, matrix, less, occurrence);
+            return;
+        }
         
         for (int j = 0; j < combinations.length; ++j) {
             LinkedList<MatrixContent> content = matrix[j];
@@ -2076,7 +3079,7 @@ public class FMIndex implements PeptideMapper {
      * @param massTolerance the mass tolerance
      * @param numberEdits number of allowed edit operations
      */
-    private void mappingSequenceAndMassesWithVariantsGeneric(TagElement[] combinations, LinkedList<MatrixContent>[][] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesWithVariantsGeneric(TagElement[] combinations, LinkedList<MatrixContent>[][] matrix, int[] less, OccurrenceTable occurrence) {
         final int lenCombinations = combinations.length;
 
         for (int k = 0; k <= maxNumberVariants; ++k) {
@@ -2242,7 +3245,7 @@ public class FMIndex implements PeptideMapper {
      * @param occurrence the wavelet tree
      * @param numberEdits number of allowed edit operations
      */
-    private void mappingSequenceAndMassesWithVariantsSpecific(TagElement[] combinations, LinkedList<MatrixContent>[][] matrix, int[] less, WaveletTree occurrence) {
+    private void mappingSequenceAndMassesWithVariantsSpecific(TagElement[] combinations, LinkedList<MatrixContent>[][] matrix, int[] less, OccurrenceTable occurrence) {
         final int lenCombinations = combinations.length;
         int maxNumberSpecificVariants = maxNumberDeletions + maxNumberInsertions + maxNumberSubstitutions;
 
@@ -2443,7 +3446,7 @@ public class FMIndex implements PeptideMapper {
      * @param massTolerance the mass tolerance
      * @param CTermDirection the c term direction
      */
-    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
+    private void mappingSequenceAndMassesPPM(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, OccurrenceTable occurrence, boolean CTermDirection) {
         final int lenCombinations = combinations.length;
         for (int k = 0; k < lenCombinations; ++k) {
             TagElement combination = combinations[k];
@@ -3118,7 +4121,7 @@ public class FMIndex implements PeptideMapper {
      * @param occurrence the occurrence
      * @param CTermDirection the c term direction
      */
-    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, WaveletTree occurrence, boolean CTermDirection) {
+    private void mappingSequenceAndMassesDA(TagElement[] combinations, LinkedList<MatrixContent>[] matrix, int[] less, OccurrenceTable occurrence, boolean CTermDirection) {
         final int lenCombinations = combinations.length;
         for (int k = 0; k < lenCombinations; ++k) {
             TagElement combination = combinations[k];
@@ -3847,9 +4850,9 @@ public class FMIndex implements PeptideMapper {
     public ArrayList<PeptideProteinMapping> getProteinMappingWithoutVariants(Tag tag, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, int indexPart) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
 
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int[] lessTableReversed = lessTablesReversed.get(indexPart);
-        WaveletTree occurrenceTableReversed = occurrenceTablesReversed.get(indexPart);
+        OccurrenceTable occurrenceTableReversed = occurrenceTablesReversed.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
         double xLimit = ((sequenceMatchingPreferences.getLimitX() != null) ? sequenceMatchingPreferences.getLimitX() : 1);
 
@@ -3878,8 +4881,8 @@ public class FMIndex implements PeptideMapper {
         TagElement[] refTagContent = null;
         int[] lessPrimary = null;
         int[] lessReversed = null;
-        WaveletTree occurrencePrimary = null;
-        WaveletTree occurrenceReversed = null;
+        OccurrenceTable occurrencePrimary = null;
+        OccurrenceTable occurrenceReversed = null;
         boolean hasCTermDirection = hasCTermDirectionPTM;
         boolean hasNTermDirection = hasNTermDirectionPTM;
         boolean towardsC = true;
@@ -3906,7 +4909,7 @@ public class FMIndex implements PeptideMapper {
             occurrenceReversed = occurrenceTableReversed;
         }
         
-        ArrayList<MatrixContent> cached = isCached(refTagContent, indexPart);
+        List<MatrixContent> cached = isCached(refTagContent, indexPart);
         if (cached != null && cached.isEmpty()) {
             return allMatches;
         }
@@ -4118,7 +5121,7 @@ public class FMIndex implements PeptideMapper {
                     int pos = getTextPosition(j, indexPart);
                     int index = binarySearch(boundaries.get(indexPart), pos);
                     String accession = accessions.get(indexPart)[index];
-                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, peptide, pos - boundaries.get(indexPart)[index] + 1, modifications);
+                    PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, peptide, pos - boundaries.get(indexPart).get(index) + 1, modifications);
                     if (checkPTMPattern(peptideProteinMapping)) allMatches.add(peptideProteinMapping);
                 }
             }
@@ -4206,8 +5209,8 @@ public class FMIndex implements PeptideMapper {
                         int index = binarySearch(boundaries.get(indexPart), pos);
                         String accession = accessions.get(indexPart)[index];
 
-                        // pos - boundaries.get(indexPart)[index] +1 because of start counting from one
-                        PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, substitutedPeptides.get(i), pos - boundaries.get(indexPart)[index] + 1, substitutedModifications.get(i));
+                        // pos - boundaries.get(indexPart).get(index) +1 because of start counting from one
+                        PeptideProteinMapping peptideProteinMapping = new PeptideProteinMapping(accession, substitutedPeptides.get(i), pos - boundaries.get(indexPart).get(index) + 1, substitutedModifications.get(i));
                         if (checkPTMPattern(peptideProteinMapping)) allMatches.add(peptideProteinMapping);
                     }
                 }
@@ -4239,9 +5242,9 @@ public class FMIndex implements PeptideMapper {
     public ArrayList<PeptideProteinMapping> getProteinMappingWithVariants(Tag tag, TagMatcher tagMatcher, SequenceMatchingPreferences sequenceMatchingPreferences, int indexPart) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
 
         int[] lessTablePrimary = lessTablesPrimary.get(indexPart);
-        WaveletTree occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
+        OccurrenceTable occurrenceTablePrimary = occurrenceTablesPrimary.get(indexPart);
         int[] lessTableReversed = lessTablesReversed.get(indexPart);
-        WaveletTree occurrenceTableReversed = occurrenceTablesReversed.get(indexPart);
+        OccurrenceTable occurrenceTableReversed = occurrenceTablesReversed.get(indexPart);
         ArrayList<PeptideProteinMapping> allMatches = new ArrayList<PeptideProteinMapping>();
 
         double xLimit = ((sequenceMatchingPreferences.getLimitX() != null) ? sequenceMatchingPreferences.getLimitX() : 1);
@@ -4271,8 +5274,8 @@ public class FMIndex implements PeptideMapper {
         TagElement[] refTagContent = null;
         int[] lessPrimary = null;
         int[] lessReversed = null;
-        WaveletTree occurrencePrimary = null;
-        WaveletTree occurrenceReversed = null;
+        OccurrenceTable occurrencePrimary = null;
+        OccurrenceTable occurrenceReversed = null;
         //boolean hasCTermDirection = hasCTermDirectionPTM;
         //boolean hasNTermDirection = hasNTermDirectionPTM;
         //boolean towardsC = true;
@@ -4300,7 +5303,7 @@ public class FMIndex implements PeptideMapper {
             occurrenceReversed = occurrenceTableReversed;
         }
 
-        ArrayList<MatrixContent> cached = isCached(refTagContent, indexPart);
+        List<MatrixContent> cached = isCached(refTagContent, indexPart);
         if (cached != null && cached.isEmpty()) {
             return allMatches;
         }
@@ -4521,7 +5524,7 @@ public class FMIndex implements PeptideMapper {
                     int index = binarySearch(boundaries.get(indexPart), pos);
                     String accession = accessions.get(indexPart)[index];
 
-                    int startPosition = pos - boundaries.get(indexPart)[index];
+                    int startPosition = pos - boundaries.get(indexPart).get(index);
                     boolean newPeptide = true;
 
                     for (PeptideProteinMapping ppm : allMatches) {
@@ -4611,86 +5614,67 @@ public class FMIndex implements PeptideMapper {
     }
 
     /**
-     * Class for caching intermediate tag to proteome mapping results.
+     * Cache of intermediate tag to proteome mapping results.
      */
-    private class CacheElement {
+    private final TagCache tagCache = new TagCache();
 
-        Double massFirst;
-        String sequence;
-        Double massSecond;
-        ArrayList<MatrixContent> cachedPrimary;
+    /**
+     * Indicates whether the backward searches are stored in primitive arrays
+     * instead of objects.
+     *
+     * @return true if the backward searches are stored in primitive arrays
+     */
+    public boolean isArraySearch() {
+        return arraySearch;
+    }
 
-        /**
-         * Constructor
-         *
-         * @param massFirst
-         * @param sequence
-         * @param massSecond
-         * @param cachedPrimary
-         */
-        public CacheElement(Double massFirst, String sequence, Double massSecond, ArrayList<MatrixContent> cachedPrimary) {
-            this.sequence = sequence;
-            this.massFirst = massFirst;
-            this.massSecond = massSecond;
-            this.cachedPrimary = cachedPrimary;
-        }
+    /**
+     * Indicates whether the occurrence tables are stored in wavelet matrices
+     * instead of wavelet trees.
+     *
+     * @return true if the occurrence tables are stored in wavelet matrices
+     */
+    public boolean isWaveletMatrix() {
+        return waveletMatrix;
     }
 
     /**
-     * List of cached intermediate tag to proteome mapping results.
+     * Returns the cache of intermediate tag to proteome mapping results,
+     * giving access to its hit, miss and eviction counters.
+     *
+     * @return the cache of intermediate tag to proteome mapping results
      */
-    private HashMap<String, CacheElement>[] cache = null;
+    public TagCache getTagCache() {
+        return tagCache;
+    }
 
     /**
-     * Adding intermediate tag to proteome mapping results into the cache.
+     * Returns the cached intermediate tag to proteome mapping results, null
+     * if not cached.
      *
      * @param tagComponents
+     * @param indexPart
      * @return
      */
-    private ArrayList<MatrixContent> isCached(TagElement[] tagComponents, int indexPart) {
+    private List<MatrixContent> isCached(TagElement[] tagComponents, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return null;
         }
-        ArrayList<MatrixContent> cached = null;
-
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = cache[indexPart].get(key);
-        if (cacheElement != null) cached = cacheElement.cachedPrimary;
-        cacheMutex.release();
-        return cached;
+        return tagCache.get(indexPart, tagComponents[1].sequence, tagComponents[2].mass);
     }
 
     /**
-     * Caching intermediate results of previous tag to proteome matches.
+     * Caching intermediate results of previous tag to proteome matches. The
+     * list is shared with the cache and must not be modified afterwards.
      *
      * @param tagComponents
      * @param cachedPrimary
+     * @param indexPart
      */
     private void cacheIt(TagElement[] tagComponents, ArrayList<MatrixContent> cachedPrimary, int indexPart) {
         if (tagComponents.length != 3 || !tagComponents[0].isMass || tagComponents[1].isMass || !tagComponents[2].isMass) {
             return;
         }
-        try {
-            cacheMutex.acquire();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-
-        ArrayList<MatrixContent> cacheContentPrimary = new ArrayList<MatrixContent>();
-        for (MatrixContent matrixContent : cachedPrimary) {
-            cacheContentPrimary.add(new MatrixContent(matrixContent));
-        }
-        
-        String key = tagComponents[1].sequence + String.format("%.5f", tagComponents[2].mass);
-        CacheElement cacheElement = new CacheElement(tagComponents[0].mass, tagComponents[1].sequence, tagComponents[2].mass, cacheContentPrimary);
-        if (!cache[indexPart].containsKey(key)) cache[indexPart].put(key, cacheElement);
-        cacheMutex.release();
+        tagCache.put(indexPart, tagComponents[1].sequence, tagComponents[2].mass, cachedPrimary);
     }
 }
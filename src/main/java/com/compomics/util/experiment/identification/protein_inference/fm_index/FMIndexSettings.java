@@ -0,0 +1,117 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+/**
+ * Settings for the building and the storage of an FM index.
+ *
+ * @author Marc Vaudel
+ */
+public class FMIndexSettings {
+
+    /**
+     * The number of threads to use to build the index parts.
+     */
+    private int nThreads = 1;
+    /**
+     * If true, the cells of the backward searches are stored in primitive
+     * arrays reused by every thread instead of objects.
+     */
+    private boolean arraySearch = false;
+    /**
+     * If true, the occurrence tables are stored in wavelet matrices instead
+     * of wavelet trees.
+     */
+    private boolean waveletMatrix = false;
+    /**
+     * If true, the index is stored next to the FASTA file and loaded from
+     * there when available.
+     */
+    private boolean persistIndex = true;
+
+    /**
+     * Constructor with the default settings: one thread, object backward
+     * search, wavelet trees and persisted index.
+     */
+    public FMIndexSettings() {
+
+    }
+
+    /**
+     * Returns the number of threads to use to build the index parts.
+     *
+     * @return the number of threads to use to build the index parts
+     */
+    public int getnThreads() {
+        return nThreads;
+    }
+
+    /**
+     * Sets the number of threads to use to build the index parts.
+     *
+     * @param nThreads the number of threads to use to build the index parts
+     */
+    public void setnThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Indicates whether the cells of the backward searches are stored in
+     * primitive arrays instead of objects.
+     *
+     * @return true if the backward searches are stored in primitive arrays
+     */
+    public boolean isArraySearch() {
+        return arraySearch;
+    }
+
+    /**
+     * Sets whether the cells of the backward searches are stored in
+     * primitive arrays instead of objects.
+     *
+     * @param arraySearch if true, the backward searches are stored in
+     * primitive arrays
+     */
+    public void setArraySearch(boolean arraySearch) {
+        this.arraySearch = arraySearch;
+    }
+
+    /**
+     * Indicates whether the occurrence tables are stored in wavelet matrices
+     * instead of wavelet trees.
+     *
+     * @return true if the occurrence tables are stored in wavelet matrices
+     */
+    public boolean isWaveletMatrix() {
+        return waveletMatrix;
+    }
+
+    /**
+     * Sets whether the occurrence tables are stored in wavelet matrices
+     * instead of wavelet trees.
+     *
+     * @param waveletMatrix if true, the occurrence tables are stored in
+     * wavelet matrices
+     */
+    public void setWaveletMatrix(boolean waveletMatrix) {
+        this.waveletMatrix = waveletMatrix;
+    }
+
+    /**
+     * Indicates whether the index is stored next to the FASTA file and loaded
+     * from there when available.
+     *
+     * @return true if the index is persisted
+     */
+    public boolean isPersistIndex() {
+        return persistIndex;
+    }
+
+    /**
+     * Sets whether the index is stored next to the FASTA file and loaded from
+     * there when available.
+     *
+     * @param persistIndex if true, the index is persisted
+     */
+    public void setPersistIndex(boolean persistIndex) {
+        this.persistIndex = persistIndex;
+    }
+}
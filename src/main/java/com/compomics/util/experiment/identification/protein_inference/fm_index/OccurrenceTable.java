@@ -0,0 +1,86 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.io.binary.BinaryFileWriter;
+import java.io.IOException;
+
+/**
+ * Occurrence table of the Burrows-Wheeler transform as used in the FM index.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public interface OccurrenceTable {
+
+    /**
+     * Returns the less table.
+     *
+     * @return the less table
+     */
+    public int[] createLessTable();
+
+    /**
+     * Returns the number of occurrences of a given character until position
+     * index.
+     *
+     * @param index the index
+     * @param character the character
+     * @return the rank
+     */
+    public int getRank(int index, int character);
+
+    /**
+     * Returns the character and rank at a given index.
+     *
+     * @param index the index
+     * @return the character and rank
+     */
+    public int[] getCharacterInfo(int index);
+
+    /**
+     * Returns a list of character and new left/right index for a given range.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @return list of counted characters
+     */
+    public int[][] rangeQuery(int leftIndex, int rightIndex);
+
+    /**
+     * Returns a new left/right index range for a given character.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @param character character to check
+     * @return the new left and right index
+     */
+    public int[] singleRangeQuery(int leftIndex, int rightIndex, int character);
+
+    /**
+     * Computes the new left and right index of a range for a given character
+     * without allocating memory.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @param character the character
+     * @param range array of size two where the new left and right index are
+     * written
+     */
+    public void singleRangeQuery(int leftIndex, int rightIndex, int character, int[] range);
+
+    /**
+     * Returns the number of bytes for the allocated arrays.
+     *
+     * @return number of allocated bytes
+     */
+    public int getAllocatedBytes();
+
+    /**
+     * Writes the occurrence table to a binary file.
+     *
+     * @param writer the writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(BinaryFileWriter writer) throws IOException;
+}
@@ -1,7 +1,16 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
 /**
- * Rank as used in the FM index.
+ * Rank as used in the FM index. The bit field and sums are wrapped arrays
+ * when the rank is built and read-only views on the memory mapped index file
+ * when it is loaded.
  *
  * @author Dominik Kopczynski
  */
@@ -14,15 +23,15 @@ public class Rank {
     /**
      * The bit field.
      */
-    private final long[] bitfield;
+    private final LongBuffer bitfield;
     /**
      * The sums.
      */
-    private final int[] sums;
+    private final IntBuffer sums;
     /**
      * The sums.
      */
-    private final byte[] sumsSecondLevel;
+    private final ByteBuffer sumsSecondLevel;
     /**
      * The shift.
      */
@@ -42,10 +51,10 @@ public class Rank {
         length = text.length;
 
         int field_len = (length >>> 6) + 1;
-        bitfield = new long[field_len];
-        sums = new int[(length >>> 8) + 1];
+        long[] bitfield = new long[field_len];
+        int[] sums = new int[(length >>> 8) + 1];
         sums[0] = 0;
-        sumsSecondLevel = new byte[field_len];
+        byte[] sumsSecondLevel = new byte[field_len];
         sumsSecondLevel[0] = 0;
 
         for (int i = 0; i < length; ++i) {
@@ -68,6 +77,9 @@ public class Rank {
                 sums[i >>> 8] = sums[(i >>> 8) - 1] + (sumsSecondLevel[cell - 1] & 0xFF) + Long.bitCount(bitfield[cell - 1]);
             }
         }
+        this.bitfield = LongBuffer.wrap(bitfield);
+        this.sums = IntBuffer.wrap(sums);
+        this.sumsSecondLevel = ByteBuffer.wrap(sumsSecondLevel);
     }
     
     /**
@@ -80,10 +92,10 @@ public class Rank {
         this.length = length;
 
         int field_len = (length >>> 6) + 1;
-        bitfield = originalBitfield;
-        sums = new int[(length >>> 8) + 1];
+        long[] bitfield = originalBitfield;
+        int[] sums = new int[(length >>> 8) + 1];
         sums[0] = 0;
-        sumsSecondLevel = new byte[field_len];
+        byte[] sumsSecondLevel = new byte[field_len];
         sumsSecondLevel[0] = 0;
 
         for (int i = 0; i < length; ++i) {
@@ -100,6 +112,40 @@ public class Rank {
                 sums[i >>> 8] = sums[(i >>> 8) - 1] + (sumsSecondLevel[cell - 1] & 0xFF) + Long.bitCount(bitfield[cell - 1]);
             }
         }
+        this.bitfield = LongBuffer.wrap(bitfield);
+        this.sums = IntBuffer.wrap(sums);
+        this.sumsSecondLevel = ByteBuffer.wrap(sumsSecondLevel);
+    }
+
+    /**
+     * Constructor loading a rank previously written to a binary file. The
+     * arrays are not copied to the heap but mapped from the file.
+     *
+     * @param reader the reader positioned at the beginning of the rank
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public Rank(MappedFileReader reader) throws IOException {
+        length = reader.readInt();
+        bitfield = reader.mapLongArray();
+        sums = reader.mapIntArray();
+        sumsSecondLevel = reader.mapByteArray();
+    }
+
+    /**
+     * Writes the rank to a binary file.
+     *
+     * @param writer the writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(BinaryFileWriter writer) throws IOException {
+        writer.writeInt(length);
+        writer.writeLongBuffer(bitfield);
+        writer.writeIntBuffer(sums);
+        writer.writeByteBuffer(sumsSecondLevel);
     }
 
     /**
@@ -112,8 +158,8 @@ public class Rank {
     public int getRank(int index, boolean zeros) {
         int cell = index >>> shift;
         int pos = index & mask;
-        long active_ones = bitfield[cell] << (mask - pos);
-        int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        long active_ones = bitfield.get(cell) << (mask - pos);
+        int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return zeros ? index + 1 - count_ones : count_ones;
     }
 
@@ -126,8 +172,8 @@ public class Rank {
     public final int getRankOne(int index) {
         final int cell = index >>> shift;
         final int pos = index & mask;
-        final long active_ones = bitfield[cell] << (mask - pos);
-        final int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        final long active_ones = bitfield.get(cell) << (mask - pos);
+        final int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return count_ones;
     }
 
@@ -140,8 +186,8 @@ public class Rank {
     public int getRankZero(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        long active_ones = bitfield[cell] << (mask - pos);
-        int count_ones = (sumsSecondLevel[cell] & 0xFF) + sums[index >>> 8] + Long.bitCount(active_ones);
+        long active_ones = bitfield.get(cell) << (mask - pos);
+        int count_ones = (sumsSecondLevel.get(cell) & 0xFF) + sums.get(index >>> 8) + Long.bitCount(active_ones);
         return index + 1 - count_ones;
     }
 
@@ -154,7 +200,7 @@ public class Rank {
     public boolean isOne(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        return (((bitfield[cell] >>> pos) & 1L) == 1);
+        return (((bitfield.get(cell) >>> pos) & 1L) == 1);
     }
 
     /**
@@ -166,7 +212,7 @@ public class Rank {
     public int isOneInt(int index) {
         int cell = index >>> shift;
         int pos = index & mask;
-        return (int)((bitfield[cell] >>> pos) & 1L);
+        return (int)((bitfield.get(cell) >>> pos) & 1L);
     }
 
     /**
@@ -175,6 +221,6 @@ public class Rank {
      * @return the number of bytes for the allocated arrays
      */
     public int getAllocatedBytes() {
-        return (bitfield.length << 3) + (sums.length << 2) + sumsSecondLevel.length;
+        return (bitfield.capacity() << 3) + (sums.capacity() << 2) + sumsSecondLevel.capacity();
     }
 }
@@ -0,0 +1,291 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache for the intermediate results of the tag to proteome mapping.
+ * The cache is split in stripes locked independently, every stripe evicting
+ * its least recently used entries. The cached lists are shared between
+ * threads and must not be modified.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public class TagCache {
+
+    /**
+     * The default maximal number of entries.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    /**
+     * The number of stripes, must be a power of two.
+     */
+    private static final int N_STRIPES = 16;
+    /**
+     * The factor used to quantize the masses, masses within 10^-5 Da share
+     * the same key.
+     */
+    private static final double MASS_QUANTIZATION = 100000.;
+    /**
+     * The stripes of the cache.
+     */
+    private final Stripe[] stripes;
+    /**
+     * The number of cache hits.
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * The number of cache misses.
+     */
+    private final AtomicLong misses = new AtomicLong();
+    /**
+     * The number of evicted entries.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor with the default capacity.
+     */
+    public TagCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximal number of entries
+     */
+    public TagCache(int capacity) {
+        int stripeCapacity = Math.max(1, capacity / N_STRIPES);
+        stripes = new Stripe[N_STRIPES];
+        for (int i = 0; i < N_STRIPES; ++i) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+    }
+
+    /**
+     * Returns the cached matrix contents for the given sequence and mass in
+     * the given index part, null if not cached.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence of the tag
+     * @param mass the mass following the sequence
+     *
+     * @return the cached matrix contents, null if not cached
+     */
+    public List<MatrixContent> get(int indexPart, String sequence, double mass) {
+        long massKey = getMassKey(mass);
+        long key = getKey(indexPart, sequence, massKey);
+        Stripe stripe = getStripe(key);
+        CacheElement cacheElement;
+        synchronized (stripe) {
+            cacheElement = stripe.get(key);
+        }
+        if (cacheElement != null && cacheElement.matches(indexPart, sequence, massKey)) {
+            hits.incrementAndGet();
+            return cacheElement.cachedPrimary;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds the matrix contents for the given sequence and mass in the given
+     * index part. The list is not copied and must not be modified afterwards.
+     * Existing entries are not replaced.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence of the tag
+     * @param mass the mass following the sequence
+     * @param cachedPrimary the matrix contents to cache
+     */
+    public void put(int indexPart, String sequence, double mass, List<MatrixContent> cachedPrimary) {
+        long massKey = getMassKey(mass);
+        long key = getKey(indexPart, sequence, massKey);
+        Stripe stripe = getStripe(key);
+        CacheElement cacheElement = new CacheElement(indexPart, sequence, massKey, Collections.unmodifiableList(cachedPrimary));
+        synchronized (stripe) {
+            if (!stripe.containsKey(key)) {
+                stripe.put(key, cacheElement);
+            }
+        }
+    }
+
+    /**
+     * Empties the cache. The counters are not reset.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted from the cache.
+     *
+     * @return the number of entries evicted from the cache
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the quantized mass.
+     *
+     * @param mass the mass
+     *
+     * @return the quantized mass
+     */
+    private static long getMassKey(double mass) {
+        return Math.round(mass * MASS_QUANTIZATION);
+    }
+
+    /**
+     * Returns the key of an entry made of the hash of the sequence and of the
+     * quantized mass.
+     *
+     * @param indexPart the index part
+     * @param sequence the sequence
+     * @param massKey the quantized mass
+     *
+     * @return the key
+     */
+    private static long getKey(int indexPart, String sequence, long massKey) {
+        long key = ((long) (sequence.hashCode() + 31 * indexPart)) << 32;
+        return key ^ massKey;
+    }
+
+    /**
+     * Returns the stripe of the given key.
+     *
+     * @param key the key
+     *
+     * @return the stripe
+     */
+    private Stripe getStripe(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (hash >>> 60) & (N_STRIPES - 1)];
+    }
+
+    /**
+     * A stripe of the cache, a map in access order evicting its eldest entry
+     * when full.
+     */
+    private class Stripe extends LinkedHashMap<Long, CacheElement> {
+
+        /**
+         * The maximal number of entries in the stripe.
+         */
+        private final int capacity;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the maximal number of entries in the stripe
+         */
+        public Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CacheElement> eldest) {
+            if (size() > capacity) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Immutable cache entry. The sequence, mass and index part are kept to
+     * resolve collisions of the keys.
+     */
+    private static class CacheElement {
+
+        /**
+         * The index part.
+         */
+        final int indexPart;
+        /**
+         * The sequence of the tag.
+         */
+        final String sequence;
+        /**
+         * The quantized mass.
+         */
+        final long massKey;
+        /**
+         * The cached matrix contents.
+         */
+        final List<MatrixContent> cachedPrimary;
+
+        /**
+         * Constructor.
+         *
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param massKey the quantized mass
+         * @param cachedPrimary the cached matrix contents
+         */
+        CacheElement(int indexPart, String sequence, long massKey, List<MatrixContent> cachedPrimary) {
+            this.indexPart = indexPart;
+            this.sequence = sequence;
+            this.massKey = massKey;
+            this.cachedPrimary = cachedPrimary;
+        }
+
+        /**
+         * Indicates whether the entry was made for the given tag.
+         *
+         * @param indexPart the index part
+         * @param sequence the sequence of the tag
+         * @param massKey the quantized mass
+         *
+         * @return true if the entry was made for the given tag
+         */
+        boolean matches(int indexPart, String sequence, long massKey) {
+            return this.indexPart == indexPart && this.massKey == massKey && this.sequence.equals(sequence);
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.compomics.util.experiment.identification.protein_inference.fm_index;
+
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
+import java.nio.LongBuffer;
+
+/**
+ * Wavelet matrix, a pointer free alternative to the wavelet tree. The
+ * characters are given fixed length codes and the bit vectors of all levels
+ * are stored one after the other in a single array. The bit vectors are
+ * split in blocks of eight longs, the first long holding the number of ones
+ * before the block and the seven others the bits, so that a rank only reads
+ * one cache line. When the matrix is loaded from an index file, the bit
+ * vectors are a read-only view on the mapped file and are not copied to the
+ * heap.
+ *
+ * @author Dominik Kopczynski
+ * @author Marc Vaudel
+ */
+public class WaveletMatrix implements OccurrenceTable {
+
+    /**
+     * Number of longs per block.
+     */
+    private static final int BLOCK_LONGS = 8;
+    /**
+     * Number of bits stored per block.
+     */
+    private static final int BLOCK_BITS = 64 * (BLOCK_LONGS - 1);
+    /**
+     * Shift number for fast bitwise divisions.
+     */
+    private static final int shift = 6;
+    /**
+     * Mask for fast bitwise modulo operations.
+     */
+    private static final int mask = 63;
+    /**
+     * Text length.
+     */
+    private final int lenText;
+    /**
+     * Number of masses.
+     */
+    private final int numMasses;
+    /**
+     * Number of levels, i.e. the length of the codes.
+     */
+    private final int nLevels;
+    /**
+     * Number of blocks of the bit vector of a level.
+     */
+    private final int blocksPerLevel;
+    /**
+     * Number of zeros in the bit vector of every level.
+     */
+    private final int[] zeros;
+    /**
+     * Code of every character, -1 if not in the alphabet.
+     */
+    private final int[] codes;
+    /**
+     * Character of every code.
+     */
+    private final byte[] characters;
+    /**
+     * Characters not reported by the range queries in a 128 bitfield.
+     */
+    private final long[] alphabetExcluded = new long[2];
+    /**
+     * The bit vectors of all levels with their interleaved ranks.
+     */
+    private final LongBuffer bits;
+    /**
+     * The less table.
+     */
+    private final int[] less;
+
+    /**
+     * Constructor.
+     *
+     * @param text the text
+     * @param aAlphabet the alphabet
+     * @param waitingHandler the waiting handler
+     * @param numMasses number of masses plus modifications
+     * @param hasPTMatTerminus indicates how to handle / sign
+     */
+    public WaveletMatrix(byte[] text, long[] aAlphabet, WaitingHandler waitingHandler, int numMasses, boolean hasPTMatTerminus) {
+        this.numMasses = numMasses;
+        lenText = text.length;
+
+        alphabetExcluded[0] = 1L << '$';
+        if (!hasPTMatTerminus) {
+            alphabetExcluded[0] |= 1L << '/';
+        }
+
+        codes = new int[128];
+        int sigma = 0;
+        for (int i = 0; i < 128; ++i) {
+            codes[i] = ((aAlphabet[i >>> shift] >>> (i & mask)) & 1L) == 1 ? sigma++ : -1;
+        }
+        characters = new byte[sigma];
+        for (int i = 0; i < 128; ++i) {
+            if (codes[i] >= 0) {
+                characters[codes[i]] = (byte) i;
+            }
+        }
+        nLevels = Math.max(1, 32 - Integer.numberOfLeadingZeros(sigma - 1));
+
+        int[] counts = new int[128];
+        byte[] current = new byte[lenText];
+        for (int i = 0; i < lenText; ++i) {
+            ++counts[text[i]];
+            current[i] = (byte) codes[text[i]];
+        }
+        less = new int[128];
+        int cumulativeSum = 0;
+        for (int i = 0; i < 128; ++i) {
+            less[i] = cumulativeSum;
+            if (codes[i] >= 0) {
+                cumulativeSum += counts[i];
+            }
+        }
+
+        blocksPerLevel = lenText / BLOCK_BITS + 1;
+        zeros = new int[nLevels];
+        long[] bits = new long[nLevels * blocksPerLevel * BLOCK_LONGS];
+        this.bits = LongBuffer.wrap(bits);
+        byte[] next = new byte[lenText];
+
+        for (int level = 0; level < nLevels; ++level) {
+            if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                return;
+            }
+            int bit = nLevels - 1 - level;
+            int levelOffset = level * blocksPerLevel * BLOCK_LONGS;
+
+            // set the bits and stable sort the codes by bit
+            int nZeros = 0;
+            for (int i = 0; i < lenText; ++i) {
+                if (((current[i] >>> bit) & 1) == 0) {
+                    ++nZeros;
+                } else {
+                    int block = i / BLOCK_BITS;
+                    int pos = i - block * BLOCK_BITS;
+                    bits[levelOffset + block * BLOCK_LONGS + 1 + (pos >>> shift)] |= 1L << (pos & mask);
+                }
+            }
+            zeros[level] = nZeros;
+            int zeroIndex = 0, oneIndex = nZeros;
+            for (int i = 0; i < lenText; ++i) {
+                if (((current[i] >>> bit) & 1) == 0) {
+                    next[zeroIndex++] = current[i];
+                } else {
+                    next[oneIndex++] = current[i];
+                }
+            }
+            byte[] swap = current;
+            current = next;
+            next = swap;
+
+            // interleave the ranks
+            int ones = 0;
+            for (int block = 0; block < blocksPerLevel; ++block) {
+                int blockOffset = levelOffset + block * BLOCK_LONGS;
+                bits[blockOffset] = ones;
+                for (int j = 1; j < BLOCK_LONGS; ++j) {
+                    ones += Long.bitCount(bits[blockOffset + j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Constructor loading a wavelet matrix previously written to a binary
+     * file.
+     *
+     * @param reader the reader positioned at the beginning of the matrix
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public WaveletMatrix(MappedFileReader reader) throws IOException {
+        lenText = reader.readInt();
+        numMasses = reader.readInt();
+        nLevels = reader.readInt();
+        blocksPerLevel = reader.readInt();
+        zeros = reader.readIntArray();
+        codes = reader.readIntArray();
+        characters = reader.readByteArray();
+        alphabetExcluded[0] = reader.readLong();
+        alphabetExcluded[1] = reader.readLong();
+        less = reader.readIntArray();
+        bits = reader.mapLongArray();
+    }
+
+    @Override
+    public void write(BinaryFileWriter writer) throws IOException {
+        writer.writeInt(lenText);
+        writer.writeInt(numMasses);
+        writer.writeInt(nLevels);
+        writer.writeInt(blocksPerLevel);
+        writer.writeIntArray(zeros);
+        writer.writeIntArray(codes);
+        writer.writeByteArray(characters);
+        writer.writeLong(alphabetExcluded[0]);
+        writer.writeLong(alphabetExcluded[1]);
+        writer.writeIntArray(less);
+        writer.writeLongBuffer(bits);
+    }
+
+    /**
+     * Returns the number of ones before the given position in the bit vector
+     * of a level.
+     *
+     * @param levelOffset the offset of the level in the bits array
+     * @param index the position, excluded
+     *
+     * @return the number of ones
+     */
+    private int rankOne(int levelOffset, int index) {
+        int block = index / BLOCK_BITS;
+        int pos = index - block * BLOCK_BITS;
+        int blockOffset = levelOffset + block * BLOCK_LONGS;
+        int count = (int) bits.get(blockOffset);
+        int word = blockOffset + 1 + (pos >>> shift);
+        for (int i = blockOffset + 1; i < word; ++i) {
+            count += Long.bitCount(bits.get(i));
+        }
+        if ((pos & mask) != 0) {
+            count += Long.bitCount(bits.get(word) << (64 - (pos & mask)));
+        }
+        return count;
+    }
+
+    /**
+     * Returns the bit at the given position in the bit vector of a level.
+     *
+     * @param levelOffset the offset of the level in the bits array
+     * @param index the position
+     *
+     * @return the bit
+     */
+    private int getBit(int levelOffset, int index) {
+        int block = index / BLOCK_BITS;
+        int pos = index - block * BLOCK_BITS;
+        return (int) ((bits.get(levelOffset + block * BLOCK_LONGS + 1 + (pos >>> shift)) >>> (pos & mask)) & 1L);
+    }
+
+    @Override
+    public int[] createLessTable() {
+        return less;
+    }
+
+    @Override
+    public int getRank(int index, int character) {
+        if (index >= lenText) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        int code = codes[character];
+        if (index < 0 || code < 0) {
+            return 0;
+        }
+        int end = index + 1;
+        int start = 0;
+        for (int level = 0, levelOffset = 0; level < nLevels; ++level, levelOffset += blocksPerLevel * BLOCK_LONGS) {
+            if (((code >>> (nLevels - 1 - level)) & 1) == 0) {
+                end -= rankOne(levelOffset, end);
+                start -= rankOne(levelOffset, start);
+            } else {
+                end = zeros[level] + rankOne(levelOffset, end);
+                start = zeros[level] + rankOne(levelOffset, start);
+            }
+        }
+        return end - start;
+    }
+
+    @Override
+    public int[] getCharacterInfo(int index) {
+        if (index >= lenText) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        int code = 0;
+        int position = index;
+        int start = 0;
+        for (int level = 0, levelOffset = 0; level < nLevels; ++level, levelOffset += blocksPerLevel * BLOCK_LONGS) {
+            int bit = getBit(levelOffset, position);
+            code = (code << 1) | bit;
+            if (bit == 0) {
+                position -= rankOne(levelOffset, position);
+                start -= rankOne(levelOffset, start);
+            } else {
+                position = zeros[level] + rankOne(levelOffset, position);
+                start = zeros[level] + rankOne(levelOffset, start);
+            }
+        }
+        return new int[]{characters[code], position - start};
+    }
+
+    @Override
+    public int getAllocatedBytes() {
+        return (bits.capacity() << 3) + ((zeros.length + codes.length + less.length) << 2) + characters.length;
+    }
+
+    @Override
+    public int[][] rangeQuery(int leftIndex, int rightIndex) {
+        int[][] query = new int[numMasses + 1][];
+        query[numMasses] = new int[]{0};
+
+        if (leftIndex + 1 < rightIndex) {
+            rangeQuery(0, 0, 0, leftIndex + 1, rightIndex + 1, 0, query);
+        } else {
+            int[] characterInfo = getCharacterInfo(rightIndex);
+            query[query[numMasses][0]++] = new int[]{characterInfo[0], characterInfo[1], characterInfo[1] + 1, characterInfo[0], -1};
+        }
+
+        return query;
+    }
+
+    /**
+     * Fills a list of character and new left/right index for a given range
+     * of a level.
+     *
+     * @param level the level
+     * @param levelOffset the offset of the level in the bits array
+     * @param code the beginning of the codes of the range
+     * @param begin the beginning of the range, included
+     * @param end the end of the range, excluded
+     * @param start the position of the first code of the range in the level
+     * @param setCharacter list of counted characters
+     */
+    private void rangeQuery(int level, int levelOffset, int code, int begin, int end, int start, int[][] setCharacter) {
+        if (level == nLevels) {
+            int character = characters[code];
+            if (((alphabetExcluded[character >>> shift] >>> (character & mask)) & 1L) == 0) {
+                setCharacter[setCharacter[numMasses][0]++] = new int[]{character, begin - start, end - start, character, -1};
+            }
+            return;
+        }
+        int beginOnes = rankOne(levelOffset, begin);
+        int endOnes = rankOne(levelOffset, end);
+        int startOnes = rankOne(levelOffset, start);
+        int nextLevelOffset = levelOffset + blocksPerLevel * BLOCK_LONGS;
+        if (endOnes > beginOnes) {
+            rangeQuery(level + 1, nextLevelOffset, (code << 1) | 1, zeros[level] + beginOnes, zeros[level] + endOnes, zeros[level] + startOnes, setCharacter);
+        }
+        if (end - endOnes > begin - beginOnes) {
+            rangeQuery(level + 1, nextLevelOffset, code << 1, begin - beginOnes, end - endOnes, start - startOnes, setCharacter);
+        }
+    }
+
+    @Override
+    public int[] singleRangeQuery(int leftIndex, int rightIndex, int character) {
+        int[] range = new int[2];
+        singleRangeQuery(leftIndex, rightIndex, character, range);
+        return range;
+    }
+
+    @Override
+    public void singleRangeQuery(int leftIndex, int rightIndex, int character, int[] range) {
+        int code = codes[character];
+        if (code < 0) {
+            range[0] = 0;
+            range[1] = 0;
+            return;
+        }
+        int begin = (leftIndex >= 0) ? leftIndex + 1 : 0;
+        int end = (rightIndex >= 0) ? rightIndex + 1 : 0;
+        int start = 0;
+        for (int level = 0, levelOffset = 0; level < nLevels; ++level, levelOffset += blocksPerLevel * BLOCK_LONGS) {
+            if (((code >>> (nLevels - 1 - level)) & 1) == 0) {
+                begin -= rankOne(levelOffset, begin);
+                end -= rankOne(levelOffset, end);
+                start -= rankOne(levelOffset, start);
+            } else {
+                begin = zeros[level] + rankOne(levelOffset, begin);
+                end = zeros[level] + rankOne(levelOffset, end);
+                start = zeros[level] + rankOne(levelOffset, start);
+            }
+        }
+        range[0] = begin - start;
+        range[1] = end - start;
+    }
+}
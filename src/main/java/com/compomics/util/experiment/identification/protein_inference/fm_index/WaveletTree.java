@@ -1,6 +1,9 @@
 package com.compomics.util.experiment.identification.protein_inference.fm_index;
 
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
 import com.compomics.util.waiting.WaitingHandler;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -9,7 +12,7 @@ import java.util.Collections;
  *
  * @author Dominik Kopczynski
  */
-public class WaveletTree {
+public class WaveletTree implements OccurrenceTable {
 
     /**
      * Instance of a rank.
@@ -214,6 +217,64 @@ public class WaveletTree {
     
     
 
+    /**
+     * Constructor loading a wavelet tree previously written to a binary file.
+     * The bit fields of the ranks are mapped from the file and not copied to
+     * the heap.
+     *
+     * @param reader the reader positioned at the beginning of the tree
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public WaveletTree(MappedFileReader reader) throws IOException {
+        rank = new Rank(reader);
+        alphabetDirections[0] = reader.readLong();
+        alphabetDirections[1] = reader.readLong();
+        firstChar = reader.readInt();
+        lastChar = reader.readInt();
+        lenText = reader.readInt();
+        numMasses = reader.readInt();
+        leftRightMask = reader.readInt();
+        continueLeftRangeQuery = reader.readBoolean();
+        continueRightRangeQuery = reader.readBoolean();
+        less = reader.readIntArray();
+        boolean hasLeftChild = reader.readBoolean();
+        boolean hasRightChild = reader.readBoolean();
+        leftChild = hasLeftChild ? new WaveletTree(reader) : null;
+        rightChild = hasRightChild ? new WaveletTree(reader) : null;
+    }
+
+    /**
+     * Writes the wavelet tree and its children to a binary file.
+     *
+     * @param writer the writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(BinaryFileWriter writer) throws IOException {
+        rank.write(writer);
+        writer.writeLong(alphabetDirections[0]);
+        writer.writeLong(alphabetDirections[1]);
+        writer.writeInt(firstChar);
+        writer.writeInt(lastChar);
+        writer.writeInt(lenText);
+        writer.writeInt(numMasses);
+        writer.writeInt(leftRightMask);
+        writer.writeBoolean(continueLeftRangeQuery);
+        writer.writeBoolean(continueRightRangeQuery);
+        writer.writeIntArray(less);
+        writer.writeBoolean(leftChild != null);
+        writer.writeBoolean(rightChild != null);
+        if (leftChild != null) {
+            leftChild.write(writer);
+        }
+        if (rightChild != null) {
+            rightChild.write(writer);
+        }
+    }
+
     /**
      * Create wavelet tree huffman.
      *
@@ -527,4 +588,40 @@ public class WaveletTree {
             }
         }
     }
+
+    /**
+     * Computes the new left and right index of a range for a given character
+     * without allocating memory.
+     *
+     * @param leftIndex left index boundary
+     * @param rightIndex right index boundary
+     * @param character the character
+     * @param range array of size two where the new left and right index are
+     * written
+     */
+    public void singleRangeQuery(int leftIndex, int rightIndex, int character, int[] range) {
+        WaveletTree node = this;
+        while (true) {
+            boolean left = ((node.alphabetDirections[character >>> shift] >>> (character & mask)) & 1) == 1;
+            int newLeftIndex, newRightIndex;
+            WaveletTree child;
+            if (left) {
+                newLeftIndex = (leftIndex >= 0) ? node.rank.getRankZero(leftIndex) : 0;
+                newRightIndex = (rightIndex >= 0) ? node.rank.getRankZero(rightIndex) : 0;
+                child = node.leftChild;
+            } else {
+                newLeftIndex = (leftIndex >= 0) ? node.rank.getRankOne(leftIndex) : 0;
+                newRightIndex = (rightIndex >= 0) ? node.rank.getRankOne(rightIndex) : 0;
+                child = node.rightChild;
+            }
+            if (child == null) {
+                range[0] = newLeftIndex;
+                range[1] = newRightIndex;
+                return;
+            }
+            leftIndex = newLeftIndex - 1;
+            rightIndex = newRightIndex - 1;
+            node = child;
+        }
+    }
 }
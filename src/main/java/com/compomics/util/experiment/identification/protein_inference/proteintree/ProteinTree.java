@@ -14,7 +14,9 @@ import com.compomics.util.experiment.identification.TagFactory;
 import com.compomics.util.experiment.identification.amino_acid_tags.Tag;
 import com.compomics.util.experiment.identification.amino_acid_tags.TagComponent;
 import com.compomics.util.experiment.identification.amino_acid_tags.matchers.TagMatcher;
+import com.compomics.util.experiment.identification.protein_inference.PeptideBatchMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingCallback;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.math.BasicMathFunctions;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
@@ -28,11 +30,13 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -968,6 +972,21 @@ public class ProteinTree implements PeptideMapper {
         return result;
     }
 
+    @Override
+    public void getProteinMappings(Collection<String> peptideSequences, final SequenceMatchingPreferences sequenceMatchingPreferences, int nThreads, PeptideMappingCallback callback)
+            throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+        PeptideBatchMapper.getProteinMappings(peptideSequences, nThreads, new PeptideBatchMapper.BlockMapper() {
+            @Override
+            public ArrayList<ArrayList<PeptideProteinMapping>> getProteinMappings(List<String> peptideSequences) throws IOException, InterruptedException, ClassNotFoundException, SQLException {
+                ArrayList<ArrayList<PeptideProteinMapping>> result = new ArrayList<ArrayList<PeptideProteinMapping>>(peptideSequences.size());
+                for (String peptideSequence : peptideSequences) {
+                    result.add(getProteinMapping(peptideSequence, sequenceMatchingPreferences));
+                }
+                return result;
+            }
+        }, callback);
+    }
+
     /**
      * Returns the protein mapping in the sequence factory for the given peptide
      * sequence. peptide sequence &gt; protein accession &gt; index in the
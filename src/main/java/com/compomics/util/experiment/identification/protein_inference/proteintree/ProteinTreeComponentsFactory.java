@@ -169,6 +169,7 @@ public class ProteinTreeComponentsFactory {
     public void close() throws IOException, SQLException, InterruptedException {
         if (objectsDB != null) {
             objectsDB.close();
+            objectsCache.close();
             objectsCache = new ObjectsCache();
         }
     }
@@ -1,27 +1,77 @@
 package com.compomics.util.experiment.identification.protein_sequences;
 
 import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
 import com.compomics.util.protein.Header;
 import com.compomics.util.protein.Header.DatabaseType;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 
 /**
- * This class contains the index of a FASTA file.
+ * This class contains the index of a FASTA file. The accessions are stored in
+ * a compact table: the accessions are concatenated in the order of the file,
+ * and found using their hashes sorted in ascending order. Proteins are
+ * numbered by their ordinal in the file, 0 being the first protein.
+ * Indexes serialized with the previous layout, a map of the indexes and a set
+ * of the decoy accessions, are converted upon deserialization.
  *
  * @author Marc Vaudel
  */
 public class FastaIndex extends ExperimentObject {
 
     /**
-     * The indexes of the inspected FASTA file.
+     * The version UID for serialization/deserialization compatibility, the
+     * one computed for the previous layout.
      */
-    private HashMap<String, Long> indexes;
+    static final long serialVersionUID = 8022987705958686236L;
     /**
-     * The decoy accessions.
+     * The number of proteins.
      */
-    private HashSet<String> decoyAccessions;
+    private int nProteins;
+    /**
+     * The accessions encoded in UTF-8 and concatenated in the order of the
+     * file.
+     */
+    private byte[] accessions;
+    /**
+     * The start of every accession in the accessions blob followed by the end
+     * of the last accession.
+     */
+    private int[] accessionOffsets;
+    /**
+     * The hashes of the accessions sorted in ascending order.
+     */
+    private long[] accessionHashes;
+    /**
+     * The ordinal of the protein corresponding to every hash.
+     */
+    private int[] accessionHashOrder;
+    /**
+     * The index in the file of every protein by ordinal.
+     */
+    private long[] proteinIndexes;
+    /**
+     * Map of the indexes (accession &gt; index) of the previous layout, only
+     * set while deserializing an index of the previous layout.
+     */
+    private HashMap<String, Long> indexes = null;
+    /**
+     * The decoy accessions of the previous layout, only set while
+     * deserializing an index of the previous layout.
+     */
+    private HashSet<String> decoyAccessions = null;
+    /**
+     * The ordinals of the decoy proteins.
+     */
+    private BitSet decoys;
     /**
      * The FASTA file name.
      */
@@ -105,8 +155,46 @@ public class FastaIndex extends ExperimentObject {
             boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, long lastModified,
             DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag, 
             String version, HashMap<String, Integer> speciesOccurrence, int[] aaOccurrence) {
-        this.indexes = indexes;
-        this.decoyAccessions = decoyAccessions;
+        this(getAccessionsInFileOrder(indexes), null, null, fileName, name, concatenatedTargetDecoy, isDefaultReversed, nTarget, lastModified,
+                mainDatabaseType, databaseTypes, decoyTag, version, speciesOccurrence, aaOccurrence);
+        setIndexes(indexes, decoyAccessions);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param accessions the accessions of the proteins in the order of the
+     * file
+     * @param indexes the index in the file of every protein in the order of
+     * the accessions, can be null if set later on
+     * @param decoys the ordinals of the decoy proteins, can be null if set
+     * later on
+     * @param fileName The FASTA file name
+     * @param name the name of the database
+     * @param concatenatedTargetDecoy If the FASTA file is a concatenated
+     * target/decoy database
+     * @param isDefaultReversed is this a default reversed database
+     * @param nTarget Number of target sequences found in the database
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param mainDatabaseType the main database type
+     * @param databaseTypes map of all the database types and how often they
+     * occur
+     * @param decoyTag the decoy tag
+     * @param version the database version
+     * @param speciesOccurrence the species occurrence in the database
+     * @param aaOccurrence the occurrence of every amino acid in per mille
+     *
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    public FastaIndex(String[] accessions, long[] indexes, BitSet decoys, String fileName, String name,
+            boolean concatenatedTargetDecoy, boolean isDefaultReversed, int nTarget, long lastModified,
+            DatabaseType mainDatabaseType, HashMap<Header.DatabaseType, Integer> databaseTypes, String decoyTag,
+            String version, HashMap<String, Integer> speciesOccurrence, int[] aaOccurrence) {
+        setAccessions(accessions);
+        this.proteinIndexes = indexes == null ? new long[nProteins] : indexes;
+        this.decoys = decoys == null ? new BitSet(nProteins) : decoys;
         this.fileName = fileName;
         this.name = name;
         this.concatenatedTargetDecoy = concatenatedTargetDecoy;
@@ -121,13 +209,194 @@ public class FastaIndex extends ExperimentObject {
         this.aaOccurrence = aaOccurrence;
     }
 
+    /**
+     * Sets the accessions table.
+     *
+     * @param accessionsArray the accessions of the proteins in the order of
+     * the file
+     *
+     * @throws IllegalArgumentException if non unique accession numbers are
+     * found
+     */
+    private void setAccessions(String[] accessionsArray) {
+
+        nProteins = accessionsArray.length;
+
+        accessionOffsets = new int[nProteins + 1];
+        byte[][] accessionsBytes = new byte[nProteins][];
+        long length = 0;
+        for (int i = 0; i < nProteins; i++) {
+            accessionsBytes[i] = BinaryFileWriter.getBytes(accessionsArray[i]);
+            length += accessionsBytes[i].length;
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many accessions to index.");
+            }
+            accessionOffsets[i + 1] = (int) length;
+        }
+        accessions = new byte[(int) length];
+        for (int i = 0; i < nProteins; i++) {
+            System.arraycopy(accessionsBytes[i], 0, accessions, accessionOffsets[i], accessionsBytes[i].length);
+        }
+
+        final long[] hashesByAccession = new long[nProteins];
+        Integer[] order = new Integer[nProteins];
+        for (int i = 0; i < nProteins; i++) {
+            hashesByAccession[i] = ProteinSequenceStoreWriter.getAccessionHash(accessionsArray[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long hash1 = hashesByAccession[o1];
+                long hash2 = hashesByAccession[o2];
+                return hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1);
+            }
+        });
+        accessionHashes = new long[nProteins];
+        accessionHashOrder = new int[nProteins];
+        for (int i = 0; i < nProteins; i++) {
+            accessionHashOrder[i] = order[i];
+            accessionHashes[i] = hashesByAccession[accessionHashOrder[i]];
+        }
+
+        // check that the accessions are unique
+        for (int i = 0; i < nProteins; i++) {
+            for (int j = i + 1; j < nProteins && accessionHashes[j] == accessionHashes[i]; j++) {
+                String accession = accessionsArray[accessionHashOrder[i]];
+                if (accession.equals(accessionsArray[accessionHashOrder[j]])) {
+                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check your FASTA file.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the indexes and the decoys from a map of the indexes and a set of
+     * decoy accessions. The accessions must be set.
+     *
+     * @param indexesMap map of the indexes (accession &gt; index)
+     * @param decoyAccessionsSet the decoy accessions, can be null
+     */
+    private void setIndexes(HashMap<String, Long> indexesMap, HashSet<String> decoyAccessionsSet) {
+        for (int i = 0; i < nProteins; i++) {
+            String accession = getAccession(i);
+            proteinIndexes[i] = indexesMap.get(accession);
+            if (decoyAccessionsSet != null && decoyAccessionsSet.contains(accession)) {
+                decoys.set(i);
+            }
+        }
+    }
+
+    /**
+     * Reads the index and converts the previous layout if needed.
+     *
+     * @param in the input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the stream
+     * @throws ClassNotFoundException exception thrown whenever a class of the
+     * stream is not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (indexes != null) {
+            setAccessions(getAccessionsInFileOrder(indexes));
+            proteinIndexes = new long[nProteins];
+            decoys = new BitSet(nProteins);
+            setIndexes(indexes, decoyAccessions);
+            indexes = null;
+            decoyAccessions = null;
+        }
+    }
+
+    /**
+     * Returns the accessions of a map of indexes sorted by index.
+     *
+     * @param indexes map of the indexes (accession &gt; index)
+     *
+     * @return the accessions sorted by index
+     */
+    private static String[] getAccessionsInFileOrder(final HashMap<String, Long> indexes) {
+        String[] result = indexes.keySet().toArray(new String[indexes.size()]);
+        Arrays.sort(result, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                return indexes.get(o1).compareTo(indexes.get(o2));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Returns the ordinal of the protein of the given accession, -1 if not
+     * found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the ordinal of the protein
+     */
+    public int getOrdinal(String accession) {
+
+        long hash = ProteinSequenceStoreWriter.getAccessionHash(accession);
+        int low = 0;
+        int high = nProteins;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (accessionHashes[middle] < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for (int i = low; i < nProteins && accessionHashes[i] == hash; i++) {
+            int ordinal = accessionHashOrder[i];
+            if (getAccession(ordinal).equals(accession)) {
+                return ordinal;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the accession of the protein of the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int ordinal) {
+        int start = accessionOffsets[ordinal];
+        return MappedFileReader.getString(accessions, start, accessionOffsets[ordinal + 1] - start);
+    }
+
+    /**
+     * Returns the accessions of the proteins in the order of the file.
+     *
+     * @return the accessions of the proteins
+     */
+    public ArrayList<String> getAccessions() {
+        ArrayList<String> result = new ArrayList<String>(nProteins);
+        for (int i = 0; i < nProteins; i++) {
+            result.add(getAccession(i));
+        }
+        return result;
+    }
+
     /**
      * Returns a map of all indexes of the FASTA file (accession &gt; index).
+     * The map is created every time this method is called, getIndex should be
+     * preferred.
      *
      * @return a map of all indexes of the FASTA file (accession &gt; index)
      */
     public HashMap<String, Long> getIndexes() {
-        return indexes;
+        HashMap<String, Long> result = new HashMap<String, Long>(nProteins);
+        for (int i = 0; i < nProteins; i++) {
+            result.put(getAccession(i), proteinIndexes[i]);
+        }
+        return result;
     }
 
     /**
@@ -138,16 +407,22 @@ public class FastaIndex extends ExperimentObject {
      * @return true if the given accession number is a decoy
      */
     public boolean isDecoy(String accession) {
-        return decoyAccessions.contains(accession);
+        int ordinal = getOrdinal(accession);
+        return ordinal != -1 && decoys.get(ordinal);
     }
 
     /**
-     * Returns the list of decoy accessions.
+     * Returns the list of decoy accessions. The set is created every time this
+     * method is called.
      *
      * @return the list of decoy accessions
      */
     public HashSet<String> getDecoyAccesions() {
-        return decoyAccessions;
+        HashSet<String> result = new HashSet<String>(decoys.cardinality());
+        for (int i = decoys.nextSetBit(0); i >= 0; i = decoys.nextSetBit(i + 1)) {
+            result.add(getAccession(i));
+        }
+        return result;
     }
 
     /**
@@ -157,7 +432,22 @@ public class FastaIndex extends ExperimentObject {
      * @return the index of the accession of interest
      */
     public Long getIndex(String accession) {
-        return indexes.get(accession);
+        int ordinal = getOrdinal(accession);
+        if (ordinal == -1) {
+            return null;
+        }
+        return proteinIndexes[ordinal];
+    }
+
+    /**
+     * Returns the index in the file of the protein of the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the index in the file of the protein
+     */
+    public long getIndex(int ordinal) {
+        return proteinIndexes[ordinal];
     }
 
     /**
@@ -196,7 +486,7 @@ public class FastaIndex extends ExperimentObject {
      * @return the number of sequences in the databases.
      */
     public int getNSequences() {
-        return indexes.size();
+        return nProteins;
     }
 
     /**
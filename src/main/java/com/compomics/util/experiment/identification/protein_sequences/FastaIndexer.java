@@ -0,0 +1,685 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.Util;
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
+import com.compomics.util.protein.Header;
+import com.compomics.util.protein.Header.DatabaseType;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexer for FASTA files. The file is split in byte ranges which are
+ * scanned in parallel. Every range is resynchronized on the first header line
+ * it contains and indexes the proteins whose header starts in the range. The
+ * results of the ranges are merged in the order of the file so that the decoy
+ * tag is inferred as when reading the file sequentially.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexer {
+
+    /**
+     * The default minimal size of the byte ranges scanned by every thread.
+     */
+    public static final long DEFAULT_MIN_CHUNK_SIZE = 16 * 1024 * 1024;
+    /**
+     * The size of the read buffer of every thread in bytes.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The initial size of the arrays used to collect the indexes.
+     */
+    private static final int INITIAL_ARRAY_SIZE = 1024;
+    /**
+     * The number of categories of proteins according to the decoy flags they
+     * match, see getDecoyMask.
+     */
+    private static final int N_MASKS = 1 << 5;
+    /**
+     * The bit set in the decoy mask when the accession matches the given decoy
+     * tag.
+     */
+    private static final int DECOY_TAG_BIT = 1 << 4;
+    /**
+     * The FASTA file to index.
+     */
+    private final File fastaFile;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The minimal size of the byte ranges scanned by every thread.
+     */
+    private final long minChunkSize;
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file to index
+     * @param nThreads the number of threads to use
+     */
+    public FastaIndexer(File fastaFile, int nThreads) {
+        this(fastaFile, nThreads, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fastaFile the FASTA file to index
+     * @param nThreads the number of threads to use
+     * @param minChunkSize the minimal size of the byte ranges scanned by every
+     * thread
+     */
+    public FastaIndexer(File fastaFile, int nThreads, long minChunkSize) {
+        this.fastaFile = fastaFile;
+        this.nThreads = Math.max(1, nThreads);
+        this.minChunkSize = Math.max(1, minChunkSize);
+    }
+
+    /**
+     * Returns the index of the FASTA file. Non-valid FASTA files will throw an
+     * exception.
+     *
+     * @param name the name of the database. Set to file name if null.
+     * @param decoyTag the decoy tag. Will be inferred if null.
+     * @param version the version. Last modification of the file will be used
+     * if null.
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     *
+     * @return the index of the FASTA file
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     * @throws IllegalArgumentException if the file is not a valid FASTA file
+     * or if non unique accession numbers are found
+     */
+    public FastaIndex getIndex(String name, String decoyTag, String version, WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(fastaFile, "r");
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+        try {
+
+            final FileChannel fileChannel = randomAccessFile.getChannel();
+            long fileLength = fileChannel.size();
+            int nChunks = (int) Math.max(1, Math.min(4L * nThreads, fileLength / minChunkSize));
+            long chunkSize = fileLength / nChunks + 1;
+            final AtomicLong progress = new AtomicLong(0);
+
+            for (int i = 0; i < nChunks; i++) {
+                long start = Math.min(i * chunkSize, fileLength);
+                long end = Math.min(start + chunkSize, fileLength);
+                chunks.add(new Chunk(fileChannel, start, end, decoyTag, progress, waitingHandler));
+            }
+
+            if (chunks.size() == 1) {
+                chunks.get(0).call();
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, nChunks));
+                try {
+                    ArrayList<Future<Chunk>> futures = new ArrayList<Future<Chunk>>(nChunks);
+                    for (Chunk chunk : chunks) {
+                        futures.add(pool.submit(chunk));
+                    }
+                    long progressUnit = Math.max(1, fileLength / 100);
+                    for (Future<Chunk> future : futures) {
+                        while (!waitForChunk(future)) {
+                            if (waitingHandler != null) {
+                                waitingHandler.setSecondaryProgressCounter((int) (progress.get() / progressUnit));
+                            }
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return mergeChunks(chunks, name, decoyTag, version);
+    }
+
+    /**
+     * Waits for a chunk to be indexed for a limited time and rethrows the
+     * exceptions encountered while indexing.
+     *
+     * @param future the future of the chunk
+     *
+     * @return true if the chunk was indexed
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file or if the thread is interrupted
+     */
+    private boolean waitForChunk(Future<Chunk> future) throws IOException {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while indexing " + fastaFile.getName() + ".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Merges the indexes and statistics of the chunks in the order of the
+     * file.
+     *
+     * @param chunks the indexed chunks
+     * @param name the name of the database. Set to file name if null.
+     * @param decoyTag the decoy tag. Will be inferred if null.
+     * @param version the version. Last modification of the file will be used
+     * if null.
+     *
+     * @return the index of the file
+     */
+    private FastaIndex mergeChunks(ArrayList<Chunk> chunks, String name, String decoyTag, String version) {
+
+        int nProteins = 0;
+        for (Chunk chunk : chunks) {
+            nProteins += chunk.accessions.size();
+        }
+
+        String[] accessions = new String[nProteins];
+        long[] indexes = new long[nProteins];
+        byte[] decoyMasks = new byte[nProteins];
+        int offset = 0;
+        for (Chunk chunk : chunks) {
+            int chunkSize = chunk.accessions.size();
+            for (int i = 0; i < chunkSize; i++) {
+                accessions[offset + i] = chunk.accessions.get(i);
+            }
+            System.arraycopy(chunk.indexes, 0, indexes, offset, chunkSize);
+            System.arraycopy(chunk.decoyMasks, 0, decoyMasks, offset, chunkSize);
+            offset += chunkSize;
+        }
+
+        // the decoy tag is given or inferred from the first accession matching a decoy flag
+        int decoyBit = 0;
+        if (decoyTag != null) {
+            decoyBit = DECOY_TAG_BIT;
+        } else {
+            for (byte mask : decoyMasks) {
+                if (mask != 0) {
+                    int flagIndex = Integer.numberOfTrailingZeros(mask);
+                    decoyTag = SequenceFactory.DECOY_FLAGS[flagIndex];
+                    decoyBit = 1 << flagIndex;
+                    break;
+                }
+            }
+        }
+
+        boolean decoy = false, defaultReversed = false;
+        BitSet decoys = new BitSet(nProteins);
+        for (int i = 0; i < nProteins; i++) {
+            if ((decoyMasks[i] & decoyBit) != 0) {
+                decoys.set(i);
+                if (!decoy) {
+                    decoy = true;
+                    defaultReversed = accessions[i].endsWith(SequenceFactory.getDefaultDecoyAccessionSuffix());
+                }
+            }
+        }
+
+        // the statistics are collected on the target proteins only
+        int nTarget = 0;
+        HashMap<DatabaseType, Integer> databaseTypes = new HashMap<DatabaseType, Integer>();
+        HashMap<String, Integer> species = new HashMap<String, Integer>();
+        long[] aaCounts = new long[26];
+        for (Chunk chunk : chunks) {
+            for (int mask = 0; mask < N_MASKS; mask++) {
+                if ((mask & decoyBit) == 0) {
+                    nTarget += chunk.nProteinsPerMask[mask];
+                    addAll(databaseTypes, chunk.databaseTypesPerMask[mask]);
+                    addAll(species, chunk.speciesPerMask[mask]);
+                }
+            }
+            for (int i = 0; i < aaCounts.length; i++) {
+                aaCounts[i] += chunk.aaCounts[i];
+            }
+        }
+
+        long lastModified = fastaFile.lastModified();
+        if (version == null) {
+            version = FastaIndex.getDefaultVersion(lastModified);
+        }
+        String fileName = fastaFile.getName();
+        if (name == null) {
+            name = Util.removeExtension(fileName);
+        }
+
+        // find the main database type
+        DatabaseType mainDatabaseType = null;
+        int maxCounter = 0;
+        for (DatabaseType databaseType : databaseTypes.keySet()) {
+            int counter = databaseTypes.get(databaseType);
+            if (counter > maxCounter) {
+                maxCounter = counter;
+                mainDatabaseType = databaseType;
+            }
+        }
+
+        // amino acid occurrence relative to nAaOccurrence amino acids
+        long nAas = 0;
+        for (long aaCount : aaCounts) {
+            nAas += aaCount;
+        }
+        int[] aaOccurrence = new int[aaCounts.length];
+        if (nAas > 0) {
+            double scaling = ((double) nAas) / SequenceFactory.nAaOccurrence;
+            for (int i = 0; i < aaCounts.length; i++) {
+                aaOccurrence[i] = (int) (aaCounts[i] / scaling);
+            }
+        }
+
+        return new FastaIndex(accessions, indexes, decoys, fileName, name, decoy, defaultReversed, nTarget, lastModified,
+                mainDatabaseType, databaseTypes, decoyTag, version, species, aaOccurrence);
+    }
+
+    /**
+     * Adds the counts of a map to another map.
+     *
+     * @param <K> the type of key
+     * @param destination the map where to add the counts
+     * @param source the map to add, can be null
+     */
+    private static <K> void addAll(HashMap<K, Integer> destination, HashMap<K, Integer> source) {
+        if (source != null) {
+            for (K key : source.keySet()) {
+                Integer count = destination.get(key);
+                destination.put(key, count == null ? source.get(key) : count + source.get(key));
+            }
+        }
+    }
+
+    /**
+     * Returns the decoy flags matched by an accession as a bit mask, the bit
+     * of a flag being its index in the decoy flags of the sequence factory.
+     * The DECOY_TAG_BIT is set if the accession matches the given decoy tag.
+     *
+     * @param accession the accession
+     * @param decoyTag the decoy tag, can be null
+     *
+     * @return the bit mask of the decoy flags matched
+     */
+    private static byte getDecoyMask(String accession, String decoyTag) {
+        int mask = 0;
+        if (decoyTag != null) {
+            if (SequenceFactory.isDecoy(accession, decoyTag)) {
+                mask |= DECOY_TAG_BIT;
+            }
+        } else {
+            for (int i = 0; i < SequenceFactory.DECOY_FLAGS.length; i++) {
+                if (SequenceFactory.isDecoy(accession, SequenceFactory.DECOY_FLAGS[i])) {
+                    mask |= 1 << i;
+                }
+            }
+        }
+        return (byte) mask;
+    }
+
+    /**
+     * Indexes the proteins whose header starts in a range of the file.
+     */
+    private static class Chunk implements Callable<Chunk> {
+
+        /**
+         * The channel to the file.
+         */
+        private final FileChannel fileChannel;
+        /**
+         * The start of the range.
+         */
+        private final long start;
+        /**
+         * The end of the range.
+         */
+        private final long end;
+        /**
+         * The decoy tag, null if it has to be inferred.
+         */
+        private final String decoyTag;
+        /**
+         * The number of bytes processed by all chunks.
+         */
+        private final AtomicLong progress;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The read buffer.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        /**
+         * The position in the file of the first byte of the buffer.
+         */
+        private long bufferStart;
+        /**
+         * The position in the file of the current line.
+         */
+        private long linePosition;
+        /**
+         * The bytes of the current line, without line break.
+         */
+        private byte[] line = new byte[1024];
+        /**
+         * The length of the current line.
+         */
+        private int lineLength;
+        /**
+         * The accessions in the order of the file.
+         */
+        private final ArrayList<String> accessions = new ArrayList<String>(INITIAL_ARRAY_SIZE);
+        /**
+         * The index in the file of every protein.
+         */
+        private long[] indexes = new long[INITIAL_ARRAY_SIZE];
+        /**
+         * The decoy mask of every protein.
+         */
+        private byte[] decoyMasks = new byte[INITIAL_ARRAY_SIZE];
+        /**
+         * The number of proteins per decoy mask.
+         */
+        private final int[] nProteinsPerMask = new int[N_MASKS];
+        /**
+         * The occurrence of the database types per decoy mask.
+         */
+        @SuppressWarnings("unchecked")
+        private final HashMap<DatabaseType, Integer>[] databaseTypesPerMask = new HashMap[N_MASKS];
+        /**
+         * The occurrence of the species per decoy mask.
+         */
+        @SuppressWarnings("unchecked")
+        private final HashMap<String, Integer>[] speciesPerMask = new HashMap[N_MASKS];
+        /**
+         * The number of every amino acid in the sequences.
+         */
+        private final long[] aaCounts = new long[26];
+        /**
+         * The number of every amino acid in the sequence of the current
+         * protein.
+         */
+        private final int[] proteinAaCounts = new int[26];
+        /**
+         * The first character of the sequence of the current protein which
+         * cannot be mapped to an amino acid, 0 if none.
+         */
+        private char invalidAa = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param fileChannel the channel to the file
+         * @param start the start of the range
+         * @param end the end of the range
+         * @param decoyTag the decoy tag, null if it has to be inferred
+         * @param progress the number of bytes processed by all chunks
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public Chunk(FileChannel fileChannel, long start, long end, String decoyTag, AtomicLong progress, WaitingHandler waitingHandler) {
+            this.fileChannel = fileChannel;
+            this.start = start;
+            this.end = end;
+            this.decoyTag = decoyTag;
+            this.progress = progress;
+            this.waitingHandler = waitingHandler;
+            bufferStart = start;
+            buffer.limit(0);
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+
+            // skip the end of the line preceding the range
+            if (start > 0) {
+                ByteBuffer previous = ByteBuffer.allocate(1);
+                fileChannel.read(previous, start - 1);
+                if (previous.get(0) != '\n' && !nextLine()) {
+                    return this;
+                }
+            }
+
+            // resynchronize on the first header of the range
+            do {
+                if (!nextLine() || linePosition >= end) {
+                    progress.addAndGet(end - start);
+                    return this;
+                }
+            } while (lineLength == 0 || line[0] != '>');
+
+            long lastProgress = start;
+            String accession = processHeader();
+            boolean pendingStop = false;
+
+            while (nextLine()) {
+                if (lineLength > 0 && line[0] == '>') {
+                    addSequence(accession);
+                    if (linePosition >= end || waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                    progress.addAndGet(linePosition - lastProgress);
+                    lastProgress = linePosition;
+                    accession = processHeader();
+                    pendingStop = false;
+                } else {
+                    // trim the line
+                    int lineStart = 0, lineEnd = lineLength;
+                    while (lineStart < lineEnd && (line[lineStart] & 0xff) <= ' ') {
+                        lineStart++;
+                    }
+                    while (lineEnd > lineStart && (line[lineEnd - 1] & 0xff) <= ' ') {
+                        lineEnd--;
+                    }
+                    // a stop at the end of the sequence is removed, see SequenceFactory.importSequenceFromFasta
+                    for (int i = lineStart; i < lineEnd; i++) {
+                        if (pendingStop) {
+                            countAminoAcid('*');
+                            pendingStop = false;
+                        }
+                        char aa = (char) (line[i] & 0xff);
+                        if (aa == '*') {
+                            pendingStop = true;
+                        } else {
+                            countAminoAcid(aa);
+                        }
+                    }
+                }
+            }
+
+            // as when reading the file sequentially, the sequence of the last protein of the file is not inspected
+            progress.addAndGet(Math.max(end, lastProgress) - lastProgress);
+
+            return this;
+        }
+
+        /**
+         * Counts an amino acid of the sequence of the current protein.
+         *
+         * @param aa the amino acid
+         */
+        private void countAminoAcid(char aa) {
+            if (!AminoAcid.isAa(aa)) {
+                if (invalidAa == 0) {
+                    invalidAa = aa;
+                }
+            } else if (AminoAcid.isUniqueAa(aa)) {
+                proteinAaCounts[aa - 65]++;
+            }
+        }
+
+        /**
+         * Validates the sequence of the current protein and adds its amino
+         * acids to the counts.
+         *
+         * @param accession the accession of the protein
+         */
+        private void addSequence(String accession) {
+            if (invalidAa != 0) {
+                throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + ": "
+                        + new IllegalArgumentException("Found character in protein sequence that cannot be mapped to an amino acid (" + invalidAa + ")."));
+            }
+            for (int i = 0; i < proteinAaCounts.length; i++) {
+                aaCounts[i] += proteinAaCounts[i];
+                proteinAaCounts[i] = 0;
+            }
+        }
+
+        /**
+         * Parses the header in the current line and adds the protein to the
+         * index.
+         *
+         * @return the accession of the protein
+         */
+        private String processHeader() {
+
+            String headerLine;
+            try {
+                headerLine = new String(line, 0, lineLength, "ISO-8859-1");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("ISO-8859-1 encoding not supported.", e);
+            }
+            Header fastaHeader = Header.parseFromFASTA(headerLine);
+            String accession = fastaHeader.getAccessionOrRest();
+            if (accession == null) {
+                throw new IllegalArgumentException("No accession found for header " + headerLine + ".");
+            }
+
+            // check accessions for quotation marks
+            if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
+                throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
+            }
+
+            int nProteins = accessions.size();
+            if (nProteins == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * nProteins);
+                decoyMasks = Arrays.copyOf(decoyMasks, 2 * nProteins);
+            }
+            accessions.add(accession);
+            indexes[nProteins] = linePosition;
+            byte mask = getDecoyMask(accession, decoyTag);
+            decoyMasks[nProteins] = mask;
+
+            nProteinsPerMask[mask]++;
+            HashMap<DatabaseType, Integer> databaseTypes = databaseTypesPerMask[mask];
+            if (databaseTypes == null) {
+                databaseTypes = new HashMap<DatabaseType, Integer>();
+                databaseTypesPerMask[mask] = databaseTypes;
+            }
+            DatabaseType databaseType = fastaHeader.getDatabaseType();
+            Integer typeCounter = databaseTypes.get(databaseType);
+            databaseTypes.put(databaseType, typeCounter == null ? 1 : typeCounter + 1);
+
+            HashMap<String, Integer> species = speciesPerMask[mask];
+            if (species == null) {
+                species = new HashMap<String, Integer>();
+                speciesPerMask[mask] = species;
+            }
+            String taxonomy = fastaHeader.getTaxonomy();
+            if (taxonomy == null || taxonomy.equals("")) {
+                taxonomy = SpeciesFactory.UNKNOWN;
+            }
+            Integer occurrence = species.get(taxonomy);
+            species.put(taxonomy, occurrence == null ? 1 : occurrence + 1);
+
+            return accession;
+        }
+
+        /**
+         * Reads the next line of the file.
+         *
+         * @return a boolean indicating whether a line was read
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading the file
+         */
+        private boolean nextLine() throws IOException {
+
+            linePosition = bufferStart + buffer.position();
+            lineLength = 0;
+            boolean read = false;
+
+            while (true) {
+                if (!buffer.hasRemaining() && !fillBuffer()) {
+                    break;
+                }
+                read = true;
+                byte b = buffer.get();
+                if (b == '\n') {
+                    break;
+                }
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, 2 * lineLength);
+                }
+                line[lineLength++] = b;
+            }
+
+            if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                lineLength--;
+            }
+
+            return read;
+        }
+
+        /**
+         * Fills the buffer with the bytes following the current buffer.
+         *
+         * @return a boolean indicating whether bytes were read
+         *
+         * @throws IOException exception thrown whenever an error occurs while
+         * reading the file
+         */
+        private boolean fillBuffer() throws IOException {
+            bufferStart += buffer.limit();
+            buffer.clear();
+            int nRead = 0;
+            while (nRead == 0) {
+                nRead = fileChannel.read(buffer, bufferStart);
+            }
+            buffer.flip();
+            return nRead > 0;
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
+import com.compomics.util.protein.Header.DatabaseType;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+/**
+ * Reader for the protein sequence stores written by the
+ * ProteinSequenceStoreWriter. The residues and the columns are memory mapped:
+ * the sequence of a protein is retrieved by looking up its accession and can
+ * be accessed through views on the mapped file without copying. Proteins are
+ * numbered by their ordinal in the FASTA file, 0 being the first protein. The
+ * store can be used by different threads simultaneously.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinSequenceStore {
+
+    /**
+     * The extension of protein sequence store files.
+     */
+    public static final String EXTENSION = ".cps";
+    /**
+     * The maximal size of a mapped segment of residues in bytes.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    /**
+     * The name of the FASTA file the sequences were taken from.
+     */
+    private final String fastaFileName;
+    /**
+     * The last modification time of the FASTA file when the store was
+     * written.
+     */
+    private final long fastaLastModified;
+    /**
+     * The number of proteins.
+     */
+    private final int nProteins;
+    /**
+     * The start of every accession in the accessions blob followed by the end
+     * of the last accession.
+     */
+    private final IntBuffer accessionOffsets;
+    /**
+     * The accessions encoded in UTF-8 and concatenated.
+     */
+    private final ByteBuffer accessions;
+    /**
+     * The hashes of the accessions sorted in ascending order.
+     */
+    private final LongBuffer accessionHashes;
+    /**
+     * The ordinal of the protein corresponding to every hash.
+     */
+    private final IntBuffer accessionHashOrder;
+    /**
+     * The database types found in the FASTA file.
+     */
+    private final DatabaseType[] databaseTypes;
+    /**
+     * The index of the database type of every protein.
+     */
+    private final ByteBuffer proteinDatabaseTypes;
+    /**
+     * The index of the first residue of every protein followed by the number
+     * of residues.
+     */
+    private final LongBuffer sequenceOffsets;
+    /**
+     * The ordinal of the first protein of every mapped segment of residues.
+     */
+    private final int[] segmentFirstProtein;
+    /**
+     * The mapped segments of residues.
+     */
+    private final ByteBuffer[] segments;
+
+    /**
+     * Constructor.
+     *
+     * @param storeFile the protein sequence store file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a store of this version
+     */
+    public ProteinSequenceStore(File storeFile) throws IOException {
+
+        MappedFileReader reader = new MappedFileReader(storeFile);
+
+        try {
+
+            if (reader.length() < 24 || reader.readLong() != ProteinSequenceStoreWriter.STORE_MAGIC || reader.readInt() != ProteinSequenceStoreWriter.STORE_VERSION) {
+                throw new IOException("Unsupported protein sequence store format.");
+            }
+            reader.align(8);
+            long residuesPosition = reader.getPosition();
+
+            reader.seek(reader.length() - 8);
+            reader.seek(reader.readLong());
+
+            fastaFileName = reader.readString();
+            fastaLastModified = reader.readLong();
+            nProteins = reader.readInt();
+            accessionOffsets = reader.mapIntArray();
+            accessions = reader.mapByteArray();
+            accessionHashes = reader.mapLongArray();
+            accessionHashOrder = reader.mapIntArray();
+            String[] databaseTypeNames = reader.readStringArray();
+            databaseTypes = new DatabaseType[databaseTypeNames.length];
+            for (int i = 0; i < databaseTypeNames.length; i++) {
+                if (!databaseTypeNames[i].equals("")) {
+                    try {
+                        databaseTypes[i] = DatabaseType.valueOf(databaseTypeNames[i]);
+                    } catch (IllegalArgumentException e) {
+                        databaseTypes[i] = DatabaseType.Unknown;
+                    }
+                }
+            }
+            proteinDatabaseTypes = reader.mapByteArray();
+            sequenceOffsets = reader.mapLongArray();
+
+            // map the residues in segments starting at a protein
+            ArrayList<Integer> firstProteins = new ArrayList<Integer>();
+            ArrayList<ByteBuffer> mappedSegments = new ArrayList<ByteBuffer>();
+            int first = 0;
+            while (first < nProteins) {
+                long start = sequenceOffsets.get(first);
+                int end = first + 1;
+                while (end < nProteins && sequenceOffsets.get(end + 1) - start <= MAX_SEGMENT_SIZE) {
+                    end++;
+                }
+                reader.seek(residuesPosition + start);
+                firstProteins.add(first);
+                mappedSegments.add(reader.map(sequenceOffsets.get(end) - start));
+                first = end;
+            }
+            segmentFirstProtein = new int[firstProteins.size()];
+            for (int i = 0; i < segmentFirstProtein.length; i++) {
+                segmentFirstProtein[i] = firstProteins.get(i);
+            }
+            segments = mappedSegments.toArray(new ByteBuffer[mappedSegments.size()]);
+
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the name of the FASTA file the sequences were taken from.
+     *
+     * @return the name of the FASTA file the sequences were taken from
+     */
+    public String getFastaFileName() {
+        return fastaFileName;
+    }
+
+    /**
+     * Returns the last modification time of the FASTA file when the store
+     * was written.
+     *
+     * @return the last modification time of the FASTA file when the store
+     * was written
+     */
+    public long getFastaLastModified() {
+        return fastaLastModified;
+    }
+
+    /**
+     * Returns the number of proteins in the store.
+     *
+     * @return the number of proteins in the store
+     */
+    public int getNProteins() {
+        return nProteins;
+    }
+
+    /**
+     * Returns the ordinal of the protein of the given accession, -1 if not
+     * found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the ordinal of the protein
+     */
+    public int getOrdinal(String accession) {
+
+        long hash = ProteinSequenceStoreWriter.getAccessionHash(accession);
+        int low = 0;
+        int high = nProteins;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (accessionHashes.get(middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for (int i = low; i < nProteins && accessionHashes.get(i) == hash; i++) {
+            int ordinal = accessionHashOrder.get(i);
+            if (getAccession(ordinal).equals(accession)) {
+                return ordinal;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the accession of the protein of the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the accession of the protein
+     */
+    public String getAccession(int ordinal) {
+        checkOrdinal(ordinal);
+        int start = accessionOffsets.get(ordinal);
+        int length = accessionOffsets.get(ordinal + 1) - start;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = accessions.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return MappedFileReader.getString(bytes, 0, length);
+    }
+
+    /**
+     * Returns the database type of the protein of the given ordinal, null if
+     * not set.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the database type of the protein
+     */
+    public DatabaseType getDatabaseType(int ordinal) {
+        checkOrdinal(ordinal);
+        return databaseTypes[proteinDatabaseTypes.get(ordinal) & 0xff];
+    }
+
+    /**
+     * Returns the length of the sequence of the protein of the given ordinal.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the length of the sequence
+     */
+    public int getLength(int ordinal) {
+        checkOrdinal(ordinal);
+        return (int) (sequenceOffsets.get(ordinal + 1) - sequenceOffsets.get(ordinal));
+    }
+
+    /**
+     * Returns a read-only view on the residues of the protein of the given
+     * ordinal, one byte per residue. The residues are not copied.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return a view on the residues of the protein
+     */
+    public ByteBuffer getSequenceBytes(int ordinal) {
+        checkOrdinal(ordinal);
+        int segmentIndex = getSegment(ordinal);
+        long segmentStart = sequenceOffsets.get(segmentFirstProtein[segmentIndex]);
+        int start = (int) (sequenceOffsets.get(ordinal) - segmentStart);
+        int end = (int) (sequenceOffsets.get(ordinal + 1) - segmentStart);
+        ByteBuffer view = segments[segmentIndex].duplicate();
+        view.limit(end);
+        view.position(start);
+        return view.slice();
+    }
+
+    /**
+     * Returns a view on the sequence of the protein of the given ordinal. The
+     * residues are not copied, toString() returns a copy as String.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return a view on the sequence of the protein
+     */
+    public CharSequence getSequence(int ordinal) {
+        return new MappedSequence(getSequenceBytes(ordinal));
+    }
+
+    /**
+     * Returns the sequence of the protein of the given accession. Null if not
+     * found.
+     *
+     * @param accession the accession of the protein
+     *
+     * @return the sequence of the protein
+     */
+    public String getSequence(String accession) {
+        int ordinal = getOrdinal(accession);
+        if (ordinal == -1) {
+            return null;
+        }
+        return getSequence(ordinal).toString();
+    }
+
+    /**
+     * Returns the index of the segment containing the residues of the given
+     * protein.
+     *
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the index of the segment
+     */
+    private int getSegment(int ordinal) {
+        int low = 0;
+        int high = segmentFirstProtein.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segmentFirstProtein[middle] <= ordinal) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Throws an exception if the given ordinal is out of bounds.
+     *
+     * @param ordinal the ordinal of the protein
+     */
+    private void checkOrdinal(int ordinal) {
+        if (ordinal < 0 || ordinal >= nProteins) {
+            throw new IndexOutOfBoundsException("Index: " + ordinal + ", Size: " + nProteins);
+        }
+    }
+
+    /**
+     * Returns the last modification time of the FASTA file when the given
+     * store was written. The value is read without mapping the file, so that
+     * outdated stores can be replaced.
+     *
+     * @param storeFile the protein sequence store file
+     *
+     * @return the last modification time of the FASTA file when the store
+     * was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a store of this version
+     */
+    public static long getFastaLastModified(File storeFile) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(storeFile, "r");
+
+        try {
+            long length = randomAccessFile.length();
+            if (length < 24) {
+                throw new IOException("Unsupported protein sequence store format.");
+            }
+            byte[] header = new byte[12];
+            randomAccessFile.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(BinaryFileWriter.BYTE_ORDER);
+            if (buffer.getLong() != ProteinSequenceStoreWriter.STORE_MAGIC || buffer.getInt() != ProteinSequenceStoreWriter.STORE_VERSION) {
+                throw new IOException("Unsupported protein sequence store format.");
+            }
+
+            byte[] bytes = new byte[8];
+            randomAccessFile.seek(length - 8);
+            randomAccessFile.readFully(bytes);
+            randomAccessFile.seek(ByteBuffer.wrap(bytes).order(BinaryFileWriter.BYTE_ORDER).getLong());
+
+            randomAccessFile.readFully(bytes, 0, 4);
+            int fileNameLength = ByteBuffer.wrap(bytes, 0, 4).order(BinaryFileWriter.BYTE_ORDER).getInt();
+            if (fileNameLength != BinaryFileWriter.NULL_LENGTH) {
+                randomAccessFile.seek(randomAccessFile.getFilePointer() + fileNameLength);
+            }
+
+            randomAccessFile.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(BinaryFileWriter.BYTE_ORDER).getLong();
+
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Returns the name of the protein sequence store of a FASTA file.
+     *
+     * @param fastaName the name of the FASTA file
+     *
+     * @return the name of the protein sequence store
+     */
+    public static String getStoreName(String fastaName) {
+        return fastaName + EXTENSION;
+    }
+
+    /**
+     * Character sequence backed by a view on residues encoded one byte per
+     * residue.
+     */
+    public static class MappedSequence implements CharSequence {
+
+        /**
+         * The residues.
+         */
+        private final ByteBuffer residues;
+
+        /**
+         * Constructor.
+         *
+         * @param residues a view on the residues, the content from position
+         * zero to the limit is used
+         */
+        public MappedSequence(ByteBuffer residues) {
+            this.residues = residues;
+        }
+
+        @Override
+        public int length() {
+            return residues.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) residues.get(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length());
+            }
+            ByteBuffer view = residues.duplicate();
+            view.limit(end);
+            view.position(start);
+            return new MappedSequence(view.slice());
+        }
+
+        @Override
+        public String toString() {
+            char[] sequence = new char[length()];
+            for (int i = 0; i < sequence.length; i++) {
+                sequence[i] = (char) residues.get(i);
+            }
+            return new String(sequence);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.compomics.util.experiment.identification.protein_sequences;
+
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.protein.Header;
+import com.compomics.util.protein.Header.DatabaseType;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Writer for protein sequence stores, a binary copy of the sequences of a
+ * FASTA file which can be memory mapped by the ProteinSequenceStore. The
+ * residues of all proteins are written one byte per residue and without
+ * separator in the order of the FASTA file. The accessions, database types
+ * and the offset of the sequence of every protein are stored in columns
+ * written at the end of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinSequenceStoreWriter {
+
+    /**
+     * Magic number at the beginning of the protein sequence stores.
+     */
+    static final long STORE_MAGIC = 0x3153514553505043L;
+    /**
+     * Version of the protein sequence store format, to be incremented
+     * whenever the content of the file changes.
+     */
+    static final int STORE_VERSION = 1;
+    /**
+     * The initial capacity of the columns.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The writer to the file.
+     */
+    private final BinaryFileWriter writer;
+    /**
+     * The name of the FASTA file the sequences were taken from.
+     */
+    private final String fastaFileName;
+    /**
+     * The last modification time of the FASTA file.
+     */
+    private final long fastaLastModified;
+    /**
+     * The number of proteins written.
+     */
+    private int nProteins = 0;
+    /**
+     * The accessions of the proteins.
+     */
+    private final ArrayList<String> accessions = new ArrayList<String>(INITIAL_CAPACITY);
+    /**
+     * The names of the database types encountered.
+     */
+    private final ArrayList<String> databaseTypes = new ArrayList<String>();
+    /**
+     * The index of the database type of every protein in the database types
+     * list.
+     */
+    private byte[] proteinDatabaseTypes = new byte[INITIAL_CAPACITY];
+    /**
+     * The index of the first residue of every protein followed by the number
+     * of residues.
+     */
+    private long[] sequenceOffsets = new long[INITIAL_CAPACITY + 1];
+    /**
+     * Buffer used to convert the sequences to bytes.
+     */
+    private byte[] sequenceBuffer = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the store file to write
+     * @param fastaFile the FASTA file the sequences are taken from
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public ProteinSequenceStoreWriter(File destinationFile, File fastaFile) throws IOException {
+        this.fastaFileName = fastaFile.getName();
+        this.fastaLastModified = fastaFile.lastModified();
+        writer = new BinaryFileWriter(destinationFile);
+        writer.writeLong(STORE_MAGIC);
+        writer.writeInt(STORE_VERSION);
+        writer.align(8);
+    }
+
+    /**
+     * Adds a protein to the store. The accessions must be unique and the
+     * sequence must only contain ASCII characters.
+     *
+     * @param accession the accession of the protein
+     * @param databaseType the database type of the protein, can be null
+     * @param sequence the sequence of the protein
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void addProtein(String accession, DatabaseType databaseType, String sequence) throws IOException {
+
+        if (nProteins == proteinDatabaseTypes.length) {
+            int capacity = 2 * nProteins;
+            proteinDatabaseTypes = Arrays.copyOf(proteinDatabaseTypes, capacity);
+            sequenceOffsets = Arrays.copyOf(sequenceOffsets, capacity + 1);
+        }
+
+        accessions.add(accession);
+
+        String databaseTypeName = databaseType == null ? "" : databaseType.name();
+        int databaseTypeIndex = databaseTypes.indexOf(databaseTypeName);
+        if (databaseTypeIndex == -1) {
+            if (databaseTypes.size() == 256) {
+                throw new IllegalArgumentException("More than 256 database types found.");
+            }
+            databaseTypeIndex = databaseTypes.size();
+            databaseTypes.add(databaseTypeName);
+        }
+        proteinDatabaseTypes[nProteins] = (byte) databaseTypeIndex;
+
+        int length = sequence.length();
+        if (length > sequenceBuffer.length) {
+            sequenceBuffer = new byte[Math.max(length, 2 * sequenceBuffer.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            char aa = sequence.charAt(i);
+            if (aa > 127) {
+                throw new IllegalArgumentException("Non ASCII character found in the sequence of " + accession + ".");
+            }
+            sequenceBuffer[i] = (byte) aa;
+        }
+        writer.writeBytes(sequenceBuffer, 0, length);
+        sequenceOffsets[nProteins + 1] = sequenceOffsets[nProteins] + length;
+
+        nProteins++;
+    }
+
+    /**
+     * Writes the columns and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+
+        writer.align(8);
+        long columnsPosition = writer.getPosition();
+
+        writer.writeString(fastaFileName);
+        writer.writeLong(fastaLastModified);
+        writer.writeInt(nProteins);
+
+        // accessions as a UTF-8 blob with their hashes sorted for the lookups
+        int[] accessionOffsets = new int[nProteins + 1];
+        byte[][] accessionsBytes = new byte[nProteins][];
+        final long[] hashesByAccession = new long[nProteins];
+        Integer[] order = new Integer[nProteins];
+        for (int i = 0; i < nProteins; i++) {
+            accessionsBytes[i] = BinaryFileWriter.getBytes(accessions.get(i));
+            accessionOffsets[i + 1] = accessionOffsets[i] + accessionsBytes[i].length;
+            hashesByAccession[i] = getAccessionHash(accessions.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long hash1 = hashesByAccession[o1];
+                long hash2 = hashesByAccession[o2];
+                return hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1);
+            }
+        });
+        long[] accessionHashes = new long[nProteins];
+        int[] accessionHashOrder = new int[nProteins];
+        for (int i = 0; i < nProteins; i++) {
+            accessionHashOrder[i] = order[i];
+            accessionHashes[i] = hashesByAccession[accessionHashOrder[i]];
+        }
+        byte[] accessionsBlob = new byte[accessionOffsets[nProteins]];
+        for (int i = 0; i < nProteins; i++) {
+            System.arraycopy(accessionsBytes[i], 0, accessionsBlob, accessionOffsets[i], accessionsBytes[i].length);
+        }
+
+        writer.writeIntArray(accessionOffsets);
+        writer.writeByteArray(accessionsBlob);
+        writer.writeLongArray(accessionHashes);
+        writer.writeIntArray(accessionHashOrder);
+        writer.writeStringArray(databaseTypes.toArray(new String[databaseTypes.size()]));
+        writer.writeByteArray(Arrays.copyOf(proteinDatabaseTypes, nProteins));
+        writer.writeLongArray(Arrays.copyOf(sequenceOffsets, nProteins + 1));
+
+        writer.writeLong(columnsPosition);
+        writer.close();
+    }
+
+    /**
+     * Returns the hash of an accession used for the lookups in the store.
+     *
+     * @param accession the accession
+     *
+     * @return the hash of the accession
+     */
+    static long getAccessionHash(String accession) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < accession.length(); i++) {
+            hash ^= accession.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Writes the sequences of a FASTA file to a protein sequence store. The
+     * accessions are parsed from the headers as done for the FASTA index.
+     *
+     * @param fastaFile the FASTA file
+     * @param destinationFile the store file to write
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public static void writeSequenceStore(File fastaFile, File destinationFile, WaitingHandler waitingHandler) throws IOException {
+
+        long progressUnit = fastaFile.length() / 100;
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        ProteinSequenceStoreWriter storeWriter = new ProteinSequenceStoreWriter(destinationFile, fastaFile);
+        BufferedReader br = new BufferedReader(new FileReader(fastaFile));
+        try {
+            String line, accession = null;
+            DatabaseType databaseType = null;
+            StringBuilder sequenceBuilder = new StringBuilder();
+            long bytesRead = 0;
+            while ((line = br.readLine()) != null) {
+                bytesRead += line.length() + 1;
+                if (line.startsWith(">")) {
+                    if (accession != null) {
+                        storeWriter.addProtein(accession, databaseType, getSequence(sequenceBuilder));
+                    }
+                    Header header = Header.parseFromFASTA(line);
+                    accession = header.getAccessionOrRest();
+                    if (accession == null) {
+                        throw new IllegalArgumentException("No accession found for header " + line + ".");
+                    }
+                    databaseType = header.getDatabaseType();
+                    sequenceBuilder.setLength(0);
+                    if (waitingHandler != null && progressUnit != 0) {
+                        if (waitingHandler.isRunCanceled()) {
+                            accession = null;
+                            break;
+                        }
+                        waitingHandler.setSecondaryProgressCounter((int) (bytesRead / progressUnit));
+                    }
+                } else {
+                    sequenceBuilder.append(line.trim());
+                }
+            }
+            if (accession != null) {
+                storeWriter.addProtein(accession, databaseType, getSequence(sequenceBuilder));
+            }
+        } finally {
+            br.close();
+            storeWriter.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+            if (waitingHandler.isRunCanceled()) {
+                destinationFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence of a protein as present in the FASTA file.
+     *
+     * @param sequenceBuilder the sequence as present in the FASTA file
+     *
+     * @return the protein sequence
+     */
+    private static String getSequence(StringBuilder sequenceBuilder) {
+        if (sequenceBuilder.length() == 0) {
+            return "";
+        }
+        return SequenceFactory.importSequenceFromFasta(sequenceBuilder);
+    }
+}
@@ -1,16 +1,16 @@
 package com.compomics.util.experiment.identification.protein_sequences;
 
-import com.compomics.util.Util;
 import com.compomics.util.exceptions.ExceptionHandler;
 import com.compomics.util.experiment.biology.AminoAcid;
 import com.compomics.util.experiment.biology.Protein;
-import com.compomics.util.experiment.biology.taxonomy.SpeciesFactory;
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapper;
 import com.compomics.util.experiment.identification.protein_inference.PeptideMapperType;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexSettings;
 import com.compomics.util.experiment.identification.protein_inference.proteintree.ProteinTree;
 import com.compomics.util.waiting.WaitingHandler;
+import com.compomics.util.io.FileChannelInputStream;
 import com.compomics.util.io.SerializationUtils;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
@@ -18,16 +18,18 @@ import com.compomics.util.preferences.SequenceMatchingPreferences;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.protein.Header;
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.JProgressBar;
-import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
  * Factory retrieving the information of the loaded FASTA file.
@@ -45,19 +47,27 @@ public class SequenceFactory {
     /**
      * Map of the currently loaded Headers.
      */
-    private HashMap<String, Header> currentHeaderMap = new HashMap<String, Header>();
+    private ConcurrentHashMap<String, Header> currentHeaderMap = new ConcurrentHashMap<String, Header>();
     /**
      * Map of the currently loaded proteins.
      */
-    private HashMap<String, Protein> currentProteinMap = new HashMap<String, Protein>();
+    private ConcurrentHashMap<String, Protein> currentProteinMap = new ConcurrentHashMap<String, Protein>();
     /**
      * Index of the FASTA file.
      */
-    private FastaIndex fastaIndex = null;
+    private volatile FastaIndex fastaIndex = null;
     /**
-     * Random access file of the current FASTA file.
+     * Channel to the current FASTA file. Proteins and headers are read using
+     * positional reads, so that threads can read the file concurrently. The
+     * channel is closed when a thread reading it is interrupted, it is then
+     * reopened by the other threads, see reopenFastaChannel.
      */
-    private BufferedRandomAccessFile currentRandomAccessFile = null;
+    private volatile FileChannel currentFastaChannel = null;
+    /**
+     * The packed sequences of the current FASTA file, null if no up to date
+     * protein sequence store is available.
+     */
+    private ProteinSequenceStore sequenceStore = null;
     /**
      * The FASTA file currently loaded.
      */
@@ -68,13 +78,18 @@ public class SequenceFactory {
      */
     private int nCache = 1000000;
     /**
-     * List of accessions of the loaded proteins.
+     * The accessions of the proteins and headers in cache in the order they
+     * were loaded.
+     */
+    private ConcurrentLinkedQueue<String> loadedProteins = new ConcurrentLinkedQueue<String>();
+    /**
+     * The number of accessions in cache.
      */
-    private ArrayList<String> loadedProteins = new ArrayList<String>();
+    private AtomicInteger nLoadedProteins = new AtomicInteger();
     /**
      * Recognized flags for a decoy protein.
      */
-    private static final String[] DECOY_FLAGS = {"REVERSED", "RND", "SHUFFLED", "DECOY"};
+    static final String[] DECOY_FLAGS = {"REVERSED", "RND", "SHUFFLED", "DECOY"};
     /**
      * HashMap of the currently calculated protein molecular weights.
      */
@@ -83,10 +98,6 @@ public class SequenceFactory {
      * The default peptide to protein mapper.
      */
     private PeptideMapper defaultPeptideMapper = null;
-    /**
-     * Boolean indicating that the factory is reading the file.
-     */
-    private boolean reading = false;
     /**
      * The time out in milliseconds when querying the file.
      */
@@ -162,9 +173,11 @@ public class SequenceFactory {
         currentHeaderMap.clear();
         currentProteinMap.clear();
         fastaIndex = null;
-        currentRandomAccessFile = null;
+        currentFastaChannel = null;
+        sequenceStore = null;
         currentFastaFile = null;
         loadedProteins.clear();
+        nLoadedProteins.set(0);
         molecularWeights.clear();
     }
 
@@ -175,6 +188,7 @@ public class SequenceFactory {
         currentHeaderMap.clear();
         currentProteinMap.clear();
         loadedProteins.clear();
+        nLoadedProteins.set(0);
         molecularWeights.clear();
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.emptyCache();
@@ -240,7 +254,8 @@ public class SequenceFactory {
 
     /**
      * Returns a decoy protein from a target protein or looks for the sequence
-     * in the cache if not found.
+     * in the cache if not found. The cache is thread safe, this method can be
+     * called by concurrent threads.
      *
      * @param accession the accession of the decoy protein to look for
      * @param reindex a boolean indicating whether the database should be
@@ -252,7 +267,7 @@ public class SequenceFactory {
      * @throws IllegalArgumentException if an IllegalArgumentException occurs
      * @throws FileNotFoundException if a FileNotFoundException occurs
      */
-    public synchronized Protein getDecoyProteinFromTargetSynchronized(String accession, boolean reindex)
+    public Protein getDecoyProteinFromTargetSynchronized(String accession, boolean reindex)
             throws IOException, IllegalArgumentException, FileNotFoundException {
 
         // check whether another thread did the job already
@@ -301,8 +316,8 @@ public class SequenceFactory {
 
     /**
      * Returns the desired protein. Eventually re-indexes the database if the
-     * protein is not found. Synchronized version serving as a queue for
-     * threads.
+     * protein is not found. Re-indexing is synchronized, reading proteins is
+     * not.
      *
      * @param accession accession of the desired protein
      * @param reindex a boolean indicating whether the database should be
@@ -314,17 +329,27 @@ public class SequenceFactory {
      * while reading the FASTA file
      * @throws InterruptedException
      */
-    private synchronized Protein getProteinSynchronized(String accession, boolean reindex) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
+    private Protein getProteinSynchronized(String accession, boolean reindex) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
 
         Protein currentProtein = currentProteinMap.get(accession);
 
         if (currentProtein == null) {
 
+            ProteinSequenceStore store = sequenceStore;
+            if (store != null) {
+                int ordinal = store.getOrdinal(accession);
+                if (ordinal != -1) {
+                    currentProtein = new Protein(accession, store.getDatabaseType(ordinal), store.getSequence(ordinal).toString(), isDecoyAccession(accession));
+                    addProteinToCache(accession, currentProtein);
+                    return currentProtein;
+                }
+            }
+
             Long index = fastaIndex.getIndex(accession);
 
             if (index == null) {
                 if (reindex) {
-                    fastaIndex = getFastaIndex(true, null);
+                    reindex(accession);
                     return getProtein(accession, false);
                 }
                 throw new IllegalArgumentException("Protein not found: " + accession + ".");
@@ -341,7 +366,8 @@ public class SequenceFactory {
      * busy (especially when working on distant servers) thus returning an
      * error. The method will then retry after waiting waitingTime milliseconds.
      * The waitingTime is doubled for the next try. The method throws an
-     * exception after timeout (see timeOut attribute).
+     * exception after timeout (see timeOut attribute). The file is read using
+     * positional reads and can be accessed by concurrent threads.
      *
      * @param index the index where to look at
      * @param waitingTime the waiting time before retry
@@ -350,24 +376,22 @@ public class SequenceFactory {
      * @throws IOException
      * @throws IllegalArgumentException
      */
-    private synchronized Protein getProtein(String accession, long index, long waitingTime) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
+    private Protein getProtein(String accession, long index, long waitingTime) throws IOException, IllegalArgumentException, InterruptedException, FileNotFoundException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
         }
 
+        FileChannel fastaChannel = currentFastaChannel;
+
         try {
-            if (reading) {
-                throw new IllegalStateException("Attempting to read new line before current read operation is completed.");
-            }
-            reading = true;
-            currentRandomAccessFile.seek(index);
+            BufferedReader br = new BufferedReader(new InputStreamReader(new FileChannelInputStream(fastaChannel, index)));
             String line;
             StringBuilder sequence = new StringBuilder();
             Header currentHeader = currentHeaderMap.get(accession);
             boolean headerFound = false;
 
-            while ((line = currentRandomAccessFile.readLine()) != null) {
+            while ((line = br.readLine()) != null) {
                 line = line.trim();
 
                 if (line.startsWith(">")) {
@@ -379,7 +403,7 @@ public class SequenceFactory {
                         if (currentHeader == null) {
                             throw new IllegalArgumentException("Could not parse FASTA header \"" + line + "\".");
                         }
-                        currentHeaderMap.put(accession, currentHeader);
+                        addHeaderToCache(accession, currentHeader);
                     }
                     headerFound = true;
                 } else {
@@ -390,14 +414,18 @@ public class SequenceFactory {
 
             addProteinToCache(accession, currentProtein);
 
-            reading = false;
-
             return currentProtein;
 
+        } catch (ClosedChannelException e) {
+            // the channel was closed by an interrupted thread, reopen it for the others
+            FileChannel newChannel = reopenFastaChannel(fastaChannel);
+            if (newChannel == fastaChannel || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return getProtein(accession, index, waitingTime);
         } catch (IOException e) {
-            reading = false;
             if (waitingTime < TIME_OUT) {
-                wait(waitingTime);
+                Thread.sleep(waitingTime);
                 e.printStackTrace();
                 return getProtein(accession, index, 2 * waitingTime);
             } else {
@@ -442,16 +470,42 @@ public class SequenceFactory {
      * @param accession the accession of the protein to add
      * @param protein the protein to add
      */
-    private synchronized void addProteinToCache(String accession, Protein protein) {
-        while (loadedProteins.size() >= nCache) {
-            String accessionToRemove = loadedProteins.get(0);
-            currentProteinMap.remove(accessionToRemove);
-            currentHeaderMap.remove(accessionToRemove);
-            loadedProteins.remove(0);
+    private void addProteinToCache(String accession, Protein protein) {
+        if (currentProteinMap.put(accession, protein) == null && !currentHeaderMap.containsKey(accession)) {
+            addAccessionToCache(accession);
         }
+    }
 
+    /**
+     * Adds a header to the cache and keeps it under the desired size.
+     *
+     * @param accession the accession of the protein
+     * @param header the header to add
+     */
+    private void addHeaderToCache(String accession, Header header) {
+        if (currentHeaderMap.put(accession, header) == null && !currentProteinMap.containsKey(accession)) {
+            addAccessionToCache(accession);
+        }
+    }
+
+    /**
+     * Registers a new accession in cache and removes the protein and header
+     * of the oldest accessions until the cache is under the desired size.
+     *
+     * @param accession the accession
+     */
+    private void addAccessionToCache(String accession) {
         loadedProteins.add(accession);
-        currentProteinMap.put(accession, protein);
+        int nProteins = nLoadedProteins.incrementAndGet();
+        while (nProteins > nCache) {
+            String accessionToRemove = loadedProteins.poll();
+            if (accessionToRemove == null) {
+                break;
+            }
+            currentProteinMap.remove(accessionToRemove);
+            currentHeaderMap.remove(accessionToRemove);
+            nProteins = nLoadedProteins.decrementAndGet();
+        }
     }
 
     /**
@@ -492,15 +546,15 @@ public class SequenceFactory {
 
             if (index == null) {
                 if (reindex) {
-                    fastaIndex = getFastaIndex(true, null);
-                    result = getHeader(accession, false);
+                    reindex(accession);
+                    return getHeader(accession, false);
                 }
                 throw new IllegalArgumentException("Protein not found: " + accession + ".");
             }
 
             result = getHeader(index, 0);
 
-            currentHeaderMap.put(accession, result);
+            addHeaderToCache(accession, result);
         }
 
         return result;
@@ -509,7 +563,10 @@ public class SequenceFactory {
     /**
      * Returns the header indexed by the given index. It can be that the IO is
      * busy (especially when working on distant servers) thus returning an
-     * error. The method will then try 100 times at 0.01 second intervals.
+     * error. The method will then try 100 times at 0.01 second intervals. The
+     * file is read using positional reads and can be accessed by concurrent
+     * threads. If the channel was closed by the interruption of another
+     * thread, it is reopened without counting a try.
      *
      * @param index the index where to look at
      * @param nTries the number of tries already made
@@ -521,21 +578,23 @@ public class SequenceFactory {
      * @throws java.lang.InterruptedException exception thrown whenever an error
      * occurred while waiting for the connection to the FASTA file to recover.
      */
-    private synchronized Header getHeader(long index, int nTries) throws InterruptedException, IOException {
+    private Header getHeader(long index, int nTries) throws InterruptedException, IOException {
+
+        FileChannel fastaChannel = currentFastaChannel;
 
-        if (reading) {
-            throw new IllegalStateException("Attempting to read new line before current read operation is completed.");
-        }
         try {
-            reading = true;
-            currentRandomAccessFile.seek(index);
-            Header result = Header.parseFromFASTA(currentRandomAccessFile.readLine());
-            reading = false;
-            return result;
+            BufferedReader br = new BufferedReader(new InputStreamReader(new FileChannelInputStream(fastaChannel, index)));
+            return Header.parseFromFASTA(br.readLine());
+        } catch (ClosedChannelException e) {
+            // the channel was closed by an interrupted thread, reopen it for the others
+            FileChannel newChannel = reopenFastaChannel(fastaChannel);
+            if (newChannel == fastaChannel || Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return getHeader(index, nTries);
         } catch (IOException e) {
-            reading = false;
-            if (nTries <= 100) {
-                wait(10);
+            if (nTries < 100) {
+                Thread.sleep(10);
                 return getHeader(index, nTries + 1);
             } else {
                 throw e;
@@ -578,8 +637,85 @@ public class SequenceFactory {
 
         defaultPeptideMapper = null;
         currentFastaFile = fastaFile;
-        currentRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
+        currentFastaChannel = new RandomAccessFile(fastaFile, "r").getChannel();
         fastaIndex = getFastaIndex(false, waitingHandler);
+        sequenceStore = getSequenceStore(fastaFile);
+    }
+
+    /**
+     * Returns the protein sequence store of the given FASTA file if one was
+     * written next to it and is up to date. Null otherwise. Outdated stores
+     * are not mapped so that they can be replaced.
+     *
+     * @param fastaFile the FASTA file
+     *
+     * @return the protein sequence store of the FASTA file
+     */
+    private static ProteinSequenceStore getSequenceStore(File fastaFile) {
+        File storeFile = new File(fastaFile.getParent(), ProteinSequenceStore.getStoreName(fastaFile.getName()));
+        if (storeFile.exists()) {
+            try {
+                if (ProteinSequenceStore.getFastaLastModified(storeFile) == fastaFile.lastModified()) {
+                    return new ProteinSequenceStore(storeFile);
+                }
+                System.err.println("Ignoring protein sequence store: " + storeFile.getName() + ". (changes in the FASTA file detected)");
+            } catch (Exception e) {
+                System.err.println("Ignoring protein sequence store: " + storeFile.getName() + ". (Reason: " + e.getLocalizedMessage() + ")");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a protein sequence store next to the FASTA file loaded in the
+     * factory and uses it to retrieve the protein sequences. The store
+     * contains all sequences packed in a file which can be memory mapped, it
+     * is used whenever the FASTA file is loaded later on, as long as the
+     * FASTA file is not modified. If an up to date store is already in use,
+     * it is kept: a mapped file cannot be replaced on all platforms.
+     *
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     */
+    public void createSequenceStore(WaitingHandler waitingHandler) throws IOException {
+        if (currentFastaFile == null) {
+            throw new IllegalArgumentException("Protein sequences not loaded in the sequence factory.");
+        }
+        if (sequenceStore != null && sequenceStore.getFastaLastModified() == currentFastaFile.lastModified()) {
+            return;
+        }
+        File storeFile = new File(currentFastaFile.getParent(), ProteinSequenceStore.getStoreName(currentFastaFile.getName()));
+        File tempFile = new File(currentFastaFile.getParent(), storeFile.getName() + "_temp");
+        try {
+            ProteinSequenceStoreWriter.writeSequenceStore(currentFastaFile, tempFile, waitingHandler);
+            if (waitingHandler == null || !waitingHandler.isRunCanceled()) {
+                sequenceStore = null;
+                if (!tempFile.renameTo(storeFile)) {
+                    storeFile.delete();
+                    if (!tempFile.renameTo(storeFile)) {
+                        throw new IOException("Impossible to replace " + storeFile.getAbsolutePath() + ", the file might be in use.");
+                    }
+                }
+                sequenceStore = new ProteinSequenceStore(storeFile);
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the protein sequence store of the loaded FASTA file, null if
+     * none available.
+     *
+     * @return the protein sequence store of the loaded FASTA file
+     */
+    public ProteinSequenceStore getSequenceStore() {
+        return sequenceStore;
     }
 
     /**
@@ -598,9 +734,43 @@ public class SequenceFactory {
      *
      * @throws IOException if an IOException occurs
      */
-    public void resetConnection() throws IOException {
-        currentRandomAccessFile.close();
-        currentRandomAccessFile = new BufferedRandomAccessFile(currentFastaFile, "r", 1024 * 100);
+    public synchronized void resetConnection() throws IOException {
+        currentFastaChannel.close();
+        currentFastaChannel = new RandomAccessFile(currentFastaFile, "r").getChannel();
+    }
+
+    /**
+     * Reopens the channel to the FASTA file if it is still the given closed
+     * channel. A channel is closed when a thread reading it is interrupted,
+     * other threads reading the same channel then need a new one.
+     *
+     * @param closedChannel the channel found closed
+     *
+     * @return the channel to use, the given channel if the file was closed
+     *
+     * @throws IOException exception thrown if an error occurred while opening
+     * the FASTA file
+     */
+    private synchronized FileChannel reopenFastaChannel(FileChannel closedChannel) throws IOException {
+        if (currentFastaChannel == closedChannel && currentFastaFile != null) {
+            currentFastaChannel = new RandomAccessFile(currentFastaFile, "r").getChannel();
+        }
+        return currentFastaChannel;
+    }
+
+    /**
+     * Re-indexes the FASTA file loaded in the factory unless the given
+     * accession was indexed in the meantime by another thread.
+     *
+     * @param accession the accession not found in the index
+     *
+     * @throws IOException exception thrown if an error occurred while reading
+     * the FASTA file
+     */
+    private synchronized void reindex(String accession) throws IOException {
+        if (fastaIndex.getIndex(accession) == null) {
+            fastaIndex = getFastaIndex(true, null);
+        }
     }
 
     /**
@@ -724,16 +894,16 @@ public class SequenceFactory {
     }
 
     /**
-     * Static method to create a FASTA index for a FASTA file. Non-valid fasta
-     * files will throw an exception.
+     * Static method to create a FASTA index for a FASTA file using the
+     * FastaIndexer with one thread per processor. Non-valid fasta files will
+     * throw an exception.
      *
      * @param fastaFile the FASTA file
-     * @param progressBar a progress bar showing the progress
+     * @param name the name of the database. Set to file name if null.
      * @param decoyTag the decoy tag. Will be inferred if null.
-     * @param mainDatabaseType the main database type. Will be inferred if null.
      * @param version the version. last modification of the file will be used if
      * null.
-     * @param name the name of the database. Set to file name if null.
+     * @param waitingHandler a waitingHandler showing the progress, can be null
      *
      * @return the corresponding FASTA index
      *
@@ -742,182 +912,8 @@ public class SequenceFactory {
      */
     private static FastaIndex createFastaIndex(File fastaFile, String name, String decoyTag, String version,
             WaitingHandler waitingHandler) throws IOException {
-
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashSet<String> decoyAccessions = new HashSet<String>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(fastaFile, "r", 1024 * 100);
-
-        if (waitingHandler != null) {
-            waitingHandler.resetSecondaryProgressCounter();
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean decoy = false, defaultReversed = false;
-        int nTarget = 0;
-        long index = bufferedRandomAccessFile.getFilePointer();
-
-        // a map of the database header types
-        HashMap<Header.DatabaseType, Integer> databaseTypes = new HashMap<Header.DatabaseType, Integer>();
-
-        // a map of the species
-        HashMap<String, Integer> species = new HashMap<String, Integer>();
-        
-        // Keep track of the number of amino acids
-        int[] aaOccurrence = new int[26];
-        LinkedList<int[]> aaOccurrenceList = new LinkedList<int[]>();
-        int nAAs = 0;
-
-        StringBuilder sequenceBuilder = new StringBuilder();
-        String accession = null;
-        int lineNumber = 0;
-
-        while ((line = bufferedRandomAccessFile.readLine()) != null) {
-
-            lineNumber++;
-
-            if (line.startsWith(">")) {
-
-                if (sequenceBuilder.length() != 0 && accession != null) {
-                    String sequence = importSequenceFromFasta(sequenceBuilder);
-                    char[] aaSequence = sequence.toCharArray();
-                    try {
-                        validateSequence(aaSequence);
-                    } catch (Exception e) {
-                        throw new IllegalArgumentException("An error occurred while parsing the sequence of " + accession + " at line " + lineNumber + ": " + e.toString());
-                    }
-                    for (char aa : aaSequence) {
-                        if (AminoAcid.isUniqueAa(aa)) {
-                            int aaIndex = aa - 65;
-                            aaOccurrence[aaIndex]++;
-                            nAAs++;
-                            if (nAAs == nAaOccurrence) {
-                                aaOccurrenceList.add(aaOccurrence);
-                                aaOccurrence = new int[26];
-                                nAAs = 0;
-                            }
-                        }
-                    }
-                }
-
-                Header fastaHeader = Header.parseFromFASTA(line);
-                accession = fastaHeader.getAccessionOrRest();
-                if (accession == null) {
-                    throw new IllegalArgumentException("No accession found for header at line " + lineNumber + ".");
-                }
-
-//                if (fastaHeader.getStartLocation() != -1) {
-//                    accession += " (" + fastaHeader.getStartLocation() + "-" + fastaHeader.getEndLocation() + ")"; // special dbtoolkit pattern
-//                }
-
-                // check accessions for quotation marks
-                if (accession.lastIndexOf("'") != -1 || accession.lastIndexOf("\"") != -1) {
-                    throw new IllegalArgumentException("Accession numbers cannot contain quotation marks: \'" + accession + "\'!\nPlease check your FASTA file.");
-                }
-
-                // check if the accession number is unique
-                if (indexes.containsKey(accession)) {
-                    throw new IllegalArgumentException("Non unique accession number found \'" + accession + "\'!\nPlease check your FASTA file.");
-                }
-
-                indexes.put(accession, index);
-                if (decoyTag == null) {
-                    decoyTag = getDecoyFlag(accession);
-                }
-                if (decoyTag == null || !isDecoy(accession, decoyTag)) {
-                    nTarget++;
-
-                    // get the database type
-                    Header.DatabaseType tempDatabaseType = fastaHeader.getDatabaseType();
-                    Integer typeCounter = databaseTypes.get(tempDatabaseType);
-
-                    if (typeCounter == null) {
-                        databaseTypes.put(tempDatabaseType, 1);
-                    } else {
-                        databaseTypes.put(tempDatabaseType, typeCounter + 1);
-                    }
-
-                    // get the species
-                    String taxonomy = fastaHeader.getTaxonomy();
-                    if (taxonomy == null || taxonomy.equals("")) {
-                        taxonomy = SpeciesFactory.UNKNOWN;
-                    }
-                    Integer occurrence = species.get(taxonomy);
-                    if (occurrence == null) {
-                        species.put(taxonomy, 1);
-                    } else {
-                        species.put(taxonomy, occurrence + 1);
-                    }
-
-                } else {
-                    decoyAccessions.add(accession);
-                    if (!decoy) {
-                        decoy = true;
-                        if (accession.endsWith(getDefaultDecoyAccessionSuffix())) {
-                            defaultReversed = true;
-                        }
-                    }
-                }
-
-                if (waitingHandler != null && progressUnit != 0) {
-                    waitingHandler.setSecondaryProgressCounter((int) (index / progressUnit));
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                }
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder = new StringBuilder();
-            } else {
-                index = bufferedRandomAccessFile.getFilePointer();
-                sequenceBuilder.append(line.trim());
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
-
-        long lastModified = fastaFile.lastModified();
-
-        if (version == null) {
-            version = FastaIndex.getDefaultVersion(lastModified);
-        }
-
-        String fileName = fastaFile.getName();
-        if (name == null) {
-            name = Util.removeExtension(fileName);
-        }
-
-        // find the main database type
-        Header.DatabaseType mainDatabaseType = null;
-        int maxCounter = 0;
-        Iterator<Header.DatabaseType> iterator = databaseTypes.keySet().iterator();
-        while (iterator.hasNext()) {
-            Header.DatabaseType tempDatabaseType = iterator.next();
-            if (databaseTypes.get(tempDatabaseType) > maxCounter) {
-                maxCounter = databaseTypes.get(tempDatabaseType);
-                mainDatabaseType = tempDatabaseType;
-            }
-        }
-        
-        // Aggregate the amino acid occurrence lists
-        double scaling = ((double) nAAs)/nAaOccurrence;
-        scaling += aaOccurrenceList.size();
-        double[] aaOccurrenceSummary = new double[aaOccurrence.length];
-        for (int[] aaOccurrenceTemp : aaOccurrenceList) {
-            for (int i = 0 ; i < aaOccurrenceTemp.length ; i++) {
-                aaOccurrenceSummary[i] += ((double) aaOccurrenceTemp[i]) / scaling;
-            }
-        }
-        for (int i = 0 ; i < aaOccurrence.length ; i++) {
-            aaOccurrence[i] = (int) ((((double) aaOccurrence[i]) / scaling) + aaOccurrenceSummary[i]);
-        }
-
-        return new FastaIndex(indexes, decoyAccessions, fileName, name, decoy, defaultReversed, nTarget, lastModified, mainDatabaseType, databaseTypes, decoyTag, version, species, aaOccurrence);
+        FastaIndexer fastaIndexer = new FastaIndexer(fastaFile, Runtime.getRuntime().availableProcessors());
+        return fastaIndexer.getIndex(name, decoyTag, version, waitingHandler);
     }
 
     /**
@@ -965,9 +961,12 @@ public class SequenceFactory {
      * @throws InterruptedException exception thrown if a threading error occurs
      */
     public void closeFile() throws IOException, SQLException, InterruptedException {
-        if (currentRandomAccessFile != null) {
-            currentRandomAccessFile.close();
-            currentFastaFile = null;
+        synchronized (this) {
+            if (currentFastaChannel != null) {
+                currentFastaChannel.close();
+                sequenceStore = null;
+                currentFastaFile = null;
+            }
         }
         if (defaultPeptideMapper != null) {
             defaultPeptideMapper.close();
@@ -1199,7 +1198,7 @@ public class SequenceFactory {
     public Set<String> getAccessions() {
         Set<String> setToFill = new HashSet<String>();
         if (fastaIndex != null) {
-            setToFill = fastaIndex.getIndexes().keySet();
+            setToFill.addAll(fastaIndex.getAccessions());
         }
         return setToFill;
     }
@@ -1480,7 +1479,9 @@ public class SequenceFactory {
             PeptideMapperType peptideMapperType = sequenceMatchingPreferences.getPeptideMapperType();
             switch (peptideMapperType) {
                 case fm_index:
-                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters);
+                    FMIndexSettings fmIndexSettings = new FMIndexSettings();
+                    fmIndexSettings.setnThreads(nThreads);
+                    defaultPeptideMapper = new FMIndex(waitingHandler, displayProgress, peptideVariantsPreferences, searchParameters, fmIndexSettings);
                     break;
                 case tree:
 
@@ -0,0 +1,213 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import java.util.Arrays;
+
+/**
+ * Peptide candidates stored as primitive columns: the index of the protein,
+ * the start and end of the peptide on the protein, and the mass of the
+ * peptide. The indexes of the proteins containing amino acid combinations are
+ * stored separately, the peptides covering a combination are not among the
+ * candidates.
+ *
+ * @author Marc Vaudel
+ */
+public class PeptideCandidates {
+
+    /**
+     * The default initial capacity.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+    /**
+     * The number of candidates.
+     */
+    private int size = 0;
+    /**
+     * The index of the protein of every candidate.
+     */
+    private int[] proteins;
+    /**
+     * The index of the first residue of every candidate on the protein.
+     */
+    private int[] starts;
+    /**
+     * The index after the last residue of every candidate on the protein.
+     */
+    private int[] ends;
+    /**
+     * The mass of every candidate.
+     */
+    private double[] masses;
+    /**
+     * The number of proteins containing amino acid combinations.
+     */
+    private int nProteinsWithCombinations = 0;
+    /**
+     * The index of every protein containing amino acid combinations.
+     */
+    private int[] proteinsWithCombinations = new int[0];
+
+    /**
+     * Constructor.
+     */
+    public PeptideCandidates() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity the initial capacity
+     */
+    public PeptideCandidates(int capacity) {
+        capacity = Math.max(1, capacity);
+        proteins = new int[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        masses = new double[capacity];
+    }
+
+    /**
+     * Adds a candidate.
+     *
+     * @param protein the index of the protein
+     * @param start the index of the first residue of the peptide on the
+     * protein
+     * @param end the index after the last residue of the peptide on the
+     * protein
+     * @param mass the mass of the peptide
+     */
+    public void add(int protein, int start, int end, double mass) {
+        if (size == proteins.length) {
+            ensureCapacity(2 * size);
+        }
+        proteins[size] = protein;
+        starts[size] = start;
+        ends[size] = end;
+        masses[size] = mass;
+        size++;
+    }
+
+    /**
+     * Adds all the candidates of another set of candidates.
+     *
+     * @param candidates the candidates to add
+     */
+    public void addAll(PeptideCandidates candidates) {
+        ensureCapacity(size + candidates.size);
+        System.arraycopy(candidates.proteins, 0, proteins, size, candidates.size);
+        System.arraycopy(candidates.starts, 0, starts, size, candidates.size);
+        System.arraycopy(candidates.ends, 0, ends, size, candidates.size);
+        System.arraycopy(candidates.masses, 0, masses, size, candidates.size);
+        size += candidates.size;
+        for (int i = 0; i < candidates.nProteinsWithCombinations; i++) {
+            addProteinWithCombinations(candidates.proteinsWithCombinations[i]);
+        }
+    }
+
+    /**
+     * Adds a protein containing amino acid combinations.
+     *
+     * @param protein the index of the protein
+     */
+    public void addProteinWithCombinations(int protein) {
+        if (nProteinsWithCombinations == proteinsWithCombinations.length) {
+            proteinsWithCombinations = Arrays.copyOf(proteinsWithCombinations, Math.max(16, 2 * nProteinsWithCombinations));
+        }
+        proteinsWithCombinations[nProteinsWithCombinations++] = protein;
+    }
+
+    /**
+     * Returns the indexes of the proteins containing amino acid combinations
+     * in the order they were added. The peptides of these proteins covering a
+     * combination are not among the candidates.
+     *
+     * @return the indexes of the proteins containing amino acid combinations
+     */
+    public int[] getProteinsWithCombinations() {
+        return Arrays.copyOf(proteinsWithCombinations, nProteinsWithCombinations);
+    }
+
+    /**
+     * Makes sure that the columns can hold the given number of candidates.
+     *
+     * @param capacity the number of candidates
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > proteins.length) {
+            proteins = Arrays.copyOf(proteins, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            masses = Arrays.copyOf(masses, capacity);
+        }
+    }
+
+    /**
+     * Returns the number of candidates.
+     *
+     * @return the number of candidates
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the protein of the given candidate.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the index of the protein
+     */
+    public int getProtein(int index) {
+        checkIndex(index);
+        return proteins[index];
+    }
+
+    /**
+     * Returns the index of the first residue of the given candidate on the
+     * protein.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the index of the first residue on the protein
+     */
+    public int getStart(int index) {
+        checkIndex(index);
+        return starts[index];
+    }
+
+    /**
+     * Returns the index after the last residue of the given candidate on the
+     * protein.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the index after the last residue on the protein
+     */
+    public int getEnd(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    /**
+     * Returns the mass of the given candidate.
+     *
+     * @param index the index of the candidate
+     *
+     * @return the mass of the candidate
+     */
+    public double getMass(int index) {
+        checkIndex(index);
+        return masses[index];
+    }
+
+    /**
+     * Throws an exception if the given index is out of bounds.
+     *
+     * @param index the index of the candidate
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -286,11 +286,24 @@ public class ProteinIteratorUtils {
      * @return the c-terminal modification for the given peptide draft
      */
     public String getCtermModification(PeptideDraft peptideDraft, String proteinSequence, int indexOnProtein) {
-
         char[] peptideSequence = peptideDraft.getSequence();
-        char aaChar = peptideSequence[peptideSequence.length - 1];
+        return getCtermModification(peptideSequence[peptideSequence.length - 1], peptideDraft.length(), proteinSequence, indexOnProtein);
+    }
+
+    /**
+     * Returns the c-terminal modification for the peptide of the given length
+     * at the given index on the protein.
+     *
+     * @param aaChar the c-terminal amino acid of the peptide as character
+     * @param peptideLength the length of the peptide
+     * @param proteinSequence the protein sequence
+     * @param indexOnProtein the index of the peptide on the protein
+     *
+     * @return the c-terminal modification for the given peptide
+     */
+    public String getCtermModification(char aaChar, int peptideLength, String proteinSequence, int indexOnProtein) {
 
-        if (indexOnProtein == proteinSequence.length() - peptideDraft.length()) {
+        if (indexOnProtein == proteinSequence.length() - peptideLength) {
 
             if (fixedProteinCtermModification != null) {
                 return fixedProteinCtermModification;
@@ -314,7 +327,7 @@ public class ProteinIteratorUtils {
 
             AminoAcidPattern aminoAcidPattern = modificationPatternMap.get(fixedPeptideCtermModificationAtAa);
 
-            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, indexOnProtein + peptideDraft.length())) {
+            if (aminoAcidPattern == null || aminoAcidPattern.matchesAt(proteinSequence, SequenceMatchingPreferences.defaultStringMatching, indexOnProtein + peptideLength)) {
                 return fixedPeptideCtermModificationAtAa;
             }
         }
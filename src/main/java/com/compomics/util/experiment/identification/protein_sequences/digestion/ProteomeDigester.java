@@ -0,0 +1,731 @@
+package com.compomics.util.experiment.identification.protein_sequences.digestion;
+
+import com.compomics.util.experiment.biology.AminoAcid;
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.protein_sequences.ProteinSequenceStore;
+import com.compomics.util.general.BoxedObject;
+import com.compomics.util.preferences.DigestionPreferences;
+import com.compomics.util.waiting.WaitingHandler;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Digests all the proteins of a protein sequence store. The cumulative masses
+ * of the residues are computed once per protein so that the mass of a peptide
+ * is obtained by subtraction, and the peptides are returned as candidates
+ * giving the protein, start, end and mass of every peptide. Peptide objects
+ * are only created on demand using getPeptide. The proteins are digested in
+ * parallel by blocks.
+ *
+ * Peptides containing amino acid combinations like X or B are not returned
+ * as candidates. The proteins containing combinations are listed in the
+ * candidates, and the peptides covering a combination are obtained using
+ * getCombinationPeptides. Fixed modifications targeting a pattern of amino
+ * acids are not supported.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteomeDigester {
+
+    /**
+     * The default minimal number of proteins per block.
+     */
+    public static final int DEFAULT_MIN_BLOCK_SIZE = 64;
+    /**
+     * The sequences of the proteins to digest.
+     */
+    private final ProteinSequenceStore sequenceStore;
+    /**
+     * The utils used to generate the peptides.
+     */
+    private final ProteinIteratorUtils proteinIteratorUtils;
+    /**
+     * The cleavage preference.
+     */
+    private final DigestionPreferences.CleavagePreference cleavagePreference;
+    /**
+     * The enzyme, null if not digesting with an enzyme.
+     */
+    private final Enzyme enzyme;
+    /**
+     * The number of missed cleavages allowed.
+     */
+    private final int nMissedCleavages;
+    /**
+     * The specificity of the enzyme.
+     */
+    private final DigestionPreferences.Specificity specificity;
+    /**
+     * The minimal mass of a peptide.
+     */
+    private final double massMin;
+    /**
+     * The maximal mass of a peptide.
+     */
+    private final double massMax;
+    /**
+     * The mass of every residue including fixed modifications indexed by
+     * character, NaN for amino acid combinations and unknown characters.
+     */
+    private final double[] residueMasses = new double[128];
+    /**
+     * Boolean indicating whether all residue masses are positive, in which
+     * case the cumulative masses are sorted.
+     */
+    private final boolean sortedMasses;
+    /**
+     * The minimal number of proteins per block.
+     */
+    private int minBlockSize = DEFAULT_MIN_BLOCK_SIZE;
+
+    /**
+     * Constructor.
+     *
+     * @param sequenceStore the sequences of the proteins to digest
+     * @param fixedModifications a list of fixed modifications to consider when
+     * digesting the protein sequences
+     * @param digestionPreferences the digestion preferences to use
+     * @param massMin the minimal mass of a peptide
+     * @param massMax the maximal mass of a peptide
+     */
+    public ProteomeDigester(ProteinSequenceStore sequenceStore, ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences, double massMin, double massMax) {
+
+        this.sequenceStore = sequenceStore;
+        this.proteinIteratorUtils = new ProteinIteratorUtils(fixedModifications, null);
+        this.massMin = massMin;
+        this.massMax = massMax;
+
+        cleavagePreference = digestionPreferences.getCleavagePreference();
+        switch (cleavagePreference) {
+            case unSpecific:
+            case wholeProtein:
+                enzyme = null;
+                nMissedCleavages = 0;
+                specificity = null;
+                break;
+            case enzyme:
+                ArrayList<Enzyme> enzymes = digestionPreferences.getEnzymes();
+                if (enzymes.size() == 1) {
+                    enzyme = enzymes.get(0);
+                    Integer enzymeMissedCleavages = digestionPreferences.getnMissedCleavages(enzyme.getName());
+                    nMissedCleavages = enzymeMissedCleavages == null ? 0 : enzymeMissedCleavages;
+                    DigestionPreferences.Specificity enzymeSpecificity = digestionPreferences.getSpecificity(enzyme.getName());
+                    specificity = enzymeSpecificity == null ? DigestionPreferences.Specificity.specific : enzymeSpecificity;
+                    break;
+                }
+            default:
+                throw new IllegalArgumentException("Cleavage preference of type " + cleavagePreference + " not supported.");
+        }
+
+        boolean positiveMasses = true;
+        Arrays.fill(residueMasses, Double.NaN);
+        for (char aa = 'A'; aa <= 'Z'; aa++) {
+            AminoAcid aminoAcid;
+            try {
+                aminoAcid = AminoAcid.getAminoAcid(aa);
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (!aminoAcid.iscombination()) {
+                double mass = aminoAcid.getMonoisotopicMass();
+                String modification = proteinIteratorUtils.getFixedModificationAtAa(aa);
+                if (modification != null) {
+                    if (proteinIteratorUtils.getModificationPattern(modification) != null) {
+                        throw new IllegalArgumentException("Fixed modification " + modification + " targeting a pattern of amino acids not supported.");
+                    }
+                    mass += proteinIteratorUtils.getModificationMass(modification);
+                }
+                residueMasses[aa] = mass;
+                if (mass <= 0) {
+                    positiveMasses = false;
+                }
+            }
+        }
+        sortedMasses = positiveMasses;
+    }
+
+    /**
+     * Sets the minimal number of proteins per block of proteins digested in
+     * parallel.
+     *
+     * @param minBlockSize the minimal number of proteins per block
+     */
+    public void setMinBlockSize(int minBlockSize) {
+        this.minBlockSize = Math.max(1, minBlockSize);
+    }
+
+    /**
+     * Digests all the proteins of the store. The candidates are sorted by
+     * protein, start and end.
+     *
+     * @param nThreads the number of threads to use
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null. The candidates found
+     * so far are returned if the process is canceled.
+     *
+     * @return the peptide candidates
+     *
+     * @throws InterruptedException exception thrown if a thread is
+     * interrupted
+     */
+    public PeptideCandidates digest(int nThreads, WaitingHandler waitingHandler) throws InterruptedException {
+
+        if (waitingHandler != null) {
+            waitingHandler.resetSecondaryProgressCounter();
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+        }
+
+        nThreads = Math.max(1, nThreads);
+        int nProteins = sequenceStore.getNProteins();
+        int nBlocks = Math.max(1, Math.min(4 * nThreads, nProteins / minBlockSize));
+        int blockSize = nProteins / nBlocks + 1;
+        AtomicInteger progress = new AtomicInteger(0);
+
+        ArrayList<Block> blocks = new ArrayList<Block>(nBlocks);
+        for (int i = 0; i < nBlocks; i++) {
+            int start = Math.min(i * blockSize, nProteins);
+            int end = Math.min(start + blockSize, nProteins);
+            blocks.add(new Block(start, end, progress, waitingHandler));
+        }
+
+        ArrayList<PeptideCandidates> blockCandidates = new ArrayList<PeptideCandidates>(nBlocks);
+        if (blocks.size() == 1) {
+            blockCandidates.add(blocks.get(0).call());
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, nBlocks));
+            try {
+                ArrayList<Future<PeptideCandidates>> futures = new ArrayList<Future<PeptideCandidates>>(nBlocks);
+                for (Block block : blocks) {
+                    futures.add(pool.submit(block));
+                }
+                int progressUnit = Math.max(1, nProteins / 100);
+                for (Future<PeptideCandidates> future : futures) {
+                    PeptideCandidates candidates;
+                    while ((candidates = waitForBlock(future)) == null) {
+                        if (waitingHandler != null) {
+                            waitingHandler.setSecondaryProgressCounter(progress.get() / progressUnit);
+                        }
+                    }
+                    blockCandidates.add(candidates);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        if (blockCandidates.size() == 1) {
+            return blockCandidates.get(0);
+        }
+        int size = 0;
+        for (PeptideCandidates candidates : blockCandidates) {
+            size += candidates.size();
+        }
+        PeptideCandidates result = new PeptideCandidates(size);
+        for (PeptideCandidates candidates : blockCandidates) {
+            result.addAll(candidates);
+        }
+        return result;
+    }
+
+    /**
+     * Digests the protein of the given ordinal in the store. The candidates
+     * are sorted by start and end.
+     *
+     * @param ordinal the ordinal of the protein in the store
+     *
+     * @return the peptide candidates
+     */
+    public PeptideCandidates digest(int ordinal) {
+        PeptideCandidates candidates = new PeptideCandidates();
+        new Block(ordinal, ordinal + 1, null, null).digestProtein(ordinal, candidates);
+        return candidates;
+    }
+
+    /**
+     * Returns the peptides of the protein of the given ordinal covering an
+     * amino acid combination, with the combinations replaced by every amino
+     * acid they stand for. The peptides are obtained with the same cleavage
+     * preference, missed cleavages, specificity and mass range as the
+     * candidates, the cleavage sites being determined on the protein sequence.
+     * The peptides containing more Xs than allowed by the sequence iterators
+     * are not returned.
+     *
+     * @param ordinal the ordinal of the protein in the store
+     *
+     * @return the peptides covering an amino acid combination
+     */
+    public ArrayList<PeptideWithPosition> getCombinationPeptides(int ordinal) {
+
+        ArrayList<PeptideWithPosition> result = new ArrayList<PeptideWithPosition>();
+        String proteinSequence = sequenceStore.getSequence(ordinal).toString();
+        if (!AminoAcidSequence.hasCombination(proteinSequence)) {
+            return result;
+        }
+        int length = proteinSequence.length();
+        int maxXs = proteinIteratorUtils.getMaxXsInSequence();
+
+        // the minimal mass of the residues and the number of Xs before every index, and the next combination from every index
+        double[] cumulativeMinMasses = new double[length + 1];
+        int[] cumulativeXs = new int[length + 1];
+        int[] nextCombination = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            char aa = proteinSequence.charAt(i);
+            cumulativeMinMasses[i + 1] = cumulativeMinMasses[i] + getMinResidueMass(aa);
+            cumulativeXs[i + 1] = cumulativeXs[i] + (aa == 'X' ? 1 : 0);
+        }
+        nextCombination[length] = length;
+        for (int i = length - 1; i >= 0; i--) {
+            char aa = proteinSequence.charAt(i);
+            nextCombination[i] = aa < residueMasses.length && !Double.isNaN(residueMasses[aa]) ? nextCombination[i + 1] : i;
+        }
+
+        if (cleavagePreference == DigestionPreferences.CleavagePreference.wholeProtein) {
+            if (cumulativeXs[length] <= maxXs) {
+                addCombinationPeptides(proteinSequence, 0, length, result);
+            }
+            return result;
+        }
+
+        boolean[] cleavageSite = null;
+        if (enzyme != null) {
+            cleavageSite = new boolean[length + 1];
+            cleavageSite[0] = true;
+            cleavageSite[length] = true;
+            for (int i = 1; i < length; i++) {
+                cleavageSite[i] = enzyme.isCleavageSiteNoCombination(proteinSequence.charAt(i - 1), proteinSequence.charAt(i));
+            }
+        }
+
+        for (int start = 0; start < length; start++) {
+
+            boolean endAtSite = false;
+            if (enzyme != null) {
+                boolean startAtSite = cleavageSite[start];
+                if (!startAtSite && (specificity == DigestionPreferences.Specificity.specific || specificity == DigestionPreferences.Specificity.specificNTermOnly)) {
+                    continue;
+                }
+                endAtSite = specificity == DigestionPreferences.Specificity.specific
+                        || specificity == DigestionPreferences.Specificity.specificCTermOnly
+                        || specificity == DigestionPreferences.Specificity.semiSpecific && !startAtSite;
+            }
+
+            double offset = getMinNtermMass(proteinSequence, start) + ProteinIteratorUtils.WATER_MASS + proteinIteratorUtils.getMinCtermMass() - cumulativeMinMasses[start];
+            int missedCleavages = 0;
+
+            for (int end = start + 1; end <= length; end++) {
+                if (sortedMasses && cumulativeMinMasses[end] + offset > massMax) {
+                    break;
+                }
+                if (end > nextCombination[start] && (!endAtSite || cleavageSite[end]) && cumulativeXs[end] - cumulativeXs[start] <= maxXs) {
+                    addCombinationPeptides(proteinSequence, start, end, result);
+                }
+                if (enzyme != null && end < length && cleavageSite[end] && ++missedCleavages > nMissedCleavages) {
+                    break;
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the peptides obtained by replacing the amino acid combinations of a
+     * stretch of the protein sequence by every amino acid they stand for.
+     *
+     * @param proteinSequence the protein sequence
+     * @param start the index of the first residue of the peptide on the
+     * protein
+     * @param end the index after the last residue of the peptide on the
+     * protein
+     * @param peptides the list where to add the peptides
+     */
+    private void addCombinationPeptides(String proteinSequence, int start, int end, ArrayList<PeptideWithPosition> peptides) {
+        for (StringBuilder combination : AminoAcidSequence.getCombinations(proteinSequence.substring(start, end))) {
+            char[] peptideSequence = combination.toString().toCharArray();
+            Peptide peptide = proteinIteratorUtils.getPeptideFromProtein(peptideSequence, proteinSequence, start, massMin, massMax);
+            if (peptide != null) {
+                peptides.add(new PeptideWithPosition(peptide, start));
+            }
+        }
+    }
+
+    /**
+     * Returns the minimal mass of a residue including fixed modifications,
+     * the lightest amino acid for amino acid combinations.
+     *
+     * @param aa the residue
+     *
+     * @return the minimal mass of the residue
+     */
+    private double getMinResidueMass(char aa) {
+        double mass = aa < residueMasses.length ? residueMasses[aa] : Double.NaN;
+        if (Double.isNaN(mass)) {
+            mass = Double.MAX_VALUE;
+            for (char subAa : AminoAcid.getAminoAcid(aa).getSubAminoAcids(false)) {
+                mass = Math.min(mass, residueMasses[subAa]);
+            }
+        }
+        return mass;
+    }
+
+    /**
+     * Returns the minimal mass of the n-terminal modification of a peptide
+     * starting at the given index, considering all the amino acids of a
+     * combination.
+     *
+     * @param proteinSequence the protein sequence
+     * @param start the index of the first residue of the peptide
+     *
+     * @return the minimal mass of the n-terminal modification
+     */
+    private double getMinNtermMass(String proteinSequence, int start) {
+        char aa = proteinSequence.charAt(start);
+        char[] possibleAas = aa < residueMasses.length && !Double.isNaN(residueMasses[aa]) ? new char[]{aa} : AminoAcid.getAminoAcid(aa).getSubAminoAcids(false);
+        double mass = Double.MAX_VALUE;
+        for (char possibleAa : possibleAas) {
+            mass = Math.min(mass, proteinIteratorUtils.getModificationMass(proteinIteratorUtils.getNtermModification(start == 0, possibleAa, proteinSequence)));
+        }
+        return mass;
+    }
+
+    /**
+     * Waits for a block to be digested for a limited time and rethrows the
+     * exceptions encountered while digesting.
+     *
+     * @param future the future of the block
+     *
+     * @return the candidates of the block, null if not digested yet
+     *
+     * @throws InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    private PeptideCandidates waitForBlock(Future<PeptideCandidates> future) throws InterruptedException {
+        try {
+            return future.get(100, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Returns the peptide of the given candidate with its fixed
+     * modifications.
+     *
+     * @param candidates the peptide candidates
+     * @param index the index of the candidate
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(PeptideCandidates candidates, int index) {
+        return getPeptide(candidates.getProtein(index), candidates.getStart(index), candidates.getEnd(index));
+    }
+
+    /**
+     * Returns the peptide found at the given position on a protein with its
+     * fixed modifications.
+     *
+     * @param ordinal the ordinal of the protein in the store
+     * @param start the index of the first residue of the peptide on the
+     * protein
+     * @param end the index after the last residue of the peptide on the
+     * protein
+     *
+     * @return the peptide
+     */
+    public Peptide getPeptide(int ordinal, int start, int end) {
+        String proteinSequence = sequenceStore.getSequence(ordinal).toString();
+        char[] peptideSequence = proteinSequence.substring(start, end).toCharArray();
+        return proteinIteratorUtils.getPeptideFromProtein(peptideSequence, proteinSequence, start, 0.0, Double.MAX_VALUE, new BoxedObject<Boolean>(Boolean.TRUE));
+    }
+
+    /**
+     * Returns the first end in the given range where the cumulative mass is
+     * not below the given mass. The cumulative masses must be sorted.
+     *
+     * @param cumulativeMasses the cumulative masses
+     * @param low the first end of the range
+     * @param high the last end of the range
+     * @param mass the mass
+     *
+     * @return the first end where the cumulative mass is not below the given
+     * mass, high + 1 if none
+     */
+    private static int getFirstEnd(double[] cumulativeMasses, int low, int high, double mass) {
+        high++;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeMasses[middle] < mass) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A block of proteins digested by a thread. The buffers are reused from
+     * one protein to the next.
+     */
+    private class Block implements Callable<PeptideCandidates> {
+
+        /**
+         * The ordinal of the first protein of the block.
+         */
+        private final int firstProtein;
+        /**
+         * The ordinal after the last protein of the block.
+         */
+        private final int lastProtein;
+        /**
+         * Counter of the proteins digested by all blocks, can be null.
+         */
+        private final AtomicInteger progress;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The residues of the protein.
+         */
+        private char[] residues = new char[0];
+        /**
+         * The mass of the residues before every index.
+         */
+        private double[] cumulativeMasses = new double[1];
+        /**
+         * The mass of the c-terminal modification of a peptide ending before
+         * every index.
+         */
+        private double[] cTermMasses = new double[1];
+        /**
+         * The index of the next amino acid combination from every index, the
+         * length of the protein if none.
+         */
+        private int[] nextCombination = new int[1];
+        /**
+         * Boolean indicating whether there is a cleavage site before every
+         * index.
+         */
+        private boolean[] cleavageSite = new boolean[1];
+        /**
+         * The cleavage sites in ascending order including the termini.
+         */
+        private int[] cleavageSites = new int[1];
+
+        /**
+         * Constructor.
+         *
+         * @param firstProtein the ordinal of the first protein of the block
+         * @param lastProtein the ordinal after the last protein of the block
+         * @param progress counter of the proteins digested, can be null
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public Block(int firstProtein, int lastProtein, AtomicInteger progress, WaitingHandler waitingHandler) {
+            this.firstProtein = firstProtein;
+            this.lastProtein = lastProtein;
+            this.progress = progress;
+            this.waitingHandler = waitingHandler;
+        }
+
+        @Override
+        public PeptideCandidates call() {
+            PeptideCandidates candidates = new PeptideCandidates();
+            for (int ordinal = firstProtein; ordinal < lastProtein; ordinal++) {
+                if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                    break;
+                }
+                digestProtein(ordinal, candidates);
+                if (progress != null) {
+                    progress.incrementAndGet();
+                }
+            }
+            return candidates;
+        }
+
+        /**
+         * Makes sure that the buffers can hold a protein of the given length.
+         *
+         * @param length the length of the protein
+         */
+        private void ensureCapacity(int length) {
+            if (length > residues.length) {
+                int capacity = Math.max(length, 2 * residues.length);
+                residues = new char[capacity];
+                cumulativeMasses = new double[capacity + 1];
+                cTermMasses = new double[capacity + 1];
+                nextCombination = new int[capacity + 1];
+                cleavageSite = new boolean[capacity + 1];
+                cleavageSites = new int[capacity + 1];
+            }
+        }
+
+        /**
+         * Adds the candidates of the given protein.
+         *
+         * @param ordinal the ordinal of the protein in the store
+         * @param candidates the candidates to add to
+         */
+        private void digestProtein(int ordinal, PeptideCandidates candidates) {
+
+            ByteBuffer sequence = sequenceStore.getSequenceBytes(ordinal);
+            int length = sequence.limit();
+            if (length == 0) {
+                return;
+            }
+            ensureCapacity(length);
+
+            cumulativeMasses[0] = 0.0;
+            for (int i = 0; i < length; i++) {
+                char aa = (char) (sequence.get(i) & 0xff);
+                residues[i] = aa;
+                double mass = aa < residueMasses.length ? residueMasses[aa] : Double.NaN;
+                if (Double.isNaN(mass)) {
+                    nextCombination[i] = i;
+                    mass = 0.0;
+                } else {
+                    nextCombination[i] = -1;
+                }
+                cumulativeMasses[i + 1] = cumulativeMasses[i] + mass;
+            }
+            nextCombination[length] = length;
+            for (int i = length - 1; i >= 0; i--) {
+                if (nextCombination[i] == -1) {
+                    nextCombination[i] = nextCombination[i + 1];
+                }
+            }
+            if (nextCombination[0] < length) {
+                candidates.addProteinWithCombinations(ordinal);
+            }
+
+            String proteinSequence = new String(residues, 0, length);
+
+            // the c-terminal modification only depends on the end of the peptide
+            double minCtermMass = Double.MAX_VALUE;
+            double maxCtermMass = -Double.MAX_VALUE;
+            for (int end = 1; end <= length; end++) {
+                double mass = proteinIteratorUtils.getModificationMass(proteinIteratorUtils.getCtermModification(residues[end - 1], 1, proteinSequence, end - 1));
+                cTermMasses[end] = mass;
+                minCtermMass = Math.min(minCtermMass, mass);
+                maxCtermMass = Math.max(maxCtermMass, mass);
+            }
+
+            if (cleavagePreference == DigestionPreferences.CleavagePreference.wholeProtein) {
+                if (nextCombination[0] == length) {
+                    double mass = cumulativeMasses[length] + getNtermMass(proteinSequence, 0) + cTermMasses[length] + ProteinIteratorUtils.WATER_MASS;
+                    if (mass >= massMin && mass <= massMax) {
+                        candidates.add(ordinal, 0, length, mass);
+                    }
+                }
+                return;
+            }
+
+            int nSites = 0;
+            if (enzyme != null) {
+                cleavageSites[nSites++] = 0;
+                cleavageSite[0] = true;
+                for (int i = 1; i < length; i++) {
+                    cleavageSite[i] = enzyme.isCleavageSiteNoCombination(residues[i - 1], residues[i]);
+                    if (cleavageSite[i]) {
+                        cleavageSites[nSites++] = i;
+                    }
+                }
+                cleavageSite[length] = true;
+                cleavageSites[nSites++] = length;
+            }
+
+            int nextSite = 0;
+            for (int start = 0; start < length; start++) {
+
+                int endMax = nextCombination[start];
+                boolean endAtSite = false;
+
+                if (enzyme != null) {
+                    while (cleavageSites[nextSite] <= start) {
+                        nextSite++;
+                    }
+                    boolean startAtSite = cleavageSite[start];
+                    if (!startAtSite && (specificity == DigestionPreferences.Specificity.specific || specificity == DigestionPreferences.Specificity.specificNTermOnly)) {
+                        continue;
+                    }
+                    endAtSite = specificity == DigestionPreferences.Specificity.specific
+                            || specificity == DigestionPreferences.Specificity.specificCTermOnly
+                            || specificity == DigestionPreferences.Specificity.semiSpecific && !startAtSite;
+                    endMax = Math.min(endMax, cleavageSites[Math.min(nextSite + nMissedCleavages, nSites - 1)]);
+                }
+
+                if (endMax == start) {
+                    continue;
+                }
+
+                // mass of the peptide from start to end: cumulativeMasses[end] + offset + cTermMasses[end]
+                double offset = getNtermMass(proteinSequence, start) + ProteinIteratorUtils.WATER_MASS - cumulativeMasses[start];
+
+                if (endAtSite) {
+                    for (int site = nextSite; site < nSites && cleavageSites[site] <= endMax; site++) {
+                        int end = cleavageSites[site];
+                        double mass = cumulativeMasses[end] + offset;
+                        if (sortedMasses && mass + minCtermMass > massMax) {
+                            break;
+                        }
+                        mass += cTermMasses[end];
+                        if (mass >= massMin && mass <= massMax) {
+                            candidates.add(ordinal, start, end, mass);
+                        }
+                    }
+                } else {
+                    int end = start + 1;
+                    if (sortedMasses) {
+                        end = getFirstEnd(cumulativeMasses, end, endMax, massMin - offset - maxCtermMass);
+                    }
+                    for (; end <= endMax; end++) {
+                        double mass = cumulativeMasses[end] + offset;
+                        if (sortedMasses && mass + minCtermMass > massMax) {
+                            break;
+                        }
+                        mass += cTermMasses[end];
+                        if (mass >= massMin && mass <= massMax) {
+                            candidates.add(ordinal, start, end, mass);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the mass of the n-terminal modification of a peptide
+         * starting at the given index.
+         *
+         * @param proteinSequence the protein sequence
+         * @param start the index of the first residue of the peptide
+         *
+         * @return the mass of the n-terminal modification
+         */
+        private double getNtermMass(String proteinSequence, int start) {
+            return proteinIteratorUtils.getModificationMass(proteinIteratorUtils.getNtermModification(start == 0, residues[start], proteinSequence));
+        }
+    }
+}
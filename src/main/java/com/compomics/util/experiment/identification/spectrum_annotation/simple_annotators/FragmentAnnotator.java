@@ -148,28 +148,30 @@ public class FragmentAnnotator {
         for (int i = 0; i < peptideLength; i++) {
 
             double ionMz = forwardIonMz1[i];
-            ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+            int peakIndex = spectrumIndex.getMatchStart(ionMz);
 
-            if (!peaks.isEmpty()) {
+            if (spectrumIndex.isMatch(peakIndex, ionMz)) {
 
                 int ionNumber = i + 1;
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
 
-                for (Peak peak : peaks) {
+                for (; spectrumIndex.isMatch(peakIndex, ionMz); peakIndex++) {
+                    Peak peak = spectrumIndex.getPeak(peakIndex);
                     Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
                     results.add(new IonMatch(peak, ion, 1));
                 }
             }
 
             ionMz = complementaryIonMz1[i];
-            peaks = spectrumIndex.getMatchingPeaks(ionMz);
+            peakIndex = spectrumIndex.getMatchStart(ionMz);
 
-            if (!peaks.isEmpty()) {
+            if (spectrumIndex.isMatch(peakIndex, ionMz)) {
 
                 double ionMass = ionMz - ElementaryIon.proton.getTheoreticMass();
                 int ionNumber = peptideLength - i - 1;
 
-                for (Peak peak : peaks) {
+                for (; spectrumIndex.isMatch(peakIndex, ionMz); peakIndex++) {
+                    Peak peak = spectrumIndex.getPeak(peakIndex);
                     Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
                     results.add(new IonMatch(peak, ion, 1));
                 }
@@ -185,14 +187,15 @@ public class FragmentAnnotator {
 
                 double ionMz1 = forwardIonMz1[i];
                 double ionMz = (ionMz1 + protonContribution) / ionCharge;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(ionMz);
+                int peakIndex = spectrumIndex.getMatchStart(ionMz);
 
-                if (!peaks.isEmpty()) {
+                if (spectrumIndex.isMatch(peakIndex, ionMz)) {
 
                     int ionNumber = i + 1;
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
 
-                    for (Peak peak : peaks) {
+                    for (; spectrumIndex.isMatch(peakIndex, ionMz); peakIndex++) {
+                        Peak peak = spectrumIndex.getPeak(peakIndex);
                         Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, null);
                         results.add(new IonMatch(peak, ion, ionCharge));
                     }
@@ -200,14 +203,15 @@ public class FragmentAnnotator {
 
                 ionMz1 = complementaryIonMz1[i];
                 ionMz = (ionMz1 + protonContribution) / ionCharge;
-                peaks = spectrumIndex.getMatchingPeaks(ionMz);
+                peakIndex = spectrumIndex.getMatchStart(ionMz);
 
-                if (!peaks.isEmpty()) {
+                if (spectrumIndex.isMatch(peakIndex, ionMz)) {
 
                     double ionMass = ionMz1 - ElementaryIon.proton.getTheoreticMass();
                     int ionNumber = peptideLength - i - 1;
 
-                    for (Peak peak : peaks) {
+                    for (; spectrumIndex.isMatch(peakIndex, ionMz); peakIndex++) {
+                        Peak peak = spectrumIndex.getPeak(peakIndex);
                         Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, null);
                         results.add(new IonMatch(peak, ion, ionCharge));
                     }
@@ -459,11 +459,12 @@ public class FragmentAnnotatorNL {
             for (int j = 0; j < neutralLosses.size(); j++) {
                 double lossMass1 = neutralLossesMasses[j];
                 double mz1WithLoss = ionMz1 - lossMass1;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss);
-                if (!peaks.isEmpty()) {
+                int peakIndex = spectrumIndex.getMatchStart(mz1WithLoss);
+                if (spectrumIndex.isMatch(peakIndex, mz1WithLoss)) {
                     NeutralLoss[] ionLosses = {neutralLosses.get(j)};
                     double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                    for (Peak peak : peaks) {
+                    for (; spectrumIndex.isMatch(peakIndex, mz1WithLoss); peakIndex++) {
+                        Peak peak = spectrumIndex.getPeak(peakIndex);
                         Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
                         results.add(new IonMatch(peak, ion, 1));
                     }
@@ -471,11 +472,12 @@ public class FragmentAnnotatorNL {
                 for (int k = j + 1; k < neutralLosses.size(); k++) {
                     double lossMass2 = neutralLossesMasses[k];
                     double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                    peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss2);
-                    if (!peaks.isEmpty()) {
+                    peakIndex = spectrumIndex.getMatchStart(mz1WithLoss2);
+                    if (spectrumIndex.isMatch(peakIndex, mz1WithLoss2)) {
                         NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
                         double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
+                        for (; spectrumIndex.isMatch(peakIndex, mz1WithLoss2); peakIndex++) {
+                            Peak peak = spectrumIndex.getPeak(peakIndex);
                             Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
                             results.add(new IonMatch(peak, ion, 1));
                         }
@@ -490,11 +492,12 @@ public class FragmentAnnotatorNL {
             for (int j = 0; j < neutralLosses.size(); j++) {
                 double lossMass1 = neutralLossesMasses[j];
                 double mz1WithLoss = ionMz1 - lossMass1;
-                ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss);
-                if (!peaks.isEmpty()) {
+                int peakIndex = spectrumIndex.getMatchStart(mz1WithLoss);
+                if (spectrumIndex.isMatch(peakIndex, mz1WithLoss)) {
                     NeutralLoss[] ionLosses = {neutralLosses.get(j)};
                     double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                    for (Peak peak : peaks) {
+                    for (; spectrumIndex.isMatch(peakIndex, mz1WithLoss); peakIndex++) {
+                        Peak peak = spectrumIndex.getPeak(peakIndex);
                         Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
                         results.add(new IonMatch(peak, ion, 1));
                     }
@@ -502,11 +505,12 @@ public class FragmentAnnotatorNL {
                 for (int k = j + 1; k < neutralLosses.size(); k++) {
                     double lossMass2 = neutralLossesMasses[k];
                     double mz1WithLoss2 = mz1WithLoss - lossMass2;
-                    peaks = spectrumIndex.getMatchingPeaks(mz1WithLoss2);
+                    peakIndex = spectrumIndex.getMatchStart(mz1WithLoss2);
                     double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                    if (!peaks.isEmpty()) {
+                    if (spectrumIndex.isMatch(peakIndex, mz1WithLoss2)) {
                         NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                        for (Peak peak : peaks) {
+                        for (; spectrumIndex.isMatch(peakIndex, mz1WithLoss2); peakIndex++) {
+                            Peak peak = spectrumIndex.getPeak(peakIndex);
                             Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
                             results.add(new IonMatch(peak, ion, 1));
                         }
@@ -530,11 +534,12 @@ public class FragmentAnnotatorNL {
                     double lossMass1 = neutralLossesMasses[j];
                     double mz1WithLoss = ionMz1 - lossMass1;
                     double mzWithLoss = (mz1WithLoss + protonContribution) / ionCharge;
-                    ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mzWithLoss);
-                    if (!peaks.isEmpty()) {
+                    int peakIndex = spectrumIndex.getMatchStart(mzWithLoss);
+                    if (spectrumIndex.isMatch(peakIndex, mzWithLoss)) {
                         NeutralLoss[] ionLosses = {neutralLosses.get(j)};
                         double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
+                        for (; spectrumIndex.isMatch(peakIndex, mzWithLoss); peakIndex++) {
+                            Peak peak = spectrumIndex.getPeak(peakIndex);
                             Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
                             results.add(new IonMatch(peak, ion, ionCharge));
                         }
@@ -543,11 +548,12 @@ public class FragmentAnnotatorNL {
                         double lossMass2 = neutralLossesMasses[k];
                         double mz1WithLoss2 = mz1WithLoss - lossMass2;
                         double mzWithLoss2 = (mz1WithLoss2 + protonContribution) / ionCharge;
-                        peaks = spectrumIndex.getMatchingPeaks(mzWithLoss2);
-                        if (!peaks.isEmpty()) {
+                        peakIndex = spectrumIndex.getMatchStart(mzWithLoss2);
+                        if (spectrumIndex.isMatch(peakIndex, mzWithLoss2)) {
                             NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
                             double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                            for (Peak peak : peaks) {
+                            for (; spectrumIndex.isMatch(peakIndex, mzWithLoss2); peakIndex++) {
+                                Peak peak = spectrumIndex.getPeak(peakIndex);
                                 Ion ion = new PeptideFragmentIon(forwardIonType, ionNumber, ionMass, ionLosses);
                                 results.add(new IonMatch(peak, ion, ionCharge));
                             }
@@ -563,11 +569,12 @@ public class FragmentAnnotatorNL {
                     double lossMass1 = neutralLossesMasses[j];
                     double mz1WithLoss = ionMz1 - lossMass1;
                     double mzWithLoss = (mz1WithLoss + protonContribution) / ionCharge;
-                    ArrayList<Peak> peaks = spectrumIndex.getMatchingPeaks(mzWithLoss);
-                    if (!peaks.isEmpty()) {
+                    int peakIndex = spectrumIndex.getMatchStart(mzWithLoss);
+                    if (spectrumIndex.isMatch(peakIndex, mzWithLoss)) {
                         NeutralLoss[] ionLosses = {neutralLosses.get(j)};
                         double ionMass = mz1WithLoss - ElementaryIon.proton.getTheoreticMass();
-                        for (Peak peak : peaks) {
+                        for (; spectrumIndex.isMatch(peakIndex, mzWithLoss); peakIndex++) {
+                            Peak peak = spectrumIndex.getPeak(peakIndex);
                             Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
                             results.add(new IonMatch(peak, ion, ionCharge));
                         }
@@ -576,11 +583,12 @@ public class FragmentAnnotatorNL {
                         double lossMass2 = neutralLossesMasses[k];
                         double mz1WithLoss2 = mz1WithLoss - lossMass2;
                         double mzWithLoss2 = (mz1WithLoss2 + protonContribution) / ionCharge;
-                        peaks = spectrumIndex.getMatchingPeaks(mzWithLoss2);
+                        peakIndex = spectrumIndex.getMatchStart(mzWithLoss2);
                         double ionMass = mz1WithLoss2 - ElementaryIon.proton.getTheoreticMass();
-                        if (!peaks.isEmpty()) {
+                        if (spectrumIndex.isMatch(peakIndex, mzWithLoss2)) {
                             NeutralLoss[] ionLosses = {neutralLosses.get(j), neutralLosses.get(k)};
-                            for (Peak peak : peaks) {
+                            for (; spectrumIndex.isMatch(peakIndex, mzWithLoss2); peakIndex++) {
+                                Peak peak = spectrumIndex.getPeak(peakIndex);
                                 Ion ion = new PeptideFragmentIon(complementaryIonType, ionNumber, ionMass, ionLosses);
                                 results.add(new IonMatch(peak, ion, ionCharge));
                             }
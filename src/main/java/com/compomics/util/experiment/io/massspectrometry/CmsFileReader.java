@@ -0,0 +1,451 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MS1Spectrum;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.io.binary.MappedFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+/**
+ * Reader for the cms files written by the CmsFileWriter. The columns and the
+ * peaks are memory mapped: a spectrum is retrieved by looking up its title
+ * and copying its peaks from the mapped file, no parsing is needed. The reader
+ * can be used by different threads simultaneously.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileReader {
+
+    /**
+     * The extension of cms files.
+     */
+    public static final String EXTENSION = ".cms";
+    /**
+     * The maximal size of a mapped segment of peaks in bytes.
+     */
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    /**
+     * The name of the cms file.
+     */
+    private final String fileName;
+    /**
+     * The name of the file the spectra were taken from.
+     */
+    private final String sourceFileName;
+    /**
+     * The number of spectra.
+     */
+    private final int nSpectra;
+    /**
+     * The start of every title in the titles blob followed by the end of the
+     * last title.
+     */
+    private final IntBuffer titleOffsets;
+    /**
+     * The spectrum titles encoded in UTF-8 and concatenated.
+     */
+    private final ByteBuffer titles;
+    /**
+     * The hashes of the spectrum titles sorted in ascending order.
+     */
+    private final LongBuffer titleHashes;
+    /**
+     * The number of the spectrum corresponding to every hash.
+     */
+    private final IntBuffer titleHashOrder;
+    /**
+     * The start of every scan number in the scan numbers blob followed by the
+     * end of the last scan number.
+     */
+    private final IntBuffer scanNumberOffsets;
+    /**
+     * The scan numbers encoded in UTF-8 and concatenated.
+     */
+    private final ByteBuffer scanNumbers;
+    /**
+     * The flags of the spectra.
+     */
+    private final ByteBuffer flags;
+    /**
+     * The MS levels of the spectra.
+     */
+    private final IntBuffer levels;
+    /**
+     * The scan start times of the spectra.
+     */
+    private final DoubleBuffer scanStartTimes;
+    /**
+     * The precursor m/z of the spectra.
+     */
+    private final DoubleBuffer precursorMzs;
+    /**
+     * The precursor intensities of the spectra.
+     */
+    private final DoubleBuffer precursorIntensities;
+    /**
+     * The precursor retention times of the spectra.
+     */
+    private final DoubleBuffer precursorRts;
+    /**
+     * The minimum of the precursor retention time window of the spectra.
+     */
+    private final DoubleBuffer precursorRtMins;
+    /**
+     * The maximum of the precursor retention time window of the spectra.
+     */
+    private final DoubleBuffer precursorRtMaxs;
+    /**
+     * The index of the first charge of every spectrum followed by the number
+     * of charges.
+     */
+    private final IntBuffer chargeOffsets;
+    /**
+     * The signs of the precursor charges.
+     */
+    private final IntBuffer chargeSigns;
+    /**
+     * The values of the precursor charges.
+     */
+    private final IntBuffer chargeValues;
+    /**
+     * The index of the first peak of every spectrum followed by the number of
+     * peaks.
+     */
+    private final LongBuffer peakOffsets;
+    /**
+     * The number of the first spectrum of every mapped segment of peaks.
+     */
+    private final int[] segmentFirstSpectrum;
+    /**
+     * The mapped segments of peaks.
+     */
+    private final DoubleBuffer[] segments;
+
+    /**
+     * Constructor.
+     *
+     * @param cmsFile the cms file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not a cms file of this version
+     */
+    public CmsFileReader(File cmsFile) throws IOException {
+
+        fileName = cmsFile.getName();
+        MappedFileReader reader = new MappedFileReader(cmsFile);
+
+        try {
+
+            if (reader.length() < 24 || reader.readLong() != CmsFileWriter.CMS_FILE_MAGIC || reader.readInt() != CmsFileWriter.CMS_FILE_VERSION) {
+                throw new IOException("Unsupported spectrum file format.");
+            }
+            reader.align(8);
+            long peaksPosition = reader.getPosition();
+
+            reader.seek(reader.length() - 8);
+            reader.seek(reader.readLong());
+
+            sourceFileName = reader.readString();
+            nSpectra = reader.readInt();
+            titleOffsets = reader.mapIntArray();
+            titles = reader.mapByteArray();
+            titleHashes = reader.mapLongArray();
+            titleHashOrder = reader.mapIntArray();
+            scanNumberOffsets = reader.mapIntArray();
+            scanNumbers = reader.mapByteArray();
+            flags = reader.mapByteArray();
+            levels = reader.mapIntArray();
+            scanStartTimes = reader.mapDoubleArray();
+            precursorMzs = reader.mapDoubleArray();
+            precursorIntensities = reader.mapDoubleArray();
+            precursorRts = reader.mapDoubleArray();
+            precursorRtMins = reader.mapDoubleArray();
+            precursorRtMaxs = reader.mapDoubleArray();
+            chargeOffsets = reader.mapIntArray();
+            chargeSigns = reader.mapIntArray();
+            chargeValues = reader.mapIntArray();
+            peakOffsets = reader.mapLongArray();
+
+            // map the peaks in segments starting at a spectrum
+            ArrayList<Integer> firstSpectra = new ArrayList<Integer>();
+            ArrayList<DoubleBuffer> mappedSegments = new ArrayList<DoubleBuffer>();
+            int first = 0;
+            while (first < nSpectra) {
+                long start = peakOffsets.get(first);
+                int end = first + 1;
+                while (end < nSpectra && 16 * (peakOffsets.get(end + 1) - start) <= MAX_SEGMENT_SIZE) {
+                    end++;
+                }
+                reader.seek(peaksPosition + 16 * start);
+                firstSpectra.add(first);
+                mappedSegments.add(reader.map(16 * (peakOffsets.get(end) - start)).asDoubleBuffer());
+                first = end;
+            }
+            segmentFirstSpectrum = new int[firstSpectra.size()];
+            for (int i = 0; i < segmentFirstSpectrum.length; i++) {
+                segmentFirstSpectrum[i] = firstSpectra.get(i);
+            }
+            segments = mappedSegments.toArray(new DoubleBuffer[mappedSegments.size()]);
+
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Returns the name of the cms file.
+     *
+     * @return the name of the cms file
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the name of the file the spectra were taken from.
+     *
+     * @return the name of the file the spectra were taken from
+     */
+    public String getSourceFileName() {
+        return sourceFileName;
+    }
+
+    /**
+     * Returns the number of spectra in the file.
+     *
+     * @return the number of spectra in the file
+     */
+    public int getNSpectra() {
+        return nSpectra;
+    }
+
+    /**
+     * Returns the titles of the spectra in the order of the file.
+     *
+     * @return the titles of the spectra
+     */
+    public ArrayList<String> getSpectrumTitles() {
+        ArrayList<String> result = new ArrayList<String>(nSpectra);
+        for (int i = 0; i < nSpectra; i++) {
+            result.add(getSpectrumTitle(i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the title of the spectrum of the given number, 0 being the
+     * first spectrum.
+     *
+     * @param number the number of the spectrum
+     *
+     * @return the title of the spectrum
+     */
+    public String getSpectrumTitle(int number) {
+        if (number < 0 || number >= nSpectra) {
+            throw new IndexOutOfBoundsException("Index: " + number + ", Size: " + nSpectra);
+        }
+        return getString(titles, titleOffsets, number);
+    }
+
+    /**
+     * Indicates whether the file contains a spectrum with the given title.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return a boolean indicating whether the file contains the spectrum
+     */
+    public boolean containsSpectrum(String spectrumTitle) {
+        return getSpectrumNumber(spectrumTitle) != -1;
+    }
+
+    /**
+     * Returns the number of the spectrum of the given title, -1 if not found.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the number of the spectrum
+     */
+    public int getSpectrumNumber(String spectrumTitle) {
+
+        long hash = MgfIndex.getTitleHash(spectrumTitle);
+        int low = 0;
+        int high = nSpectra;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (titleHashes.get(middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for (int i = low; i < nSpectra && titleHashes.get(i) == hash; i++) {
+            int number = titleHashOrder.get(i);
+            if (getSpectrumTitle(number).equals(spectrumTitle)) {
+                return number;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the spectrum of the given title. Null if not found.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the spectrum
+     */
+    public Spectrum getSpectrum(String spectrumTitle) {
+
+        int number = getSpectrumNumber(spectrumTitle);
+        if (number == -1) {
+            return null;
+        }
+
+        int level = levels.get(number);
+        double scanStartTime = scanStartTimes.get(number);
+        Spectrum spectrum;
+        if (level == 1) {
+            spectrum = new MS1Spectrum(fileName, spectrumTitle, scanStartTime, null);
+        } else {
+            spectrum = new MSnSpectrum(level, getPrecursor(number), spectrumTitle, fileName);
+            spectrum.setScanStartTime(scanStartTime);
+        }
+        if ((flags.get(number) & CmsFileWriter.SCAN_NUMBER_FLAG) != 0) {
+            spectrum.setScanNumber(getString(scanNumbers, scanNumberOffsets, number));
+        }
+
+        int segment = getSegment(number);
+        long segmentStart = peakOffsets.get(segmentFirstSpectrum[segment]);
+        long start = peakOffsets.get(number);
+        int nPeaks = (int) (peakOffsets.get(number + 1) - start);
+        double[] mzValues = new double[nPeaks];
+        double[] intensities = new double[nPeaks];
+        DoubleBuffer peaks = segments[segment].duplicate();
+        peaks.position((int) (2 * (start - segmentStart)));
+        peaks.get(mzValues);
+        peaks.get(intensities);
+        spectrum.setPeaks(mzValues, intensities);
+
+        return spectrum;
+    }
+
+    /**
+     * Returns the precursor of the spectrum of the given title without reading
+     * the peaks. Null if not found.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the precursor
+     *
+     * @throws IllegalArgumentException exception thrown if the spectrum is an
+     * MS1 spectrum
+     */
+    public Precursor getPrecursor(String spectrumTitle) throws IllegalArgumentException {
+
+        int number = getSpectrumNumber(spectrumTitle);
+        if (number == -1) {
+            return null;
+        }
+        if (levels.get(number) == 1) {
+            throw new IllegalArgumentException("MS1 spectrum");
+        }
+
+        return getPrecursor(number);
+    }
+
+    /**
+     * Returns the precursor m/z of the spectrum of the given title without
+     * creating the precursor. Null if the spectrum is not found or has no
+     * precursor.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the precursor m/z
+     */
+    public Double getPrecursorMz(String spectrumTitle) {
+
+        int number = getSpectrumNumber(spectrumTitle);
+        if (number == -1 || (flags.get(number) & CmsFileWriter.PRECURSOR_FLAG) == 0) {
+            return null;
+        }
+
+        return precursorMzs.get(number);
+    }
+
+    /**
+     * Returns the precursor of the spectrum of the given number, null if the
+     * spectrum has no precursor.
+     *
+     * @param number the number of the spectrum
+     *
+     * @return the precursor
+     */
+    private Precursor getPrecursor(int number) {
+
+        if ((flags.get(number) & CmsFileWriter.PRECURSOR_FLAG) == 0) {
+            return null;
+        }
+
+        int firstCharge = chargeOffsets.get(number);
+        int lastCharge = chargeOffsets.get(number + 1);
+        ArrayList<Charge> charges = new ArrayList<Charge>(lastCharge - firstCharge);
+        for (int i = firstCharge; i < lastCharge; i++) {
+            charges.add(new Charge(chargeSigns.get(i), chargeValues.get(i)));
+        }
+
+        return new Precursor(precursorRts.get(number), precursorMzs.get(number), precursorIntensities.get(number), charges,
+                precursorRtMins.get(number), precursorRtMaxs.get(number));
+    }
+
+    /**
+     * Returns the index of the segment containing the peaks of the given
+     * spectrum.
+     *
+     * @param number the number of the spectrum
+     *
+     * @return the index of the segment
+     */
+    private int getSegment(int number) {
+        int low = 0;
+        int high = segmentFirstSpectrum.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segmentFirstSpectrum[middle] <= number) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns a string from a blob of concatenated UTF-8 strings.
+     *
+     * @param blob the blob
+     * @param offsets the start of every string followed by the end of the
+     * last string
+     * @param number the number of the string
+     *
+     * @return the string
+     */
+    private static String getString(ByteBuffer blob, IntBuffer offsets, int number) {
+        int start = offsets.get(number);
+        int length = offsets.get(number + 1) - start;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = blob.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return MappedFileReader.getString(bytes, 0, length);
+    }
+}
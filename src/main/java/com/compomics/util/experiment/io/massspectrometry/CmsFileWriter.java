@@ -0,0 +1,393 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * Writer for cms files, a binary container of spectra which can be memory
+ * mapped by the CmsFileReader. The peaks of every spectrum are written as a
+ * contiguous block of m/z values followed by the intensities as they are
+ * added. The metadata of the spectra are stored in columns written at the end
+ * of the file together with the offset of the peaks of every spectrum.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileWriter {
+
+    /**
+     * Magic number at the beginning of the cms files.
+     */
+    static final long CMS_FILE_MAGIC = 0x31534d4353504d43L;
+    /**
+     * Version of the cms file format, to be incremented whenever the content
+     * of the file changes.
+     */
+    static final int CMS_FILE_VERSION = 1;
+    /**
+     * Flag set when the spectrum has a scan number.
+     */
+    static final byte SCAN_NUMBER_FLAG = 1;
+    /**
+     * Flag set when the spectrum has a precursor.
+     */
+    static final byte PRECURSOR_FLAG = 2;
+    /**
+     * The initial capacity of the columns.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The writer to the file.
+     */
+    private final BinaryFileWriter writer;
+    /**
+     * The name of the file the spectra were taken from.
+     */
+    private final String sourceFileName;
+    /**
+     * The number of spectra written.
+     */
+    private int nSpectra = 0;
+    /**
+     * The titles of the spectra.
+     */
+    private final ArrayList<String> titles = new ArrayList<String>(INITIAL_CAPACITY);
+    /**
+     * The scan numbers of the spectra.
+     */
+    private final ArrayList<String> scanNumbers = new ArrayList<String>(INITIAL_CAPACITY);
+    /**
+     * The flags of the spectra.
+     */
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    /**
+     * The MS levels of the spectra.
+     */
+    private int[] levels = new int[INITIAL_CAPACITY];
+    /**
+     * The scan start times of the spectra.
+     */
+    private double[] scanStartTimes = new double[INITIAL_CAPACITY];
+    /**
+     * The precursor m/z of the spectra.
+     */
+    private double[] precursorMzs = new double[INITIAL_CAPACITY];
+    /**
+     * The precursor intensities of the spectra.
+     */
+    private double[] precursorIntensities = new double[INITIAL_CAPACITY];
+    /**
+     * The precursor retention times of the spectra.
+     */
+    private double[] precursorRts = new double[INITIAL_CAPACITY];
+    /**
+     * The minimum of the precursor retention time window of the spectra.
+     */
+    private double[] precursorRtMins = new double[INITIAL_CAPACITY];
+    /**
+     * The maximum of the precursor retention time window of the spectra.
+     */
+    private double[] precursorRtMaxs = new double[INITIAL_CAPACITY];
+    /**
+     * The index of the first charge of every spectrum followed by the number
+     * of charges.
+     */
+    private int[] chargeOffsets = new int[INITIAL_CAPACITY + 1];
+    /**
+     * The signs of the precursor charges.
+     */
+    private int[] chargeSigns = new int[INITIAL_CAPACITY];
+    /**
+     * The values of the precursor charges.
+     */
+    private int[] chargeValues = new int[INITIAL_CAPACITY];
+    /**
+     * The number of charges written.
+     */
+    private int nCharges = 0;
+    /**
+     * The index of the first peak of every spectrum followed by the number of
+     * peaks.
+     */
+    private long[] peakOffsets = new long[INITIAL_CAPACITY + 1];
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the cms file to write
+     * @param sourceFileName the name of the file the spectra are taken from
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public CmsFileWriter(File destinationFile, String sourceFileName) throws IOException {
+        this.sourceFileName = sourceFileName;
+        writer = new BinaryFileWriter(destinationFile);
+        writer.writeLong(CMS_FILE_MAGIC);
+        writer.writeInt(CMS_FILE_VERSION);
+        writer.align(8);
+    }
+
+    /**
+     * Adds a spectrum to the file. The titles of the spectra must be unique.
+     *
+     * @param spectrum the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted while getting the peaks of the spectrum
+     */
+    public void addSpectrum(Spectrum spectrum) throws IOException, InterruptedException {
+
+        if (nSpectra == levels.length) {
+            grow();
+        }
+
+        titles.add(spectrum.getSpectrumTitle());
+        scanNumbers.add(spectrum.getScanNumber());
+        levels[nSpectra] = spectrum.getLevel();
+        scanStartTimes[nSpectra] = spectrum.getScanStartTime();
+
+        byte spectrumFlags = spectrum.getScanNumber() != null ? SCAN_NUMBER_FLAG : 0;
+        Precursor precursor = spectrum instanceof MSnSpectrum ? ((MSnSpectrum) spectrum).getPrecursor() : null;
+        if (precursor != null) {
+            spectrumFlags |= PRECURSOR_FLAG;
+            precursorMzs[nSpectra] = precursor.getMz();
+            precursorIntensities[nSpectra] = precursor.getIntensity();
+            precursorRts[nSpectra] = precursor.getRt();
+            double[] rtWindow = precursor.getRtWindow();
+            precursorRtMins[nSpectra] = rtWindow[0];
+            precursorRtMaxs[nSpectra] = rtWindow[1];
+            for (Charge charge : precursor.getPossibleCharges()) {
+                if (nCharges == chargeValues.length) {
+                    chargeSigns = Arrays.copyOf(chargeSigns, 2 * nCharges);
+                    chargeValues = Arrays.copyOf(chargeValues, 2 * nCharges);
+                }
+                chargeSigns[nCharges] = charge.sign;
+                chargeValues[nCharges] = charge.value;
+                nCharges++;
+            }
+        } else {
+            precursorMzs[nSpectra] = Double.NaN;
+            precursorIntensities[nSpectra] = Double.NaN;
+            precursorRts[nSpectra] = Double.NaN;
+            precursorRtMins[nSpectra] = Double.NaN;
+            precursorRtMaxs[nSpectra] = Double.NaN;
+        }
+        flags[nSpectra] = spectrumFlags;
+        chargeOffsets[nSpectra + 1] = nCharges;
+
+        double[] mzValues = spectrum.getMzValuesAsArray();
+        double[] intensities = spectrum.getIntensityValuesAsArray();
+        writer.writeDoubles(mzValues, 0, mzValues.length);
+        writer.writeDoubles(intensities, 0, intensities.length);
+        peakOffsets[nSpectra + 1] = peakOffsets[nSpectra] + mzValues.length;
+
+        nSpectra++;
+    }
+
+    /**
+     * Doubles the capacity of the columns.
+     */
+    private void grow() {
+        int capacity = 2 * levels.length;
+        flags = Arrays.copyOf(flags, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        scanStartTimes = Arrays.copyOf(scanStartTimes, capacity);
+        precursorMzs = Arrays.copyOf(precursorMzs, capacity);
+        precursorIntensities = Arrays.copyOf(precursorIntensities, capacity);
+        precursorRts = Arrays.copyOf(precursorRts, capacity);
+        precursorRtMins = Arrays.copyOf(precursorRtMins, capacity);
+        precursorRtMaxs = Arrays.copyOf(precursorRtMaxs, capacity);
+        chargeOffsets = Arrays.copyOf(chargeOffsets, capacity + 1);
+        peakOffsets = Arrays.copyOf(peakOffsets, capacity + 1);
+    }
+
+    /**
+     * Writes the metadata of the spectra and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+
+        long columnsPosition = writer.getPosition();
+
+        writer.writeString(sourceFileName);
+        writer.writeInt(nSpectra);
+
+        // titles as a UTF-8 blob with their hashes sorted for the lookups
+        int[] titleOffsets = new int[nSpectra + 1];
+        byte[][] titlesBytes = new byte[nSpectra][];
+        final long[] hashesByTitle = new long[nSpectra];
+        Integer[] order = new Integer[nSpectra];
+        for (int i = 0; i < nSpectra; i++) {
+            titlesBytes[i] = BinaryFileWriter.getBytes(titles.get(i));
+            titleOffsets[i + 1] = titleOffsets[i] + titlesBytes[i].length;
+            hashesByTitle[i] = MgfIndex.getTitleHash(titles.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long hash1 = hashesByTitle[o1];
+                long hash2 = hashesByTitle[o2];
+                return hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1);
+            }
+        });
+        long[] titleHashes = new long[nSpectra];
+        int[] titleHashOrder = new int[nSpectra];
+        for (int i = 0; i < nSpectra; i++) {
+            titleHashOrder[i] = order[i];
+            titleHashes[i] = hashesByTitle[titleHashOrder[i]];
+        }
+
+        writer.writeIntArray(titleOffsets);
+        writer.writeByteArray(concatenate(titlesBytes, titleOffsets[nSpectra]));
+        writer.writeLongArray(titleHashes);
+        writer.writeIntArray(titleHashOrder);
+
+        int[] scanNumberOffsets = new int[nSpectra + 1];
+        byte[][] scanNumbersBytes = new byte[nSpectra][];
+        for (int i = 0; i < nSpectra; i++) {
+            String scanNumber = scanNumbers.get(i);
+            scanNumbersBytes[i] = BinaryFileWriter.getBytes(scanNumber == null ? "" : scanNumber);
+            scanNumberOffsets[i + 1] = scanNumberOffsets[i] + scanNumbersBytes[i].length;
+        }
+        writer.writeIntArray(scanNumberOffsets);
+        writer.writeByteArray(concatenate(scanNumbersBytes, scanNumberOffsets[nSpectra]));
+
+        writer.writeByteArray(Arrays.copyOf(flags, nSpectra));
+        writer.writeIntArray(Arrays.copyOf(levels, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(scanStartTimes, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(precursorMzs, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(precursorIntensities, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(precursorRts, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(precursorRtMins, nSpectra));
+        writer.writeDoubleArray(Arrays.copyOf(precursorRtMaxs, nSpectra));
+        writer.writeIntArray(Arrays.copyOf(chargeOffsets, nSpectra + 1));
+        writer.writeIntArray(Arrays.copyOf(chargeSigns, nCharges));
+        writer.writeIntArray(Arrays.copyOf(chargeValues, nCharges));
+        writer.writeLongArray(Arrays.copyOf(peakOffsets, nSpectra + 1));
+
+        writer.writeLong(columnsPosition);
+        writer.close();
+    }
+
+    /**
+     * Closes the file without writing the metadata. The file is then not a
+     * valid cms file and should be deleted.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    private void discard() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Concatenates byte arrays.
+     *
+     * @param arrays the arrays
+     * @param length the total length of the arrays
+     *
+     * @return the concatenated arrays
+     */
+    private static byte[] concatenate(byte[][] arrays, int length) {
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, offset, array.length);
+            offset += array.length;
+        }
+        return result;
+    }
+
+    /**
+     * Writes all spectra of a file loaded in the spectrum factory to a cms
+     * file. The spectra are written to a temporary file in the destination
+     * folder which is renamed when complete, the destination file is not
+     * created if an error occurs or the process is canceled.
+     *
+     * @param spectrumFileName the name of the spectrum file as loaded in the
+     * factory
+     * @param destinationFile the cms file to write
+     * @param waitingHandler a waiting handler displaying progress to the user
+     * and allowing canceling the process, can be null
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading or writing a file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while reading an mzML file
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted
+     */
+    public static void writeCmsFile(String spectrumFileName, File destinationFile, WaitingHandler waitingHandler) throws IOException, MzMLUnmarshallerException, InterruptedException {
+
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        ArrayList<String> spectrumTitles = spectrumFactory.getSpectrumTitles(spectrumFileName);
+        if (spectrumTitles == null) {
+            throw new IllegalArgumentException("Spectrum file " + spectrumFileName + " not loaded.");
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(spectrumTitles.size());
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        File tempFile = File.createTempFile(destinationFile.getName(), ".tmp", destinationFile.getAbsoluteFile().getParentFile());
+
+        try {
+
+            CmsFileWriter cmsFileWriter = new CmsFileWriter(tempFile, spectrumFileName);
+            boolean complete = false;
+
+            try {
+                for (String spectrumTitle : spectrumTitles) {
+                    if (waitingHandler != null) {
+                        if (waitingHandler.isRunCanceled()) {
+                            break;
+                        }
+                        waitingHandler.increaseSecondaryProgressCounter();
+                    }
+                    cmsFileWriter.addSpectrum(spectrumFactory.getSpectrum(spectrumFileName, spectrumTitle, false));
+                }
+                complete = waitingHandler == null || !waitingHandler.isRunCanceled();
+            } finally {
+                if (complete) {
+                    cmsFileWriter.close();
+                } else {
+                    cmsFileWriter.discard();
+                }
+            }
+
+            if (complete && !tempFile.renameTo(destinationFile)) {
+                destinationFile.delete();
+                if (!tempFile.renameTo(destinationFile)) {
+                    throw new IOException("Impossible to write the cms file " + destinationFile.getAbsolutePath() + ".");
+                }
+            }
+
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 
 /**
  * An iterator of the spectra in an mgf file.
@@ -15,9 +16,17 @@ import java.io.IOException;
 public class MgfFileIterator {
 
     /**
-     * The reader going through the file.
+     * The reader going through the file when not an mgf file.
      */
     private BufferedReader br;
+    /**
+     * The random access file of the mgf file.
+     */
+    private RandomAccessFile randomAccessFile;
+    /**
+     * The parser going through the mgf file.
+     */
+    private MgfSpectrumParser mgfSpectrumParser;
     /**
      * The next spectrum in the file.
      */
@@ -45,12 +54,14 @@ public class MgfFileIterator {
      */
     public MgfFileIterator(File mgfFile) throws FileNotFoundException, IOException {
         mgfFileName = mgfFile.getName();
-        br = new BufferedReader(new FileReader(mgfFile));
 
         if (mgfFile.getName().endsWith("mgf")) {
-            nextSpectrum = MgfReader.getSpectrum(br, mgfFileName);
+            randomAccessFile = new RandomAccessFile(mgfFile, "r");
+            mgfSpectrumParser = new MgfSpectrumParser(randomAccessFile.getChannel(), 0, mgfFileName, 1024 * 1024);
+            nextSpectrum = mgfSpectrumParser.next();
         } else {
             //MspReader mspr=new MspReader();
+            br = new BufferedReader(new FileReader(mgfFile));
             nextSpectrum = MspReader.getSpectrum(br, mgfFileName);
         }
 
@@ -84,7 +95,7 @@ public class MgfFileIterator {
         if (!streamClosed) {
 
             if (mgfFileName.endsWith("mgf")) {
-                nextSpectrum = MgfReader.getSpectrum(br, mgfFileName);
+                nextSpectrum = mgfSpectrumParser.next();
             } else {
                 nextSpectrum = MspReader.getSpectrum(br, mgfFileName);
             }
@@ -94,7 +105,11 @@ public class MgfFileIterator {
 
         if (nextSpectrum == null) {
             if (!streamClosed) {
-                br.close();
+                if (randomAccessFile != null) {
+                    randomAccessFile.close();
+                } else {
+                    br.close();
+                }
                 streamClosed = true;
             }
         } else if (nextSpectrum.getScanNumber() == null) {
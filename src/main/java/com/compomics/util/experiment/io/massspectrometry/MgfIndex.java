@@ -1,12 +1,30 @@
 package com.compomics.util.experiment.io.massspectrometry;
 
 import com.compomics.util.experiment.personalization.ExperimentObject;
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * This class contains the indexes of an mgf file after indexing mapped with the
- * title of the spectrum.
+ * title of the spectrum. The index is stored in primitive arrays: the titles
+ * are concatenated in a single UTF-8 blob and found using their sorted
+ * hashes. When read from a file, the arrays are memory mapped and not copied
+ * to the heap. When serialized, the arrays are copied to the stream and read
+ * back in the heap.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
@@ -14,26 +32,57 @@ import java.util.HashMap;
 public class MgfIndex extends ExperimentObject {
 
     /**
-     * The map of all indexes: spectrum title &gt; index in the file.
+     * Magic number at the beginning of the index files.
      */
-    private HashMap<String, Long> indexMap;
+    private static final long INDEX_FILE_MAGIC = 0x3158444e4946474dL;
     /**
-     * A map of all the spectrum titles and which rank they have in the file,
-     * i.e., the first spectrum has rank 0, the second rank 1, etc.
+     * Version of the index file format, to be incremented whenever the
+     * content of the index changes.
      */
-    private HashMap<String, Integer> spectrumNumberIndexMap;
+    private static final int INDEX_FILE_VERSION = 1;
     /**
-     * List of spectrum titles.
+     * The number of spectrum titles.
      */
-    private ArrayList<String> spectrumTitles = null;
+    private int nTitles;
     /**
-     * Map of duplicated spectrum titles and how often they are duplicated.
+     * The hashes of the spectrum titles sorted in ascending order.
      */
-    private HashMap<String, Integer> duplicatedSpectrumTitles = null;
+    private transient LongBuffer titleHashes;
+    /**
+     * The number of the title corresponding to every hash.
+     */
+    private transient IntBuffer titleHashOrder;
+    /**
+     * The index in the file of every spectrum in the order of the titles.
+     */
+    private transient LongBuffer indexes;
+    /**
+     * The rank of every spectrum in the file in the order of the titles, i.e.,
+     * the first spectrum has rank 0, the second rank 1, etc. Null if not set.
+     */
+    private transient IntBuffer spectrumNumbers;
+    /**
+     * The start of every title in the titles blob followed by the end of the
+     * last title.
+     */
+    private transient IntBuffer titleOffsets;
+    /**
+     * The spectrum titles encoded in UTF-8 and concatenated.
+     */
+    private transient ByteBuffer titles;
+    /**
+     * The precursor m/z of every spectrum by rank in the file, NaN if not
+     * found. Null if not set.
+     */
+    private transient DoubleBuffer precursorMzs;
+    /**
+     * The spectrum titles in the order of the file, decoded upon request.
+     */
+    private transient volatile ArrayList<String> spectrumTitlesList = null;
     /**
-     * Map of the precursor mz values.
+     * Map of duplicated spectrum titles and how often they are duplicated.
      */
-    private HashMap<Integer, Double> precursorMzMap = null;
+    private HashMap<String, Integer> duplicatedSpectrumTitles = null;
     /**
      * The name of the indexed file.
      */
@@ -107,11 +156,107 @@ public class MgfIndex extends ExperimentObject {
     public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap, HashMap<Integer, Double> precursorMzMap,
             String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount, boolean peakPicked, boolean precursorChargesMissing,
             long lastModified) {
-        this.spectrumTitles = spectrumTitles;
-        this.duplicatedSpectrumTitles = null; //information not provided
-        this.indexMap = indexMap;
-        this.spectrumNumberIndexMap = spectrumNumberIndexMap;
-        this.precursorMzMap = precursorMzMap;
+        this(spectrumTitles, null, indexMap, spectrumNumberIndexMap, precursorMzMap, fileName, minRT, maxRT, maxMz, maxIntensity, maxCharge, maxPeakCount,
+                peakPicked, precursorChargesMissing, lastModified, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumTitles an ordered list of all spectrum titles
+     * @param duplicatedSpectrumTitles a map of duplicated spectrum titles, and
+     * how often each title is duplicated
+     * @param indexMap map of all indexes: spectrum title &gt; index in the file
+     * @param spectrumNumberIndexMap map of all spectrum index: spectrum title
+     * &gt; spectrum index in the file
+     * @param precursorMzMap map of the precursor mz values: spectrum index &gt;
+     * precursor mz
+     * @param fileName the mgf file name
+     * @param maxRT the maximum retention time
+     * @param minRT the minimum retention tome
+     * @param maxMz the maximum m/z value
+     * @param maxIntensity the maximum precursor intensity
+     * @param maxCharge the maximum peak precursor charge
+     * @param maxPeakCount the maximum peak count
+     * @param peakPicked indicates if the spectra seem to be peak picked or not
+     * @param precursorChargesMissing indicates if at least one spectrum is
+     * missing the precursor charge tag
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param spectrumCount the number of spectra in the file counted by the
+     * number of begin ion tags
+     */
+    public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap,
+            HashMap<Integer, Double> precursorMzMap, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
+            boolean peakPicked, boolean precursorChargesMissing, long lastModified, int spectrumCount) {
+        this(spectrumTitles, duplicatedSpectrumTitles, indexMap, spectrumNumberIndexMap, precursorMzMap, fileName, minRT, maxRT, maxMz, maxIntensity, maxCharge,
+                maxPeakCount, peakPicked, precursorChargesMissing, lastModified, Integer.valueOf(spectrumCount));
+    }
+
+    /**
+     * Constructor converting the maps of the index into arrays.
+     *
+     * @param spectrumTitles an ordered list of all spectrum titles
+     * @param duplicatedSpectrumTitles a map of duplicated spectrum titles, and
+     * how often each title is duplicated
+     * @param indexMap map of all indexes: spectrum title &gt; index in the file
+     * @param spectrumNumberIndexMap map of all spectrum index: spectrum title
+     * &gt; spectrum index in the file
+     * @param precursorMzMap map of the precursor mz values: spectrum index &gt;
+     * precursor mz
+     * @param fileName the mgf file name
+     * @param maxRT the maximum retention time
+     * @param minRT the minimum retention tome
+     * @param maxMz the maximum m/z value
+     * @param maxIntensity the maximum precursor intensity
+     * @param maxCharge the maximum peak precursor charge
+     * @param maxPeakCount the maximum peak count
+     * @param peakPicked indicates if the spectra seem to be peak picked or not
+     * @param precursorChargesMissing indicates if at least one spectrum is
+     * missing the precursor charge tag
+     * @param lastModified a long indicating the last time the indexed file was
+     * modified
+     * @param spectrumCount the number of spectra in the file counted by the
+     * number of begin ion tags, can be null
+     */
+    private MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap,
+            HashMap<Integer, Double> precursorMzMap, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
+            boolean peakPicked, boolean precursorChargesMissing, long lastModified, Integer spectrumCount) {
+
+        if (spectrumTitles == null) {
+            spectrumTitles = new ArrayList<String>(indexMap.keySet());
+        }
+
+        long[] indexesArray = new long[spectrumTitles.size()];
+        int[] spectrumNumbersArray = spectrumNumberIndexMap == null ? null : new int[spectrumTitles.size()];
+        for (int i = 0; i < spectrumTitles.size(); i++) {
+            String title = spectrumTitles.get(i);
+            indexesArray[i] = indexMap.get(title);
+            if (spectrumNumbersArray != null) {
+                Integer spectrumNumber = spectrumNumberIndexMap.get(title);
+                spectrumNumbersArray[i] = spectrumNumber == null ? -1 : spectrumNumber;
+            }
+        }
+
+        double[] precursorMzsArray = null;
+        if (precursorMzMap != null) {
+            int maxSpectrumNumber = -1;
+            for (int spectrumNumber : precursorMzMap.keySet()) {
+                if (spectrumNumber > maxSpectrumNumber) {
+                    maxSpectrumNumber = spectrumNumber;
+                }
+            }
+            precursorMzsArray = new double[maxSpectrumNumber + 1];
+            Arrays.fill(precursorMzsArray, Double.NaN);
+            for (Map.Entry<Integer, Double> entry : precursorMzMap.entrySet()) {
+                if (entry.getKey() >= 0 && entry.getValue() != null) {
+                    precursorMzsArray[entry.getKey()] = entry.getValue();
+                }
+            }
+        }
+
+        setIndexes(spectrumTitles.toArray(new String[spectrumTitles.size()]), indexesArray, spectrumNumbersArray, precursorMzsArray);
+        this.duplicatedSpectrumTitles = duplicatedSpectrumTitles;
         this.fileName = fileName;
         this.maxRT = maxRT;
         this.minRT = minRT;
@@ -122,19 +267,21 @@ public class MgfIndex extends ExperimentObject {
         this.peakPicked = peakPicked;
         this.precursorChargesMissing = precursorChargesMissing;
         this.lastModified = lastModified;
+        this.spectrumCount = spectrumCount;
     }
 
     /**
      * Constructor.
      *
-     * @param spectrumTitles an ordered list of all spectrum titles
+     * @param spectrumTitles all spectrum titles in the order of the file
      * @param duplicatedSpectrumTitles a map of duplicated spectrum titles, and
      * how often each title is duplicated
-     * @param indexMap map of all indexes: spectrum title &gt; index in the file
-     * @param spectrumNumberIndexMap map of all spectrum index: spectrum title
-     * &gt; spectrum index in the file
-     * @param precursorMzMap map of the precursor mz values: spectrum index &gt;
-     * precursor mz
+     * @param indexes the index in the file of every spectrum in the order of
+     * the titles
+     * @param spectrumNumbers the rank in the file of every spectrum in the
+     * order of the titles, 0 for the first spectrum
+     * @param precursorMzs the precursor m/z of every spectrum by rank in the
+     * file, NaN if not found
      * @param fileName the mgf file name
      * @param maxRT the maximum retention time
      * @param minRT the minimum retention tome
@@ -150,14 +297,11 @@ public class MgfIndex extends ExperimentObject {
      * @param spectrumCount the number of spectra in the file counted by the
      * number of begin ion tags
      */
-    public MgfIndex(ArrayList<String> spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, HashMap<String, Long> indexMap, HashMap<String, Integer> spectrumNumberIndexMap,
-            HashMap<Integer, Double> precursorMzMap, String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
+    public MgfIndex(String[] spectrumTitles, HashMap<String, Integer> duplicatedSpectrumTitles, long[] indexes, int[] spectrumNumbers, double[] precursorMzs,
+            String fileName, double minRT, double maxRT, double maxMz, double maxIntensity, int maxCharge, int maxPeakCount,
             boolean peakPicked, boolean precursorChargesMissing, long lastModified, int spectrumCount) {
-        this.spectrumTitles = spectrumTitles;
+        setIndexes(spectrumTitles, indexes, spectrumNumbers, precursorMzs);
         this.duplicatedSpectrumTitles = duplicatedSpectrumTitles;
-        this.indexMap = indexMap;
-        this.spectrumNumberIndexMap = spectrumNumberIndexMap;
-        this.precursorMzMap = precursorMzMap;
         this.fileName = fileName;
         this.maxRT = maxRT;
         this.minRT = minRT;
@@ -171,6 +315,286 @@ public class MgfIndex extends ExperimentObject {
         this.spectrumCount = spectrumCount;
     }
 
+    /**
+     * Constructor reading an index written by the write method. The arrays
+     * of the index are memory mapped, they remain valid after the reader is
+     * closed.
+     *
+     * @param reader the reader positioned at the beginning of the index
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not an index of this version
+     */
+    public MgfIndex(MappedFileReader reader) throws IOException {
+
+        if (reader.readLong() != INDEX_FILE_MAGIC || reader.readInt() != INDEX_FILE_VERSION) {
+            throw new IOException("Unsupported spectrum index format.");
+        }
+
+        fileName = reader.readString();
+        lastModified = reader.readLong();
+        minRT = readNullableDouble(reader);
+        maxRT = readNullableDouble(reader);
+        maxMz = readNullableDouble(reader);
+        maxIntensity = readNullableDouble(reader);
+        maxCharge = readNullableInt(reader);
+        maxPeakCount = readNullableInt(reader);
+        spectrumCount = readNullableInt(reader);
+        peakPicked = readNullableBoolean(reader);
+        precursorChargesMissing = readNullableBoolean(reader);
+
+        int nDuplicates = reader.readInt();
+        if (nDuplicates != BinaryFileWriter.NULL_LENGTH) {
+            duplicatedSpectrumTitles = new HashMap<String, Integer>(nDuplicates);
+            for (int i = 0; i < nDuplicates; i++) {
+                String title = reader.readString();
+                duplicatedSpectrumTitles.put(title, reader.readInt());
+            }
+        }
+
+        nTitles = reader.readInt();
+        titleHashes = reader.mapLongArray();
+        titleHashOrder = reader.mapIntArray();
+        indexes = reader.mapLongArray();
+        spectrumNumbers = reader.mapIntArray();
+        titleOffsets = reader.mapIntArray();
+        titles = reader.mapByteArray();
+        precursorMzs = reader.mapDoubleArray();
+    }
+
+    /**
+     * Returns the last modification time of the indexed file as saved in an
+     * index file written by the write method. Only the header of the file is
+     * read, the file is not memory mapped.
+     *
+     * @param indexFile the index file
+     *
+     * @return the last time the indexed file was modified
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file or if the file is not an index of this version
+     */
+    public static long getLastModified(File indexFile) throws IOException {
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+
+        try {
+            byte[] header = new byte[16];
+            randomAccessFile.readFully(header);
+            ByteBuffer buffer = ByteBuffer.wrap(header).order(BinaryFileWriter.BYTE_ORDER);
+
+            if (buffer.getLong() != INDEX_FILE_MAGIC || buffer.getInt() != INDEX_FILE_VERSION) {
+                throw new IOException("Unsupported spectrum index format.");
+            }
+
+            int fileNameLength = buffer.getInt();
+            if (fileNameLength != BinaryFileWriter.NULL_LENGTH) {
+                randomAccessFile.seek(header.length + fileNameLength);
+            }
+
+            byte[] lastModifiedBytes = new byte[8];
+            randomAccessFile.readFully(lastModifiedBytes);
+            return ByteBuffer.wrap(lastModifiedBytes).order(BinaryFileWriter.BYTE_ORDER).getLong();
+
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Writes the index in a binary format which can be memory mapped.
+     *
+     * @param writer the writer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void write(BinaryFileWriter writer) throws IOException {
+
+        writer.writeLong(INDEX_FILE_MAGIC);
+        writer.writeInt(INDEX_FILE_VERSION);
+        writer.writeString(fileName);
+        writer.writeLong(lastModified == null ? 0 : lastModified);
+        writeNullableDouble(writer, minRT);
+        writeNullableDouble(writer, maxRT);
+        writeNullableDouble(writer, maxMz);
+        writeNullableDouble(writer, maxIntensity);
+        writeNullableInt(writer, maxCharge);
+        writeNullableInt(writer, maxPeakCount);
+        writeNullableInt(writer, spectrumCount);
+        writeNullableBoolean(writer, peakPicked);
+        writeNullableBoolean(writer, precursorChargesMissing);
+
+        if (duplicatedSpectrumTitles == null) {
+            writer.writeInt(BinaryFileWriter.NULL_LENGTH);
+        } else {
+            writer.writeInt(duplicatedSpectrumTitles.size());
+            for (Map.Entry<String, Integer> entry : duplicatedSpectrumTitles.entrySet()) {
+                writer.writeString(entry.getKey());
+                writer.writeInt(entry.getValue());
+            }
+        }
+
+        writer.writeInt(nTitles);
+        writer.writeLongArray(toArray(titleHashes));
+        writer.writeIntArray(toArray(titleHashOrder));
+        writer.writeLongArray(toArray(indexes));
+        writer.writeIntArray(toArray(spectrumNumbers));
+        writer.writeIntArray(toArray(titleOffsets));
+        writer.writeByteArray(toArray(titles));
+        writer.writeDoubleArray(toArray(precursorMzs));
+    }
+
+    /**
+     * Serializes the index, the arrays are written after the other fields.
+     *
+     * @param out the object output stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the object
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(toArray(titleHashes));
+        out.writeObject(toArray(titleHashOrder));
+        out.writeObject(toArray(indexes));
+        out.writeObject(toArray(spectrumNumbers));
+        out.writeObject(toArray(titleOffsets));
+        out.writeObject(toArray(titles));
+        out.writeObject(toArray(precursorMzs));
+    }
+
+    /**
+     * Deserializes an index written by writeObject.
+     *
+     * @param in the object input stream
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the object
+     * @throws ClassNotFoundException exception thrown whenever an error
+     * occurred while deserializing the object
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        titleHashes = LongBuffer.wrap((long[]) in.readObject());
+        titleHashOrder = IntBuffer.wrap((int[]) in.readObject());
+        indexes = LongBuffer.wrap((long[]) in.readObject());
+        int[] spectrumNumbersArray = (int[]) in.readObject();
+        spectrumNumbers = spectrumNumbersArray == null ? null : IntBuffer.wrap(spectrumNumbersArray);
+        titleOffsets = IntBuffer.wrap((int[]) in.readObject());
+        titles = ByteBuffer.wrap((byte[]) in.readObject());
+        double[] precursorMzsArray = (double[]) in.readObject();
+        precursorMzs = precursorMzsArray == null ? null : DoubleBuffer.wrap(precursorMzsArray);
+    }
+
+    /**
+     * Sets the arrays of the index.
+     *
+     * @param spectrumTitles all spectrum titles in the order of the file
+     * @param indexesArray the index in the file of every spectrum in the order
+     * of the titles
+     * @param spectrumNumbersArray the rank in the file of every spectrum in
+     * the order of the titles, can be null
+     * @param precursorMzsArray the precursor m/z of every spectrum by rank in
+     * the file, can be null
+     */
+    private void setIndexes(String[] spectrumTitles, long[] indexesArray, int[] spectrumNumbersArray, double[] precursorMzsArray) {
+
+        nTitles = spectrumTitles.length;
+
+        int[] offsetsArray = new int[nTitles + 1];
+        byte[][] titlesBytes = new byte[nTitles][];
+        int length = 0;
+        for (int i = 0; i < nTitles; i++) {
+            titlesBytes[i] = BinaryFileWriter.getBytes(spectrumTitles[i]);
+            offsetsArray[i] = length;
+            length += titlesBytes[i].length;
+        }
+        offsetsArray[nTitles] = length;
+        byte[] titlesArray = new byte[length];
+        for (int i = 0; i < nTitles; i++) {
+            System.arraycopy(titlesBytes[i], 0, titlesArray, offsetsArray[i], titlesBytes[i].length);
+        }
+
+        final long[] hashesByTitle = new long[nTitles];
+        Integer[] order = new Integer[nTitles];
+        for (int i = 0; i < nTitles; i++) {
+            hashesByTitle[i] = getTitleHash(spectrumTitles[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                long hash1 = hashesByTitle[o1];
+                long hash2 = hashesByTitle[o2];
+                return hash1 < hash2 ? -1 : (hash1 == hash2 ? 0 : 1);
+            }
+        });
+        long[] hashesArray = new long[nTitles];
+        int[] orderArray = new int[nTitles];
+        for (int i = 0; i < nTitles; i++) {
+            orderArray[i] = order[i];
+            hashesArray[i] = hashesByTitle[orderArray[i]];
+        }
+
+        titleHashes = LongBuffer.wrap(hashesArray);
+        titleHashOrder = IntBuffer.wrap(orderArray);
+        indexes = LongBuffer.wrap(indexesArray);
+        spectrumNumbers = spectrumNumbersArray == null ? null : IntBuffer.wrap(spectrumNumbersArray);
+        titleOffsets = IntBuffer.wrap(offsetsArray);
+        titles = ByteBuffer.wrap(titlesArray);
+        precursorMzs = precursorMzsArray == null ? null : DoubleBuffer.wrap(precursorMzsArray);
+    }
+
+    /**
+     * Returns the hash of a spectrum title. The hash is computed on the
+     * characters of the title using the 64 bits FNV-1a algorithm.
+     *
+     * @param title the spectrum title
+     *
+     * @return the hash of the title
+     */
+    public static long getTitleHash(String title) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < title.length(); i++) {
+            hash ^= title.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of the given title in the list of titles, -1 if not
+     * found.
+     *
+     * @param spectrumTitle the spectrum title
+     *
+     * @return the number of the title
+     */
+    private int getTitleNumber(String spectrumTitle) {
+
+        long hash = getTitleHash(spectrumTitle);
+        int low = 0;
+        int high = nTitles;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (titleHashes.get(middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        for (int i = low; i < nTitles && titleHashes.get(i) == hash; i++) {
+            int titleNumber = titleHashOrder.get(i);
+            if (getSpectrumTitle(titleNumber).equals(spectrumTitle)) {
+                return titleNumber;
+            }
+        }
+
+        return -1;
+    }
+
     /**
      * Returns the index corresponding to the desired spectrum.
      *
@@ -178,7 +602,11 @@ public class MgfIndex extends ExperimentObject {
      * @return the corresponding index
      */
     public Long getIndex(String spectrumTitle) {
-        return indexMap.get(spectrumTitle);
+        int titleNumber = getTitleNumber(spectrumTitle);
+        if (titleNumber == -1) {
+            return null;
+        }
+        return indexes.get(titleNumber);
     }
 
     /**
@@ -191,16 +619,16 @@ public class MgfIndex extends ExperimentObject {
      */
     public Integer getSpectrumIndex(String spectrumTitle) {
 
-        if (spectrumNumberIndexMap == null) {
+        if (spectrumNumbers == null) {
             return null;
         }
 
-        Integer index = spectrumNumberIndexMap.get(spectrumTitle);
+        int titleNumber = getTitleNumber(spectrumTitle);
 
-        if (index == null) {
+        if (titleNumber == -1) {
             return -1;
         } else {
-            return index;
+            return spectrumNumbers.get(titleNumber);
         }
     }
 
@@ -214,13 +642,13 @@ public class MgfIndex extends ExperimentObject {
      */
     public Double getPrecursorMz(int spectrumIndex) {
 
-        if (precursorMzMap == null) {
+        if (precursorMzs == null || spectrumIndex < 0 || spectrumIndex >= precursorMzs.limit()) {
             return null;
         }
 
-        Double mz = precursorMzMap.get(spectrumIndex);
+        double mz = precursorMzs.get(spectrumIndex);
 
-        if (mz == null) {
+        if (Double.isNaN(mz)) {
             return null;
         } else {
             return mz;
@@ -236,7 +664,16 @@ public class MgfIndex extends ExperimentObject {
      * @return the title of the spectrum of interest
      */
     public String getSpectrumTitle(int number) {
-        return spectrumTitles.get(number);
+        if (number < 0 || number >= nTitles) {
+            throw new IndexOutOfBoundsException("Index: " + number + ", Size: " + nTitles);
+        }
+        int start = titleOffsets.get(number);
+        int length = titleOffsets.get(number + 1) - start;
+        byte[] bytes = new byte[length];
+        ByteBuffer view = titles.duplicate();
+        view.position(start);
+        view.get(bytes);
+        return MappedFileReader.getString(bytes, 0, length);
     }
 
     /**
@@ -248,20 +685,35 @@ public class MgfIndex extends ExperimentObject {
      * this index
      */
     public boolean containsSpectrum(String spectrumTitle) {
-        return indexMap.containsKey(spectrumTitle);
+        return getTitleNumber(spectrumTitle) != -1;
     }
 
     /**
-     * Returns an ordered list of all spectrum titles.
+     * Returns an ordered list of all spectrum titles. The titles are decoded
+     * upon first call and kept in cache, for large files prefer iterating the
+     * titles using getSpectrumTitle(int).
      *
      * @return an ordered list of all spectrum titles
      */
     public ArrayList<String> getSpectrumTitles() {
-        if (spectrumTitles != null) {
-            return spectrumTitles;
-        } else {
-            return new ArrayList<String>(indexMap.keySet());
+        ArrayList<String> result = spectrumTitlesList;
+        if (result == null) {
+            result = new ArrayList<String>(nTitles);
+            for (int i = 0; i < nTitles; i++) {
+                result.add(getSpectrumTitle(i));
+            }
+            spectrumTitlesList = result;
         }
+        return result;
+    }
+
+    /**
+     * Returns the number of spectrum titles in the index.
+     *
+     * @return the number of spectrum titles in the index
+     */
+    public int getNTitles() {
+        return nTitles;
     }
 
     /**
@@ -397,7 +849,7 @@ public class MgfIndex extends ExperimentObject {
      */
     public int getNSpectra() {
         if (spectrumCount == null) {
-            spectrumCount = spectrumTitles.size();
+            spectrumCount = nTitles;
         }
         return spectrumCount;
     }
@@ -453,4 +905,154 @@ public class MgfIndex extends ExperimentObject {
     public void setPrecursorChargesMissing(Boolean precursorChargesMissing) {
         this.precursorChargesMissing = precursorChargesMissing;
     }
+
+    /**
+     * Writes a double which can be null, as NaN.
+     *
+     * @param writer the writer
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeNullableDouble(BinaryFileWriter writer, Double value) throws IOException {
+        writer.writeDouble(value == null ? Double.NaN : value);
+    }
+
+    /**
+     * Reads a double written by writeNullableDouble.
+     *
+     * @param reader the reader
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static Double readNullableDouble(MappedFileReader reader) throws IOException {
+        double value = reader.readDouble();
+        return Double.isNaN(value) ? null : value;
+    }
+
+    /**
+     * Writes an integer which can be null.
+     *
+     * @param writer the writer
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeNullableInt(BinaryFileWriter writer, Integer value) throws IOException {
+        writer.writeBoolean(value != null);
+        writer.writeInt(value == null ? 0 : value);
+    }
+
+    /**
+     * Reads an integer written by writeNullableInt.
+     *
+     * @param reader the reader
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static Integer readNullableInt(MappedFileReader reader) throws IOException {
+        boolean isSet = reader.readBoolean();
+        int value = reader.readInt();
+        return isSet ? value : null;
+    }
+
+    /**
+     * Writes a boolean which can be null.
+     *
+     * @param writer the writer
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private static void writeNullableBoolean(BinaryFileWriter writer, Boolean value) throws IOException {
+        writer.writeByte(value == null ? -1 : (value ? (byte) 1 : (byte) 0));
+    }
+
+    /**
+     * Reads a boolean written by writeNullableBoolean.
+     *
+     * @param reader the reader
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private static Boolean readNullableBoolean(MappedFileReader reader) throws IOException {
+        byte value = reader.readByte();
+        return value == -1 ? null : value == 1;
+    }
+
+    /**
+     * Copies the content of a buffer to an array.
+     *
+     * @param buffer the buffer, can be null
+     *
+     * @return the content of the buffer as array, null if the buffer is null
+     */
+    private static long[] toArray(LongBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        long[] array = new long[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    /**
+     * Copies the content of a buffer to an array.
+     *
+     * @param buffer the buffer, can be null
+     *
+     * @return the content of the buffer as array, null if the buffer is null
+     */
+    private static int[] toArray(IntBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        int[] array = new int[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    /**
+     * Copies the content of a buffer to an array.
+     *
+     * @param buffer the buffer, can be null
+     *
+     * @return the content of the buffer as array, null if the buffer is null
+     */
+    private static double[] toArray(DoubleBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        double[] array = new double[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    /**
+     * Copies the content of a buffer to an array.
+     *
+     * @param buffer the buffer, can be null
+     *
+     * @return the content of the buffer as array, null if the buffer is null
+     */
+    private static byte[] toArray(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        byte[] array = new byte[buffer.limit()];
+        buffer.duplicate().get(array);
+        return array;
+    }
 }
@@ -0,0 +1,592 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.waiting.WaitingHandler;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexer for mgf files. The file is split in byte ranges which are scanned
+ * in parallel. Every range is resynchronized on the first BEGIN IONS line it
+ * contains and the spectra starting in the range are indexed from the raw
+ * bytes, strings are only created for the header lines. The results of the
+ * ranges are merged in the order of the file so that duplicated titles are
+ * handled as when reading the file sequentially.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfIndexer {
+
+    /**
+     * The default minimal size of the byte ranges scanned by every thread.
+     */
+    public static final long DEFAULT_MIN_CHUNK_SIZE = 16 * 1024 * 1024;
+    /**
+     * The size of the read buffer of every thread in bytes.
+     */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    /**
+     * The initial size of the arrays used to collect the indexes.
+     */
+    private static final int INITIAL_ARRAY_SIZE = 1024;
+    /**
+     * The mgf file to index.
+     */
+    private final File mgfFile;
+    /**
+     * The number of threads to use.
+     */
+    private final int nThreads;
+    /**
+     * The minimal size of the byte ranges scanned by every thread.
+     */
+    private final long minChunkSize;
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file to index
+     * @param nThreads the number of threads to use
+     */
+    public MgfIndexer(File mgfFile, int nThreads) {
+        this(mgfFile, nThreads, DEFAULT_MIN_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mgfFile the mgf file to index
+     * @param nThreads the number of threads to use
+     * @param minChunkSize the minimal size of the byte ranges scanned by every
+     * thread
+     */
+    public MgfIndexer(File mgfFile, int nThreads, long minChunkSize) {
+        this.mgfFile = mgfFile;
+        this.nThreads = Math.max(1, nThreads);
+        this.minChunkSize = Math.max(1, minChunkSize);
+    }
+
+    /**
+     * Returns the index of all spectra in the mgf file.
+     *
+     * @param waitingHandler a waitingHandler showing the progress, can be null
+     *
+     * @return the index of all spectra
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public MgfIndex getIndex(final WaitingHandler waitingHandler) throws IOException {
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
+            waitingHandler.setMaxSecondaryProgressCounter(100);
+            waitingHandler.setSecondaryProgressCounter(0);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        ArrayList<Chunk> chunks = new ArrayList<Chunk>();
+
+        try {
+
+            final FileChannel fileChannel = randomAccessFile.getChannel();
+            long fileLength = fileChannel.size();
+            int nChunks = (int) Math.max(1, Math.min(4L * nThreads, fileLength / minChunkSize));
+            long chunkSize = fileLength / nChunks + 1;
+            final AtomicLong progress = new AtomicLong(0);
+
+            for (int i = 0; i < nChunks; i++) {
+                long start = Math.min(i * chunkSize, fileLength);
+                long end = Math.min(start + chunkSize, fileLength);
+                chunks.add(new Chunk(fileChannel, start, end, i == 0, progress, waitingHandler));
+            }
+
+            if (chunks.size() == 1) {
+                chunks.get(0).call();
+            } else {
+                ExecutorService pool = Executors.newFixedThreadPool(Math.min(nThreads, nChunks));
+                try {
+                    ArrayList<Future<Chunk>> futures = new ArrayList<Future<Chunk>>(nChunks);
+                    for (Chunk chunk : chunks) {
+                        futures.add(pool.submit(chunk));
+                    }
+                    long progressUnit = Math.max(1, fileLength / 100);
+                    for (Future<Chunk> future : futures) {
+                        while (!waitForChunk(future)) {
+                            if (waitingHandler != null) {
+                                waitingHandler.setSecondaryProgressCounter((int) (progress.get() / progressUnit));
+                            }
+                        }
+                    }
+                } finally {
+                    pool.shutdownNow();
+                }
+            }
+
+        } finally {
+            randomAccessFile.close();
+        }
+
+        if (waitingHandler != null) {
+            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
+        }
+
+        return mergeChunks(chunks);
+    }
+
+    /**
+     * Waits for a chunk to be indexed for a limited time and rethrows the
+     * exceptions encountered while indexing.
+     *
+     * @param future the future of the chunk
+     *
+     * @return true if the chunk was indexed
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file or if the thread is interrupted
+     */
+    private boolean waitForChunk(Future<Chunk> future) throws IOException {
+        try {
+            future.get(100, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while indexing " + mgfFile.getName() + ".");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Merges the indexes of the chunks in the order of the file.
+     *
+     * @param chunks the indexed chunks
+     *
+     * @return the index of the file
+     */
+    private MgfIndex mergeChunks(ArrayList<Chunk> chunks) {
+
+        int nSpectra = 0;
+        int nTitles = 0;
+        for (Chunk chunk : chunks) {
+            nSpectra += chunk.nSpectra;
+            nTitles += chunk.titles.size();
+        }
+
+        String[] spectrumTitles = new String[nTitles];
+        long[] indexes = new long[nTitles];
+        int[] spectrumIndexes = new int[nTitles];
+        double[] precursorMzs = new double[nSpectra];
+        HashSet<String> spectrumTitlesSet = new HashSet<String>(nTitles);
+        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
+        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
+        int maxCharge = 0, maxPeakCount = 0;
+        boolean peakPicked = true;
+        boolean precursorChargesMissing = false;
+
+        int titleNumber = 0;
+        int spectrumOffset = 0;
+
+        for (Chunk chunk : chunks) {
+
+            for (int i = 0; i < chunk.titles.size(); i++) {
+                String title = chunk.titles.get(i);
+                Integer nDuplicates = duplicateTitles.get(title);
+                if (nDuplicates != null || spectrumTitlesSet.contains(title)) {
+                    if (nDuplicates == null) {
+                        nDuplicates = 0;
+                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
+                    }
+                    duplicateTitles.put(title, ++nDuplicates);
+                    title += "_" + nDuplicates;
+                }
+                spectrumTitlesSet.add(title);
+                spectrumTitles[titleNumber] = title;
+                indexes[titleNumber] = chunk.indexes[i];
+                spectrumIndexes[titleNumber] = spectrumOffset + chunk.spectrumIndexes[i];
+                titleNumber++;
+            }
+
+            System.arraycopy(chunk.precursorMzs, 0, precursorMzs, spectrumOffset, chunk.nSpectra);
+            spectrumOffset += chunk.nSpectra;
+
+            maxRT = Math.max(maxRT, chunk.maxRT);
+            minRT = Math.min(minRT, chunk.minRT);
+            maxMz = Math.max(maxMz, chunk.maxMz);
+            maxIntensity = Math.max(maxIntensity, chunk.maxIntensity);
+            maxCharge = Math.max(maxCharge, chunk.maxCharge);
+            maxPeakCount = Math.max(maxPeakCount, chunk.maxPeakCount);
+            peakPicked = peakPicked && chunk.peakPicked;
+            precursorChargesMissing = precursorChargesMissing || chunk.precursorChargesMissing;
+        }
+
+        if (minRT == Double.MAX_VALUE) {
+            minRT = 0;
+        }
+
+        return new MgfIndex(spectrumTitles, duplicateTitles, indexes, spectrumIndexes, precursorMzs, mgfFile.getName(), minRT, maxRT,
+                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), nSpectra);
+    }
+
+    /**
+     * A byte range of the file and its index. A chunk indexes the spectra
+     * whose BEGIN IONS line starts in the range, reading after the end of the
+     * range if needed.
+     */
+    private static class Chunk implements Callable<Chunk> {
+
+        /**
+         * The start of the range.
+         */
+        private final long start;
+        /**
+         * The end of the range.
+         */
+        private final long end;
+        /**
+         * Indicates whether this is the first chunk of the file, in which case
+         * the lines before the first spectrum are also parsed.
+         */
+        private final boolean first;
+        /**
+         * The number of bytes indexed by all chunks.
+         */
+        private final AtomicLong progress;
+        /**
+         * The waiting handler, can be null.
+         */
+        private final WaitingHandler waitingHandler;
+        /**
+         * The reader going through the lines of the chunk.
+         */
+        private final MgfLineReader lineReader;
+        /**
+         * The index in the file of the current spectrum, i.e., the position
+         * following the last BEGIN IONS line.
+         */
+        private long spectrumStart = 0;
+        /**
+         * The titles of the spectra in the order of the file.
+         */
+        private final ArrayList<String> titles = new ArrayList<String>();
+        /**
+         * The index in the file of the spectra in the order of the titles.
+         */
+        private long[] indexes = new long[INITIAL_ARRAY_SIZE];
+        /**
+         * The rank of the spectra in the chunk in the order of the titles.
+         */
+        private int[] spectrumIndexes = new int[INITIAL_ARRAY_SIZE];
+        /**
+         * The precursor m/z of the spectra by rank in the chunk.
+         */
+        private double[] precursorMzs = new double[INITIAL_ARRAY_SIZE];
+        /**
+         * The number of spectra found in the chunk.
+         */
+        private int nSpectra = 0;
+        /**
+         * The maximal retention time.
+         */
+        private double maxRT = -1;
+        /**
+         * The minimal retention time.
+         */
+        private double minRT = Double.MAX_VALUE;
+        /**
+         * The maximal precursor m/z.
+         */
+        private double maxMz = -1;
+        /**
+         * The maximal precursor intensity.
+         */
+        private double maxIntensity = 0;
+        /**
+         * The maximal charge.
+         */
+        private int maxCharge = 0;
+        /**
+         * The maximal number of peaks.
+         */
+        private int maxPeakCount = 0;
+        /**
+         * Indicates whether the spectra seem to be peak picked.
+         */
+        private boolean peakPicked = true;
+        /**
+         * Indicates whether a spectrum is missing the charge tag.
+         */
+        private boolean precursorChargesMissing = false;
+
+        /**
+         * Constructor.
+         *
+         * @param fileChannel the channel to the file
+         * @param start the start of the range
+         * @param end the end of the range
+         * @param first indicates whether this is the first chunk of the file
+         * @param progress the number of bytes indexed by all chunks
+         * @param waitingHandler the waiting handler, can be null
+         */
+        public Chunk(FileChannel fileChannel, long start, long end, boolean first, AtomicLong progress, WaitingHandler waitingHandler) {
+            this.start = start;
+            this.end = end;
+            this.first = first;
+            this.progress = progress;
+            this.waitingHandler = waitingHandler;
+            lineReader = new MgfLineReader(fileChannel, start, BUFFER_SIZE);
+            Arrays.fill(precursorMzs, Double.NaN);
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+
+            // skip the end of the line preceding the range
+            lineReader.skipToLineStart();
+
+            // resynchronize on the first spectrum of the range
+            if (!first) {
+                while (true) {
+                    if (!lineReader.nextLine() || lineReader.getLinePosition() >= end) {
+                        return this;
+                    }
+                    if (lineReader.lineEquals(MgfLineReader.BEGIN_IONS)) {
+                        break;
+                    }
+                }
+            } else if (!lineReader.nextLine()) {
+                return this;
+            }
+
+            String title = null;
+            boolean insideSpectrum = false;
+            boolean chargeTagFound = false;
+            int peakCount = 0;
+            long lastProgress = start;
+
+            do {
+
+                if (lineReader.lineEquals(MgfLineReader.BEGIN_IONS)) {
+                    long linePosition = lineReader.getLinePosition();
+                    if (linePosition >= end) {
+                        break;
+                    }
+                    insideSpectrum = true;
+                    chargeTagFound = false;
+                    spectrumStart = lineReader.getNextLinePosition();
+                    nSpectra++;
+                    if (nSpectra > precursorMzs.length) {
+                        int previousLength = precursorMzs.length;
+                        precursorMzs = Arrays.copyOf(precursorMzs, 2 * previousLength);
+                        Arrays.fill(precursorMzs, previousLength, precursorMzs.length, Double.NaN);
+                    }
+                    peakCount = 0;
+                    progress.addAndGet(linePosition - lastProgress);
+                    lastProgress = linePosition;
+                    if (waitingHandler != null && waitingHandler.isRunCanceled()) {
+                        break;
+                    }
+                } else if (lineReader.lineStartsWith(MgfLineReader.TITLE)) {
+                    title = decodeTitle(lineReader.getLineAsString());
+                    addTitle(title);
+                } else if (lineReader.lineStartsWith(MgfLineReader.CHARGE)) {
+                    ArrayList<Charge> precursorCharges = MgfReader.parseCharges(lineReader.getLineAsString());
+                    for (Charge charge : precursorCharges) {
+                        if (charge.value > maxCharge) {
+                            maxCharge = charge.value;
+                        }
+                    }
+                    chargeTagFound = true;
+                } else if (lineReader.lineStartsWith(MgfLineReader.PEPMASS)) {
+                    parsePrecursorMass(lineReader.getLineAsString());
+                } else if (lineReader.lineStartsWith(MgfLineReader.RTINSECONDS)) {
+                    parseRetentionTime(lineReader.getLineAsString());
+                } else if (lineReader.lineStartsWith(MgfLineReader.END_IONS)) {
+                    insideSpectrum = false;
+                    if (title != null) {
+                        if (peakCount > maxPeakCount) {
+                            maxPeakCount = peakCount;
+                        }
+                    }
+                    title = null;
+                    if (!chargeTagFound) {
+                        precursorChargesMissing = true;
+                    }
+                } else if (insideSpectrum && !lineReader.isLineEmpty()) {
+                    int intensityCheck = checkPeakIntensity();
+                    if (intensityCheck >= 0) {
+                        if (peakPicked && intensityCheck == 0) {
+                            peakPicked = false;
+                        }
+                        peakCount++;
+                    }
+                }
+
+            } while (lineReader.nextLine());
+
+            progress.addAndGet(Math.max(end, lastProgress) - lastProgress);
+
+            return this;
+        }
+
+        /**
+         * Checks the intensity of a peak line, i.e., the second value of the
+         * line split on white spaces.
+         *
+         * @return 0 if the intensity is zero, 1 if not, and -1 if the line is
+         * not a peak
+         */
+        private int checkPeakIntensity() {
+
+            int valueStart = lineReader.getLineStart();
+            if (!MgfLineReader.isWhiteSpace(lineReader.getBuffer()[valueStart])) {
+                valueStart = lineReader.getTokenEnd(valueStart);
+            }
+            valueStart = lineReader.getNextToken(valueStart);
+            int valueEnd = lineReader.getTokenEnd(valueStart);
+
+            try {
+                double intensity = lineReader.parseDouble(valueStart, valueEnd);
+                return intensity == 0 ? 0 : 1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * Adds a title to the index.
+         *
+         * @param title the title
+         */
+        private void addTitle(String title) {
+            int titleNumber = titles.size();
+            if (titleNumber == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * titleNumber);
+                spectrumIndexes = Arrays.copyOf(spectrumIndexes, 2 * titleNumber);
+            }
+            titles.add(title);
+            indexes[titleNumber] = spectrumStart;
+            spectrumIndexes[titleNumber] = nSpectra - 1;
+        }
+
+        /**
+         * Decodes a title line.
+         *
+         * @param line the title line
+         *
+         * @return the title
+         */
+        private String decodeTitle(String line) {
+            String title = line.substring(line.indexOf('=') + 1);
+            try {
+                title = URLDecoder.decode(title, "utf-8");
+            } catch (UnsupportedEncodingException e) {
+                if (waitingHandler != null) {
+                    waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
+                }
+            }
+            return title;
+        }
+
+        /**
+         * Parses a precursor mass line.
+         *
+         * @param line the precursor mass line
+         */
+        private void parsePrecursorMass(String line) {
+
+            String temp = line.substring(line.indexOf("=") + 1);
+            String[] values = temp.split("\\s");
+            double precursorMz = Double.parseDouble(values[0]);
+
+            if (precursorMz > maxMz) {
+                maxMz = precursorMz;
+            }
+
+            if (values.length > 1) {
+                double precursorIntensity = Double.parseDouble(values[1]);
+
+                if (precursorIntensity > maxIntensity) {
+                    maxIntensity = precursorIntensity;
+                }
+            }
+
+            if (nSpectra > 0) {
+                precursorMzs[nSpectra - 1] = precursorMz;
+            }
+        }
+
+        /**
+         * Parses a retention time line.
+         *
+         * @param line the retention time line
+         */
+        private void parseRetentionTime(String line) {
+
+            String rtInput = "";
+
+            try {
+                rtInput = line.substring(line.indexOf('=') + 1);
+                String[] rtWindow = rtInput.split("-");
+
+                if (rtWindow.length == 1) {
+                    String tempRt = rtWindow[0];
+                    // possible fix for values like RTINSECONDS=PT121.250000S
+                    if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                        tempRt = tempRt.substring(2, tempRt.length() - 1);
+                    }
+                    double rt = Double.parseDouble(tempRt);
+                    if (rt > maxRT) {
+                        maxRT = rt;
+                    }
+                    if (rt < minRT) {
+                        minRT = rt;
+                    }
+                } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
+                    double rt1 = Double.parseDouble(rtWindow[0]);
+                    if (rt1 > maxRT) {
+                        maxRT = rt1;
+                    }
+                    if (rt1 < minRT) {
+                        minRT = rt1;
+                    }
+                    double rt2 = Double.parseDouble(rtWindow[1]);
+                    if (rt2 > maxRT) {
+                        maxRT = rt2;
+                    }
+                    if (rt2 < minRT) {
+                        minRT = rt2;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
+            }
+        }
+    }
+}
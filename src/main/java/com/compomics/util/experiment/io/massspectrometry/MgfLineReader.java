@@ -0,0 +1,448 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reader going through the lines of an mgf file using positional reads on a
+ * file channel. The lines are not converted to strings, they can be inspected
+ * directly in the buffer of the reader and numbers can be parsed from the
+ * bytes. The channel can be read by different readers simultaneously, a reader
+ * shall be used by one thread at a time.
+ *
+ * @author Marc Vaudel
+ */
+class MgfLineReader {
+
+    /**
+     * The BEGIN IONS tag.
+     */
+    static final byte[] BEGIN_IONS = getAsciiBytes("BEGIN IONS");
+    /**
+     * The END IONS tag.
+     */
+    static final byte[] END_IONS = getAsciiBytes("END IONS");
+    /**
+     * The TITLE tag.
+     */
+    static final byte[] TITLE = getAsciiBytes("TITLE");
+    /**
+     * The CHARGE tag.
+     */
+    static final byte[] CHARGE = getAsciiBytes("CHARGE");
+    /**
+     * The PEPMASS tag.
+     */
+    static final byte[] PEPMASS = getAsciiBytes("PEPMASS");
+    /**
+     * The RTINSECONDS tag.
+     */
+    static final byte[] RTINSECONDS = getAsciiBytes("RTINSECONDS");
+    /**
+     * The SCANS tag.
+     */
+    static final byte[] SCANS = getAsciiBytes("SCANS");
+    /**
+     * The maximal mantissa which can be represented exactly as a double.
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    /**
+     * The powers of ten which can be represented exactly as a double.
+     */
+    private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The buffer of bytes read from the file.
+     */
+    private byte[] buffer;
+    /**
+     * The position in the file of the first byte of the buffer.
+     */
+    private long bufferPosition;
+    /**
+     * The number of bytes in the buffer.
+     */
+    private int bufferLength = 0;
+    /**
+     * The index in the buffer of the start of the current line.
+     */
+    private int lineStart = 0;
+    /**
+     * The index in the buffer of the end of the current line, line breaks
+     * excluded.
+     */
+    private int lineEnd = 0;
+    /**
+     * The index in the buffer of the start of the next line.
+     */
+    private int nextLineStart = 0;
+    /**
+     * Indicates whether the current line ended with a carriage return.
+     */
+    private boolean carriageReturn = false;
+    /**
+     * Indicates whether the end of the file was reached.
+     */
+    private boolean endOfFile = false;
+
+    /**
+     * Constructor.
+     *
+     * @param fileChannel the channel to the file
+     * @param position the position in the file where to start reading
+     * @param bufferSize the initial size of the buffer in bytes, the buffer
+     * grows if a line does not fit
+     */
+    MgfLineReader(FileChannel fileChannel, long position, int bufferSize) {
+        this.fileChannel = fileChannel;
+        this.bufferPosition = position;
+        buffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Skips the end of the line overlapping the start position of the reader
+     * so that the next line read is the first line starting at or after the
+     * start position. Must be called before reading any line.
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    void skipToLineStart() throws IOException {
+        if (bufferPosition > 0) {
+            ByteBuffer byteBuffer = ByteBuffer.allocate(1);
+            int read = 0;
+            while (read == 0) {
+                read = fileChannel.read(byteBuffer, bufferPosition - 1);
+            }
+            if (read != 1 || byteBuffer.get(0) != '\n') {
+                nextLine();
+            }
+        }
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return false if the end of the file was reached
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    boolean nextLine() throws IOException {
+
+        lineStart = nextLineStart;
+
+        while (true) {
+
+            int i = lineStart;
+            while (i < bufferLength && buffer[i] != '\n') {
+                i++;
+            }
+
+            if (i < bufferLength || (endOfFile && lineStart < bufferLength)) {
+                lineEnd = i;
+                nextLineStart = i < bufferLength ? i + 1 : i;
+                carriageReturn = lineEnd > lineStart && buffer[lineEnd - 1] == '\r';
+                if (carriageReturn) {
+                    lineEnd--;
+                }
+                return true;
+            }
+
+            if (endOfFile) {
+                return false;
+            }
+
+            fillBuffer();
+        }
+    }
+
+    /**
+     * Moves the current line to the beginning of the buffer and reads the
+     * following bytes from the file.
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     */
+    private void fillBuffer() throws IOException {
+
+        int remaining = bufferLength - lineStart;
+        if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        System.arraycopy(buffer, lineStart, buffer, 0, remaining);
+        bufferPosition += lineStart;
+        nextLineStart -= lineStart;
+        lineStart = 0;
+        bufferLength = remaining;
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength);
+        int read = 0;
+        while (read == 0) {
+            read = fileChannel.read(byteBuffer, bufferPosition + bufferLength);
+        }
+        if (read < 0) {
+            endOfFile = true;
+        } else {
+            bufferLength += read;
+        }
+    }
+
+    /**
+     * Returns the position in the file of the current line.
+     *
+     * @return the position in the file of the current line
+     */
+    long getLinePosition() {
+        return bufferPosition + lineStart;
+    }
+
+    /**
+     * Returns the position in the file of the line following the current line.
+     *
+     * @return the position in the file of the line following the current line
+     */
+    long getNextLinePosition() {
+        return bufferPosition + nextLineStart;
+    }
+
+    /**
+     * Returns the buffer containing the current line. The buffer is reused
+     * when moving to the next line.
+     *
+     * @return the buffer containing the current line
+     */
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the index in the buffer of the start of the current line.
+     *
+     * @return the index in the buffer of the start of the current line
+     */
+    int getLineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Returns the index in the buffer of the end of the current line, line
+     * breaks excluded.
+     *
+     * @return the index in the buffer of the end of the current line
+     */
+    int getLineEnd() {
+        return lineEnd;
+    }
+
+    /**
+     * Indicates whether the current line is empty.
+     *
+     * @return true if the current line is empty
+     */
+    boolean isLineEmpty() {
+        return lineEnd == lineStart;
+    }
+
+    /**
+     * Indicates whether the current line equals the given bytes.
+     *
+     * @param bytes the bytes
+     *
+     * @return true if the current line equals the given bytes
+     */
+    boolean lineEquals(byte[] bytes) {
+        return lineEnd - lineStart == bytes.length && lineStartsWith(bytes);
+    }
+
+    /**
+     * Indicates whether the current line starts with the given bytes.
+     *
+     * @param bytes the bytes
+     *
+     * @return true if the current line starts with the given bytes
+     */
+    boolean lineStartsWith(byte[] bytes) {
+        if (lineEnd - lineStart < bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer[lineStart + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current line as a string decoded in UTF-8.
+     *
+     * @return the current line as a string
+     */
+    String getLineAsString() {
+        String line;
+        try {
+            line = new String(buffer, lineStart, lineEnd - lineStart, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding not supported.", e);
+        }
+        if (carriageReturn && line.indexOf('\r') >= 0) {
+            line = line.replace("\r", "");
+        }
+        return line;
+    }
+
+    /**
+     * Returns the index in the buffer of the end of the token starting at the
+     * given index, tokens being separated by white spaces.
+     *
+     * @param start the index in the buffer of the start of the token
+     *
+     * @return the index in the buffer of the end of the token
+     */
+    int getTokenEnd(int start) {
+        int i = start;
+        while (i < lineEnd && !isWhiteSpace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index in the buffer of the first character which is not a
+     * white space starting from the given index, or the end of the line if
+     * none.
+     *
+     * @param start the index in the buffer where to start
+     *
+     * @return the index in the buffer of the next token
+     */
+    int getNextToken(int start) {
+        int i = start;
+        while (i < lineEnd && isWhiteSpace(buffer[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses a double from the bytes of the buffer between start and end with
+     * the same result as Double.parseDouble. Plain decimal numbers are parsed
+     * directly from the bytes, other notations are delegated to
+     * Double.parseDouble.
+     *
+     * @param start the index in the buffer of the first character
+     * @param end the index in the buffer after the last character
+     *
+     * @return the parsed value
+     *
+     * @throws NumberFormatException exception thrown if the bytes do not
+     * represent a number
+     */
+    double parseDouble(int start, int end) throws NumberFormatException {
+
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean decimalPoint = false;
+        boolean exact = true;
+
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                digits = true;
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = 10 * mantissa + (b - '0');
+                    if (decimalPoint) {
+                        exponent--;
+                    }
+                } else {
+                    exact = false;
+                    break;
+                }
+            } else if (b == '.' && !decimalPoint) {
+                decimalPoint = true;
+            } else if ((b == 'e' || b == 'E') && digits) {
+                i++;
+                int exponentSign = 1;
+                if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                    if (buffer[i] == '-') {
+                        exponentSign = -1;
+                    }
+                    i++;
+                }
+                int exponentStart = i;
+                int explicitExponent = 0;
+                for (; i < end && explicitExponent < 1000; i++) {
+                    b = buffer[i];
+                    if (b < '0' || b > '9') {
+                        break;
+                    }
+                    explicitExponent = 10 * explicitExponent + (b - '0');
+                }
+                if (i < end || i == exponentStart) {
+                    exact = false;
+                } else {
+                    exponent += exponentSign * explicitExponent;
+                }
+                break;
+            } else {
+                exact = false;
+                break;
+            }
+        }
+
+        if (exact && digits && exponent >= -22 && exponent <= 22) {
+            // both the mantissa and the power of ten are exact, the result is hence correctly rounded
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(buffer, start, end - start, "US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("ASCII encoding not supported.", e);
+        }
+    }
+
+    /**
+     * Indicates whether a byte is a white space as matched by the \s regular
+     * expression.
+     *
+     * @param b the byte
+     *
+     * @return true if the byte is a white space
+     */
+    static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * Returns the bytes of an ASCII string.
+     *
+     * @param value the string
+     *
+     * @return the bytes of the string
+     */
+    static byte[] getAsciiBytes(String value) {
+        byte[] result = new byte[value.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) value.charAt(i);
+        }
+        return result;
+    }
+}
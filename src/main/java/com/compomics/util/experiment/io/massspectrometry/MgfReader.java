@@ -4,15 +4,17 @@ import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.io.FileChannelInputStream;
 import com.compomics.util.preferences.UtilitiesUserPreferences;
 import com.compomics.util.waiting.WaitingHandler;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
 import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
@@ -24,6 +26,11 @@ import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 public class MgfReader {
 
+    /**
+     * The initial size of the arrays used to collect the peaks of a spectrum.
+     */
+    private static final int INITIAL_PEAK_ARRAY_SIZE = 256;
+
     /**
      * General constructor for an mgf reader.
      */
@@ -43,7 +50,9 @@ public class MgfReader {
     public static MSnSpectrum getSpectrum(BufferedReader br, String fileName) throws IOException {
 
         String line;
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
+        double[] mzValues = new double[INITIAL_PEAK_ARRAY_SIZE];
+        double[] intensities = new double[INITIAL_PEAK_ARRAY_SIZE];
+        int nPeaks = 0;
         double precursorMz = 0;
         double precursorIntensity = 0;
         double rt = -1.0;
@@ -134,7 +143,8 @@ public class MgfReader {
                 } else {
                     precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
                 }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, fileName);
+                msnSpectrum.setPeaks(Arrays.copyOf(mzValues, nPeaks), Arrays.copyOf(intensities, nPeaks));
                 if (scanNumber.length() > 0) {
                     msnSpectrum.setScanNumber(scanNumber);
                 }
@@ -142,9 +152,15 @@ public class MgfReader {
             } else if (insideSpectrum && !line.equals("")) {
                 try {
                     String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
+                    double mz = Double.parseDouble(values[0]);
+                    double intensity = Double.parseDouble(values[1]);
+                    if (nPeaks == mzValues.length) {
+                        mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+                        intensities = Arrays.copyOf(intensities, 2 * nPeaks);
+                    }
+                    mzValues[nPeaks] = mz;
+                    intensities[nPeaks] = intensity;
+                    nPeaks++;
                 } catch (Exception e1) {
                     // ignore comments and all other lines
                 }
@@ -169,14 +185,15 @@ public class MgfReader {
     public ArrayList<MSnSpectrum> getSpectra(File aFile) throws FileNotFoundException, IOException, IllegalArgumentException {
 
         ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>();
-        BufferedReader br = new BufferedReader(new FileReader(aFile));
+        RandomAccessFile randomAccessFile = new RandomAccessFile(aFile, "r");
         try {
+            MgfSpectrumParser mgfSpectrumParser = new MgfSpectrumParser(randomAccessFile.getChannel(), 0, aFile.getName());
             MSnSpectrum spectrum;
-            while ((spectrum = getSpectrum(br, aFile.getName())) != null) {
+            while ((spectrum = mgfSpectrumParser.next()) != null) {
                 spectra.add(spectrum);
             }
         } finally {
-            br.close();
+            randomAccessFile.close();
         }
         return spectra;
     }
@@ -207,188 +224,25 @@ public class MgfReader {
      * reading the file
      */
     public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler) throws FileNotFoundException, IOException {
+        return getIndexMap(mgfFile, waitingHandler, Runtime.getRuntime().availableProcessors());
+    }
 
-        HashMap<String, Long> indexes = new HashMap<String, Long>();
-        HashMap<String, Integer> spectrumIndexes = new HashMap<String, Integer>();
-        HashMap<Integer, Double> precursorMzMap = new HashMap<Integer, Double>();
-        LinkedHashSet<String> spectrumTitles = new LinkedHashSet<String>();
-        HashMap<String, Integer> duplicateTitles = new HashMap<String, Integer>();
-        BufferedRandomAccessFile bufferedRandomAccessFile = new BufferedRandomAccessFile(mgfFile, "r", 1024 * 100);
-        long currentIndex = 0;
-        String title = null;
-        int spectrumCounter = 0;
-        double maxRT = -1, minRT = Double.MAX_VALUE, maxMz = -1, maxIntensity = 0;
-        int maxCharge = 0, maxPeakCount = 0, peakCount = 0;
-        boolean peakPicked = true;
-        boolean precursorChargesMissing = false;
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(false);
-            waitingHandler.setMaxSecondaryProgressCounter(100);
-            waitingHandler.setSecondaryProgressCounter(0);
-        }
-
-        long progressUnit = bufferedRandomAccessFile.length() / 100;
-
-        String line;
-        boolean insideSpectrum = false;
-        boolean chargeTagFound = false;
-
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
-
-            // fix for lines ending with \r
-            if (line.endsWith("\r")) {
-                line = line.replace("\r", "");
-            }
-
-            if (line.equals("BEGIN IONS")) {
-                insideSpectrum = true;
-                chargeTagFound = false;
-                currentIndex = bufferedRandomAccessFile.getFilePointer();
-                spectrumCounter++;
-                peakCount = 0;
-                if (waitingHandler != null) {
-                    if (waitingHandler.isRunCanceled()) {
-                        break;
-                    }
-                    waitingHandler.setSecondaryProgressCounter((int) (currentIndex / progressUnit));
-                }
-            } else if (line.startsWith("TITLE")) {
-
-                title = line.substring(line.indexOf('=') + 1);
-
-                try {
-                    title = URLDecoder.decode(title, "utf-8");
-                } catch (UnsupportedEncodingException e) {
-                    if (waitingHandler != null) {
-                        waitingHandler.appendReport("An exception was thrown when trying to decode an mgf title: " + title, true, true);
-                    }
-                    System.out.println("An exception was thrown when trying to decode an mgf title: " + title);
-                    e.printStackTrace();
-                }
-                Integer nDuplicates = duplicateTitles.get(title);
-                if (nDuplicates != null || spectrumTitles.contains(title)) {
-                    if (nDuplicates == null) {
-                        nDuplicates = 0;
-                        System.err.println("Warning: Spectrum title " + title + " is not unique in " + mgfFile.getName() + "!");
-                    }
-                    duplicateTitles.put(title, ++nDuplicates);
-                    title += "_" + nDuplicates;
-                }
-                spectrumTitles.add(title);
-                indexes.put(title, currentIndex);
-                spectrumIndexes.put(title, spectrumCounter - 1);
-            } else if (line.startsWith("CHARGE")) {
-                ArrayList<Charge> precursorCharges = parseCharges(line);
-                for (Charge charge : precursorCharges) {
-                    if (charge.value > maxCharge) {
-                        maxCharge = charge.value;
-                    }
-                }
-                chargeTagFound = true;
-            } else if (line.startsWith("PEPMASS")) {
-                String temp = line.substring(line.indexOf("=") + 1);
-                String[] values = temp.split("\\s");
-                double precursorMz = Double.parseDouble(values[0]);
-
-                if (precursorMz > maxMz) {
-                    maxMz = precursorMz;
-                }
-
-                if (values.length > 1) {
-                    double precursorIntensity = Double.parseDouble(values[1]);
-
-                    if (precursorIntensity > maxIntensity) {
-                        maxIntensity = precursorIntensity;
-                    }
-                }
-
-                precursorMzMap.put(spectrumCounter - 1, precursorMz);
-
-            } else if (line.startsWith("RTINSECONDS")) {
-
-                String rtInput = "";
-
-                try {
-                    rtInput = line.substring(line.indexOf('=') + 1);
-                    String[] rtWindow = rtInput.split("-");
-
-                    if (rtWindow.length == 1) {
-                        String tempRt = rtWindow[0];
-                        // possible fix for values like RTINSECONDS=PT121.250000S
-                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
-                            tempRt = tempRt.substring(2, tempRt.length() - 1);
-                        }
-                        double rt = new Double(tempRt);
-                        if (rt > maxRT) {
-                            maxRT = rt;
-                        }
-                        if (rt < minRT) {
-                            minRT = rt;
-                        }
-                    } else if (rtWindow.length == 2 && !rtWindow[0].equals("")) {
-                        double rt1 = new Double(rtWindow[0]);
-                        if (rt1 > maxRT) {
-                            maxRT = rt1;
-                        }
-                        if (rt1 < minRT) {
-                            minRT = rt1;
-                        }
-                        double rt2 = new Double(rtWindow[1]);
-                        if (rt2 > maxRT) {
-                            maxRT = rt2;
-                        }
-                        if (rt2 < minRT) {
-                            minRT = rt2;
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    throw new IllegalArgumentException("Cannot parse retention time: " + rtInput);
-                }
-            } else if (line.startsWith("END IONS")) {
-                insideSpectrum = false;
-                if (title != null) {
-                    if (peakCount > maxPeakCount) {
-                        maxPeakCount = peakCount;
-                    }
-                }
-                title = null;
-                if (!chargeTagFound) {
-                    precursorChargesMissing = true;
-                }
-            } else if (insideSpectrum && !line.equals("")) {
-                try {
-                    String values[] = line.split("\\s+");
-                    //Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    if (peakPicked && intensity == 0) {
-                        peakPicked = false;
-                    }
-                    peakCount++;
-                } catch (Exception e1) {
-                    // ignore comments and all other lines
-                }
-            }
-        }
-
-        if (waitingHandler != null) {
-            waitingHandler.setSecondaryProgressCounterIndeterminate(true);
-        }
-
-        bufferedRandomAccessFile.close();
-
-        if (minRT == Double.MAX_VALUE) {
-            minRT = 0;
-        }
-
-        // convert the spectrum titles to an arraylist
-        ArrayList<String> spectrumTitlesAsArrayList = new ArrayList<String>(); // @TODO: is there a faster way of doing this?
-        for (String temp : spectrumTitles) {
-            spectrumTitlesAsArrayList.add(temp);
-        }
-
-        return new MgfIndex(spectrumTitlesAsArrayList, duplicateTitles, indexes, spectrumIndexes, precursorMzMap, mgfFile.getName(), minRT, maxRT,
-                maxMz, maxIntensity, maxCharge, maxPeakCount, peakPicked, precursorChargesMissing, mgfFile.lastModified(), spectrumCounter);
+    /**
+     * Returns the index of all spectra in the given MGF file. The file is
+     * scanned in parallel using the given number of threads.
+     *
+     * @param mgfFile the given MGF file
+     * @param waitingHandler a waitingHandler showing the progress
+     * @param nThreads the number of threads to use
+     * @return the index of all spectra
+     * @throws FileNotFoundException Exception thrown whenever the file is not
+     * found
+     * @throws IOException Exception thrown whenever an error occurs while
+     * reading the file
+     */
+    public static MgfIndex getIndexMap(File mgfFile, WaitingHandler waitingHandler, int nThreads) throws FileNotFoundException, IOException {
+        MgfIndexer mgfIndexer = new MgfIndexer(mgfFile, nThreads);
+        return mgfIndexer.getIndex(waitingHandler);
     }
 
     /**
@@ -1050,110 +904,36 @@ public class MgfReader {
      * not of a compatible format
      */
     public static MSnSpectrum getSpectrum(BufferedRandomAccessFile bufferedRandomAccessFile, long index, String fileName) throws IOException, IllegalArgumentException {
+        return getSpectrum(bufferedRandomAccessFile.getChannel(), index, fileName);
+    }
 
-        // @TODO get fileName from the random access file?
-        bufferedRandomAccessFile.seek(index);
-        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
-        ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
-        String scanNumber = "", spectrumTitle = "";
-        HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
-        String line;
-        boolean insideSpectrum = false;
-
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
+    /**
+     * Returns the next spectrum starting from the given index. The file is
+     * read using positional reads, the channel can be used by different threads
+     * simultaneously.
+     *
+     * @param fileChannel The channel of the inspected mgf file
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the MGF file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static MSnSpectrum getSpectrum(FileChannel fileChannel, long index, String fileName) throws IOException, IllegalArgumentException {
 
-            // fix for lines ending with \r
-            if (line.endsWith("\r")) {
-                line = line.replace("\r", "");
-            }
+        MgfSpectrumParser mgfSpectrumParser = new MgfSpectrumParser(fileChannel, index, fileName);
+        MSnSpectrum msnSpectrum = mgfSpectrumParser.next();
 
-            if (line.startsWith("BEGIN IONS")) {
-                insideSpectrum = true;
-                spectrum = new HashMap<Double, Peak>();
-            } else if (line.startsWith("TITLE")) {
-                insideSpectrum = true;
-                spectrumTitle = line.substring(line.indexOf('=') + 1);
-                try {
-                    spectrumTitle = URLDecoder.decode(spectrumTitle, "utf-8");
-                } catch (UnsupportedEncodingException e) {
-                    System.out.println("An exception was thrown when trying to decode an mgf title: " + spectrumTitle);
-                    e.printStackTrace();
-                }
-            } else if (line.startsWith("CHARGE")) {
-                precursorCharges = parseCharges(line);
-            } else if (line.startsWith("PEPMASS")) {
-                String temp = line.substring(line.indexOf("=") + 1);
-                String[] values = temp.split("\\s");
-                precursorMz = Double.parseDouble(values[0]);
-                if (values.length > 1) {
-                    precursorIntensity = Double.parseDouble(values[1]);
-                } else {
-                    precursorIntensity = 0.0;
-                }
-            } else if (line.startsWith("RTINSECONDS")) {
-                try {
-                    String rtInput = line.substring(line.indexOf('=') + 1);
-                    String[] rtWindow = rtInput.split("-");
-                    if (rtWindow.length == 1) {
-                        String tempRt = rtWindow[0];
-                        // possible fix for values like RTINSECONDS=PT121.250000S
-                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
-                            tempRt = tempRt.substring(2, tempRt.length() - 1);
-                        }
-                        rt = new Double(tempRt);
-                    } else if (rtWindow.length == 2) {
-                        rt1 = new Double(rtWindow[0]);
-                        rt2 = new Double(rtWindow[1]);
-                    }
-                } catch (Exception e) {
-                    System.out.println("An exception was thrown when trying to decode the retention time: " + spectrumTitle);
-                    e.printStackTrace();
-                    // ignore exception, RT will not be parsed
-                }
-            } else if (line.startsWith("TOLU")) {
-                // peptide tolerance unit not implemented
-            } else if (line.startsWith("TOL")) {
-                // peptide tolerance not implemented
-            } else if (line.startsWith("SEQ")) {
-                // sequence qualifier not implemented
-            } else if (line.startsWith("COMP")) {
-                // composition qualifier not implemented
-            } else if (line.startsWith("ETAG")) {
-                // error tolerant search sequence tag not implemented
-            } else if (line.startsWith("TAG")) {
-                // sequence tag not implemented
-            } else if (line.startsWith("SCANS")) {
-                try {
-                    scanNumber = line.substring(line.indexOf('=') + 1);
-                } catch (Exception e) {
-                    throw new IllegalArgumentException("Cannot parse scan number.");
-                }
-            } else if (line.startsWith("INSTRUMENT")) {
-                // ion series not implemented
-            } else if (line.startsWith("END IONS")) {
-                insideSpectrum = false;
-                Precursor precursor;
-                if (rt1 != -1 && rt2 != -1) {
-                    precursor = new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
-                } else {
-                    precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
-                }
-                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, spectrum, fileName);
-                msnSpectrum.setScanNumber(scanNumber);
-                return msnSpectrum;
-            } else if (insideSpectrum && !line.equals("")) {
-                try {
-                    String values[] = line.split("\\s+");
-                    Double mz = new Double(values[0]);
-                    Double intensity = new Double(values[1]);
-                    spectrum.put(mz, new Peak(mz, intensity));
-                } catch (Exception e1) {
-                    // ignore comments and all other lines
-                }
-            }
+        if (msnSpectrum == null) {
+            throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\".");
+        }
+        if (msnSpectrum.getScanNumber() == null) {
+            msnSpectrum.setScanNumber("");
         }
 
-        throw new IllegalArgumentException("End of the file reached before encountering the tag \"END IONS\".");
+        return msnSpectrum;
     }
 
     /**
@@ -1163,7 +943,7 @@ public class MgfReader {
      * @return the possible charges found
      * @throws IllegalArgumentException
      */
-    private static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
+    static ArrayList<Charge> parseCharges(String chargeLine) throws IllegalArgumentException {
 
         ArrayList<Charge> result = new ArrayList<Charge>(1);
         String tempLine = chargeLine.substring(chargeLine.indexOf("=") + 1);
@@ -1221,14 +1001,32 @@ public class MgfReader {
      * not of a compatible format
      */
     public static Precursor getPrecursor(BufferedRandomAccessFile bufferedRandomAccessFile, Long index, String fileName) throws IOException, IllegalArgumentException {
+        return getPrecursor(bufferedRandomAccessFile.getChannel(), index, fileName);
+    }
+
+    /**
+     * Returns the next precursor starting from the given index. The file is
+     * read using positional reads, the channel can be used by different threads
+     * simultaneously.
+     *
+     * @param fileChannel The channel of the inspected mgf file
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the mgf file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static Precursor getPrecursor(FileChannel fileChannel, long index, String fileName) throws IOException, IllegalArgumentException {
 
         // @TODO: get fileName from the random access file?
-        bufferedRandomAccessFile.seek(index);
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileChannelInputStream(fileChannel, index), "UTF-8"));
         String line, title = null;
         double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
         ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
 
-        while ((line = bufferedRandomAccessFile.getNextLine()) != null) {
+        while ((line = br.readLine()) != null) {
 
             // fix for lines ending with \r
             if (line.endsWith("\r")) {
@@ -0,0 +1,216 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Parser for the spectra of an mgf file. The file is read from a file channel
+ * using positional reads and the peak lines are parsed directly from the bytes
+ * of the file into primitive arrays reused from one spectrum to the next.
+ * Strings are only created for the header lines of the spectra. Different
+ * parsers can read the same channel simultaneously, a parser shall be used by
+ * one thread at a time.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfSpectrumParser {
+
+    /**
+     * The default size of the read buffer in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The initial size of the arrays used to collect the peaks of a spectrum.
+     */
+    private static final int INITIAL_PEAK_ARRAY_SIZE = 256;
+    /**
+     * The reader going through the lines of the file.
+     */
+    private final MgfLineReader lineReader;
+    /**
+     * The name of the mgf file.
+     */
+    private final String fileName;
+    /**
+     * The m/z values of the peaks of the spectrum being parsed.
+     */
+    private double[] mzValues = new double[INITIAL_PEAK_ARRAY_SIZE];
+    /**
+     * The intensities of the peaks of the spectrum being parsed.
+     */
+    private double[] intensities = new double[INITIAL_PEAK_ARRAY_SIZE];
+    /**
+     * The number of peaks of the spectrum being parsed.
+     */
+    private int nPeaks = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param fileChannel the channel of the mgf file
+     * @param position the position in the file where to start parsing
+     * @param fileName the name of the mgf file
+     */
+    public MgfSpectrumParser(FileChannel fileChannel, long position, String fileName) {
+        this(fileChannel, position, fileName, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileChannel the channel of the mgf file
+     * @param position the position in the file where to start parsing
+     * @param fileName the name of the mgf file
+     * @param bufferSize the size of the read buffer in bytes
+     */
+    public MgfSpectrumParser(FileChannel fileChannel, long position, String fileName, int bufferSize) {
+        this.fileName = fileName;
+        lineReader = new MgfLineReader(fileChannel, position, bufferSize);
+    }
+
+    /**
+     * Returns the next spectrum found in the file. Null if the end of the file
+     * is reached before the end of a spectrum.
+     *
+     * @return the next spectrum found in the file
+     *
+     * @throws IOException exception thrown whenever an error occurs while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever a precursor
+     * charge cannot be parsed
+     */
+    public MSnSpectrum next() throws IOException, IllegalArgumentException {
+
+        double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
+        ArrayList<Charge> precursorCharges = new ArrayList<Charge>();
+        String scanNumber = "", spectrumTitle = "";
+        boolean insideSpectrum = false;
+        nPeaks = 0;
+
+        while (lineReader.nextLine()) {
+
+            if (lineReader.lineStartsWith(MgfLineReader.BEGIN_IONS)) {
+                insideSpectrum = true;
+                nPeaks = 0;
+            } else if (lineReader.lineStartsWith(MgfLineReader.TITLE)) {
+                insideSpectrum = true;
+                String line = lineReader.getLineAsString();
+                spectrumTitle = line.substring(line.indexOf('=') + 1);
+                try {
+                    spectrumTitle = URLDecoder.decode(spectrumTitle, "utf-8");
+                } catch (UnsupportedEncodingException e) {
+                    System.out.println("An exception was thrown when trying to decode an mgf title: " + spectrumTitle);
+                    e.printStackTrace();
+                }
+            } else if (lineReader.lineStartsWith(MgfLineReader.CHARGE)) {
+                precursorCharges = MgfReader.parseCharges(lineReader.getLineAsString());
+            } else if (lineReader.lineStartsWith(MgfLineReader.PEPMASS)) {
+                String line = lineReader.getLineAsString();
+                String temp = line.substring(line.indexOf("=") + 1);
+                String[] values = temp.split("\\s");
+                precursorMz = Double.parseDouble(values[0]);
+                if (values.length > 1) {
+                    precursorIntensity = Double.parseDouble(values[1]);
+                } else {
+                    precursorIntensity = 0.0;
+                }
+            } else if (lineReader.lineStartsWith(MgfLineReader.RTINSECONDS)) {
+                try {
+                    String line = lineReader.getLineAsString();
+                    String rtInput = line.substring(line.indexOf('=') + 1);
+                    String[] rtWindow = rtInput.split("-");
+                    if (rtWindow.length == 1) {
+                        String tempRt = rtWindow[0];
+                        // possible fix for values like RTINSECONDS=PT121.250000S
+                        if (tempRt.startsWith("PT") && tempRt.endsWith("S")) {
+                            tempRt = tempRt.substring(2, tempRt.length() - 1);
+                        }
+                        rt = Double.parseDouble(tempRt);
+                    } else if (rtWindow.length == 2) {
+                        rt1 = Double.parseDouble(rtWindow[0]);
+                        rt2 = Double.parseDouble(rtWindow[1]);
+                    }
+                } catch (Exception e) {
+                    System.out.println("An exception was thrown when trying to decode the retention time: " + spectrumTitle);
+                    e.printStackTrace();
+                    // ignore exception, RT will not be parsed
+                }
+            } else if (lineReader.lineStartsWith(MgfLineReader.SCANS)) {
+                String line = lineReader.getLineAsString();
+                scanNumber = line.substring(line.indexOf('=') + 1);
+            } else if (lineReader.lineStartsWith(MgfLineReader.END_IONS)) {
+                Precursor precursor;
+                if (rt1 != -1 && rt2 != -1) {
+                    precursor = new Precursor(precursorMz, precursorIntensity, precursorCharges, rt1, rt2);
+                } else {
+                    precursor = new Precursor(rt, precursorMz, precursorIntensity, precursorCharges);
+                }
+                MSnSpectrum msnSpectrum = new MSnSpectrum(2, precursor, spectrumTitle, fileName);
+                msnSpectrum.setPeaks(Arrays.copyOf(mzValues, nPeaks), Arrays.copyOf(intensities, nPeaks));
+                if (scanNumber.length() > 0) {
+                    msnSpectrum.setScanNumber(scanNumber);
+                }
+                return msnSpectrum;
+            } else if (insideSpectrum && !lineReader.isLineEmpty()) {
+                parsePeak();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses the current line as a peak, i.e., m/z and intensity separated by
+     * white spaces. Lines which cannot be parsed, comments for instance, are
+     * ignored.
+     */
+    private void parsePeak() {
+
+        byte[] buffer = lineReader.getBuffer();
+        int mzStart = lineReader.getLineStart();
+        if (!isNumberStart(buffer[mzStart])) {
+            return;
+        }
+        int mzEnd = lineReader.getTokenEnd(mzStart);
+        int intensityStart = lineReader.getNextToken(mzEnd);
+        int intensityEnd = lineReader.getTokenEnd(intensityStart);
+
+        double mz, intensity;
+        try {
+            mz = lineReader.parseDouble(mzStart, mzEnd);
+            intensity = lineReader.parseDouble(intensityStart, intensityEnd);
+        } catch (NumberFormatException e) {
+            // ignore comments and all other lines
+            return;
+        }
+
+        if (nPeaks == mzValues.length) {
+            mzValues = Arrays.copyOf(mzValues, 2 * nPeaks);
+            intensities = Arrays.copyOf(intensities, 2 * nPeaks);
+        }
+        mzValues[nPeaks] = mz;
+        intensities[nPeaks] = intensity;
+        nPeaks++;
+    }
+
+    /**
+     * Indicates whether a line starting with the given byte can be a peak,
+     * i.e., starts with a digit, a sign or a decimal point. This avoids
+     * attempting to parse the header lines which are not handled by the
+     * parser.
+     *
+     * @param b the first byte of the line
+     *
+     * @return true if a line starting with the given byte can be a peak
+     */
+    private static boolean isNumberStart(byte b) {
+        return b >= '0' && b <= '9' || b == '.' || b == '-' || b == '+';
+    }
+}
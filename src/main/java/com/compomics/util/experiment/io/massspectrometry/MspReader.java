@@ -4,10 +4,12 @@ import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.io.FileChannelInputStream;
 import com.compomics.util.waiting.WaitingHandler;
 
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -756,9 +758,27 @@ public class MspReader extends MgfReader {
      * not of a compatible format
      */
     public static MSnSpectrum getSpectrum(BufferedRandomAccessFile bufferedRandomAccessFile, long index, String fileName) throws IOException, IllegalArgumentException {
+        return getSpectrum(bufferedRandomAccessFile.getChannel(), index, fileName);
+    }
+
+    /**
+     * Returns the next spectrum starting from the given index. The file is
+     * read using positional reads, the channel can be used by different threads
+     * simultaneously.
+     *
+     * @param fileChannel The channel of the inspected msp file
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the MSP file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static MSnSpectrum getSpectrum(FileChannel fileChannel, long index, String fileName) throws IOException, IllegalArgumentException {
 
         //get fileName from the random access file?
-        bufferedRandomAccessFile.seek(index);
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileChannelInputStream(fileChannel, index), "UTF-8"));
         String line;
         HashMap<Double, Peak> spectrum = new HashMap<Double, Peak>();
         double precursorMz = 0;
@@ -777,7 +797,7 @@ public class MspReader extends MgfReader {
 
         do {
 
-            line = bufferedRandomAccessFile.getNextLine();
+            line = br.readLine();
             // fix for lines ending with \r
             if (line.endsWith("\r")) {
                 line = line.replace("\r", "");
@@ -869,16 +889,34 @@ public class MspReader extends MgfReader {
      * not of a compatible format
      */
     public static Precursor getPrecursor(BufferedRandomAccessFile bufferedRandomAccessFile, Long index, String fileName) throws IOException, IllegalArgumentException {
+        return getPrecursor(bufferedRandomAccessFile.getChannel(), index, fileName);
+    }
+
+    /**
+     * Returns the next precursor starting from the given index. The file is
+     * read using positional reads, the channel can be used by different threads
+     * simultaneously.
+     *
+     * @param fileChannel The channel of the inspected msp file
+     * @param index The index where to start looking for the spectrum
+     * @param fileName The name of the msp file
+     * @return The next spectrum encountered
+     * @throws IOException Exception thrown whenever an error is encountered
+     * while reading the spectrum
+     * @throws IllegalArgumentException Exception thrown whenever the file is
+     * not of a compatible format
+     */
+    public static Precursor getPrecursor(FileChannel fileChannel, long index, String fileName) throws IOException, IllegalArgumentException {
 
         // @TODO: get fileName from the random access file?
-        bufferedRandomAccessFile.seek(index);
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileChannelInputStream(fileChannel, index), "UTF-8"));
         String line;
         // String spectrumName=null;
         double precursorMz = 0, precursorIntensity = 0, rt = -1.0, rt1 = -1, rt2 = -1;
         ArrayList<Charge> precursorCharges = new ArrayList<Charge>(1);
 
         do {
-            line = bufferedRandomAccessFile.readLine();
+            line = br.readLine();
 
             // fix for lines ending with \r
             if (line.endsWith("\r")) {
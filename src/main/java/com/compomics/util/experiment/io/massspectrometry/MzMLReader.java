@@ -0,0 +1,1382 @@
+package com.compomics.util.experiment.io.massspectrometry;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MS1Spectrum;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lightweight reader for the spectra of an mzML file. The position of the
+ * spectra in the file is taken from the index of indexed mzML files, or
+ * obtained by scanning the file once otherwise. The spectra are then read
+ * using positional reads and parsed directly from the bytes of the file: only
+ * the elements needed are inspected and the binary arrays are decoded into
+ * primitive arrays. The reader can be used by different threads
+ * simultaneously.
+ *
+ * @author Marc Vaudel
+ */
+public class MzMLReader {
+
+    /**
+     * The size of the blocks read from the file in bytes.
+     */
+    private static final int BLOCK_SIZE = 64 * 1024;
+    /**
+     * The number of bytes at the end of the file where to look for the offset
+     * of the index.
+     */
+    private static final int INDEX_OFFSET_SEARCH_LENGTH = 4096;
+    /**
+     * The start of the spectrum tag.
+     */
+    private static final byte[] SPECTRUM_START = getAsciiBytes("<spectrum");
+    /**
+     * The spectrum end tag.
+     */
+    private static final byte[] SPECTRUM_END = getAsciiBytes("</spectrum>");
+    /**
+     * The start of the binary data array list tag.
+     */
+    private static final byte[] BINARY_DATA_ARRAY_LIST_START = getAsciiBytes("<binaryDataArrayList");
+    /**
+     * The start of the run tag.
+     */
+    private static final byte[] RUN_START = getAsciiBytes("<run");
+    /**
+     * The index list offset tag.
+     */
+    private static final byte[] INDEX_LIST_OFFSET_START = getAsciiBytes("<indexListOffset>");
+    /**
+     * The id attribute.
+     */
+    private static final byte[] ID = getAsciiBytes("id");
+    /**
+     * The idRef attribute.
+     */
+    private static final byte[] ID_REF = getAsciiBytes("idRef");
+    /**
+     * The name attribute.
+     */
+    private static final byte[] NAME = getAsciiBytes("name");
+    /**
+     * The ref attribute.
+     */
+    private static final byte[] REF = getAsciiBytes("ref");
+    /**
+     * The count attribute.
+     */
+    private static final byte[] COUNT = getAsciiBytes("count");
+    /**
+     * The accession attribute.
+     */
+    private static final byte[] ACCESSION = getAsciiBytes("accession");
+    /**
+     * The value attribute.
+     */
+    private static final byte[] VALUE = getAsciiBytes("value");
+    /**
+     * Code for the elements which are not inspected.
+     */
+    private static final int OTHER = 0;
+    /**
+     * Code for the spectrum element.
+     */
+    private static final int SPECTRUM = 1;
+    /**
+     * Code for the scan element.
+     */
+    private static final int SCAN = 2;
+    /**
+     * Code for the precursor list element.
+     */
+    private static final int PRECURSOR_LIST = 3;
+    /**
+     * Code for the precursor element.
+     */
+    private static final int PRECURSOR = 4;
+    /**
+     * Code for the selected ion element.
+     */
+    private static final int SELECTED_ION = 5;
+    /**
+     * Code for the binary data array element.
+     */
+    private static final int BINARY_DATA_ARRAY = 6;
+    /**
+     * Code for the binary element.
+     */
+    private static final int BINARY = 7;
+    /**
+     * Code for the cv param element.
+     */
+    private static final int CV_PARAM = 8;
+    /**
+     * Code for the referenceable param group element.
+     */
+    private static final int REFERENCEABLE_PARAM_GROUP = 9;
+    /**
+     * Code for the referenceable param group reference element.
+     */
+    private static final int REFERENCEABLE_PARAM_GROUP_REF = 10;
+    /**
+     * Code for the run element.
+     */
+    private static final int RUN = 11;
+    /**
+     * The names of the elements inspected indexed by code.
+     */
+    private static final byte[][] ELEMENT_NAMES = {null, getAsciiBytes("spectrum"), getAsciiBytes("scan"), getAsciiBytes("precursorList"),
+        getAsciiBytes("precursor"), getAsciiBytes("selectedIon"), getAsciiBytes("binaryDataArray"), getAsciiBytes("binary"),
+        getAsciiBytes("cvParam"), getAsciiBytes("referenceableParamGroup"), getAsciiBytes("referenceableParamGroupRef"), getAsciiBytes("run")};
+    /**
+     * The inflaters of the threads.
+     */
+    private static final ThreadLocal<Inflater> INFLATERS = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+    /**
+     * The mzML file.
+     */
+    private final File mzMLFile;
+    /**
+     * The random access file.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel of the file.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The position of the spectra in the file indexed by id.
+     */
+    private final HashMap<String, Long> spectrumOffsets = new HashMap<String, Long>();
+    /**
+     * The ids of the spectra in the order of the file.
+     */
+    private final ArrayList<String> spectrumIds = new ArrayList<String>();
+    /**
+     * The cv params of the referenceable param groups indexed by group id.
+     * The params are given as {accession, value} pairs.
+     */
+    private final HashMap<String, ArrayList<String[]>> referenceableParamGroups = new HashMap<String, ArrayList<String[]>>();
+    /**
+     * Indicates whether the spectrum offsets were taken from the index of the
+     * file.
+     */
+    private final boolean indexed;
+
+    /**
+     * Constructor. Reads the index of the file if available and valid,
+     * otherwise scans the file for spectra.
+     *
+     * @param mzMLFile the mzML file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public MzMLReader(File mzMLFile) throws IOException {
+        this.mzMLFile = mzMLFile;
+        randomAccessFile = new RandomAccessFile(mzMLFile, "r");
+        fileChannel = randomAccessFile.getChannel();
+        try {
+            readReferenceableParamGroups();
+            indexed = readIndex();
+            if (!indexed) {
+                scanSpectra();
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            throw e;
+        } catch (RuntimeException e) {
+            randomAccessFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the mzML file.
+     *
+     * @return the mzML file
+     */
+    public File getMzMLFile() {
+        return mzMLFile;
+    }
+
+    /**
+     * Indicates whether the spectrum offsets were taken from the index of the
+     * file.
+     *
+     * @return a boolean indicating whether the spectrum offsets were taken
+     * from the index of the file
+     */
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Returns the ids of the spectra in the order of the file.
+     *
+     * @return the ids of the spectra
+     */
+    public ArrayList<String> getSpectrumIds() {
+        return new ArrayList<String>(spectrumIds);
+    }
+
+    /**
+     * Returns the number of spectra in the file.
+     *
+     * @return the number of spectra in the file
+     */
+    public int getNSpectra() {
+        return spectrumIds.size();
+    }
+
+    /**
+     * Indicates whether the file contains a spectrum with the given id.
+     *
+     * @param spectrumId the id of the spectrum
+     *
+     * @return a boolean indicating whether the file contains the spectrum
+     */
+    public boolean containsSpectrum(String spectrumId) {
+        return spectrumOffsets.containsKey(spectrumId);
+    }
+
+    /**
+     * Returns the spectrum of the given id. Null if not found.
+     *
+     * @param spectrumId the id of the spectrum
+     *
+     * @return the spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the spectrum
+     * cannot be parsed
+     */
+    public Spectrum getSpectrum(String spectrumId) throws IOException, IllegalArgumentException {
+
+        Long offset = spectrumOffsets.get(spectrumId);
+        if (offset == null) {
+            return null;
+        }
+
+        SpectrumElement spectrumElement = new SpectrumElement();
+        readElement(offset, spectrumElement, false);
+        parseElement(spectrumElement, false);
+
+        double[] mzValues = spectrumElement.mzValues != null ? spectrumElement.mzValues : new double[0];
+        double[] intensities = spectrumElement.intensities != null ? spectrumElement.intensities : new double[0];
+        Spectrum spectrum;
+
+        if (spectrumElement.level == 1) {
+            spectrum = new MS1Spectrum(mzMLFile.getName(), spectrumId, spectrumElement.scanTime, null);
+        } else {
+            spectrum = new MSnSpectrum(spectrumElement.level, spectrumElement.getPrecursor(), spectrumId, mzMLFile.getName());
+            spectrum.setScanStartTime(spectrumElement.scanTime);
+        }
+        spectrum.setPeaks(mzValues, intensities);
+
+        return spectrum;
+    }
+
+    /**
+     * Returns the precursor of the spectrum of the given id without decoding
+     * the peaks. Null if not found.
+     *
+     * @param spectrumId the id of the spectrum
+     *
+     * @return the precursor
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws IllegalArgumentException exception thrown whenever the spectrum
+     * cannot be parsed or is an MS1 spectrum
+     */
+    public Precursor getPrecursor(String spectrumId) throws IOException, IllegalArgumentException {
+
+        Long offset = spectrumOffsets.get(spectrumId);
+        if (offset == null) {
+            return null;
+        }
+
+        SpectrumElement spectrumElement = new SpectrumElement();
+        readElement(offset, spectrumElement, true);
+        parseElement(spectrumElement, true);
+
+        if (spectrumElement.level == 1) {
+            throw new IllegalArgumentException("MS1 spectrum");
+        }
+
+        return spectrumElement.getPrecursor();
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        randomAccessFile.close();
+    }
+
+    /**
+     * Reads the bytes of the file from the given position until one of the
+     * given end tags is found or the end of the file is reached. The buffer
+     * grows as needed.
+     *
+     * @param position the position in the file where to start reading
+     * @param bytes the buffer where to read
+     * @param endTags the end tags
+     *
+     * @return the index in the buffer of the first end tag found, -1 if the
+     * end of the file was reached before any end tag
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private int readUntil(long position, ByteArray bytes, byte[]... endTags) throws IOException {
+
+        int maxTagLength = 0;
+        for (byte[] endTag : endTags) {
+            maxTagLength = Math.max(maxTagLength, endTag.length);
+        }
+
+        while (true) {
+
+            if (bytes.length == bytes.bytes.length) {
+                bytes.bytes = Arrays.copyOf(bytes.bytes, 2 * bytes.bytes.length);
+            }
+            int searchStart = Math.max(0, bytes.length - maxTagLength + 1);
+            if (read(position, bytes) == -1) {
+                return -1;
+            }
+
+            int result = -1;
+            for (byte[] endTag : endTags) {
+                int index = indexOf(bytes.bytes, endTag, searchStart, result == -1 ? bytes.length : result);
+                if (index >= 0) {
+                    result = index;
+                }
+            }
+            if (result >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of the file following the bytes already in the buffer
+     * until the buffer is full or the end of the file is reached.
+     *
+     * @param position the position in the file of the first byte of the
+     * buffer
+     * @param bytes the buffer where to read
+     *
+     * @return the number of bytes read, -1 if the end of the file was reached
+     * before any byte could be read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private int read(long position, ByteArray bytes) throws IOException {
+
+        int start = bytes.length;
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes.bytes, bytes.length, bytes.bytes.length - bytes.length);
+
+        while (byteBuffer.hasRemaining()) {
+            int read = fileChannel.read(byteBuffer, position + bytes.length);
+            if (read < 0) {
+                break;
+            }
+            bytes.length += read;
+        }
+
+        return bytes.length == start ? -1 : bytes.length - start;
+    }
+
+    /**
+     * Reads the bytes of a spectrum element.
+     *
+     * @param offset the position of the element in the file
+     * @param spectrumElement the spectrum element where to store the bytes
+     * @param headerOnly if true reading stops before the binary data arrays
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void readElement(long offset, SpectrumElement spectrumElement, boolean headerOnly) throws IOException {
+
+        ByteArray bytes = new ByteArray(BLOCK_SIZE);
+        int end = headerOnly ? readUntil(offset, bytes, BINARY_DATA_ARRAY_LIST_START, SPECTRUM_END) : readUntil(offset, bytes, SPECTRUM_END);
+        if (end == -1) {
+            throw new IllegalArgumentException("End of the file reached before the end of the spectrum at position " + offset + " in " + mzMLFile.getName() + ".");
+        }
+        if (!startsWith(bytes.bytes, 0, bytes.length, SPECTRUM_START)) {
+            throw new IllegalArgumentException("No spectrum found at position " + offset + " in " + mzMLFile.getName() + ".");
+        }
+        spectrumElement.bytes = bytes.bytes;
+        spectrumElement.length = end;
+    }
+
+    /**
+     * Reads the referenceable param groups defined before the run.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void readReferenceableParamGroups() throws IOException {
+
+        ByteArray bytes = new ByteArray(BLOCK_SIZE);
+        int end = readUntil(0, bytes, RUN_START);
+        if (end == -1) {
+            end = bytes.length;
+        }
+
+        String groupId = null;
+        ArrayList<String[]> groupParams = null;
+        int i = 0;
+
+        while ((i = indexOf(bytes.bytes, (byte) '<', i, end)) >= 0) {
+            int tagEnd = getTagEnd(bytes.bytes, i, end);
+            if (tagEnd == -1) {
+                break;
+            }
+            if (bytes.bytes[i + 1] == '/') {
+                if (getElementCode(bytes.bytes, i + 2, tagEnd) == REFERENCEABLE_PARAM_GROUP) {
+                    groupId = null;
+                }
+            } else {
+                int code = getElementCode(bytes.bytes, i + 1, tagEnd);
+                if (code == REFERENCEABLE_PARAM_GROUP) {
+                    groupId = getAttribute(bytes.bytes, i, tagEnd, ID);
+                    groupParams = new ArrayList<String[]>();
+                    referenceableParamGroups.put(groupId, groupParams);
+                } else if (code == CV_PARAM && groupId != null) {
+                    groupParams.add(new String[]{getAttribute(bytes.bytes, i, tagEnd, ACCESSION), getAttribute(bytes.bytes, i, tagEnd, VALUE)});
+                }
+            }
+            i = tagEnd + 1;
+        }
+    }
+
+    /**
+     * Reads the spectrum offsets from the index of the file.
+     *
+     * @return true if a valid index was found
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private boolean readIndex() throws IOException {
+
+        long fileLength = fileChannel.size();
+        long tailStart = Math.max(0, fileLength - INDEX_OFFSET_SEARCH_LENGTH);
+        ByteArray tail = new ByteArray((int) (fileLength - tailStart));
+        read(tailStart, tail);
+        int offsetStart = lastIndexOf(tail.bytes, INDEX_LIST_OFFSET_START, tail.length);
+        if (offsetStart == -1) {
+            return false;
+        }
+        offsetStart += INDEX_LIST_OFFSET_START.length;
+        int offsetEnd = indexOf(tail.bytes, (byte) '<', offsetStart, tail.length);
+        if (offsetEnd == -1) {
+            return false;
+        }
+        long indexOffset;
+        try {
+            indexOffset = Long.parseLong(new String(tail.bytes, offsetStart, offsetEnd - offsetStart, "US-ASCII").trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (indexOffset <= 0 || indexOffset >= fileLength || fileLength - indexOffset > Integer.MAX_VALUE / 2) {
+            return false;
+        }
+
+        ByteArray index = new ByteArray((int) (fileLength - indexOffset));
+        read(indexOffset, index);
+
+        boolean spectrumIndex = false;
+        int i = 0;
+        while ((i = indexOf(index.bytes, (byte) '<', i, index.length)) >= 0) {
+            int tagEnd = getTagEnd(index.bytes, i, index.length);
+            if (tagEnd == -1) {
+                break;
+            }
+            if (startsWith(index.bytes, i, tagEnd, getAsciiBytes("<index")) && isNameEnd(index.bytes[i + 6])) {
+                spectrumIndex = "spectrum".equals(getAttribute(index.bytes, i, tagEnd, NAME));
+            } else if (spectrumIndex && startsWith(index.bytes, i, tagEnd, getAsciiBytes("<offset")) && isNameEnd(index.bytes[i + 7])) {
+                String id = getAttribute(index.bytes, i, tagEnd, ID_REF);
+                int valueEnd = indexOf(index.bytes, (byte) '<', tagEnd, index.length);
+                if (id == null || valueEnd == -1) {
+                    return false;
+                }
+                long offset;
+                try {
+                    offset = Long.parseLong(new String(index.bytes, tagEnd + 1, valueEnd - tagEnd - 1, "US-ASCII").trim());
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+                if (spectrumOffsets.put(id, offset) == null) {
+                    spectrumIds.add(id);
+                }
+                tagEnd = valueEnd - 1;
+            }
+            i = tagEnd + 1;
+        }
+
+        // check that the index matches the file
+        if (!spectrumIds.isEmpty()) {
+            for (String id : new String[]{spectrumIds.get(0), spectrumIds.get(spectrumIds.size() - 1)}) {
+                long offset = spectrumOffsets.get(id);
+                if (offset < 0 || offset >= fileLength) {
+                    return resetIndex();
+                }
+                ByteArray bytes = new ByteArray(SPECTRUM_START.length);
+                read(offset, bytes);
+                if (!startsWith(bytes.bytes, 0, bytes.length, SPECTRUM_START)) {
+                    return resetIndex();
+                }
+            }
+        }
+
+        return spectrumIndex || !spectrumIds.isEmpty();
+    }
+
+    /**
+     * Clears the spectrum offsets read from an invalid index.
+     *
+     * @return false
+     */
+    private boolean resetIndex() {
+        spectrumOffsets.clear();
+        spectrumIds.clear();
+        return false;
+    }
+
+    /**
+     * Scans the file for spectrum elements and stores their offsets.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    private void scanSpectra() throws IOException {
+
+        byte[] buffer = new byte[16 * BLOCK_SIZE];
+        long bufferPosition = 0;
+        int bufferLength = 0;
+        int i = 0;
+        boolean endOfFile = false;
+
+        while (true) {
+
+            int tagStart = indexOf(buffer, SPECTRUM_START, i, bufferLength);
+            int tagEnd = tagStart == -1 ? -1 : getTagEnd(buffer, tagStart, bufferLength);
+
+            if (tagEnd == -1) {
+
+                if (endOfFile) {
+                    break;
+                }
+
+                // keep the incomplete tag and read the next block
+                int keep = tagStart == -1 ? Math.max(i, bufferLength - SPECTRUM_START.length) : tagStart;
+                keep = Math.max(0, keep);
+                if (keep == 0 && bufferLength == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                }
+                System.arraycopy(buffer, keep, buffer, 0, bufferLength - keep);
+                bufferPosition += keep;
+                bufferLength -= keep;
+                i = 0;
+
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength);
+                int read = 0;
+                while (read == 0) {
+                    read = fileChannel.read(byteBuffer, bufferPosition + bufferLength);
+                }
+                if (read < 0) {
+                    endOfFile = true;
+                } else {
+                    bufferLength += read;
+                }
+
+            } else {
+
+                if (isNameEnd(buffer[tagStart + SPECTRUM_START.length])) {
+                    String id = getAttribute(buffer, tagStart, tagEnd, ID);
+                    if (id != null && spectrumOffsets.put(id, bufferPosition + tagStart) == null) {
+                        spectrumIds.add(id);
+                    }
+                }
+                i = tagEnd + 1;
+            }
+        }
+    }
+
+    /**
+     * Parses the bytes of a spectrum element.
+     *
+     * @param spectrumElement the spectrum element
+     * @param headerOnly if true the binary data arrays are not parsed
+     *
+     * @throws IOException exception thrown whenever the binary data cannot be
+     * decompressed
+     */
+    private void parseElement(SpectrumElement spectrumElement, boolean headerOnly) throws IOException {
+
+        byte[] bytes = spectrumElement.bytes;
+        int length = spectrumElement.length;
+        int[] stack = new int[16];
+        int depth = 0;
+        int i = 0;
+
+        while ((i = indexOf(bytes, (byte) '<', i, length)) >= 0) {
+
+            if (i + 1 < length && bytes[i + 1] == '!') {
+                // skip comments
+                int commentEnd = indexOf(bytes, getAsciiBytes("-->"), i, length);
+                if (commentEnd == -1) {
+                    break;
+                }
+                i = commentEnd + 3;
+                continue;
+            }
+
+            int tagEnd = getTagEnd(bytes, i, length);
+            if (tagEnd == -1) {
+                break;
+            }
+
+            if (bytes[i + 1] == '/') {
+                if (depth > 0) {
+                    depth--;
+                }
+                i = tagEnd + 1;
+                continue;
+            }
+
+            int code = getElementCode(bytes, i + 1, tagEnd);
+            int parent = depth > 0 ? stack[depth - 1] : OTHER;
+            boolean selfClosing = bytes[tagEnd - 1] == '/';
+
+            switch (code) {
+                case CV_PARAM:
+                    spectrumElement.addCvParam(parent, getAttribute(bytes, i, tagEnd, ACCESSION), getAttribute(bytes, i, tagEnd, VALUE));
+                    break;
+                case REFERENCEABLE_PARAM_GROUP_REF:
+                    ArrayList<String[]> params = referenceableParamGroups.get(getAttribute(bytes, i, tagEnd, REF));
+                    if (params != null) {
+                        for (String[] param : params) {
+                            spectrumElement.addCvParam(parent, param[0], param[1]);
+                        }
+                    }
+                    break;
+                case SCAN:
+                    spectrumElement.startScan();
+                    break;
+                case PRECURSOR_LIST:
+                    String count = getAttribute(bytes, i, tagEnd, COUNT);
+                    spectrumElement.nPrecursors = count == null ? 0 : Integer.parseInt(count.trim());
+                    break;
+                case PRECURSOR:
+                    spectrumElement.precursorIndex++;
+                    spectrumElement.selectedIonIndex = -1;
+                    break;
+                case SELECTED_ION:
+                    spectrumElement.selectedIonIndex++;
+                    break;
+                case BINARY_DATA_ARRAY:
+                    spectrumElement.startBinaryDataArray();
+                    break;
+                case BINARY:
+                    if (!headerOnly) {
+                        int binaryEnd = selfClosing ? tagEnd + 1 : indexOf(bytes, (byte) '<', tagEnd + 1, length);
+                        if (binaryEnd == -1) {
+                            throw new IllegalArgumentException("Binary data not terminated in spectrum of " + mzMLFile.getName() + ".");
+                        }
+                        spectrumElement.setBinaryData(decodeBinaryData(bytes, tagEnd + 1, binaryEnd, spectrumElement));
+                        if (!selfClosing) {
+                            tagEnd = binaryEnd - 1;
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (!selfClosing && code != BINARY) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                }
+                stack[depth++] = code;
+            }
+
+            i = tagEnd + 1;
+        }
+    }
+
+    /**
+     * Decodes the binary data of a binary data array.
+     *
+     * @param bytes the bytes of the element
+     * @param start the start of the base64 encoded data
+     * @param end the end of the base64 encoded data
+     * @param spectrumElement the spectrum element containing the encoding of
+     * the binary data array
+     *
+     * @return the decoded values
+     *
+     * @throws IOException exception thrown whenever the data cannot be
+     * decompressed
+     */
+    private double[] decodeBinaryData(byte[] bytes, int start, int end, SpectrumElement spectrumElement) throws IOException {
+
+        byte[] data = new byte[(end - start) * 3 / 4 + 3];
+        int dataLength = decodeBase64(bytes, start, end, data);
+
+        if (spectrumElement.compression == SpectrumElement.ZLIB) {
+            Inflater inflater = INFLATERS.get();
+            inflater.reset();
+            inflater.setInput(data, 0, dataLength);
+            byte[] inflated = new byte[Math.max(4 * dataLength, 1024)];
+            int inflatedLength = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (inflatedLength == inflated.length) {
+                        inflated = Arrays.copyOf(inflated, 2 * inflated.length);
+                    }
+                    int n = inflater.inflate(inflated, inflatedLength, inflated.length - inflatedLength);
+                    if (n == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated compressed data in spectrum of " + mzMLFile.getName() + ".");
+                    }
+                    inflatedLength += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid compressed data in spectrum of " + mzMLFile.getName() + ".", e);
+            }
+            data = inflated;
+            dataLength = inflatedLength;
+        } else if (spectrumElement.compression != SpectrumElement.NO_COMPRESSION) {
+            throw new IllegalArgumentException("Unsupported binary data compression in spectrum of " + mzMLFile.getName() + ".");
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data, 0, dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        double[] values;
+
+        switch (spectrumElement.precision) {
+            case SpectrumElement.FLOAT_32:
+                values = new double[dataLength / 4];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = byteBuffer.getFloat();
+                }
+                break;
+            case SpectrumElement.INTEGER_32:
+                values = new double[dataLength / 4];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = byteBuffer.getInt();
+                }
+                break;
+            case SpectrumElement.INTEGER_64:
+                values = new double[dataLength / 8];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = byteBuffer.getLong();
+                }
+                break;
+            default:
+                values = new double[dataLength / 8];
+                byteBuffer.asDoubleBuffer().get(values);
+                break;
+        }
+
+        return values;
+    }
+
+    /**
+     * Decodes base64 encoded bytes, white spaces are ignored.
+     *
+     * @param bytes the encoded bytes
+     * @param start the index of the first encoded byte
+     * @param end the index after the last encoded byte
+     * @param destination the array where to write the decoded bytes
+     *
+     * @return the number of decoded bytes
+     */
+    private static int decodeBase64(byte[] bytes, int start, int end, byte[] destination) {
+
+        int length = 0;
+        int accumulator = 0;
+        int nBits = 0;
+
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            int value;
+            if (b >= 'A' && b <= 'Z') {
+                value = b - 'A';
+            } else if (b >= 'a' && b <= 'z') {
+                value = b - 'a' + 26;
+            } else if (b >= '0' && b <= '9') {
+                value = b - '0' + 52;
+            } else if (b == '+') {
+                value = 62;
+            } else if (b == '/') {
+                value = 63;
+            } else if (b == '=') {
+                break;
+            } else {
+                continue;
+            }
+            accumulator = (accumulator << 6) | value;
+            nBits += 6;
+            if (nBits >= 8) {
+                nBits -= 8;
+                destination[length++] = (byte) (accumulator >> nBits);
+            }
+        }
+
+        return length;
+    }
+
+    /**
+     * Returns the code of the element whose name starts at the given index.
+     *
+     * @param bytes the bytes
+     * @param nameStart the index of the first byte of the name
+     * @param end the end of the tag
+     *
+     * @return the code of the element
+     */
+    private static int getElementCode(byte[] bytes, int nameStart, int end) {
+        for (int code = 1; code < ELEMENT_NAMES.length; code++) {
+            byte[] name = ELEMENT_NAMES[code];
+            if (startsWith(bytes, nameStart, end, name) && nameStart + name.length <= end && isNameEnd(bytes[nameStart + name.length])) {
+                return code;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Returns the index of the end of the tag starting at the given index,
+     * i.e., of its closing bracket. Brackets in attribute values are ignored.
+     *
+     * @param bytes the bytes
+     * @param tagStart the index of the opening bracket of the tag
+     * @param end the end of the bytes to inspect
+     *
+     * @return the index of the end of the tag, -1 if not found
+     */
+    private static int getTagEnd(byte[] bytes, int tagStart, int end) {
+        byte quote = 0;
+        for (int i = tagStart + 1; i < end; i++) {
+            byte b = bytes[i];
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the unescaped value of the given attribute of a tag. Null if not
+     * found.
+     *
+     * @param bytes the bytes
+     * @param tagStart the index of the start of the tag
+     * @param tagEnd the index of the end of the tag
+     * @param name the name of the attribute
+     *
+     * @return the value of the attribute
+     */
+    private static String getAttribute(byte[] bytes, int tagStart, int tagEnd, byte[] name) {
+
+        // skip the element name
+        int i = tagStart + 1;
+        while (i < tagEnd && !isWhiteSpace(bytes[i])) {
+            i++;
+        }
+
+        while (i < tagEnd) {
+
+            while (i < tagEnd && isWhiteSpace(bytes[i])) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < tagEnd && bytes[i] != '=' && !isWhiteSpace(bytes[i])) {
+                i++;
+            }
+            int nameEnd = i;
+            while (i < tagEnd && isWhiteSpace(bytes[i])) {
+                i++;
+            }
+            if (i == tagEnd || bytes[i] != '=') {
+                return null;
+            }
+            i++;
+            while (i < tagEnd && isWhiteSpace(bytes[i])) {
+                i++;
+            }
+            if (i == tagEnd || bytes[i] != '"' && bytes[i] != '\'') {
+                return null;
+            }
+            int valueEnd = indexOf(bytes, bytes[i], i + 1, tagEnd);
+            if (valueEnd == -1) {
+                return null;
+            }
+            if (nameEnd - nameStart == name.length && startsWith(bytes, nameStart, nameEnd, name)) {
+                try {
+                    return unescape(new String(bytes, i + 1, valueEnd - i - 1, "UTF-8"));
+                } catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException("UTF-8 encoding not supported.", e);
+                }
+            }
+            i = valueEnd + 1;
+        }
+
+        return null;
+    }
+
+    /**
+     * Replaces the XML entities and character references of a string.
+     *
+     * @param value the string
+     *
+     * @return the unescaped string
+     */
+    private static String unescape(String value) {
+
+        int ampersand = value.indexOf('&');
+        if (ampersand == -1) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+        int i = 0;
+
+        while (ampersand != -1) {
+            int semicolon = value.indexOf(';', ampersand);
+            if (semicolon == -1) {
+                break;
+            }
+            result.append(value, i, ampersand);
+            String entity = value.substring(ampersand + 1, semicolon);
+            if (entity.equals("amp")) {
+                result.append('&');
+            } else if (entity.equals("lt")) {
+                result.append('<');
+            } else if (entity.equals("gt")) {
+                result.append('>');
+            } else if (entity.equals("quot")) {
+                result.append('"');
+            } else if (entity.equals("apos")) {
+                result.append('\'');
+            } else if (entity.startsWith("#x")) {
+                result.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                result.appendCodePoint(Integer.parseInt(entity.substring(1)));
+            } else {
+                result.append('&').append(entity).append(';');
+            }
+            i = semicolon + 1;
+            ampersand = value.indexOf('&', i);
+        }
+
+        result.append(value, i, value.length());
+        return result.toString();
+    }
+
+    /**
+     * Returns the index of the first occurrence of a byte.
+     *
+     * @param bytes the bytes where to search
+     * @param value the byte to look for
+     * @param start the index where to start
+     * @param end the index where to stop
+     *
+     * @return the index of the first occurrence, -1 if not found
+     */
+    private static int indexOf(byte[] bytes, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a pattern.
+     *
+     * @param bytes the bytes where to search
+     * @param pattern the pattern to look for
+     * @param start the index where to start
+     * @param end the index where to stop
+     *
+     * @return the index of the first occurrence, -1 if not found
+     */
+    private static int indexOf(byte[] bytes, byte[] pattern, int start, int end) {
+        int last = end - pattern.length;
+        for (int i = start; i <= last; i++) {
+            if (bytes[i] == pattern[0] && startsWith(bytes, i, end, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the last occurrence of a pattern.
+     *
+     * @param bytes the bytes where to search
+     * @param pattern the pattern to look for
+     * @param end the index where to stop
+     *
+     * @return the index of the last occurrence, -1 if not found
+     */
+    private static int lastIndexOf(byte[] bytes, byte[] pattern, int end) {
+        for (int i = end - pattern.length; i >= 0; i--) {
+            if (startsWith(bytes, i, end, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indicates whether the bytes at the given index start with the given
+     * pattern.
+     *
+     * @param bytes the bytes
+     * @param start the index where to start
+     * @param end the end of the bytes to inspect
+     * @param pattern the pattern
+     *
+     * @return true if the bytes start with the pattern
+     */
+    private static boolean startsWith(byte[] bytes, int start, int end, byte[] pattern) {
+        if (end - start < pattern.length) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length; i++) {
+            if (bytes[start + i] != pattern[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indicates whether a byte ends an element name.
+     *
+     * @param b the byte
+     *
+     * @return true if the byte ends an element name
+     */
+    private static boolean isNameEnd(byte b) {
+        return isWhiteSpace(b) || b == '>' || b == '/';
+    }
+
+    /**
+     * Indicates whether a byte is an XML white space.
+     *
+     * @param b the byte
+     *
+     * @return true if the byte is a white space
+     */
+    private static boolean isWhiteSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Returns the bytes of an ASCII string.
+     *
+     * @param value the string
+     *
+     * @return the bytes of the string
+     */
+    private static byte[] getAsciiBytes(String value) {
+        byte[] result = new byte[value.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) value.charAt(i);
+        }
+        return result;
+    }
+
+    /**
+     * A growable array of bytes.
+     */
+    private static class ByteArray {
+
+        /**
+         * The bytes.
+         */
+        private byte[] bytes;
+        /**
+         * The number of bytes used.
+         */
+        private int length = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param capacity the initial capacity
+         */
+        public ByteArray(int capacity) {
+            bytes = new byte[Math.max(capacity, 16)];
+        }
+    }
+
+    /**
+     * The content of a spectrum element.
+     */
+    private static class SpectrumElement {
+
+        /**
+         * Code for uncompressed binary data.
+         */
+        private static final int NO_COMPRESSION = 0;
+        /**
+         * Code for zlib compressed binary data.
+         */
+        private static final int ZLIB = 1;
+        /**
+         * Code for an unsupported compression of the binary data.
+         */
+        private static final int UNSUPPORTED_COMPRESSION = 2;
+        /**
+         * Code for 64-bit floating point binary data.
+         */
+        private static final int FLOAT_64 = 0;
+        /**
+         * Code for 32-bit floating point binary data.
+         */
+        private static final int FLOAT_32 = 1;
+        /**
+         * Code for 32-bit integer binary data.
+         */
+        private static final int INTEGER_32 = 2;
+        /**
+         * Code for 64-bit integer binary data.
+         */
+        private static final int INTEGER_64 = 3;
+        /**
+         * Code for an unknown array type.
+         */
+        private static final int UNKNOWN_ARRAY = 0;
+        /**
+         * Code for an m/z array.
+         */
+        private static final int MZ_ARRAY = 1;
+        /**
+         * Code for an intensity array.
+         */
+        private static final int INTENSITY_ARRAY = 2;
+        /**
+         * Code for another array.
+         */
+        private static final int OTHER_ARRAY = 3;
+        /**
+         * The bytes of the element.
+         */
+        private byte[] bytes;
+        /**
+         * The length of the element.
+         */
+        private int length;
+        /**
+         * The MS level.
+         */
+        private int level = 2;
+        /**
+         * Indicates whether the MS level was found.
+         */
+        private boolean levelFound = false;
+        /**
+         * The scan start time of the last scan.
+         */
+        private double scanTime = -1;
+        /**
+         * Indicates whether the scan start time of the current scan was found.
+         */
+        private boolean scanTimeFound = false;
+        /**
+         * The number of precursors.
+         */
+        private int nPrecursors = 0;
+        /**
+         * The index of the current precursor.
+         */
+        private int precursorIndex = -1;
+        /**
+         * The index of the current selected ion in the current precursor.
+         */
+        private int selectedIonIndex = -1;
+        /**
+         * The precursor m/z.
+         */
+        private double precursorMz = 0;
+        /**
+         * The precursor charge.
+         */
+        private int precursorCharge = 0;
+        /**
+         * The index of the current binary data array.
+         */
+        private int arrayIndex = -1;
+        /**
+         * The type of the current binary data array.
+         */
+        private int arrayType;
+        /**
+         * The precision of the current binary data array.
+         */
+        private int precision;
+        /**
+         * The compression of the current binary data array.
+         */
+        private int compression;
+        /**
+         * The m/z values.
+         */
+        private double[] mzValues = null;
+        /**
+         * The intensities.
+         */
+        private double[] intensities = null;
+
+        /**
+         * Handles a cv param.
+         *
+         * @param parent the code of the element containing the param
+         * @param accession the accession of the param
+         * @param value the value of the param
+         */
+        private void addCvParam(int parent, String accession, String value) {
+            if (accession == null) {
+                return;
+            }
+            switch (parent) {
+                case SPECTRUM:
+                    if (!levelFound && accession.equals("MS:1000511")) {
+                        level = Integer.parseInt(value.trim());
+                        levelFound = true;
+                    }
+                    break;
+                case SCAN:
+                    if (!scanTimeFound && accession.equals("MS:1000016")) {
+                        scanTime = Double.parseDouble(value.trim());
+                        scanTimeFound = true;
+                    }
+                    break;
+                case SELECTED_ION:
+                    if (nPrecursors == 1 && precursorIndex == 0 && selectedIonIndex == 0) {
+                        if (accession.equals("MS:1000744") || accession.equals("MS:1000040")) {
+                            precursorMz = Double.parseDouble(value.trim());
+                        } else if (accession.equals("MS:1000041")) {
+                            precursorCharge = Integer.parseInt(value.trim());
+                        }
+                    }
+                    break;
+                case BINARY_DATA_ARRAY:
+                    if (accession.equals("MS:1000514")) {
+                        arrayType = MZ_ARRAY;
+                    } else if (accession.equals("MS:1000515")) {
+                        arrayType = INTENSITY_ARRAY;
+                    } else if (accession.equals("MS:1000513") || accession.equals("MS:1000786") || accession.equals("MS:1000595")
+                            || accession.equals("MS:1000516") || accession.equals("MS:1000517")) {
+                        arrayType = OTHER_ARRAY;
+                    } else if (accession.equals("MS:1000523")) {
+                        precision = FLOAT_64;
+                    } else if (accession.equals("MS:1000521")) {
+                        precision = FLOAT_32;
+                    } else if (accession.equals("MS:1000519")) {
+                        precision = INTEGER_32;
+                    } else if (accession.equals("MS:1000522")) {
+                        precision = INTEGER_64;
+                    } else if (accession.equals("MS:1000576")) {
+                        compression = NO_COMPRESSION;
+                    } else if (accession.equals("MS:1000574")) {
+                        compression = ZLIB;
+                    } else if (accession.equals("MS:1002312") || accession.equals("MS:1002313") || accession.equals("MS:1002314")
+                            || accession.equals("MS:1002746") || accession.equals("MS:1002747") || accession.equals("MS:1002748")) {
+                        // numpress compressions
+                        compression = UNSUPPORTED_COMPRESSION;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * Starts a new scan. The scan start time of the last scan is used.
+         */
+        private void startScan() {
+            scanTime = -1;
+            scanTimeFound = false;
+        }
+
+        /**
+         * Starts a new binary data array.
+         */
+        private void startBinaryDataArray() {
+            arrayIndex++;
+            arrayType = UNKNOWN_ARRAY;
+            precision = FLOAT_64;
+            compression = NO_COMPRESSION;
+        }
+
+        /**
+         * Sets the decoded values of the current binary data array. Arrays of
+         * unknown type are considered as m/z and intensities in this order.
+         *
+         * @param values the decoded values
+         */
+        private void setBinaryData(double[] values) {
+            int type = arrayType;
+            if (type == UNKNOWN_ARRAY) {
+                type = arrayIndex == 0 ? MZ_ARRAY : arrayIndex == 1 ? INTENSITY_ARRAY : OTHER_ARRAY;
+            }
+            if (type == MZ_ARRAY) {
+                mzValues = values;
+            } else if (type == INTENSITY_ARRAY) {
+                intensities = values;
+            }
+        }
+
+        /**
+         * Returns the precursor of the spectrum.
+         *
+         * @return the precursor of the spectrum
+         */
+        private Precursor getPrecursor() {
+            ArrayList<Charge> charges = new ArrayList<Charge>(1);
+            charges.add(new Charge(Charge.PLUS, precursorCharge));
+            return new Precursor(scanTime, precursorMz, charges);
+        }
+    }
+}
@@ -35,9 +35,4 @@ public class MS1Spectrum extends Spectrum {
         this.scanStartTime = scanStartTime;
         this.level = 1;
     }
-
-    @Override
-    public void removePeakList() {
-        this.peakList.clear();
-    }
 }
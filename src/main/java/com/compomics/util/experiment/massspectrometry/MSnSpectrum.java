@@ -157,15 +157,12 @@ public class MSnSpectrum extends Spectrum {
             results.append("SCANS=").append(scanNumber).append(lineBreak);
         }
 
-        // add the values to a tree map to get them sorted in mz    
-        TreeMap<Double, Double> sortedPeakList = new TreeMap<Double, Double>();
+        double[][] peaks = getPeaksAsArrays();
+        double[] mzValues = peaks[0];
+        double[] intensities = peaks[1];
 
-        for (Peak peak : peakList.values()) {
-            sortedPeakList.put(peak.mz, peak.intensity);
-        }
-
-        for (Map.Entry<Double, Double> entry : sortedPeakList.entrySet()) {
-            results.append(entry.getKey()).append(" ").append(entry.getValue()).append(lineBreak);
+        for (int i = 0; i < mzValues.length; i++) {
+            results.append(mzValues[i]).append(" ").append(intensities[i]).append(lineBreak);
         }
 
         results.append("END IONS").append(lineBreak).append(lineBreak);
@@ -0,0 +1,287 @@
+package com.compomics.util.experiment.massspectrometry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
+
+/**
+ * An iterator of spectra reading ahead of the consumer. The keys to iterate
+ * are split in windows. While the spectra of a window are being consumed, the
+ * spectra of the next window are read by a background thread in the order of
+ * the files, sorted by their position in the file. The spectra are returned
+ * in the order of the given keys. At most two windows of spectra are kept in
+ * memory.
+ *
+ * @author Marc Vaudel
+ */
+public class PrefetchingSpectrumIterator {
+
+    /**
+     * The default number of spectra per window.
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1000;
+    /**
+     * The spectrum factory.
+     */
+    private final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+    /**
+     * The keys of the spectra to iterate.
+     */
+    private final ArrayList<String> spectrumKeys;
+    /**
+     * The number of spectra per window.
+     */
+    private final int windowSize;
+    /**
+     * The index of the last spectrum returned.
+     */
+    private int index = -1;
+    /**
+     * The index of the window being consumed.
+     */
+    private int currentWindow = -1;
+    /**
+     * The spectra of the window being consumed indexed by key.
+     */
+    private HashMap<String, Spectrum> currentSpectra = null;
+    /**
+     * The future spectra of the next window.
+     */
+    private Future<HashMap<String, Spectrum>> nextSpectra = null;
+    /**
+     * The executor reading the spectra in the background.
+     */
+    private final ExecutorService pool;
+    /**
+     * Indicates whether the iterator was closed. The reading threads are not
+     * interrupted as this would close the channels to the files shared with
+     * the spectrum factory.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param spectrumKeys the keys of the spectra to iterate
+     */
+    public PrefetchingSpectrumIterator(ArrayList<String> spectrumKeys) {
+        this(spectrumKeys, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructor. The reading of the first window starts immediately.
+     *
+     * @param spectrumKeys the keys of the spectra to iterate
+     * @param windowSize the number of spectra to read ahead
+     */
+    public PrefetchingSpectrumIterator(ArrayList<String> spectrumKeys, int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("The window size should be a positive number.");
+        }
+        this.spectrumKeys = spectrumKeys;
+        this.windowSize = windowSize;
+        pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                // do not prevent the JVM from exiting if the iteration is abandoned without closing
+                Thread thread = new Thread(runnable, "Spectrum prefetching");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        if (!spectrumKeys.isEmpty()) {
+            nextSpectra = pool.submit(new WindowReader(0));
+        } else {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Indicates whether the iterator contains another spectrum.
+     *
+     * @return a boolean indicating whether the iterator contains another
+     * spectrum
+     */
+    public boolean hasNext() {
+        return index < spectrumKeys.size() - 1;
+    }
+
+    /**
+     * Returns the key of the spectrum returned by the last call to next.
+     *
+     * @return the key of the current spectrum
+     */
+    public String getSpectrumKey() {
+        return spectrumKeys.get(index);
+    }
+
+    /**
+     * Returns the next spectrum, waiting for the spectra of the window to be
+     * read if needed.
+     *
+     * @return the next spectrum
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while parsing an mzML file
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted while waiting for the spectra
+     * @throws NoSuchElementException exception thrown if the iteration has no
+     * more spectra
+     * @throws IllegalStateException exception thrown if the iterator was
+     * closed
+     */
+    public Spectrum next() throws IOException, MzMLUnmarshallerException, InterruptedException, NoSuchElementException, IllegalStateException {
+
+        if (closed) {
+            throw new IllegalStateException("The spectrum iterator was closed.");
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException("No spectrum left to iterate.");
+        }
+
+        index++;
+        int window = index / windowSize;
+
+        if (window != currentWindow) {
+            Future<HashMap<String, Spectrum>> future = nextSpectra;
+            if (future == null) {
+                // closed by another thread
+                throw new IllegalStateException("The spectrum iterator was closed.");
+            }
+            currentSpectra = getSpectra(future);
+            currentWindow = window;
+            int nextWindowStart = (window + 1) * windowSize;
+            if (nextWindowStart < spectrumKeys.size()) {
+                nextSpectra = pool.submit(new WindowReader(nextWindowStart));
+            } else {
+                nextSpectra = null;
+                pool.shutdown();
+            }
+        }
+
+        return currentSpectra.get(spectrumKeys.get(index));
+    }
+
+    /**
+     * Stops reading ahead. To be called when the iteration is abandoned before
+     * the last spectrum. The window being read is abandoned after the
+     * spectrum being read.
+     */
+    public void close() {
+        closed = true;
+        if (nextSpectra != null) {
+            nextSpectra.cancel(false);
+            nextSpectra = null;
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Waits for the spectra of a window and rethrows the exceptions
+     * encountered while reading them.
+     *
+     * @param future the future spectra
+     *
+     * @return the spectra indexed by key
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     * @throws MzMLUnmarshallerException exception thrown whenever an error
+     * occurred while parsing an mzML file
+     * @throws InterruptedException exception thrown whenever the thread is
+     * interrupted while waiting for the spectra
+     * @throws IllegalStateException exception thrown if the reading of the
+     * window was cancelled by closing the iterator
+     */
+    private HashMap<String, Spectrum> getSpectra(Future<HashMap<String, Spectrum>> future) throws IOException, MzMLUnmarshallerException, InterruptedException, IllegalStateException {
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            throw new IllegalStateException("The spectrum iterator was closed.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof MzMLUnmarshallerException) {
+                throw (MzMLUnmarshallerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Reads the spectra of a window in the order of the files.
+     */
+    private class WindowReader implements Callable<HashMap<String, Spectrum>> {
+
+        /**
+         * The index of the first key of the window.
+         */
+        private final int start;
+
+        /**
+         * Constructor.
+         *
+         * @param start the index of the first key of the window
+         */
+        public WindowReader(int start) {
+            this.start = start;
+        }
+
+        @Override
+        public HashMap<String, Spectrum> call() throws IOException, MzMLUnmarshallerException {
+
+            List<String> windowKeys = spectrumKeys.subList(start, Math.min(start + windowSize, spectrumKeys.size()));
+            ArrayList<String> sortedKeys = new ArrayList<String>(new LinkedHashSet<String>(windowKeys));
+            final HashMap<String, Long> positions = new HashMap<String, Long>(sortedKeys.size());
+            for (String spectrumKey : sortedKeys) {
+                positions.put(spectrumKey, spectrumFactory.getSpectrumFileIndex(spectrumKey));
+            }
+
+            Collections.sort(sortedKeys, new Comparator<String>() {
+                @Override
+                public int compare(String key1, String key2) {
+                    int result = Spectrum.getSpectrumFile(key1).compareTo(Spectrum.getSpectrumFile(key2));
+                    if (result != 0) {
+                        return result;
+                    }
+                    Long position1 = positions.get(key1), position2 = positions.get(key2);
+                    if (position1 == null || position2 == null) {
+                        // not indexed, keep the order of the keys
+                        return position1 == null ? (position2 == null ? 0 : 1) : -1;
+                    }
+                    return position1.compareTo(position2);
+                }
+            });
+
+            HashMap<String, Spectrum> spectra = new HashMap<String, Spectrum>(sortedKeys.size());
+            for (String spectrumKey : sortedKeys) {
+                if (closed) {
+                    break;
+                }
+                spectra.put(spectrumKey, spectrumFactory.getSpectrum(spectrumKey, false));
+            }
+
+            return spectra;
+        }
+    }
+}
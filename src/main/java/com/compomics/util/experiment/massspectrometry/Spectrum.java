@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.concurrent.Semaphore;
 import org.apache.commons.math.MathException;
@@ -37,9 +38,19 @@ public abstract class Spectrum extends ExperimentObject {
      */
     protected int level;
     /**
-     * mz indexed Peak list.
+     * mz indexed Peak list. When the peaks are set as arrays, this map is only
+     * built upon request by getPeakMap().
      */
-    protected HashMap<Double, Peak> peakList;
+    protected volatile HashMap<Double, Peak> peakList;
+    /**
+     * The m/z of the peaks sorted in ascending order. Null until set or built
+     * from the peak map.
+     */
+    private volatile double[] mzArray = null;
+    /**
+     * The intensities of the peaks in the order of the m/z array.
+     */
+    private double[] intensityArray = null;
     /**
      * Intensity indexed Peak map.
      */
@@ -62,14 +73,10 @@ public abstract class Spectrum extends ExperimentObject {
      */
     private double[][] jFreePeakList = null;
     /**
-     * The mz values as array. Null until set by the getter.
-     */
-    private double[] mzValuesAsArray = null;
-    /**
-     * The mz values sorted in acceding order as array. Null until set by the
+     * The intensities sorted in ascending order. Null until set by the
      * getter.
      */
-    private double[] mzValuesOrderedAsArray = null;
+    private double[] intensitiesOrderedAsArray = null;
     /**
      * The peak list as an array list formatted as text, e.g. [[303.17334
      * 3181.14],[318.14542 37971.93], ... ].
@@ -84,10 +91,6 @@ public abstract class Spectrum extends ExperimentObject {
      * Null until set by the getter.
      */
     private double[] intensityValuesNormaizedAsArray = null; // @TODO: correct typo
-    /**
-     * The mz and intensity values as array. Null until set by the getter.
-     */
-    private double[][] mzAndIntensityAsArray = null;
     /**
      * The total intensity.
      */
@@ -96,14 +99,6 @@ public abstract class Spectrum extends ExperimentObject {
      * The maximal intensity.
      */
     private Double maxIntensity;
-    /**
-     * The maximal m/z.
-     */
-    private Double maxMz;
-    /**
-     * The minimal m/z.
-     */
-    private Double minMz;
     /**
      * Mutex for the setting of the attributes in cache.
      */
@@ -202,16 +197,11 @@ public abstract class Spectrum extends ExperimentObject {
         if (jFreePeakList == null) {
             mutex.acquire();
             if (jFreePeakList == null) {
-                double[] mz = new double[peakList.size()];
-                double[] intensity = new double[peakList.size()];
-                int cpt = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    mz[cpt] = currentPeak.mz;
-                    intensity[cpt] = currentPeak.intensity;
-                    cpt++;
-                }
+                double[][] peaks = getPeaksAsArrays();
+                double[] mz = peaks[0].clone();
+                double[] intensity = peaks[1].clone();
 
-                jFreePeakList = new double[6][mz.length];
+                jFreePeakList = new double[6][];
                 jFreePeakList[0] = mz;
                 jFreePeakList[1] = mz;
                 jFreePeakList[2] = mz;
@@ -225,24 +215,89 @@ public abstract class Spectrum extends ExperimentObject {
     }
 
     /**
-     * Returns a peak map where peaks are indexed by their m/z.
+     * Returns a peak map where peaks are indexed by their m/z. If the peaks
+     * were set as arrays, the map is built upon first call.
      *
      * @return a peak map
      */
     public HashMap<Double, Peak> getPeakMap() {
+        if (peakList == null && mzArray != null) {
+            buildPeakMap();
+        }
         return peakList;
     }
 
+    /**
+     * Builds the peak map from the peak arrays.
+     */
+    private synchronized void buildPeakMap() {
+        if (peakList == null && mzArray != null) {
+            HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>(mzArray.length);
+            for (int i = 0; i < mzArray.length; i++) {
+                double mz = mzArray[i];
+                peakMap.put(mz, new Peak(mz, intensityArray[i]));
+            }
+            peakList = peakMap;
+        }
+    }
+
+    /**
+     * Returns the m/z of the peaks sorted in ascending order and the
+     * corresponding intensities. If the peaks were set as a map, the arrays are
+     * built upon first call. The arrays returned are the arrays backing the
+     * spectrum, they are a read-only view and shall not be modified. Use
+     * getMzAndIntensityAsArrayCopy to obtain modifiable copies.
+     *
+     * @return the m/z and intensities of the peaks as arrays
+     */
+    protected double[][] getPeaksAsArrays() {
+        if (mzArray == null) {
+            buildPeakArrays();
+        }
+        return new double[][]{mzArray, intensityArray};
+    }
+
+    /**
+     * Builds the peak arrays from the peak map.
+     */
+    private synchronized void buildPeakArrays() {
+        if (mzArray == null) {
+            if (peakList == null || peakList.isEmpty()) {
+                intensityArray = new double[0];
+                mzArray = new double[0];
+            } else {
+                double[] mz = new double[peakList.size()];
+                int counter = 0;
+                for (double currentMz : peakList.keySet()) {
+                    mz[counter++] = currentMz;
+                }
+                Arrays.sort(mz);
+                double[] intensity = new double[mz.length];
+                for (int i = 0; i < mz.length; i++) {
+                    Peak peak = peakList.get(mz[i]);
+                    mz[i] = peak.mz;
+                    intensity[i] = peak.intensity;
+                }
+                intensityArray = intensity;
+                mzArray = mz;
+            }
+        }
+    }
+
     /**
      * Adds a peak to the spectrum peak list.
      *
      * @param aPeak the peak to add
      */
     public synchronized void addPeak(Peak aPeak) {
-        if (peakList == null) {
-            peakList = new HashMap<Double, Peak>();
+        HashMap<Double, Peak> peakMap = getPeakMap();
+        if (peakMap == null) {
+            peakMap = new HashMap<Double, Peak>();
+            peakList = peakMap;
         }
-        this.peakList.put(aPeak.mz, aPeak);
+        peakMap.put(aPeak.mz, aPeak);
+        mzArray = null;
+        intensityArray = null;
         resetSavedData();
     }
 
@@ -253,17 +308,82 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public synchronized void setPeaks(ArrayList<Peak> peaks) {
 
-        if (peakList != null) {
-            this.peakList.clear();
-        } else {
-            peakList = new HashMap<Double, Peak>();
-        }
+        double[] mz = new double[peaks.size()];
+        double[] intensity = new double[peaks.size()];
+        int counter = 0;
 
         for (Peak p : peaks) {
-            double mz = p.mz;
-            peakList.put(mz, p);
+            mz[counter] = p.mz;
+            intensity[counter] = p.intensity;
+            counter++;
         }
 
+        setPeaks(mz, intensity);
+    }
+
+    /**
+     * Sets the peaks as arrays of m/z and intensities. This is the compact
+     * way to store peaks, the peak map is then built only if requested. The
+     * arrays are used as is when the m/z are strictly increasing, they shall
+     * not be modified afterwards. Otherwise the peaks are sorted by m/z, and
+     * for peaks of identical m/z only the last one is retained.
+     *
+     * @param mz the m/z of the peaks
+     * @param intensity the intensities of the peaks
+     *
+     * @throws IllegalArgumentException if the arrays are not of the same
+     * length
+     */
+    public synchronized void setPeaks(double[] mz, double[] intensity) {
+
+        if (mz.length != intensity.length) {
+            throw new IllegalArgumentException("Found " + mz.length + " m/z values for " + intensity.length + " intensities.");
+        }
+
+        boolean sorted = true;
+        for (int i = 1; i < mz.length && sorted; i++) {
+            sorted = mz[i - 1] < mz[i];
+        }
+
+        if (!sorted) {
+
+            Integer[] order = new Integer[mz.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final double[] unsortedMz = mz;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(unsortedMz[o1], unsortedMz[o2]);
+                }
+            });
+
+            double[] sortedMz = new double[mz.length];
+            double[] sortedIntensity = new double[mz.length];
+            int nPeaks = 0;
+            for (int index : order) {
+                if (nPeaks > 0 && sortedMz[nPeaks - 1] == mz[index]) {
+                    sortedIntensity[nPeaks - 1] = intensity[index];
+                } else {
+                    sortedMz[nPeaks] = mz[index];
+                    sortedIntensity[nPeaks] = intensity[index];
+                    nPeaks++;
+                }
+            }
+
+            if (nPeaks < mz.length) {
+                sortedMz = Arrays.copyOf(sortedMz, nPeaks);
+                sortedIntensity = Arrays.copyOf(sortedIntensity, nPeaks);
+            }
+
+            mz = sortedMz;
+            intensity = sortedIntensity;
+        }
+
+        peakList = null;
+        intensityArray = intensity;
+        mzArray = mz;
         resetSavedData();
     }
 
@@ -318,7 +438,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the peak list
      */
     public Collection<Peak> getPeakList() {
-        return peakList.values();
+        return getPeakMap().values();
     }
 
     /**
@@ -328,6 +448,8 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public synchronized void setPeakList(HashMap<Double, Peak> peakList) {
         this.peakList = peakList;
+        mzArray = null;
+        intensityArray = null;
         resetSavedData();
     }
 
@@ -344,24 +466,24 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (peakListAsString == null) {
 
-            double[] mzValues = getOrderedMzValues();
+            double[][] peaks = getPeaksAsArrays();
+            double[] mzValues = peaks[0];
+            double[] intensities = peaks[1];
             mutex.acquire();
 
             StringBuilder sb = new StringBuilder();
             sb.append("[");
 
-            for (double mzValue : mzValues) {
+            for (int i = 0; i < mzValues.length; i++) {
 
                 if (sb.length() > 1) {
                     sb.append(",");
                 }
 
-                Peak currentPeak = peakList.get(mzValue);
-
                 sb.append("[");
-                sb.append(currentPeak.mz);
+                sb.append(mzValues[i]);
                 sb.append(",");
-                sb.append(currentPeak.intensity);
+                sb.append(intensities[i]);
                 sb.append("]");
             }
 
@@ -400,11 +522,14 @@ public abstract class Spectrum extends ExperimentObject {
         if (peakList != null) {
             peakList.clear();
         }
+        mzArray = null;
+        intensityArray = null;
+        resetSavedData();
     }
 
     /**
      * Returns the mz values as an array. Note: the array is not necessarily
-     * ordered.
+     * ordered. The array is backing the spectrum and shall not be modified.
      *
      * @return the mz values as an array
      *
@@ -412,24 +537,12 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getMzValuesAsArray() throws InterruptedException {
-
-        if (mzValuesAsArray == null) {
-            mutex.acquire();
-            if (mzValuesAsArray == null) {
-                mzValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (double currentMz : peakList.keySet()) {
-                    mzValuesAsArray[counter++] = currentMz;
-                }
-            }
-            mutex.release();
-        }
-
-        return mzValuesAsArray;
+        return getPeaksAsArrays()[0];
     }
 
     /**
-     * Returns a list of the m/z values sorted in ascending order.
+     * Returns a list of the m/z values sorted in ascending order. The array is
+     * backing the spectrum and shall not be modified.
      *
      * @return a list of the m/z values sorted in ascending order
      *
@@ -437,16 +550,7 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[] getOrderedMzValues() throws InterruptedException {
-        if (mzValuesOrderedAsArray == null) {
-            getMzValuesAsArray();
-            if (mzValuesOrderedAsArray == null) {
-                mutex.acquire();
-                mzValuesOrderedAsArray = mzValuesAsArray.clone();
-                Arrays.sort(mzValuesOrderedAsArray);
-                mutex.release();
-            }
-        }
-        return mzValuesOrderedAsArray;
+        return getPeaksAsArrays()[0];
     }
 
     /**
@@ -455,12 +559,13 @@ public abstract class Spectrum extends ExperimentObject {
      * @param intensityValuesAsArray the intensity values array
      */
     public synchronized void setIntensityValuesAsArray(double[] intensityValuesAsArray) {
-        this.intensityValuesAsArray = intensityValuesAsArray;
         removePeakList();
+        this.intensityValuesAsArray = intensityValuesAsArray;
     }
 
     /**
-     * Returns the intensity values as an array.
+     * Returns the intensity values as an array. The array is backing the
+     * spectrum and shall not be modified.
      *
      * @return the intensity values as an array
      *
@@ -469,19 +574,14 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double[] getIntensityValuesAsArray() throws InterruptedException {
 
-        if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-            mutex.acquire();
-            if (intensityValuesAsArray == null || (intensityValuesAsArray.length != peakList.size())) {
-                intensityValuesAsArray = new double[peakList.size()];
-                int counter = 0;
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesAsArray[counter++] = currentPeak.intensity;
-                }
-            }
-            mutex.release();
+        double[] intensities = getPeaksAsArrays()[1];
+
+        double[] intensityValues = intensityValuesAsArray;
+        if (intensityValues != null && intensityValues.length == intensities.length) {
+            return intensityValues;
         }
 
-        return intensityValuesAsArray;
+        return intensities;
     }
 
     /**
@@ -497,27 +597,22 @@ public abstract class Spectrum extends ExperimentObject {
 
         if (intensityValuesNormaizedAsArray == null) {
 
+            double[] intensities = getPeaksAsArrays()[1];
+            double highestIntensity = getMaxIntensity();
+
             mutex.acquire();
 
             if (intensityValuesNormaizedAsArray == null) {
 
-                intensityValuesNormaizedAsArray = new double[peakList.size()];
-
-                double highestIntensity = 0.0;
-                int counter = 0;
-
-                for (Peak currentPeak : peakList.values()) {
-                    intensityValuesNormaizedAsArray[counter++] = currentPeak.intensity;
-                    if (currentPeak.intensity > highestIntensity) {
-                        highestIntensity = currentPeak.intensity;
-                    }
-                }
+                double[] normalizedIntensities = intensities.clone();
 
                 if (highestIntensity > 0) {
-                    for (int i = 0; i < intensityValuesNormaizedAsArray.length; i++) {
-                        intensityValuesNormaizedAsArray[i] = intensityValuesNormaizedAsArray[i] / highestIntensity * 100;
+                    for (int i = 0; i < normalizedIntensities.length; i++) {
+                        normalizedIntensities[i] = normalizedIntensities[i] / highestIntensity * 100;
                     }
                 }
+
+                intensityValuesNormaizedAsArray = normalizedIntensities;
             }
 
             mutex.release();
@@ -528,7 +623,8 @@ public abstract class Spectrum extends ExperimentObject {
 
     /**
      * Returns the m/z and intensity values as an array in increasing order
-     * sorted on m/z value.
+     * sorted on m/z value. The arrays are backing the spectrum and shall not
+     * be modified, see getMzAndIntensityAsArrayCopy.
      *
      * @return the m/z and intensity values as an array
      *
@@ -536,29 +632,22 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public double[][] getMzAndIntensityAsArray() throws InterruptedException {
+        return getPeaksAsArrays();
+    }
 
-        if (mzAndIntensityAsArray == null) {
-
-            double[] orderedMzValues = getOrderedMzValues();
-            mutex.acquire();
-
-            if (mzAndIntensityAsArray == null) {
-
-                mzAndIntensityAsArray = new double[2][peakList.size()];
-                int counter = 0;
-
-                for (double mz : orderedMzValues) {
-                    Peak currentPeak = peakList.get(mz);
-                    mzAndIntensityAsArray[0][counter] = currentPeak.mz;
-                    mzAndIntensityAsArray[1][counter] = currentPeak.intensity;
-                    counter++;
-                }
-            }
-
-            mutex.release();
-        }
-
-        return mzAndIntensityAsArray;
+    /**
+     * Returns a copy of the m/z and intensity values as an array in
+     * increasing order sorted on m/z value. The arrays can be modified without
+     * affecting the spectrum.
+     *
+     * @return a copy of the m/z and intensity values as an array
+     *
+     * @throws java.lang.InterruptedException exception thrown if the thread is
+     * interrupted
+     */
+    public double[][] getMzAndIntensityAsArrayCopy() throws InterruptedException {
+        double[][] peaks = getPeaksAsArrays();
+        return new double[][]{peaks[0].clone(), peaks[1].clone()};
     }
 
     /**
@@ -577,11 +666,13 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (totalIntensity == null) {
 
-                totalIntensity = 0.0;
+                double sum = 0.0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    totalIntensity += currentPeak.intensity;
+                for (double intensity : getPeaksAsArrays()[1]) {
+                    sum += intensity;
                 }
+
+                totalIntensity = sum;
             }
 
             mutex.release();
@@ -606,13 +697,15 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (maxIntensity == null) {
 
-                maxIntensity = 0.0;
+                double max = 0.0;
 
-                for (Peak currentPeak : peakList.values()) {
-                    if (currentPeak.intensity > maxIntensity) {
-                        maxIntensity = currentPeak.intensity;
+                for (double intensity : getPeaksAsArrays()[1]) {
+                    if (intensity > max) {
+                        max = intensity;
                     }
                 }
+
+                maxIntensity = max;
             }
 
             mutex.release();
@@ -631,22 +724,13 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double getMaxMz() throws InterruptedException {
 
-        if (maxMz == null) {
-
-            mutex.acquire();
-            if (maxMz == null) {
+        double[] mz = getPeaksAsArrays()[0];
 
-                if (peakList.keySet().isEmpty()) {
-                    maxMz = 0.0;
-                } else {
-                    maxMz = Collections.max(peakList.keySet());
-                }
-            }
-
-            mutex.release();
+        if (mz.length == 0) {
+            return 0.0;
         }
 
-        return maxMz;
+        return mz[mz.length - 1];
     }
 
     /**
@@ -659,22 +743,13 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public double getMinMz() throws InterruptedException {
 
-        if (minMz == null) {
+        double[] mz = getPeaksAsArrays()[0];
 
-            mutex.acquire();
-
-            if (minMz == null) {
-                if (peakList.keySet().isEmpty()) {
-                    minMz = 0.0;
-                } else {
-                    minMz = Collections.min(peakList.keySet());
-                }
-            }
-
-            mutex.release();
+        if (mz.length == 0) {
+            return 0.0;
         }
 
-        return minMz;
+        return mz[0];
     }
 
     /**
@@ -688,17 +763,60 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public ArrayList<Double> getPeaksAboveIntensityThreshold(double threshold) {
 
-        ArrayList<Double> peakIntensities = new ArrayList<Double>();
+        double[] intensities = getOrderedIntensities();
+        int firstIndex = getFirstIndex(intensities, threshold, true);
 
-        for (Peak currentPeak : peakList.values()) {
-            if (currentPeak.intensity > threshold) {
-                peakIntensities.add(currentPeak.intensity);
-            }
+        ArrayList<Double> peakIntensities = new ArrayList<Double>(intensities.length - firstIndex);
+
+        for (int i = firstIndex; i < intensities.length; i++) {
+            peakIntensities.add(intensities[i]);
         }
 
         return peakIntensities;
     }
 
+    /**
+     * Returns the intensities of the peaks sorted in ascending order.
+     *
+     * @return the intensities of the peaks sorted in ascending order
+     */
+    private double[] getOrderedIntensities() {
+        double[] result = intensitiesOrderedAsArray;
+        if (result == null) {
+            result = getPeaksAsArrays()[1].clone();
+            Arrays.sort(result);
+            intensitiesOrderedAsArray = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of the first element of the given sorted array which
+     * is greater than or equal to the given value, or strictly greater if
+     * strict is true. Returns the length of the array if none.
+     *
+     * @param sortedValues the values sorted in ascending order
+     * @param value the value to look for
+     * @param strict if true the element must be strictly greater than the
+     * value
+     *
+     * @return the index of the first element of the array above the value
+     */
+    private static int getFirstIndex(double[] sortedValues, double value, boolean strict) {
+        int low = 0;
+        int high = sortedValues.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            double middleValue = sortedValues[middle];
+            if (middleValue < value || strict && middleValue == value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
     /**
      * Returns the limit in intensity according to the given threshold.
      *
@@ -751,14 +869,16 @@ public abstract class Spectrum extends ExperimentObject {
 
             case percentile:
 
-                ArrayList<Double> intensities = new ArrayList<Double>(peakList.size());
+                double[][] peaks = getPeaksAsArrays();
+                double[] mzValues = peaks[0];
+                double[] intensityValues = peaks[1];
 
-                for (Peak peak : peakList.values()) {
-                    double mz = peak.mz;
-                    // Skip the low mass region of the spectrum @TODO: skip precursor as well
-                    if (mz > 200) {
-                        intensities.add(peak.intensity);
-                    }
+                // Skip the low mass region of the spectrum @TODO: skip precursor as well
+                int firstIndex = getFirstIndex(mzValues, 200, true);
+                ArrayList<Double> intensities = new ArrayList<Double>(mzValues.length - firstIndex);
+
+                for (int i = firstIndex; i < mzValues.length; i++) {
+                    intensities.add(intensityValues[i]);
                 }
 
                 if (intensities.isEmpty()) {
@@ -781,11 +901,12 @@ public abstract class Spectrum extends ExperimentObject {
      */
     public HashMap<Double, Peak> getRecalibratedPeakList(HashMap<Double, Double> mzCorrections) {
 
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList.size());
+        HashMap<Double, Peak> peakMap = getPeakMap();
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakMap.size());
         ArrayList<Double> keys = new ArrayList<Double>(mzCorrections.keySet());
         Collections.sort(keys);
 
-        for (Peak peak : peakList.values()) {
+        for (Peak peak : peakMap.values()) {
 
             double fragmentMz = peak.mz;
             double key1 = keys.get(0);
@@ -836,7 +957,7 @@ public abstract class Spectrum extends ExperimentObject {
      * @return a peak list which does not contain the peak matched
      */
     public HashMap<Double, Peak> getDesignaledPeakList(ArrayList<IonMatch> matches) {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>(peakList);
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(getPeakMap());
         for (IonMatch ionMatch : matches) {
             result.remove(ionMatch.peak.mz);
         }
@@ -857,13 +978,20 @@ public abstract class Spectrum extends ExperimentObject {
      * interrupted
      */
     public HashMap<Double, Peak> getSubSpectrum(double mzMin, double mzMax) throws InterruptedException {
-        HashMap<Double, Peak> result = new HashMap<Double, Peak>();
-        for (double mz : getOrderedMzValues()) {
-            if (mz >= mzMin && mz < mzMax) {
-                result.put(mz, peakList.get(mz));
-            } else if (mz >= mzMax) {
-                break;
+        double[][] peaks = getPeaksAsArrays();
+        double[] mzValues = peaks[0];
+        double[] intensities = peaks[1];
+        int firstIndex = getFirstIndex(mzValues, mzMin, false);
+        int lastIndex = getFirstIndex(mzValues, mzMax, false);
+        HashMap<Double, Peak> peakMap = peakList;
+        HashMap<Double, Peak> result = new HashMap<Double, Peak>(Math.max(lastIndex - firstIndex, 0));
+        for (int i = firstIndex; i < lastIndex; i++) {
+            double mz = mzValues[i];
+            Peak peak = peakMap != null ? peakMap.get(mz) : null;
+            if (peak == null) {
+                peak = new Peak(mz, intensities[i]);
             }
+            result.put(mz, peak);
         }
         return result;
     }
@@ -885,9 +1013,10 @@ public abstract class Spectrum extends ExperimentObject {
 
             if (intensityPeakMap == null) {
 
-                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakList.size());
+                HashMap<Double, Peak> peakMap = getPeakMap();
+                intensityPeakMap = new HashMap<Double, ArrayList<Peak>>(peakMap.size());
 
-                for (Peak peak : peakList.values()) {
+                for (Peak peak : peakMap.values()) {
 
                     double intensity = peak.intensity;
                     ArrayList<Peak> peaksAtIntensity = intensityPeakMap.get(intensity);
@@ -913,10 +1042,15 @@ public abstract class Spectrum extends ExperimentObject {
      * @return the number of peaks in the spectrum
      */
     public int getNPeaks() {
-        if (peakList == null) {
+        double[] mz = mzArray;
+        if (mz != null) {
+            return mz.length;
+        }
+        HashMap<Double, Peak> peakMap = peakList;
+        if (peakMap == null) {
             return 0;
         }
-        return peakList.size();
+        return peakMap.size();
     }
 
     /**
@@ -934,16 +1068,12 @@ public abstract class Spectrum extends ExperimentObject {
     private void resetSavedData() {
         jFreePeakList = null;
         peakListAsString = null;
-        mzValuesAsArray = null;
-        mzValuesOrderedAsArray = null;
+        intensitiesOrderedAsArray = null;
         intensityValuesAsArray = null;
         intensityValuesNormaizedAsArray = null;
         binnedCumulativeFunction = null;
-        mzAndIntensityAsArray = null;
         totalIntensity = null;
         maxIntensity = null;
-        maxMz = null;
-        minMz = null;
         intensityPeakMap = null;
         intensityLimit = null;
         intensityThresholdType = null;
@@ -963,7 +1093,7 @@ public abstract class Spectrum extends ExperimentObject {
         if (binnedCumulativeFunction == null) {
             mutex.acquire();
             if (binnedCumulativeFunction == null) {
-                binnedCumulativeFunction = new SimpleNoiseDistribution(peakList);
+                binnedCumulativeFunction = new SimpleNoiseDistribution(getPeaksAsArrays()[1]);
             }
             mutex.release();
         }
@@ -1,27 +1,27 @@
 package com.compomics.util.experiment.massspectrometry;
 
+import com.compomics.util.experiment.io.massspectrometry.CmsFileReader;
 import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.io.massspectrometry.MgfReader;
 import com.compomics.util.experiment.io.massspectrometry.MspReader;
+import com.compomics.util.experiment.io.massspectrometry.MzMLReader;
 import com.compomics.util.waiting.WaitingHandler;
-import com.compomics.util.io.SerializationUtils;
+import com.compomics.util.io.binary.BinaryFileWriter;
+import com.compomics.util.io.binary.MappedFileReader;
 import java.io.*;
 import java.net.URLDecoder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.LinkedBlockingDeque;
-import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
-import uk.ac.ebi.jmzml.model.mzml.CVParam;
-import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
-import uk.ac.ebi.jmzml.model.mzml.ScanList;
-import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
-import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshallerException;
-import uk.ac.ebi.pride.tools.braf.BufferedRandomAccessFile;
 
 /**
- * This factory will provide the spectra when needed.
+ * This factory will provide the spectra when needed. Spectra can be retrieved
+ * by different threads simultaneously: mgf files are read using positional
+ * reads and the caches are concurrent.
  *
  * @author Marc Vaudel
  * @author Harald Barsnes
@@ -33,38 +33,45 @@ public class SpectrumFactory {
      */
     private static SpectrumFactory instance = null;
     /**
-     * Map of already loaded spectra.
+     * Map of already loaded spectra (spectrum key &gt; spectrum).
      */
-    private HashMap<String, HashMap<String, Spectrum>> currentSpectrumMap = new HashMap<String, HashMap<String, Spectrum>>();
+    private ConcurrentHashMap<String, Spectrum> spectrumCache = new ConcurrentHashMap<String, Spectrum>();
     /**
-     * Map of already loaded precursors.
+     * Map of already loaded precursors (spectrum key &gt; precursor).
      */
-    private HashMap<String, HashMap<String, Precursor>> loadedPrecursorsMap = new HashMap<String, HashMap<String, Precursor>>();
+    private ConcurrentHashMap<String, Precursor> precursorCache = new ConcurrentHashMap<String, Precursor>();
     /**
      * Maximal number of spectra in cache. By default 1000000, which corresponds to approx. 110MB.
      */
     private static int nSpectraCache = 1000000;
     /**
-     * List of the loaded spectra.
+     * The keys of the spectra in cache in the order they were loaded.
      */
-    private LinkedBlockingDeque<String> loadedSpectra = new LinkedBlockingDeque<String>();
+    private ConcurrentLinkedQueue<String> cachedSpectrumKeys = new ConcurrentLinkedQueue<String>();
+    /**
+     * The number of spectra in cache.
+     */
+    private AtomicInteger nCachedSpectra = new AtomicInteger();
     /**
      * Map to the different files.
      */
     private HashMap<String, File> filesMap = new HashMap<String, File>();
     /**
-     * Map of the random access files of the loaded mgf files (filename &gt;
-     * random access file).
+     * Map of the channels of the loaded mgf files (filename &gt; channel).
      */
-    private HashMap<String, BufferedRandomAccessFile> mgfRandomAccessFilesMap = new HashMap<String, BufferedRandomAccessFile>();
+    private ConcurrentHashMap<String, FileChannel> mgfFileChannelsMap = new ConcurrentHashMap<String, FileChannel>();
     /**
      * Map of the mgf indexes (fileName &gt; mgf index).
      */
-    private HashMap<String, MgfIndex> mgfIndexesMap = new HashMap<String, MgfIndex>();
+    private ConcurrentHashMap<String, MgfIndex> mgfIndexesMap = new ConcurrentHashMap<String, MgfIndex>();
+    /**
+     * Map of the mzML readers (fileName &gt; reader).
+     */
+    private ConcurrentHashMap<String, MzMLReader> mzMLReaders = new ConcurrentHashMap<String, MzMLReader>();
     /**
-     * Map of the mzML unmarshallers (fileName &gt; unmarshaller).
+     * Map of the cms file readers (fileName &gt; reader).
      */
-    private HashMap<String, MzMLUnmarshaller> mzMLUnmarshallers = new HashMap<String, MzMLUnmarshaller>();
+    private ConcurrentHashMap<String, CmsFileReader> cmsFileReaders = new ConcurrentHashMap<String, CmsFileReader>();
     /**
      * Map of the spectrum file mapped according to the name used by the search
      * engine.
@@ -109,16 +116,32 @@ public class SpectrumFactory {
     }
 
     /**
-     * Clears the factory getInstance() needs to be called afterwards.
+     * Clears the factory getInstance() needs to be called afterwards. The
+     * files opened by the factory are closed. The cms files are memory mapped
+     * and closed upon loading, their mappings are released when garbage
+     * collected.
      */
     public void clearFactory() {
-        currentSpectrumMap.clear();
-        loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
+        emptyCache();
         filesMap.clear();
-        mgfRandomAccessFilesMap.clear();
+        for (FileChannel fileChannel : mgfFileChannelsMap.values()) {
+            try {
+                fileChannel.close();
+            } catch (IOException e) {
+                // the channel is discarded anyway
+            }
+        }
+        mgfFileChannelsMap.clear();
         mgfIndexesMap.clear();
-        mzMLUnmarshallers.clear();
+        for (MzMLReader mzMLReader : mzMLReaders.values()) {
+            try {
+                mzMLReader.close();
+            } catch (IOException e) {
+                // the reader is discarded anyway
+            }
+        }
+        mzMLReaders.clear();
+        cmsFileReaders.clear();
         idToSpectrumName.clear();
     }
 
@@ -126,9 +149,10 @@ public class SpectrumFactory {
      * Empties the cache.
      */
     public void emptyCache() {
-        currentSpectrumMap.clear();
-        loadedPrecursorsMap.clear();
-        loadedSpectra.clear();
+        spectrumCache.clear();
+        precursorCache.clear();
+        cachedSpectrumKeys.clear();
+        nCachedSpectra.set(0);
     }
 
     /**
@@ -152,7 +176,7 @@ public class SpectrumFactory {
     /**
      * Add spectra to the factory.
      *
-     * @param spectrumFile The spectrum file, can be mgf or mzML
+     * @param spectrumFile The spectrum file, can be mgf, msp, mzML or cms
      *
      * @throws FileNotFoundException Exception thrown whenever the file was not
      * found
@@ -169,7 +193,7 @@ public class SpectrumFactory {
     /**
      * Add spectra to the factory.
      *
-     * @param spectrumFile the spectrum file, can be mgf or mzML
+     * @param spectrumFile the spectrum file, can be mgf, msp, mzML or cms
      * @param waitingHandler the waiting handler
      *
      * @throws FileNotFoundException Exception thrown whenever the file was not
@@ -191,17 +215,14 @@ public class SpectrumFactory {
 
             if (indexFile.exists()) {
                 try {
-                    MgfIndex tempIndex = getIndex(indexFile);
-                    Long indexLastModified = tempIndex.getLastModified();
-
-                    if (indexLastModified != null) {
-                        long fileLastModified = spectrumFile.lastModified();
-
-                        if (indexLastModified == fileLastModified) {
-                            mgfIndex = tempIndex;
-                        } else {
-                            System.err.println("Reindexing: " + fileName + ". (changes in the file detected)");
-                        }
+                    // check the header before mapping the index, a stale index must not be mapped as it is replaced below
+                    long indexLastModified = MgfIndex.getLastModified(indexFile);
+                    long fileLastModified = spectrumFile.lastModified();
+
+                    if (indexLastModified == fileLastModified) {
+                        mgfIndex = getIndex(indexFile);
+                    } else {
+                        System.err.println("Reindexing: " + fileName + ". (changes in the file detected)");
                     }
                 } catch (Exception e) {
                     System.err.println("Reindexing: " + fileName + ". (Reason: " + e.getLocalizedMessage() + ")");
@@ -226,12 +247,19 @@ public class SpectrumFactory {
                 throw new IllegalArgumentException("An error occurred while indexing " + spectrumFile.getAbsolutePath());
             }
 
-            mgfRandomAccessFilesMap.put(fileName, new BufferedRandomAccessFile(spectrumFile, "r", 1024 * 100));
+            FileChannel previousChannel = mgfFileChannelsMap.put(fileName, new RandomAccessFile(spectrumFile, "r").getChannel());
+            if (previousChannel != null) {
+                previousChannel.close();
+            }
             mgfIndexesMap.put(fileName, mgfIndex);
 
         } else if (fileName.toLowerCase().endsWith(".mzml")) {
-            MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(spectrumFile);
-            mzMLUnmarshallers.put(fileName, mzMLUnmarshaller);
+            MzMLReader previousReader = mzMLReaders.put(fileName, new MzMLReader(spectrumFile));
+            if (previousReader != null) {
+                previousReader.close();
+            }
+        } else if (fileName.toLowerCase().endsWith(CmsFileReader.EXTENSION)) {
+            cmsFileReaders.put(fileName, new CmsFileReader(spectrumFile));
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
@@ -281,19 +309,14 @@ public class SpectrumFactory {
      * not parsed correctly
      */
     public Precursor getPrecursor(String fileName, String spectrumTitle, boolean save) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileSpectrumMap = currentSpectrumMap.get(fileName);
-        if (fileSpectrumMap != null) {
-            Spectrum spectrum = fileSpectrumMap.get(spectrumTitle);
-            if (spectrum != null) {
-                return ((MSnSpectrum) spectrum).getPrecursor();
-            }
+        String spectrumKey = Spectrum.getSpectrumKey(fileName, spectrumTitle);
+        Spectrum spectrum = spectrumCache.get(spectrumKey);
+        if (spectrum != null) {
+            return ((MSnSpectrum) spectrum).getPrecursor();
         }
-        HashMap<String, Precursor> filePrecursorMap = loadedPrecursorsMap.get(fileName);
-        if (filePrecursorMap != null) {
-            Precursor currentPrecursor = filePrecursorMap.get(spectrumTitle);
-            if (currentPrecursor != null) {
-                return currentPrecursor;
-            }
+        Precursor currentPrecursor = precursorCache.get(spectrumKey);
+        if (currentPrecursor != null) {
+            return currentPrecursor;
         }
         return getPrecursor(fileName, spectrumTitle, save, 1);
     }
@@ -324,13 +347,28 @@ public class SpectrumFactory {
      * correctly
      * @throws MzMLUnmarshallerException exception thrown whenever the file was
      * not parsed correctly
+     * @throws IllegalArgumentException exception thrown whenever the spectrum
+     * of a cms file has no precursor
      */
-    public double getPrecursorMz(String spectrumKey) throws IOException, MzMLUnmarshallerException {
+    public double getPrecursorMz(String spectrumKey) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
 
         // get the spectrum title and file name
         String spectrumTitle = Spectrum.getSpectrumTitle(spectrumKey);
         String spectrumFileName = Spectrum.getSpectrumFile(spectrumKey);
 
+        // the precursor columns of cms files are mapped
+        CmsFileReader cmsFileReader = cmsFileReaders.get(spectrumFileName);
+        if (cmsFileReader != null) {
+            Double precursorMz = cmsFileReader.getPrecursorMz(spectrumTitle);
+            if (precursorMz == null) {
+                if (!cmsFileReader.containsSpectrum(spectrumTitle)) {
+                    throw new IOException("Spectrum \'" + spectrumTitle + "\' in cms file \'" + spectrumFileName + "\' not found!");
+                }
+                throw new IllegalArgumentException("No precursor found for spectrum " + spectrumTitle + " of file " + spectrumFileName + ".");
+            }
+            return precursorMz;
+        }
+
         // a special fix for mgf files with strange titles...
         spectrumTitle = fixMgfTitle(spectrumTitle, spectrumFileName);
 
@@ -520,6 +558,10 @@ public class SpectrumFactory {
      * @return the number of spectra
      */
     public int getNSpectra(String fileName) {
+        CmsFileReader cmsFileReader = cmsFileReaders.get(fileName);
+        if (cmsFileReader != null) {
+            return cmsFileReader.getNSpectra();
+        }
         return mgfIndexesMap.get(fileName).getNSpectra();
     }
 
@@ -566,7 +608,7 @@ public class SpectrumFactory {
      * @return a boolean indicating whether the spectrum file has been loaded
      */
     public boolean fileLoaded(String fileName) {
-        return mgfIndexesMap.containsKey(fileName);
+        return mgfIndexesMap.containsKey(fileName) || cmsFileReaders.containsKey(fileName);
     }
 
     /**
@@ -579,6 +621,10 @@ public class SpectrumFactory {
      * given spectrum file
      */
     public boolean spectrumLoaded(String fileName, String spectrumTitle) {
+        CmsFileReader cmsFileReader = cmsFileReaders.get(fileName);
+        if (cmsFileReader != null) {
+            return cmsFileReader.containsSpectrum(spectrumTitle);
+        }
         // a special fix for mgf files with strange titles...
         spectrumTitle = fixMgfTitle(spectrumTitle, fileName);
         return mgfIndexesMap.containsKey(fileName) && mgfIndexesMap.get(fileName).containsSpectrum(spectrumTitle);
@@ -618,7 +664,7 @@ public class SpectrumFactory {
      * @throws IllegalArgumentException exception thrown whenever the file was
      * not parsed correctly
      */
-    private synchronized Precursor getPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
+    private Precursor getPrecursor(String fileName, String spectrumTitle, boolean save, long waitingTime) throws IOException, MzMLUnmarshallerException, IllegalArgumentException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -638,11 +684,13 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + fileName + "\' not found.");
             }
             try {
-                currentPrecursor = MgfReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                currentPrecursor = MgfReader.getPrecursor(mgfFileChannelsMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
             } catch (Exception e) {
+                // the channel is closed for all threads when a thread reading it is interrupted
+                reopenClosedChannel(fileName);
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
                     return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
@@ -664,11 +712,13 @@ public class SpectrumFactory {
             }
             try {
                 
-                currentPrecursor = MspReader.getPrecursor(mgfRandomAccessFilesMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
+                currentPrecursor = MspReader.getPrecursor(mgfFileChannelsMap.get(fileName), mgfIndexesMap.get(fileName).getIndex(spectrumTitle), fileName);
             } catch (Exception e) {
+                // the channel is closed for all threads when a thread reading it is interrupted
+                reopenClosedChannel(fileName);
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
                     return getPrecursor(fileName, spectrumTitle, save, 2 * waitingTime);
@@ -678,60 +728,31 @@ public class SpectrumFactory {
                 }
             }
         }else if (fileName.toLowerCase().endsWith(".mzml")) {
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(fileName).getSpectrumById(spectrumTitle);
-            int level = 2;
-            double mzPrec = 0.0;
-            double scanTime = -1.0;
-            int chargePrec = 0;
-            for (CVParam cvParam : mzMLSpectrum.getCvParam()) {
-                if (cvParam.getAccession().equals("MS:1000511")) {
-                    level = new Integer(cvParam.getValue());
-                    break;
-                }
+            MzMLReader mzMLReader = mzMLReaders.get(fileName);
+            if (mzMLReader == null) {
+                throw new IOException("mzML file not found: \'" + fileName + "\'.");
             }
-            ScanList scanList = mzMLSpectrum.getScanList();
-            if (scanList != null) {
-                for (CVParam cvParam : scanList.getScan().get(scanList.getScan().size() - 1).getCvParam()) {
-                    if (cvParam.getAccession().equals("MS:1000016")) {
-                        scanTime = new Double(cvParam.getValue());
-                        break;
-                    }
-                }
+            currentPrecursor = mzMLReader.getPrecursor(spectrumTitle);
+            if (currentPrecursor == null) {
+                throw new IOException("Spectrum \'" + spectrumTitle + "\' in mzML file \'" + fileName + "\' not found!");
             }
-            PrecursorList precursorList = mzMLSpectrum.getPrecursorList();
-            if (precursorList != null) {
-                if (precursorList.getCount().intValue() == 1) {
-                    SelectedIonList sIonList = precursorList.getPrecursor().get(0).getSelectedIonList();
-                    if (sIonList != null) {
-                        for (CVParam cvParam : sIonList.getSelectedIon().get(0).getCvParam()) {
-                            if (cvParam.getAccession().equals("MS:1000744")
-                                    || cvParam.getAccession().equals("MS:1000040")) {
-                                mzPrec = new Double(cvParam.getValue());
-                            } else if (cvParam.getAccession().equals("MS:1000041")) {
-                                chargePrec = new Integer(cvParam.getValue());
-                            }
-                        }
-                    }
-                }
+        } else if (fileName.toLowerCase().endsWith(CmsFileReader.EXTENSION)) {
+            CmsFileReader cmsFileReader = cmsFileReaders.get(fileName);
+            if (cmsFileReader == null) {
+                throw new IOException("cms file not found: \'" + fileName + "\'.");
             }
-            if (level == 1) {
-                throw new IllegalArgumentException("MS1 spectrum");
-            } else {
-                //@TODO: is this correct..?
-                ArrayList<Charge> charges = new ArrayList<Charge>();
-                charges.add(new Charge(Charge.PLUS, chargePrec));
-                currentPrecursor = new Precursor(scanTime, mzPrec, charges);
+            currentPrecursor = cmsFileReader.getPrecursor(spectrumTitle);
+            if (currentPrecursor == null) {
+                if (!cmsFileReader.containsSpectrum(spectrumTitle)) {
+                    throw new IOException("Spectrum \'" + spectrumTitle + "\' in cms file \'" + fileName + "\' not found!");
+                }
+                throw new IllegalArgumentException("No precursor found for spectrum " + spectrumTitle + " of file " + fileName + ".");
             }
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
         if (save) {
-            HashMap<String, Precursor> fileMap = loadedPrecursorsMap.get(fileName);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Precursor>();
-                loadedPrecursorsMap.put(fileName, fileMap);
-            }
-            fileMap.put(spectrumTitle, currentPrecursor);
+            precursorCache.put(Spectrum.getSpectrumKey(fileName, spectrumTitle), currentPrecursor);
         }
 
         return currentPrecursor;
@@ -769,12 +790,9 @@ public class SpectrumFactory {
      * occurred while parsing the mzML file
      */
     public Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum) throws IOException, MzMLUnmarshallerException {
-        HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-        if (fileMap != null) {
-            Spectrum currentSpectrum = fileMap.get(spectrumTitle);
-            if (currentSpectrum != null) {
-                return currentSpectrum;
-            }
+        Spectrum currentSpectrum = spectrumCache.get(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle));
+        if (currentSpectrum != null) {
+            return currentSpectrum;
         }
         return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 1);
     }
@@ -835,7 +853,7 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the file
      */
-    private synchronized Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
+    private Spectrum getSpectrum(String spectrumFile, String spectrumTitle, long waitingTime) throws IOException, MzMLUnmarshallerException {
         return getSpectrum(spectrumFile, spectrumTitle, true, waitingTime);
     }
     
@@ -860,7 +878,7 @@ public class SpectrumFactory {
      * @throws MzMLUnmarshallerException exception thrown whenever an error
      * occurred while parsing the file
      */
-    private synchronized Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum, long waitingTime) throws IOException, MzMLUnmarshallerException {
+    private Spectrum getSpectrum(String spectrumFile, String spectrumTitle, boolean toCacheSpectrum, long waitingTime) throws IOException, MzMLUnmarshallerException {
 
         if (waitingTime <= 0) {
             throw new IllegalArgumentException("Waiting time should be a positive number.");
@@ -880,11 +898,13 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mgf file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MgfReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                currentSpectrum = MgfReader.getSpectrum(mgfFileChannelsMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
             } catch (Exception e) {
+                // the channel is closed for all threads when a thread reading it is interrupted
+                reopenClosedChannel(spectrumFile);
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
                     return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
@@ -905,11 +925,13 @@ public class SpectrumFactory {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in msp file \'" + spectrumFile + "\' not found!");
             }
             try {
-                currentSpectrum = MspReader.getSpectrum(mgfRandomAccessFilesMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
+                currentSpectrum = MspReader.getSpectrum(mgfFileChannelsMap.get(spectrumFile), mgfIndexesMap.get(spectrumFile).getIndex(spectrumTitle), spectrumFile);
             } catch (Exception e) {
+                // the channel is closed for all threads when a thread reading it is interrupted
+                reopenClosedChannel(spectrumFile);
                 if (waitingTime < timeOut) {
                     try {
-                        wait(waitingTime);
+                        Thread.sleep(waitingTime);
                     } catch (InterruptedException ie) {
                     }
                     return getSpectrum(spectrumFile, spectrumTitle, toCacheSpectrum, 2 * waitingTime);
@@ -920,95 +942,59 @@ public class SpectrumFactory {
             }
         } else if (spectrumFile.toLowerCase().endsWith(".mzml")) {
 
-            if (mzMLUnmarshallers.get(spectrumFile) == null) {
+            MzMLReader mzMLReader = mzMLReaders.get(spectrumFile);
+            if (mzMLReader == null) {
                 throw new IOException("mzML file not found: \'" + spectrumFile + "\'!");
             }
-            if (mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle) == null) {
+            currentSpectrum = mzMLReader.getSpectrum(spectrumTitle);
+            if (currentSpectrum == null) {
                 throw new IOException("Spectrum \'" + spectrumTitle + "\' in mzML file \'" + spectrumFile + "\' not found!");
             }
-
-            uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshallers.get(spectrumFile).getSpectrumById(spectrumTitle);
-            int level = 2;
-            double mzPrec = 0.0;
-            double scanTime = -1.0;
-            int chargePrec = 0;
-            for (CVParam cvParam : mzMLSpectrum.getCvParam()) {
-                if (cvParam.getAccession().equals("MS:1000511")) {
-                    level = new Integer(cvParam.getValue());
-                    break;
-                }
-            }
-            ScanList scanList = mzMLSpectrum.getScanList();
-            if (scanList != null) {
-                for (CVParam cvParam : scanList.getScan().get(scanList.getScan().size() - 1).getCvParam()) {
-                    if (cvParam.getAccession().equals("MS:1000016")) {
-                        scanTime = new Double(cvParam.getValue());
-                        break;
-                    }
-                }
+        } else if (spectrumFile.toLowerCase().endsWith(CmsFileReader.EXTENSION)) {
+            CmsFileReader cmsFileReader = cmsFileReaders.get(spectrumFile);
+            if (cmsFileReader == null) {
+                throw new IOException("cms file not found: \'" + spectrumFile + "\'!");
             }
-            PrecursorList precursorList = mzMLSpectrum.getPrecursorList();
-            if (precursorList != null) {
-                if (precursorList.getCount().intValue() == 1) {
-                    SelectedIonList sIonList = precursorList.getPrecursor().get(0).getSelectedIonList();
-                    if (sIonList != null) {
-                        for (CVParam cvParam : sIonList.getSelectedIon().get(0).getCvParam()) {
-                            if (cvParam.getAccession().equals("MS:1000744")
-                                    || cvParam.getAccession().equals("MS:1000040")) {
-                                mzPrec = new Double(cvParam.getValue());
-                            } else if (cvParam.getAccession().equals("MS:1000041")) {
-                                chargePrec = new Integer(cvParam.getValue());
-                            }
-                        }
-                    }
-                }
-            }
-            List<BinaryDataArray> bdal = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
-            BinaryDataArray mzBinaryDataArray = (BinaryDataArray) bdal.get(0);
-            Number[] mzNumbers = mzBinaryDataArray.getBinaryDataAsNumberArray();
-            BinaryDataArray intBinaryDataArray = (BinaryDataArray) bdal.get(1);
-            Number[] intNumbers = intBinaryDataArray.getBinaryDataAsNumberArray();
-            HashMap<Double, Peak> peakList = new HashMap<Double, Peak>();
-            for (int i = 0; i < mzNumbers.length; i++) {
-                peakList.put(mzNumbers[i].doubleValue(), new Peak(mzNumbers[i].doubleValue(), intNumbers[i].doubleValue(), scanTime));
-            }
-            if (level == 1) {
-                currentSpectrum = new MS1Spectrum(spectrumFile, spectrumTitle, scanTime, peakList);
-            } else {
-                //@TODO: is this the correct way to set the precursor..?
-                ArrayList<Charge> charges = new ArrayList<Charge>();
-                charges.add(new Charge(Charge.PLUS, chargePrec));
-                Precursor precursor = new Precursor(scanTime, mzPrec, charges);
-                currentSpectrum = new MSnSpectrum(level, precursor, spectrumTitle, peakList, spectrumFile, scanTime);
+            currentSpectrum = cmsFileReader.getSpectrum(spectrumTitle);
+            if (currentSpectrum == null) {
+                throw new IOException("Spectrum \'" + spectrumTitle + "\' in cms file \'" + spectrumFile + "\' not found!");
             }
         } else {
             throw new IllegalArgumentException("Spectrum file format not supported.");
         }
-        if (loadedSpectra.size() == nSpectraCache) {
-            String tempKey = loadedSpectra.pollFirst();
-            String tempFile = Spectrum.getSpectrumFile(tempKey);
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(tempFile);
-            if (fileMap != null) {
-                String tempTitle = Spectrum.getSpectrumTitle(tempKey);
-                fileMap.remove(tempTitle);
-            }
+        if (toCacheSpectrum) {
+            cacheSpectrum(Spectrum.getSpectrumKey(spectrumFile, spectrumTitle), currentSpectrum);
         }
-        // @TODO: currentSpectrumMap is currently growing forever. Its growth should be limited in some way.
-        if (toCacheSpectrum){
-            HashMap<String, Spectrum> fileMap = currentSpectrumMap.get(spectrumFile);
-            if (fileMap == null) {
-                fileMap = new HashMap<String, Spectrum>();
-                currentSpectrumMap.put(spectrumFile, fileMap);
+        return currentSpectrum;
+    }
+
+    /**
+     * Adds a spectrum to the cache and removes the spectra loaded first if the
+     * cache is full.
+     *
+     * @param spectrumKey the key of the spectrum
+     * @param spectrum the spectrum
+     */
+    private void cacheSpectrum(String spectrumKey, Spectrum spectrum) {
+        if (spectrumCache.put(spectrumKey, spectrum) == null) {
+            cachedSpectrumKeys.add(spectrumKey);
+            int nSpectra = nCachedSpectra.incrementAndGet();
+            while (nSpectra > nSpectraCache) {
+                String oldestKey = cachedSpectrumKeys.poll();
+                if (oldestKey == null) {
+                    break;
+                }
+                spectrumCache.remove(oldestKey);
+                nSpectra = nCachedSpectra.decrementAndGet();
             }
-            fileMap.put(spectrumTitle, currentSpectrum);
         }
-        String spectrumKey = Spectrum.getSpectrumKey(spectrumFile, spectrumTitle);
-        loadedSpectra.add(spectrumKey);
-        return currentSpectrum;
     }
 
     /**
-     * Writes the given mgf file index in the given directory.
+     * Writes the given mgf file index in the given directory. The index is
+     * written in a binary format which can be memory mapped, under a
+     * temporary name renamed when complete so that concurrent processes never
+     * read a partial index.
      *
      * @param mgfIndex the mgf file index
      * @param directory the destination directory
@@ -1017,23 +1003,69 @@ public class SpectrumFactory {
      */
     public void writeIndex(MgfIndex mgfIndex, File directory) throws IOException {
         File indexFile = new File(directory, getIndexName(mgfIndex.getFileName()));
-        SerializationUtils.writeObject(mgfIndex, indexFile);
+        File tempFile = File.createTempFile(indexFile.getName(), ".tmp", directory);
+        try {
+            BinaryFileWriter writer = new BinaryFileWriter(tempFile);
+            try {
+                mgfIndex.write(writer);
+            } finally {
+                writer.close();
+            }
+            if (!tempFile.renameTo(indexFile)) {
+                indexFile.delete();
+                if (!tempFile.renameTo(indexFile)) {
+                    throw new IOException("Impossible to write the index file " + indexFile.getAbsolutePath() + ".");
+                }
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
     }
 
     /**
-     * Deserializes the index of an mgf file.
+     * Reads the index of an mgf file. The arrays of the index are memory
+     * mapped and not loaded in the heap.
      *
      * @param mgfIndex the mgf index cui file
      * @return the corresponding mgf index object
      * @throws FileNotFoundException exception thrown whenever the file was not
      * found
      * @throws IOException exception thrown whenever an error was encountered
-     * while reading the file
+     * while reading the file, or if the file is not in the current index
+     * format
      * @throws ClassNotFoundException exception thrown whenever an error
      * occurred while deserializing the object
      */
     public MgfIndex getIndex(File mgfIndex) throws FileNotFoundException, IOException, ClassNotFoundException {
-        return (MgfIndex) SerializationUtils.readObject(mgfIndex);
+        MappedFileReader reader = new MappedFileReader(mgfIndex);
+        try {
+            return new MgfIndex(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Opens the channel of an mgf or msp file again if it was closed, e.g. by
+     * the interruption of a thread reading it.
+     *
+     * @param fileName the name of the file
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    private void reopenClosedChannel(String fileName) throws IOException {
+        FileChannel fileChannel = mgfFileChannelsMap.get(fileName);
+        File file = filesMap.get(fileName);
+        if (fileChannel != null && !fileChannel.isOpen() && file != null) {
+            FileChannel newChannel = new RandomAccessFile(file, "r").getChannel();
+            if (!mgfFileChannelsMap.replace(fileName, fileChannel, newChannel)) {
+                // reopened by another thread
+                newChannel.close();
+            }
+        }
     }
 
     /**
@@ -1043,8 +1075,11 @@ public class SpectrumFactory {
      * closing the files
      */
     public void closeFiles() throws IOException {
-        for (BufferedRandomAccessFile randomAccessFile : mgfRandomAccessFilesMap.values()) {
-            randomAccessFile.close();
+        for (FileChannel fileChannel : mgfFileChannelsMap.values()) {
+            fileChannel.close();
+        }
+        for (MzMLReader mzMLReader : mzMLReaders.values()) {
+            mzMLReader.close();
         }
     }
 
@@ -1054,7 +1089,7 @@ public class SpectrumFactory {
      * @return a list of loaded mgf files
      */
     public ArrayList<String> getMgfFileNames() {
-        return new ArrayList<String>(mgfRandomAccessFilesMap.keySet());
+        return new ArrayList<String>(mgfFileChannelsMap.keySet());
     }
 
     /**
@@ -1063,16 +1098,25 @@ public class SpectrumFactory {
      * @return a list of loaded mzML files
      */
     public ArrayList<String> getMzMLFileNames() {
-        return new ArrayList<String>(mzMLUnmarshallers.keySet());
+        return new ArrayList<String>(mzMLReaders.keySet());
     }
 
     /**
-     * Returns a list of titles from indexed spectra in the given file.
+     * Returns a list of titles from indexed spectra in the given file. Null if
+     * the file is not loaded.
      *
-     * @param mgfFile the name of the mgf file
+     * @param mgfFile the name of the spectrum file
      * @return a list of titles from indexed spectra in the given file
      */
     public ArrayList<String> getSpectrumTitles(String mgfFile) {
+        CmsFileReader cmsFileReader = cmsFileReaders.get(mgfFile);
+        if (cmsFileReader != null) {
+            return cmsFileReader.getSpectrumTitles();
+        }
+        MzMLReader mzMLReader = mzMLReaders.get(mgfFile);
+        if (mzMLReader != null) {
+            return mzMLReader.getSpectrumIds();
+        }
         MgfIndex index = mgfIndexesMap.get(mgfFile);
         if (index == null) {
             return null;
@@ -1097,6 +1141,25 @@ public class SpectrumFactory {
         return mgfIndex.getSpectrumIndex(spectrumTitle);
     }
 
+    /**
+     * Returns the position of the given spectrum in its mgf file, i.e., the
+     * index where the spectrum starts being read. Null if the spectrum is not
+     * in an indexed mgf file.
+     *
+     * @param spectrumKey the key of the spectrum
+     *
+     * @return the position of the given spectrum in its mgf file
+     */
+    public Long getSpectrumFileIndex(String spectrumKey) {
+        String fileName = Spectrum.getSpectrumFile(spectrumKey);
+        MgfIndex mgfIndex = mgfIndexesMap.get(fileName);
+        if (mgfIndex == null) {
+            return null;
+        }
+        String spectrumTitle = fixMgfTitle(Spectrum.getSpectrumTitle(spectrumKey), fileName);
+        return mgfIndex.getIndex(spectrumTitle);
+    }
+
     /**
      * Returns the spectrum title of the spectrum of the given number in the
      * given file. 1 is the first spectrum. Null if not found.
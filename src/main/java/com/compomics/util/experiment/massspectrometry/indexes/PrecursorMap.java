@@ -1,12 +1,18 @@
 package com.compomics.util.experiment.massspectrometry.indexes;
 
+import com.compomics.util.experiment.massspectrometry.Charge;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the precursors indexed by mass.
+ * This map stores the precursors indexed by mass. The precursors are stored
+ * in arrays sorted by m/z, and per charge in arrays sorted by mass, allowing
+ * range queries of any width by binary search and the matching of sorted
+ * lists of candidates in a single sweep.
  *
  * @author Marc Vaudel
  */
@@ -21,9 +27,30 @@ public class PrecursorMap {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The m/z of the precursors sorted in ascending order.
      */
-    private HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> precursorsMap = new HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>>();
+    private double[] mzArray;
+    /**
+     * The precursors in the order of the m/z array.
+     */
+    private PrecursorWithTitle[] precursorArray;
+    /**
+     * The charges of the precursors in ascending order.
+     */
+    private int[] charges;
+    /**
+     * For every charge, the masses of the precursors carrying this charge
+     * sorted in ascending order.
+     */
+    private double[][] massArrays;
+    /**
+     * For every charge, the precursors in the order of the mass array.
+     */
+    private PrecursorWithTitle[][] chargePrecursorArrays;
+    /**
+     * Map of the precursors by bin and m/z, built upon first use of the bins.
+     */
+    private HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> precursorsMap = null;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -46,7 +73,9 @@ public class PrecursorMap {
     private Double maxMz = null;
 
     /**
-     * Builds a precursor map.
+     * Builds a precursor map. Precursors are indexed by charge for all the
+     * positive charge values they carry, precursors without charge are only
+     * available in the m/z queries.
      *
      * @param precursors map of the precursors indexed by spectrum title
      * @param precursorTolerance the precursor mass tolerance to use
@@ -58,28 +87,71 @@ public class PrecursorMap {
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - precursorTolerance) / (1000000 + precursorTolerance));
         }
+
+        precursorArray = new PrecursorWithTitle[precursors.size()];
+        HashMap<Integer, Integer> chargeCount = new HashMap<Integer, Integer>();
+        int i = 0;
         for (String spectrumTitle : precursors.keySet()) {
             Precursor precursor = precursors.get(spectrumTitle);
-            PrecursorWithTitle precursorWithTitle = new PrecursorWithTitle(precursor, spectrumTitle);
-            double mz = precursor.getMz();
-            if (minMz == null || mz < minMz) {
-                minMz = mz;
+            precursorArray[i++] = new PrecursorWithTitle(precursor, spectrumTitle);
+            for (Charge charge : precursor.getPossibleCharges()) {
+                if (charge.value > 0) {
+                    Integer count = chargeCount.get(charge.value);
+                    chargeCount.put(charge.value, count == null ? 1 : count + 1);
+                }
             }
-            if (maxMz == null || mz > maxMz) {
-                maxMz = mz;
+        }
+        Arrays.sort(precursorArray, new Comparator<PrecursorWithTitle>() {
+            @Override
+            public int compare(PrecursorWithTitle precursor1, PrecursorWithTitle precursor2) {
+                return Double.compare(precursor1.precursor.getMz(), precursor2.precursor.getMz());
             }
-            Integer bin = getBin(mz);
-            HashMap<Double, ArrayList<PrecursorWithTitle>> precursorsInBin = precursorsMap.get(bin);
-            if (precursorsInBin == null) {
-                precursorsInBin = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
-                precursorsMap.put(bin, precursorsInBin);
+        });
+        mzArray = new double[precursorArray.length];
+        for (i = 0; i < precursorArray.length; i++) {
+            mzArray[i] = precursorArray[i].precursor.getMz();
+        }
+        if (mzArray.length > 0) {
+            minMz = mzArray[0];
+            maxMz = mzArray[mzArray.length - 1];
+        }
+
+        // The mass is monotonous in m/z for a given charge, filling the partitions in m/z order keeps them sorted.
+        charges = new int[chargeCount.size()];
+        i = 0;
+        for (Integer charge : chargeCount.keySet()) {
+            charges[i++] = charge;
+        }
+        Arrays.sort(charges);
+        massArrays = new double[charges.length][];
+        chargePrecursorArrays = new PrecursorWithTitle[charges.length][];
+        int[] sizes = new int[charges.length];
+        for (i = 0; i < charges.length; i++) {
+            int size = chargeCount.get(charges[i]);
+            massArrays[i] = new double[size];
+            chargePrecursorArrays[i] = new PrecursorWithTitle[size];
+        }
+        for (PrecursorWithTitle precursorWithTitle : precursorArray) {
+            for (Charge charge : precursorWithTitle.precursor.getPossibleCharges()) {
+                int chargeIndex = Arrays.binarySearch(charges, charge.value);
+                if (chargeIndex >= 0) {
+                    double mass = precursorWithTitle.precursor.getMass(charge.value);
+                    int size = sizes[chargeIndex];
+                    if (size > 0 && chargePrecursorArrays[chargeIndex][size - 1] == precursorWithTitle) {
+                        // charge value listed twice for this precursor
+                        continue;
+                    }
+                    massArrays[chargeIndex][size] = mass;
+                    chargePrecursorArrays[chargeIndex][size] = precursorWithTitle;
+                    sizes[chargeIndex]++;
+                }
             }
-            ArrayList<PrecursorWithTitle> precursorsAtMz = precursorsInBin.get(mz);
-            if (precursorsAtMz == null) {
-                precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
-                precursorsInBin.put(mz, precursorsAtMz);
+        }
+        for (i = 0; i < charges.length; i++) {
+            if (sizes[i] < massArrays[i].length) {
+                massArrays[i] = Arrays.copyOf(massArrays[i], sizes[i]);
+                chargePrecursorArrays[i] = Arrays.copyOf(chargePrecursorArrays[i], sizes[i]);
             }
-            precursorsAtMz.add(precursorWithTitle);
         }
     }
 
@@ -124,61 +196,303 @@ public class PrecursorMap {
         return bin;
     }
 
+    /**
+     * Returns the error between the m/z of a precursor and a queried m/z, in
+     * ppm or Th according to the tolerance.
+     *
+     * @param precursorMz the m/z of the precursor
+     * @param referenceMz the queried m/z
+     *
+     * @return the error
+     */
+    private double getError(double precursorMz, double referenceMz) {
+        if (ppm) {
+            return 1000000 * (precursorMz - referenceMz) / referenceMz;
+        } else {
+            return precursorMz - referenceMz;
+        }
+    }
+
     /**
      * Returns a list containing the precursors matching the given m/z.
-     * TODO: check only one/two bins when possible
      *
      * @param referenceMz a mz to query
      *
      * @return a list containing the precursors matching the given m/z
      */
     public ArrayList<PrecursorWithTitle> getMatchingSpectra(double referenceMz) {
-        
-        int bin0 = getBin(referenceMz);
-        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(0);
-        HashMap<Double, ArrayList<PrecursorWithTitle>> binContent = precursorsMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
+        int low = 0;
+        int high = mzArray.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getError(mzArray[middle], referenceMz) < -precursorTolerance) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
         }
-        binContent = precursorsMap.get(bin0);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
-                }
+        int end = low;
+        while (end < mzArray.length && getError(mzArray[end], referenceMz) <= precursorTolerance) {
+            end++;
+        }
+        return getPrecursors(precursorArray, low, end);
+    }
+
+    /**
+     * Returns the precursors with an m/z in the given range, bounds included,
+     * sorted by m/z.
+     *
+     * @param lowMz the lower bound of the m/z range
+     * @param highMz the upper bound of the m/z range
+     *
+     * @return the precursors with an m/z in the given range
+     */
+    public ArrayList<PrecursorWithTitle> getPrecursorsInMzRange(double lowMz, double highMz) {
+        return getPrecursors(precursorArray, getIndexAbove(mzArray, lowMz), getIndexAbove(mzArray, highMz, true));
+    }
+
+    /**
+     * Returns the charges of the precursors in ascending order.
+     *
+     * @return the charges of the precursors
+     */
+    public int[] getCharges() {
+        return charges.clone();
+    }
+
+    /**
+     * Returns the index of the given charge in the charge partitions.
+     *
+     * @param charge the charge value
+     *
+     * @return the index of the given charge, -1 if no precursor has this
+     * charge
+     */
+    private int getChargeIndex(int charge) {
+        int chargeIndex = Arrays.binarySearch(charges, charge);
+        return chargeIndex >= 0 ? chargeIndex : -1;
+    }
+
+    /**
+     * Returns the number of precursors carrying the given charge.
+     *
+     * @param charge the charge value
+     *
+     * @return the number of precursors carrying the given charge
+     */
+    public int getNPrecursors(int charge) {
+        int chargeIndex = getChargeIndex(charge);
+        return chargeIndex == -1 ? 0 : massArrays[chargeIndex].length;
+    }
+
+    /**
+     * Returns the mass of the precursor at the given index for the given
+     * charge, precursors being sorted by mass.
+     *
+     * @param charge the charge value
+     * @param index the index of the precursor
+     *
+     * @return the mass of the precursor
+     */
+    public double getPrecursorMass(int charge, int index) {
+        return massArrays[getChargeIndex(charge)][index];
+    }
+
+    /**
+     * Returns the precursor at the given index for the given charge,
+     * precursors being sorted by mass.
+     *
+     * @param charge the charge value
+     * @param index the index of the precursor
+     *
+     * @return the precursor
+     */
+    public PrecursorWithTitle getPrecursor(int charge, int index) {
+        return chargePrecursorArrays[getChargeIndex(charge)][index];
+    }
+
+    /**
+     * Returns the index of the first precursor of the given charge with a
+     * mass greater than or equal to the given mass. Together with
+     * getMassRangeEnd, this allows iterating the precursors in a mass range
+     * without allocating objects.
+     *
+     * @param charge the charge value
+     * @param lowMass the lower bound of the mass range
+     *
+     * @return the index of the first precursor in the mass range
+     */
+    public int getMassRangeStart(int charge, double lowMass) {
+        int chargeIndex = getChargeIndex(charge);
+        return chargeIndex == -1 ? 0 : getIndexAbove(massArrays[chargeIndex], lowMass);
+    }
+
+    /**
+     * Returns the index following the last precursor of the given charge with
+     * a mass lower than or equal to the given mass.
+     *
+     * @param charge the charge value
+     * @param highMass the upper bound of the mass range
+     *
+     * @return the index following the last precursor in the mass range
+     */
+    public int getMassRangeEnd(int charge, double highMass) {
+        int chargeIndex = getChargeIndex(charge);
+        return chargeIndex == -1 ? 0 : getIndexAbove(massArrays[chargeIndex], highMass, true);
+    }
+
+    /**
+     * Returns the precursors of the given charge with a mass in the given
+     * range, bounds included, sorted by mass.
+     *
+     * @param charge the charge value
+     * @param lowMass the lower bound of the mass range
+     * @param highMass the upper bound of the mass range
+     *
+     * @return the precursors with a mass in the given range
+     */
+    public ArrayList<PrecursorWithTitle> getPrecursorsInMassRange(int charge, double lowMass, double highMass) {
+        int chargeIndex = getChargeIndex(charge);
+        if (chargeIndex == -1) {
+            return new ArrayList<PrecursorWithTitle>(0);
+        }
+        double[] masses = massArrays[chargeIndex];
+        return getPrecursors(chargePrecursorArrays[chargeIndex], getIndexAbove(masses, lowMass), getIndexAbove(masses, highMass, true));
+    }
+
+    /**
+     * Matches candidate masses sorted in ascending order against the
+     * precursors of the given charge in a single sweep. For every candidate
+     * mass, the precursors with a mass between candidateMass + lowerShift and
+     * candidateMass + upperShift, bounds included, are those from
+     * rangeStarts[i] included to rangeEnds[i] excluded. Since the windows
+     * move in the same direction as the candidates, the complexity is linear
+     * in the number of candidates and precursors.
+     *
+     * @param charge the charge value
+     * @param candidateMasses the candidate masses sorted in ascending order
+     * @param lowerShift the lower bound of the window relative to the
+     * candidate mass, e.g., -500 for an open search
+     * @param upperShift the upper bound of the window relative to the
+     * candidate mass
+     * @param rangeStarts array where to store the start of the range of every
+     * candidate
+     * @param rangeEnds array where to store the end of the range of every
+     * candidate
+     */
+    public void getMassRanges(int charge, double[] candidateMasses, double lowerShift, double upperShift, int[] rangeStarts, int[] rangeEnds) {
+        if (rangeStarts.length < candidateMasses.length || rangeEnds.length < candidateMasses.length) {
+            throw new IllegalArgumentException("The range arrays must be at least as long as the candidate masses array.");
+        }
+        int chargeIndex = getChargeIndex(charge);
+        double[] masses = chargeIndex == -1 ? new double[0] : massArrays[chargeIndex];
+        int start = 0;
+        int end = 0;
+        double previousMass = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < candidateMasses.length; i++) {
+            double candidateMass = candidateMasses[i];
+            if (candidateMass < previousMass) {
+                throw new IllegalArgumentException("Candidate masses must be sorted in ascending order, found " + candidateMass + " after " + previousMass + ".");
             }
+            previousMass = candidateMass;
+            double lowMass = candidateMass + lowerShift;
+            double highMass = candidateMass + upperShift;
+            while (start < masses.length && masses[start] < lowMass) {
+                start++;
+            }
+            if (end < start) {
+                end = start;
+            }
+            while (end < masses.length && masses[end] <= highMass) {
+                end++;
+            }
+            rangeStarts[i] = start;
+            rangeEnds[i] = end;
         }
-        binContent = precursorsMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double precursorMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (precursorMz - referenceMz) / referenceMz;
-                } else {
-                    error = precursorMz - referenceMz;
+    }
+
+    /**
+     * Returns the index of the first value greater than or equal to the given
+     * value in a sorted array.
+     *
+     * @param array the sorted array
+     * @param value the value
+     *
+     * @return the index of the first value greater than or equal to the given
+     * value
+     */
+    private static int getIndexAbove(double[] array, double value) {
+        return getIndexAbove(array, value, false);
+    }
+
+    /**
+     * Returns the index of the first value greater than, or greater than or
+     * equal to, the given value in a sorted array.
+     *
+     * @param array the sorted array
+     * @param value the value
+     * @param strict if true the first value strictly greater is returned
+     *
+     * @return the index of the first value above the given value
+     */
+    private static int getIndexAbove(double[] array, double value, boolean strict) {
+        int low = 0;
+        int high = array.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            double arrayValue = array[middle];
+            if (arrayValue < value || strict && arrayValue == value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the precursors of the given array between the given indexes.
+     *
+     * @param array the array of precursors
+     * @param start the index of the first precursor
+     * @param end the index following the last precursor
+     *
+     * @return the precursors between the given indexes
+     */
+    private static ArrayList<PrecursorWithTitle> getPrecursors(PrecursorWithTitle[] array, int start, int end) {
+        ArrayList<PrecursorWithTitle> result = new ArrayList<PrecursorWithTitle>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            result.add(array[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the map of the precursors by bin and m/z, builds it if needed.
+     *
+     * @return the map of the precursors by bin and m/z
+     */
+    private synchronized HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> getPrecursorsMap() {
+        if (precursorsMap == null) {
+            HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>> binnedPrecursors = new HashMap<Integer, HashMap<Double, ArrayList<PrecursorWithTitle>>>();
+            for (PrecursorWithTitle precursorWithTitle : precursorArray) {
+                double mz = precursorWithTitle.precursor.getMz();
+                Integer bin = getBin(mz);
+                HashMap<Double, ArrayList<PrecursorWithTitle>> precursorsInBin = binnedPrecursors.get(bin);
+                if (precursorsInBin == null) {
+                    precursorsInBin = new HashMap<Double, ArrayList<PrecursorWithTitle>>(2);
+                    binnedPrecursors.put(bin, precursorsInBin);
                 }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.addAll(binContent.get(precursorMz));
+                ArrayList<PrecursorWithTitle> precursorsAtMz = precursorsInBin.get(mz);
+                if (precursorsAtMz == null) {
+                    precursorsAtMz = new ArrayList<PrecursorWithTitle>(1);
+                    precursorsInBin.put(mz, precursorsAtMz);
                 }
+                precursorsAtMz.add(precursorWithTitle);
             }
+            precursorsMap = binnedPrecursors;
         }
-        return result;
+        return precursorsMap;
     }
 
     /**
@@ -187,7 +501,7 @@ public class PrecursorMap {
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(precursorsMap.keySet());
+        return new ArrayList<Integer>(getPrecursorsMap().keySet());
     }
 
     /**
@@ -199,7 +513,7 @@ public class PrecursorMap {
      * @return the precursors at the given bin
      */
     public HashMap<Double, ArrayList<PrecursorWithTitle>> getPrecursorsInBin(int bin) {
-        return precursorsMap.get(bin);
+        return getPrecursorsMap().get(bin);
     }
 
     /**
@@ -3,12 +3,17 @@ package com.compomics.util.experiment.massspectrometry.indexes;
 import com.compomics.util.experiment.massspectrometry.Peak;
 import com.compomics.util.experiment.personalization.UrParameter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Set;
 import org.apache.commons.math.util.FastMath;
 
 /**
- * This map stores the fragment ions indexed by mass.
+ * This map stores the fragment ions indexed by mass. The peaks are stored in
+ * arrays sorted by m/z and the peaks matching a given m/z are found by binary
+ * search. The peaks matching an m/z can be iterated without allocating
+ * objects using getMatchStart and isMatch.
  *
  * @author Marc Vaudel
  */
@@ -23,9 +28,22 @@ public class SpectrumIndex implements UrParameter {
      */
     boolean ppm;
     /**
-     * Map of the precursors by bin and m/z.
+     * The m/z of the peaks above the intensity limit sorted in ascending
+     * order.
      */
-    private HashMap<Integer, HashMap<Double, Peak>> peaksMap;
+    private double[] mzArray;
+    /**
+     * The intensities of the peaks in the order of the m/z array.
+     */
+    private double[] intensityArray;
+    /**
+     * The peaks in the order of the m/z array.
+     */
+    private Peak[] peakArray;
+    /**
+     * Map of the precursors by bin and m/z, built upon first use of the bins.
+     */
+    private HashMap<Integer, HashMap<Double, Peak>> peaksMap = null;
     /**
      * An m/z anchor to determine the bins in ppm
      */
@@ -60,6 +78,9 @@ public class SpectrumIndex implements UrParameter {
      */
     public SpectrumIndex() {
         intensityLimit = 0.0;
+        mzArray = new double[0];
+        intensityArray = new double[0];
+        peakArray = new Peak[0];
     }
 
     /**
@@ -73,30 +94,42 @@ public class SpectrumIndex implements UrParameter {
      */
     public SpectrumIndex(HashMap<Double, Peak> peaks, double intenstiyLimit, double tolerance, boolean ppm) {
         this.intensityLimit = intenstiyLimit;
-        this.peaksMap = new HashMap<Integer, HashMap<Double, Peak>>();
         this.precursorTolerance = tolerance;
         this.ppm = ppm;
         if (ppm) {
             scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
         }
+
+        Peak[] selectedPeaks = new Peak[peaks.size()];
+        int nPeaks = 0;
         totalIntensity = 0.0;
         for (Peak peak : peaks.values()) {
             if (peak.intensity >= intenstiyLimit) {
                 totalIntensity += peak.intensity;
-                Integer bin = getBin(peak.mz);
-                if (binMax == null || bin > binMax) {
-                    binMax = bin;
-                }
-                if (binMin == null || bin < binMin) {
-                    binMin = bin;
-                }
-                HashMap<Double, Peak> peaksInBin = peaksMap.get(bin);
-                if (peaksInBin == null) {
-                    peaksInBin = new HashMap<Double, Peak>(4);
-                    peaksMap.put(bin, peaksInBin);
-                }
-                peaksInBin.put(peak.mz, peak);
+                selectedPeaks[nPeaks++] = peak;
+            }
+        }
+        Arrays.sort(selectedPeaks, 0, nPeaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak peak1, Peak peak2) {
+                return Double.compare(peak1.mz, peak2.mz);
             }
+        });
+
+        peakArray = Arrays.copyOf(selectedPeaks, nPeaks);
+        mzArray = new double[nPeaks];
+        intensityArray = new double[nPeaks];
+        for (int i = 0; i < nPeaks; i++) {
+            mzArray[i] = peakArray[i].mz;
+            intensityArray[i] = peakArray[i].intensity;
+        }
+
+        if (nPeaks > 0) {
+            // the bins are monotonous in m/z
+            int bin1 = getBin(mzArray[0]);
+            int bin2 = getBin(mzArray[nPeaks - 1]);
+            binMin = Math.min(bin1, bin2);
+            binMax = Math.max(bin1, bin2);
         }
     }
 
@@ -142,64 +175,145 @@ public class SpectrumIndex implements UrParameter {
     }
 
     /**
-     * Returns the peaks matching the given m/z. TODO: check only one/two bins
-     * when possible.
+     * Returns the error between the m/z of a peak and a queried m/z, in ppm
+     * or Da according to the tolerance.
      *
-     * @param mz a m/z to query
+     * @param peakMz the m/z of the peak
+     * @param mz the queried m/z
      *
-     * @return the peaks matching the given m/z
+     * @return the error
      */
-    public ArrayList<Peak> getMatchingPeaks(double mz) {
-        int bin0;
+    private double getError(double peakMz, double mz) {
         if (ppm) {
-            bin0 = getBinPpm(mz);
+            return 1000000 * (peakMz - mz) / mz;
         } else {
-            bin0 = getBinAbsolute(mz);
+            return peakMz - mz;
         }
-        ArrayList<Peak> result = new ArrayList<Peak>(0);
-        HashMap<Double, Peak> binContent = peaksMap.get(bin0 - 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
+    }
+
+    /**
+     * Returns the index of the first peak which can match the given m/z, i.e.,
+     * the first peak which is not below the tolerance window. The peaks
+     * matching the m/z, if any, are found from this index as long as isMatch
+     * returns true.
+     *
+     * @param mz a m/z to query
+     *
+     * @return the index of the first peak which can match the given m/z
+     */
+    public int getMatchStart(double mz) {
+        int low = 0;
+        int high = mzArray.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getError(mzArray[middle], mz) < -precursorTolerance) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
         }
-        binContent = peaksMap.get(bin0);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
-                }
-            }
+        return low;
+    }
+
+    /**
+     * Indicates whether the peak at the given index matches the given m/z.
+     * The index is expected to be at or after the value returned by
+     * getMatchStart for this m/z.
+     *
+     * @param index the index of the peak
+     * @param mz a m/z to query
+     *
+     * @return a boolean indicating whether the peak at the given index
+     * matches the given m/z
+     */
+    public boolean isMatch(int index, double mz) {
+        return index < mzArray.length && getError(mzArray[index], mz) <= precursorTolerance;
+    }
+
+    /**
+     * Returns the peaks matching the given m/z sorted by m/z.
+     *
+     * @param mz a m/z to query
+     *
+     * @return the peaks matching the given m/z
+     */
+    public ArrayList<Peak> getMatchingPeaks(double mz) {
+        int start = getMatchStart(mz);
+        int end = start;
+        while (isMatch(end, mz)) {
+            end++;
         }
-        binContent = peaksMap.get(bin0 + 1);
-        if (binContent != null) {
-            for (Double peakMz : binContent.keySet()) {
-                double error;
-                if (ppm) {
-                    error = 1000000 * (peakMz - mz) / mz;
-                } else {
-                    error = peakMz - mz;
-                }
-                if (Math.abs(error) <= precursorTolerance) {
-                    result.add(binContent.get(peakMz));
+        ArrayList<Peak> result = new ArrayList<Peak>(end - start);
+        for (int i = start; i < end; i++) {
+            result.add(peakArray[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of peaks in the index.
+     *
+     * @return the number of peaks in the index
+     */
+    public int getNPeaks() {
+        return mzArray.length;
+    }
+
+    /**
+     * Returns the peak at the given index, peaks being sorted by m/z.
+     *
+     * @param index the index of the peak
+     *
+     * @return the peak at the given index
+     */
+    public Peak getPeak(int index) {
+        return peakArray[index];
+    }
+
+    /**
+     * Returns the m/z of the peak at the given index, peaks being sorted by
+     * m/z.
+     *
+     * @param index the index of the peak
+     *
+     * @return the m/z of the peak at the given index
+     */
+    public double getMz(int index) {
+        return mzArray[index];
+    }
+
+    /**
+     * Returns the intensity of the peak at the given index, peaks being sorted
+     * by m/z.
+     *
+     * @param index the index of the peak
+     *
+     * @return the intensity of the peak at the given index
+     */
+    public double getIntensity(int index) {
+        return intensityArray[index];
+    }
+
+    /**
+     * Returns the map of the peaks by bin and m/z, builds it if needed.
+     *
+     * @return the map of the peaks by bin and m/z
+     */
+    private synchronized HashMap<Integer, HashMap<Double, Peak>> getPeaksMap() {
+        if (peaksMap == null) {
+            HashMap<Integer, HashMap<Double, Peak>> binnedPeaks = new HashMap<Integer, HashMap<Double, Peak>>();
+            for (Peak peak : peakArray) {
+                Integer bin = getBin(peak.mz);
+                HashMap<Double, Peak> peaksInBin = binnedPeaks.get(bin);
+                if (peaksInBin == null) {
+                    peaksInBin = new HashMap<Double, Peak>(4);
+                    binnedPeaks.put(bin, peaksInBin);
                 }
+                peaksInBin.put(peak.mz, peak);
             }
+            peaksMap = binnedPeaks;
         }
-        return result;
+        return peaksMap;
     }
 
     /**
@@ -208,7 +322,7 @@ public class SpectrumIndex implements UrParameter {
      * @return the bins in the map
      */
     public ArrayList<Integer> getBins() {
-        return new ArrayList<Integer>(peaksMap.keySet());
+        return new ArrayList<Integer>(getPeaksMap().keySet());
     }
 
     /**
@@ -217,7 +331,7 @@ public class SpectrumIndex implements UrParameter {
      * @return the bins in the map
      */
     public Set<Integer> getRawBins() {
-        return peaksMap.keySet();
+        return getPeaksMap().keySet();
     }
 
     /**
@@ -228,7 +342,7 @@ public class SpectrumIndex implements UrParameter {
      * @return the peaks at the given bin
      */
     public HashMap<Double, Peak> getPeaksInBin(Integer bin) {
-        return peaksMap.get(bin);
+        return getPeaksMap().get(bin);
     }
 
     /**
@@ -248,7 +362,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the highest bin.
-     * 
+     *
      * @return binMax the highest bin
      */
     public Integer getBinMax() {
@@ -257,7 +371,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the lowest bin.
-     * 
+     *
      * @return binMin the lowest bin
      */
     public Integer getBinMin() {
@@ -266,7 +380,7 @@ public class SpectrumIndex implements UrParameter {
 
     /**
      * Returns the total intensity of the peaks above the intensity threshold.
-     * 
+     *
      * @return the total intensity of the peaks above the intensity threshold
      */
     public double getTotalIntensity() {
@@ -64,6 +64,16 @@ public abstract class ExperimentObject implements Serializable, Cloneable {
         }
         return urParams.get(parameter.getParameterKey());
     }
+
+    /**
+     * Returns the map of user refinement parameters indexed by parameter key.
+     * Null if none set.
+     *
+     * @return the map of user refinement parameters
+     */
+    public HashMap<String, UrParameter> getUrParams() {
+        return urParams;
+    }
     
     /**
      * Clears the loaded parameters.
@@ -0,0 +1,131 @@
+package com.compomics.util.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Input stream reading a file channel from a given position using positional
+ * reads. The position of the channel is not used nor changed, different
+ * threads can hence read the same channel using different streams. A stream
+ * shall be used by one thread at a time.
+ *
+ * @author Marc Vaudel
+ */
+public class FileChannelInputStream extends InputStream {
+
+    /**
+     * The default size of the buffer in bytes.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    /**
+     * The channel to read from.
+     */
+    private final FileChannel fileChannel;
+    /**
+     * The buffer of bytes read from the channel.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The position in the channel of the next read.
+     */
+    private long position;
+    /**
+     * Indicates whether the end of the channel was reached.
+     */
+    private boolean endReached = false;
+
+    /**
+     * Constructor.
+     *
+     * @param fileChannel the channel to read from
+     * @param position the position where to start reading
+     */
+    public FileChannelInputStream(FileChannel fileChannel, long position) {
+        this(fileChannel, position, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fileChannel the channel to read from
+     * @param position the position where to start reading
+     * @param bufferSize the size of the buffer in bytes
+     */
+    public FileChannelInputStream(FileChannel fileChannel, long position, int bufferSize) {
+        this.fileChannel = fileChannel;
+        this.position = position;
+        buffer = ByteBuffer.allocate(bufferSize);
+        buffer.flip();
+    }
+
+    /**
+     * Fills the buffer from the channel if empty.
+     *
+     * @return a boolean indicating whether bytes are available in the buffer
+     *
+     * @throws IOException if an IOException occurs while reading the channel
+     */
+    private boolean fillBuffer() throws IOException {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (endReached) {
+            return false;
+        }
+        buffer.clear();
+        int read = 0;
+        while (read == 0) {
+            read = fileChannel.read(buffer, position);
+        }
+        buffer.flip();
+        if (read < 0) {
+            endReached = true;
+            return false;
+        }
+        position += read;
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillBuffer()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int n = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long skipped = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + (int) skipped);
+        if (skipped < n && !endReached) {
+            long toSkip = Math.min(n - skipped, Math.max(fileChannel.size() - position, 0));
+            position += toSkip;
+            skipped += toSkip;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer.remaining();
+    }
+}
@@ -0,0 +1,523 @@
+package com.compomics.util.io.binary;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writer for flat binary files. Primitive arrays are preceded by their length
+ * and aligned on eight bytes so that they can be memory mapped by the
+ * MappedFileReader. All values are written in little endian byte order.
+ *
+ * @author Marc Vaudel
+ */
+public class BinaryFileWriter {
+
+    /**
+     * The byte order used for all files.
+     */
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * The size of the write buffer in bytes.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024 * 1024;
+    /**
+     * The length written for null arrays.
+     */
+    public static final int NULL_LENGTH = -1;
+    /**
+     * The output stream to the file.
+     */
+    private final FileOutputStream fileOutputStream;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The write buffer.
+     */
+    private final ByteBuffer buffer;
+    /**
+     * The number of bytes written so far.
+     */
+    private long position = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param destinationFile the file to write
+     *
+     * @throws FileNotFoundException exception thrown whenever the file cannot
+     * be created
+     */
+    public BinaryFileWriter(File destinationFile) throws FileNotFoundException {
+        fileOutputStream = new FileOutputStream(destinationFile);
+        channel = fileOutputStream.getChannel();
+        buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.order(BYTE_ORDER);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return the number of bytes written so far
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Makes sure that the buffer can take the given number of bytes, flushes
+     * it otherwise.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void ensureCapacity(int nBytes) throws IOException {
+        if (buffer.remaining() < nBytes) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Pads the file with zeros until the position is a multiple of the given
+     * number of bytes.
+     *
+     * @param nBytes the alignment in bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void align(int nBytes) throws IOException {
+        while (position % nBytes != 0) {
+            writeByte((byte) 0);
+        }
+    }
+
+    /**
+     * Writes a byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByte(byte value) throws IOException {
+        ensureCapacity(1);
+        buffer.put(value);
+        position++;
+    }
+
+    /**
+     * Writes a boolean as a byte.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBoolean(boolean value) throws IOException {
+        writeByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    /**
+     * Writes an int.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeInt(int value) throws IOException {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        position += 4;
+    }
+
+    /**
+     * Writes a long.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLong(long value) throws IOException {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        position += 8;
+    }
+
+    /**
+     * Writes a double.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeDouble(double value) throws IOException {
+        ensureCapacity(8);
+        buffer.putDouble(value);
+        position += 8;
+    }
+
+    /**
+     * Writes a string as UTF-8 preceded by its length in bytes. Null strings
+     * are supported.
+     *
+     * @param value the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = getBytes(value);
+        writeInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the bytes of an array without length nor alignment.
+     *
+     * @param array the array
+     * @param offset the index of the first byte to write
+     * @param length the number of bytes to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeBytes(byte[] array, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            int chunk = Math.min(length - done, buffer.remaining());
+            buffer.put(array, offset + done, chunk);
+            done += chunk;
+        }
+        position += length;
+    }
+
+    /**
+     * Writes the values of a double array without length nor alignment.
+     *
+     * @param array the array
+     * @param offset the index of the first value to write
+     * @param length the number of values to write
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeDoubles(double[] array, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            ensureCapacity(8);
+            int chunk = Math.min(length - done, buffer.remaining() >> 3);
+            buffer.asDoubleBuffer().put(array, offset + done, chunk);
+            buffer.position(buffer.position() + (chunk << 3));
+            done += chunk;
+        }
+        position += ((long) length) << 3;
+    }
+
+    /**
+     * Writes a byte array preceded by its length, the content is aligned on
+     * eight bytes. Null arrays are supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByteArray(byte[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        align(8);
+        writeBytes(array, 0, array.length);
+    }
+
+    /**
+     * Writes an int array preceded by its length, the content is aligned on
+     * eight bytes. Null arrays are supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeIntArray(int[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        align(8);
+        int done = 0;
+        while (done < array.length) {
+            ensureCapacity(4);
+            int chunk = Math.min(array.length - done, buffer.remaining() >> 2);
+            buffer.asIntBuffer().put(array, done, chunk);
+            buffer.position(buffer.position() + (chunk << 2));
+            done += chunk;
+        }
+        position += ((long) array.length) << 2;
+    }
+
+    /**
+     * Writes a long array preceded by its length, the content is aligned on
+     * eight bytes. Null arrays are supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLongArray(long[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        align(8);
+        int done = 0;
+        while (done < array.length) {
+            ensureCapacity(8);
+            int chunk = Math.min(array.length - done, buffer.remaining() >> 3);
+            buffer.asLongBuffer().put(array, done, chunk);
+            buffer.position(buffer.position() + (chunk << 3));
+            done += chunk;
+        }
+        position += ((long) array.length) << 3;
+    }
+
+    /**
+     * Writes the content of a byte buffer preceded by its length, the content
+     * is aligned on eight bytes. The whole buffer is written regardless of its
+     * position and limit. Null buffers are supported.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeByteBuffer(ByteBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        ByteBuffer source = values.duplicate();
+        source.clear();
+        int length = source.capacity();
+        writeInt(length);
+        align(8);
+        int done = 0;
+        while (done < length) {
+            ensureCapacity(1);
+            int chunk = Math.min(length - done, buffer.remaining());
+            source.limit(done + chunk);
+            buffer.put(source);
+            done += chunk;
+        }
+        position += length;
+    }
+
+    /**
+     * Writes the content of an int buffer preceded by its length, the content
+     * is aligned on eight bytes. The whole buffer is written regardless of its
+     * position and limit. Null buffers are supported.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeIntBuffer(IntBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        IntBuffer source = values.duplicate();
+        source.clear();
+        int length = source.capacity();
+        writeInt(length);
+        align(8);
+        int done = 0;
+        while (done < length) {
+            ensureCapacity(4);
+            int chunk = Math.min(length - done, buffer.remaining() >> 2);
+            source.limit(done + chunk);
+            buffer.asIntBuffer().put(source);
+            buffer.position(buffer.position() + (chunk << 2));
+            done += chunk;
+        }
+        position += ((long) length) << 2;
+    }
+
+    /**
+     * Writes the content of a long buffer preceded by its length, the content
+     * is aligned on eight bytes. The whole buffer is written regardless of its
+     * position and limit. Null buffers are supported.
+     *
+     * @param values the buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeLongBuffer(LongBuffer values) throws IOException {
+        if (values == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        LongBuffer source = values.duplicate();
+        source.clear();
+        int length = source.capacity();
+        writeInt(length);
+        align(8);
+        int done = 0;
+        while (done < length) {
+            ensureCapacity(8);
+            int chunk = Math.min(length - done, buffer.remaining() >> 3);
+            source.limit(done + chunk);
+            buffer.asLongBuffer().put(source);
+            buffer.position(buffer.position() + (chunk << 3));
+            done += chunk;
+        }
+        position += ((long) length) << 3;
+    }
+
+    /**
+     * Writes a double array preceded by its length, the content is aligned on
+     * eight bytes. Null arrays are supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeDoubleArray(double[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        align(8);
+        int done = 0;
+        while (done < array.length) {
+            ensureCapacity(8);
+            int chunk = Math.min(array.length - done, buffer.remaining() >> 3);
+            buffer.asDoubleBuffer().put(array, done, chunk);
+            buffer.position(buffer.position() + (chunk << 3));
+            done += chunk;
+        }
+        position += ((long) array.length) << 3;
+    }
+
+    /**
+     * Writes a float array preceded by its length, the content is aligned on
+     * eight bytes. Null arrays are supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeFloatArray(float[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        align(8);
+        int done = 0;
+        while (done < array.length) {
+            ensureCapacity(4);
+            int chunk = Math.min(array.length - done, buffer.remaining() >> 2);
+            buffer.asFloatBuffer().put(array, done, chunk);
+            buffer.position(buffer.position() + (chunk << 2));
+            done += chunk;
+        }
+        position += ((long) array.length) << 2;
+    }
+
+    /**
+     * Writes a string array preceded by its length. Null arrays are
+     * supported.
+     *
+     * @param array the array
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void writeStringArray(String[] array) throws IOException {
+        if (array == null) {
+            writeInt(NULL_LENGTH);
+            return;
+        }
+        writeInt(array.length);
+        for (String value : array) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Flushes the buffer and closes the file.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * writing the file
+     */
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+            channel.force(false);
+        } finally {
+            fileOutputStream.close();
+        }
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a string.
+     *
+     * @param value the string
+     *
+     * @return the UTF-8 bytes of the string
+     */
+    public static byte[] getBytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding not supported.", e);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.compomics.util.io.binary;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader for flat binary files written by the BinaryFileWriter. The file is
+ * accessed through read-only memory mapped windows so that the pages can be
+ * shared between processes reading the same file.
+ *
+ * @author Marc Vaudel
+ */
+public class MappedFileReader {
+
+    /**
+     * The default size of the mapped windows in bytes.
+     */
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    /**
+     * The random access file.
+     */
+    private final RandomAccessFile randomAccessFile;
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+    /**
+     * The length of the file.
+     */
+    private final long fileLength;
+    /**
+     * The currently mapped window.
+     */
+    private MappedByteBuffer window = null;
+    /**
+     * The position of the window in the file.
+     */
+    private long windowStart = 0;
+    /**
+     * The reading position in the file.
+     */
+    private long position = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file to read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * opening the file
+     */
+    public MappedFileReader(File file) throws IOException {
+        randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+        fileLength = channel.size();
+    }
+
+    /**
+     * Returns the length of the file.
+     *
+     * @return the length of the file
+     */
+    public long length() {
+        return fileLength;
+    }
+
+    /**
+     * Returns the reading position in the file.
+     *
+     * @return the reading position in the file
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Sets the reading position in the file.
+     *
+     * @param position the reading position in the file
+     */
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    /**
+     * Makes sure that the given number of bytes after the current position
+     * are mapped.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private void ensureMapped(int nBytes) throws IOException {
+        if (window == null || position < windowStart || position + nBytes > windowStart + window.limit()) {
+            if (position + nBytes > fileLength) {
+                throw new EOFException("Attempting to read after the end of the file.");
+            }
+            long size = Math.min(Math.max(WINDOW_SIZE, nBytes), fileLength - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            window.order(BinaryFileWriter.BYTE_ORDER);
+            windowStart = position;
+        }
+    }
+
+    /**
+     * Returns a view on the given number of bytes after the current position
+     * and moves the position after them.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @return a view on the bytes
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    private ByteBuffer slice(int nBytes) throws IOException {
+        ensureMapped(nBytes);
+        ByteBuffer view = window.duplicate();
+        view.position((int) (position - windowStart));
+        view.limit(view.position() + nBytes);
+        view.order(BinaryFileWriter.BYTE_ORDER);
+        position += nBytes;
+        return view;
+    }
+
+    /**
+     * Maps the given number of bytes after the current position in a
+     * dedicated read-only buffer and moves the position after them. The
+     * content is not copied to the heap.
+     *
+     * @param nBytes the number of bytes
+     *
+     * @return the mapped buffer
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public MappedByteBuffer map(long nBytes) throws IOException {
+        if (position + nBytes > fileLength) {
+            throw new EOFException("Attempting to read after the end of the file.");
+        }
+        MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_ONLY, position, nBytes);
+        result.order(BinaryFileWriter.BYTE_ORDER);
+        position += nBytes;
+        return result;
+    }
+
+    /**
+     * Maps a byte array written with its length. The content is not copied
+     * to the heap.
+     *
+     * @return a read-only view on the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public ByteBuffer mapByteArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        return map(length);
+    }
+
+    /**
+     * Maps an int array written with its length. The content is not copied
+     * to the heap.
+     *
+     * @return a read-only view on the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public IntBuffer mapIntArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        return map(((long) length) << 2).asIntBuffer();
+    }
+
+    /**
+     * Maps a long array written with its length. The content is not copied
+     * to the heap.
+     *
+     * @return a read-only view on the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public LongBuffer mapLongArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        return map(((long) length) << 3).asLongBuffer();
+    }
+
+    /**
+     * Maps a double array written with its length. The content is not copied
+     * to the heap.
+     *
+     * @return a read-only view on the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * mapping the file
+     */
+    public DoubleBuffer mapDoubleArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        return map(((long) length) << 3).asDoubleBuffer();
+    }
+
+    /**
+     * Moves the position to the next multiple of the given number of bytes.
+     *
+     * @param nBytes the alignment in bytes
+     */
+    public void align(int nBytes) {
+        long remainder = position % nBytes;
+        if (remainder != 0) {
+            position += nBytes - remainder;
+        }
+    }
+
+    /**
+     * Reads a byte.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public byte readByte() throws IOException {
+        ensureMapped(1);
+        byte value = window.get((int) (position - windowStart));
+        position++;
+        return value;
+    }
+
+    /**
+     * Reads a boolean.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    /**
+     * Reads an int.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public int readInt() throws IOException {
+        ensureMapped(4);
+        int value = window.getInt((int) (position - windowStart));
+        position += 4;
+        return value;
+    }
+
+    /**
+     * Reads a long.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public long readLong() throws IOException {
+        ensureMapped(8);
+        long value = window.getLong((int) (position - windowStart));
+        position += 8;
+        return value;
+    }
+
+    /**
+     * Reads a double.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public double readDouble() throws IOException {
+        ensureMapped(8);
+        double value = window.getDouble((int) (position - windowStart));
+        position += 8;
+        return value;
+    }
+
+    /**
+     * Reads a string. Null if a null string was written.
+     *
+     * @return the value
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public String readString() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        readBytes(bytes, 0, length);
+        return getString(bytes, 0, length);
+    }
+
+    /**
+     * Reads bytes into an array.
+     *
+     * @param destination the destination array
+     * @param offset the index of the first byte to fill
+     * @param length the number of bytes to read
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public void readBytes(byte[] destination, int offset, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, WINDOW_SIZE);
+            slice(chunk).get(destination, offset + done, chunk);
+            done += chunk;
+        }
+    }
+
+    /**
+     * Reads a byte array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public byte[] readByteArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        byte[] array = new byte[length];
+        readBytes(array, 0, length);
+        return array;
+    }
+
+    /**
+     * Reads an int array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public int[] readIntArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        int[] array = new int[length];
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, WINDOW_SIZE >> 2);
+            slice(chunk << 2).asIntBuffer().get(array, done, chunk);
+            done += chunk;
+        }
+        return array;
+    }
+
+    /**
+     * Reads a long array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public long[] readLongArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        long[] array = new long[length];
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, WINDOW_SIZE >> 3);
+            slice(chunk << 3).asLongBuffer().get(array, done, chunk);
+            done += chunk;
+        }
+        return array;
+    }
+
+    /**
+     * Reads a double array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public double[] readDoubleArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        double[] array = new double[length];
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, WINDOW_SIZE >> 3);
+            slice(chunk << 3).asDoubleBuffer().get(array, done, chunk);
+            done += chunk;
+        }
+        return array;
+    }
+
+    /**
+     * Reads a float array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public float[] readFloatArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        align(8);
+        float[] array = new float[length];
+        int done = 0;
+        while (done < length) {
+            int chunk = Math.min(length - done, WINDOW_SIZE >> 2);
+            slice(chunk << 2).asFloatBuffer().get(array, done, chunk);
+            done += chunk;
+        }
+        return array;
+    }
+
+    /**
+     * Reads a string array written with its length.
+     *
+     * @return the array, null if a null array was written
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * reading the file
+     */
+    public String[] readStringArray() throws IOException {
+        int length = readInt();
+        if (length == BinaryFileWriter.NULL_LENGTH) {
+            return null;
+        }
+        String[] array = new String[length];
+        for (int i = 0; i < length; i++) {
+            array[i] = readString();
+        }
+        return array;
+    }
+
+    /**
+     * Closes the file. Buffers returned by the map method remain valid until
+     * they are garbage collected.
+     *
+     * @throws IOException exception thrown whenever an error occurred while
+     * closing the file
+     */
+    public void close() throws IOException {
+        window = null;
+        randomAccessFile.close();
+    }
+
+    /**
+     * Decodes UTF-8 bytes into a string.
+     *
+     * @param bytes the bytes
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     *
+     * @return the string
+     */
+    public static String getString(byte[] bytes, int offset, int length) {
+        try {
+            return new String(bytes, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 encoding not supported.", e);
+        }
+    }
+}
@@ -17,6 +17,7 @@ import java.io.Serializable;
 import org.apache.log4j.Logger;
 
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  * This class represents the header for a Protein instance. It is meant to work
@@ -39,6 +40,73 @@ public class Header implements Cloneable, Serializable {
      * Class specific log4j logger for Header instances.
      */
     static Logger logger = Logger.getLogger(Header.class);
+    /**
+     * Pattern of the Drosophile headers.
+     */
+    private static final Pattern DROSOPHILE_PATTERN = Pattern.compile("^CG.* pep:.*");
+    /**
+     * Pattern of the SGD headers.
+     */
+    private static final Pattern SGD_PATTERN = Pattern.compile(".*SGDID:[^\\s]+,.*");
+    /**
+     * Pattern of the old SwissProt headers.
+     */
+    private static final Pattern OLD_SWISSPROT_PATTERN = Pattern.compile("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*");
+    /**
+     * Pattern of the SwissProt headers.
+     */
+    private static final Pattern SWISSPROT_PATTERN = Pattern.compile("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the TrEMBL headers.
+     */
+    private static final Pattern TREMBL_PATTERN = Pattern.compile("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Ensembl Genomes headers.
+     */
+    private static final Pattern ENSEMBL_GENOMES_PATTERN = Pattern.compile("^en\\|[^|]*\\|.*");
+    /**
+     * Pattern of the UniProt headers without database identifier.
+     */
+    private static final Pattern UNIPROT_PATTERN = Pattern.compile("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*");
+    /**
+     * Pattern of the Flybase headers.
+     */
+    private static final Pattern FLYBASE_PATTERN = Pattern.compile("^FB.+\\stype=.*");
+    /**
+     * Pattern of the genome translation headers.
+     */
+    private static final Pattern GENOME_TRANSLATION_PATTERN = Pattern.compile(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*");
+    /**
+     * Pattern of the Arabidopsis thaliana TAIR headers.
+     */
+    private static final Pattern TAIR_PATTERN = Pattern.compile("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*");
+    /**
+     * Pattern of the PSB Arabidopsis thaliana headers.
+     */
+    private static final Pattern PSB_ARABIDOPSIS_PATTERN = Pattern.compile("^nrAt[^\t]*\t.*");
+    /**
+     * Pattern of the Listeria headers.
+     */
+    private static final Pattern LISTERIA_PATTERN = Pattern.compile("^L. monocytogenes[^|]*[|][^|]*[|].*");
+    /**
+     * Pattern of a location written as (start end) at the end of an
+     * accession, as expected for SwissProt headers.
+     */
+    private static final Pattern SWISSPROT_SPACE_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]\\)$");
+    /**
+     * Pattern of a location written as (start end) at the end of an
+     * accession.
+     */
+    private static final Pattern SPACE_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+ [\\d]+\\)$");
+    /**
+     * Pattern of a location written as (start-end) at the end of an
+     * accession.
+     */
+    private static final Pattern DASH_LOCATION_PATTERN = Pattern.compile("[^\\(]+\\([\\d]+-[\\d]+\\)$");
+    /**
+     * Pattern of a location written as (start-end).
+     */
+    private static final Pattern GENERIC_LOCATION_PATTERN = Pattern.compile("[(][0-9]+-[0-9]+[)]");
 
     /**
      * Private constructor to force use of factory methods.
@@ -202,6 +270,23 @@ public class Header implements Cloneable, Serializable {
      * This variable holds a possible end index for the associated sequence.
      */
     private int iEnd = -1;
+    /**
+     * The start of the description in the raw header when the description is
+     * extracted upon request. The description is extracted upon request only
+     * if descriptionEnd is greater than descriptionStart, both are zero in
+     * headers serialized before these fields were introduced.
+     */
+    private int descriptionStart = -1;
+    /**
+     * The end of the description in the raw header when the description is
+     * extracted upon request.
+     */
+    private int descriptionEnd = -1;
+    /**
+     * Indicates whether the gene name, protein evidence, taxonomy and short
+     * description remain to be parsed from the UniProt description.
+     */
+    private volatile boolean uniProtDescriptionPending = false;
 
     /**
      * Factory method that constructs a Header instance based on a FASTA header
@@ -233,8 +318,10 @@ public class Header implements Cloneable, Serializable {
             result.iRawHeader = aFASTAHeader;
 
             // remove leading '>', if present
+            int headerOffset = 0;
             if (aFASTAHeader.startsWith(">")) {
                 aFASTAHeader = aFASTAHeader.substring(1);
+                headerOffset = 1;
             }
 
             // Now check for the possible presence of addenda in the header.
@@ -246,7 +333,13 @@ public class Header implements Cloneable, Serializable {
             }
             try {
                 // First determine what kind of Header we've got.
-                if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
+                if (parseStandardUniProtHeader(result, aFASTAHeader, headerOffset)) {
+                    // Standard SwissProt or TrEMBL header, parsed in a single pass.
+                } else if (parseStandardNcbiHeader(result, aFASTAHeader, headerOffset)) {
+                    // Standard NCBI header, parsed in a single pass.
+                } else if (parseGenericSplitHeader(result, aFASTAHeader, headerOffset)) {
+                    // Generic header with splitters, parsed in a single pass.
+                } else if (aFASTAHeader.startsWith("sw|") || aFASTAHeader.startsWith("SW|")) {
                     // SwissProt.
                     // We need to find three elements:
                     //   - the ID (sw, we already know that one).
@@ -279,8 +372,8 @@ public class Header implements Cloneable, Serializable {
                         // get the description
                         result.iDescription = lSt.nextToken();
 
-                        // try to get the gene name and taxonomy from the description
-                        parseUniProtDescription(result);
+                        // the gene name and taxonomy are parsed upon request
+                        result.uniProtDescriptionPending = true;
 
                         // If there are any more elements, add them to the 'rest' section.
                         if (lSt.hasMoreTokens()) {
@@ -519,7 +612,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^CG.* pep:.*")) {
+                } else if (DROSOPHILE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Drosophile DB.
                     // We need to find two elements:
                     //   - the accession String (retrieved as the trimmed version of everything
@@ -547,7 +640,7 @@ public class Header implements Cloneable, Serializable {
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
                     result.iDescription = possibleDescriptionPrefix + aFASTAHeader.substring(pepLoc).trim();
-                } else if (aFASTAHeader.matches(".*SGDID:[^\\s]+,.*")) {
+                } else if (SGD_PATTERN.matcher(aFASTAHeader).matches()) {
                     // OK, SGD entry. The text up to but not including the first space is deemed accession,
                     // everything else is taken as description.
                     // So we need to find two elements:
@@ -596,7 +689,7 @@ public class Header implements Cloneable, Serializable {
                         result.iDescription = "";
                     }
 
-                } else if (aFASTAHeader.matches("^[^\\s]+_[^\\s]+ \\([PQOA][^\\s]+\\) .*") && aFASTAHeader.lastIndexOf("|") == -1) {
+                } else if (OLD_SWISSPROT_PATTERN.matcher(aFASTAHeader).matches() && aFASTAHeader.lastIndexOf("|") == -1) {
                     // Old (everything before 9.0 release (31 Oct 2006)) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -610,7 +703,7 @@ public class Header implements Cloneable, Serializable {
 
                     // try to get the gene name and taxonomy
                     //parseUniProtDescription(result);  // @TOOD: not sure if the header has the right format...
-                } else if (aFASTAHeader.matches("^sp\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (SWISSPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (September 2008 and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -618,12 +711,12 @@ public class Header implements Cloneable, Serializable {
                     String tempHeader = aFASTAHeader.substring(3);
                     result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (SWISSPROT_SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket, result.iAccession.indexOf(" ", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                         result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -633,10 +726,10 @@ public class Header implements Cloneable, Serializable {
                     result.iID = "sp";
                     result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
 
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
+                    // the gene name and taxonomy are parsed upon request
+                    result.uniProtDescriptionPending = true;
 
-                } else if (aFASTAHeader.matches("^tr\\|[^|]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (TREMBL_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (September 2008 and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
@@ -644,12 +737,12 @@ public class Header implements Cloneable, Serializable {
                     String tempHeader = aFASTAHeader.substring(3);
                     result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
+                    if (SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                         result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                    } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -659,21 +752,21 @@ public class Header implements Cloneable, Serializable {
                     result.iID = "tr";
                     result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
 
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-                }  else if (aFASTAHeader.matches("^en\\|[^|]*\\|.*")) {
+                    // the gene name and taxonomy are parsed upon request
+                    result.uniProtDescriptionPending = true;
+                }  else if (ENSEMBL_GENOMES_PATTERN.matcher(aFASTAHeader).matches()) {
                         // Ensembl Genomes header
                         // Is formatted something like this:
                         //  >en|CCF76815|pCol1B9_SL1344:3971-4420 conserved hypothetical plasmid protein
                         String tempHeader = aFASTAHeader.substring(3);
                         result.iAccession = tempHeader.substring(0, tempHeader.indexOf("|")).trim();
                         // See if there is location information.
-                        if (result.iAccession.matches("[^\\(]+\\([\\d]+ [\\d]+\\)$")) {
+                        if (SPACE_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf(" ", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf(" ", openBracket), result.iAccession.indexOf(")")).trim());
                             result.iAccession = result.iAccession.substring(0, openBracket).trim();
-                        } else if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                        } else if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                             int openBracket = result.iAccession.indexOf("(");
                             result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                             result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -683,8 +776,8 @@ public class Header implements Cloneable, Serializable {
                         result.iID = "en";
                         result.iDescription = tempHeader.substring(tempHeader.indexOf("|") + 1);
 
-                        // try to get the gene name and taxonomy
-                        parseUniProtDescription(result);
+                        // the gene name and taxonomy are parsed upon request
+                        result.uniProtDescriptionPending = true;
 
                 } else if (aFASTAHeader.startsWith("nxp|NX_") && aFASTAHeader.split("\\|").length == 5) { // @TODO: replace by regular expression?
                     // header should look like this:
@@ -708,14 +801,14 @@ public class Header implements Cloneable, Serializable {
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf(" "));
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf(" ") + 1);
 
-                } else if (aFASTAHeader.matches("^[^\\s]*\\|[^\\s]+_[^\\s]+ .*")) {
+                } else if (UNIPROT_PATTERN.matcher(aFASTAHeader).matches()) {
                     // New (9.0 release (31 Oct 2006) and beyond) standard SwissProt header as
                     // present in the Expasy FTP FASTA file.
                     // Is formatted something like this:
                     //  >accession|ID descr rest (including taxonomy, if available)
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("|")).trim();
                     // See if there is location information.
-                    if (aFASTAHeader.matches("[^\\(]+\\([\\d]+ [\\d]\\)$")) {
+                    if (SWISSPROT_SPACE_LOCATION_PATTERN.matcher(aFASTAHeader).matches()) {
                         int openBracket = aFASTAHeader.indexOf("(");
                         result.iAccession = aFASTAHeader.substring(0, openBracket).trim();
                         result.iStart = Integer.parseInt(aFASTAHeader.substring(openBracket, aFASTAHeader.indexOf(" ", openBracket)).trim());
@@ -725,13 +818,13 @@ public class Header implements Cloneable, Serializable {
                     result.iID = "sw"; // @TODO: remove hardcoding?
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf("|") + 1);
 
-                    // try to get the gene name and taxonomy
-                    parseUniProtDescription(result);
-                } else if (aFASTAHeader.matches("^FB.+\\stype=.*")) {
+                    // the gene name and taxonomy are parsed upon request
+                    result.uniProtDescriptionPending = true;
+                } else if (FLYBASE_PATTERN.matcher(aFASTAHeader).matches()) {
                     // Flybase FASTA format.
                     // Accession number
                     result.iAccession = aFASTAHeader.substring(0, aFASTAHeader.indexOf("type")).trim();
-                    if (result.iAccession.matches("[^\\(]+\\([\\d]+-[\\d]+\\)$")) {
+                    if (DASH_LOCATION_PATTERN.matcher(result.iAccession).matches()) {
                         int openBracket = result.iAccession.indexOf("(");
                         result.iStart = Integer.parseInt(result.iAccession.substring(openBracket + 1, result.iAccession.indexOf("-", openBracket)).trim());
                         result.iEnd = Integer.parseInt(result.iAccession.substring(result.iAccession.indexOf("-", openBracket) + 1, result.iAccession.indexOf(")")).trim());
@@ -740,7 +833,7 @@ public class Header implements Cloneable, Serializable {
                     result.databaseType = DatabaseType.Flybase;
                     result.iID = "";
                     result.iDescription = aFASTAHeader.substring(aFASTAHeader.indexOf("type="));
-                } else if (aFASTAHeader.matches(".* [.]*\\[[\\d]+[ ]?\\-[ ]?[\\d]+\\].*")) {
+                } else if (GENOME_TRANSLATION_PATTERN.matcher(aFASTAHeader).matches()) {
                     // A header translating a genome sequence into a protein sequences.
                     // We need to find two elements, separated by a space:
                     //   - the accession string (retrieved as the first part of a space delimited String).
@@ -774,7 +867,7 @@ public class Header implements Cloneable, Serializable {
                     }
 
                     result.iDescription = aFASTAHeader.substring(accessionEndLoc + 1).trim();
-                } else if (aFASTAHeader.matches("^[^|\t]* [|] Symbol[^|]*[|] [^|]* [|].*")) {
+                } else if (TAIR_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Arabidopsis thaliana database; TAIR format
                     // We need to find two elements, separated by pipes:
                     //   - the accession number with version (retrieved as the part before the first pipe).
@@ -799,7 +892,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^nrAt[^\t]*\t.*")) {
+                } else if (PSB_ARABIDOPSIS_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The PSB Arabidopsis thaliana database; proprietary format
                     // We need to find three elements:
                     //   - the internal accession (at the start, separated by 'tab' and space from the next part).
@@ -830,7 +923,7 @@ public class Header implements Cloneable, Serializable {
                         result.iStart = Integer.parseInt(temp.substring(open, minus));
                         result.iEnd = Integer.parseInt(temp.substring(minus + 1, end));
                     }
-                } else if (aFASTAHeader.matches("^L. monocytogenes[^|]*[|][^|]*[|].*")) {
+                } else if (LISTERIA_PATTERN.matcher(aFASTAHeader).matches()) {
                     // The Listeria database; proprietary format
                     // We need to find three elements:
                     //   - the leader element (at the start, separated by '|' from the next part).
@@ -920,7 +1013,7 @@ public class Header implements Cloneable, Serializable {
 
                     if ((accessionEndLoc > 0) && (aFASTAHeader.contains("(")) && (aFASTAHeader.indexOf(")", aFASTAHeader.indexOf("(") + 1) >= 0)) {
                         // Now we have to see if there is location information present.
-                        if (aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1).matches("[(][0-9]+-[0-9]+[)]") && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
+                        if (GENERIC_LOCATION_PATTERN.matcher(aFASTAHeader.substring(accessionEndLoc + 1, aFASTAHeader.indexOf(")", accessionEndLoc + 2) + 1)).matches() && !aFASTAHeader.substring(accessionEndLoc + 2, aFASTAHeader.indexOf(")", accessionEndLoc + 2)).equals(aFASTAHeader.substring(0, accessionEndLoc).trim())) {
                             // start and end found. Add it to the accession number and remove it from the description.
                             accessionEndLoc = aFASTAHeader.indexOf(")", accessionEndLoc) + 1;
                         }
@@ -1001,6 +1094,200 @@ public class Header implements Cloneable, Serializable {
         return result;
     }
 
+    /**
+     * Parses a standard SwissProt or TrEMBL header, i.e. formatted like
+     * 'sp|accession|ID descr rest', in a single pass. The description is
+     * extracted from the raw header upon request only. The headers requiring
+     * more than the accession and description, like headers with a location or
+     * looking like an SGD header, are left to the other parsers of
+     * parseFromFASTA, the header is then not modified.
+     *
+     * @param header the header to fill
+     * @param aFASTAHeader the FASTA header without leading '&gt;' and addenda
+     * @param headerOffset the position of the FASTA header in the raw header
+     *
+     * @return a boolean indicating whether the header was parsed
+     */
+    private static boolean parseStandardUniProtHeader(Header header, String aFASTAHeader, int headerOffset) {
+
+        String id;
+        if (aFASTAHeader.startsWith("sp|")) {
+            id = "sp";
+        } else if (aFASTAHeader.startsWith("tr|")) {
+            id = "tr";
+        } else {
+            return false;
+        }
+
+        int length = aFASTAHeader.length();
+        int accessionEnd = aFASTAHeader.indexOf('|', 3);
+        if (accessionEnd == -1) {
+            return false;
+        }
+
+        // the ID must contain an inner underscore and be followed by a space
+        int idStart = accessionEnd + 1;
+        int idEnd = idStart;
+        int underscore = -1;
+        for (; idEnd < length; idEnd++) {
+            char character = aFASTAHeader.charAt(idEnd);
+            if (character == ' ' || character == '\t' || character == '\n' || character == '\u000B' || character == '\f' || character == '\r') {
+                break;
+            }
+            if (character == '_' && underscore == -1 && idEnd > idStart) {
+                underscore = idEnd;
+            }
+        }
+        if (idEnd == length || aFASTAHeader.charAt(idEnd) != ' ' || underscore == -1 || underscore == idEnd - 1) {
+            return false;
+        }
+        for (int i = idEnd + 1; i < length; i++) {
+            char character = aFASTAHeader.charAt(i);
+            if (character == '\n' || character == '\r' || character == '\u0085' || character == '\u2028' || character == '\u2029') {
+                return false;
+            }
+        }
+        if (aFASTAHeader.contains("SGDID:")) {
+            return false;
+        }
+
+        String accession = aFASTAHeader.substring(3, accessionEnd).trim();
+        if (accession.indexOf('(') != -1) {
+            return false;
+        }
+
+        header.databaseType = DatabaseType.UniProt;
+        header.iID = id;
+        header.iAccession = accession;
+        header.descriptionStart = headerOffset + idStart;
+        header.descriptionEnd = headerOffset + length;
+        header.uniProtDescriptionPending = true;
+
+        return true;
+    }
+
+    /**
+     * Parses a standard NCBI header, i.e. formatted like
+     * 'gi|accession|foreign ID|foreign accession| descr' or
+     * 'gi|accession|foreign ID|foreign accession|foreign descr descr', in a
+     * single pass. The description is extracted from the raw header upon
+     * request only. Other NCBI headers, like headers with a location or
+     * without foreign accession, are left to the other parsers of
+     * parseFromFASTA, the header is then not modified.
+     *
+     * @param header the header to fill
+     * @param aFASTAHeader the FASTA header without leading '&gt;' and addenda
+     * @param headerOffset the position of the FASTA header in the raw header
+     *
+     * @return a boolean indicating whether the header was parsed
+     */
+    private static boolean parseStandardNcbiHeader(Header header, String aFASTAHeader, int headerOffset) {
+
+        if (!aFASTAHeader.startsWith("gi|") && !aFASTAHeader.startsWith("GI|")) {
+            return false;
+        }
+
+        // four non empty elements separated by pipes, followed by the description
+        int length = aFASTAHeader.length();
+        int accessionEnd = aFASTAHeader.indexOf('|', 3);
+        if (accessionEnd <= 3) {
+            return false;
+        }
+        int foreignIdEnd = aFASTAHeader.indexOf('|', accessionEnd + 1);
+        if (foreignIdEnd <= accessionEnd + 1) {
+            return false;
+        }
+        int foreignAccessionEnd = aFASTAHeader.indexOf('|', foreignIdEnd + 1);
+        if (foreignAccessionEnd <= foreignIdEnd + 1 || foreignAccessionEnd + 2 >= length
+                || aFASTAHeader.indexOf('|', foreignAccessionEnd + 1) != -1) {
+            return false;
+        }
+
+        String accession = aFASTAHeader.substring(3, accessionEnd);
+        if (accession.indexOf('(') != -1) {
+            return false;
+        }
+
+        int descriptionStart;
+        String foreignDescription = null;
+        if (aFASTAHeader.charAt(foreignAccessionEnd + 1) == ' ') {
+            descriptionStart = foreignAccessionEnd + 2;
+        } else {
+            // up to the first space is foreign description
+            int space = aFASTAHeader.indexOf(' ', foreignAccessionEnd + 1);
+            if (space == -1 || space == length - 1) {
+                return false;
+            }
+            foreignDescription = aFASTAHeader.substring(foreignAccessionEnd + 1, space);
+            descriptionStart = space + 1;
+        }
+
+        header.databaseType = DatabaseType.NCBI;
+        header.iID = aFASTAHeader.substring(0, 2);
+        header.iAccession = accession;
+        header.iForeignID = aFASTAHeader.substring(accessionEnd + 1, foreignIdEnd);
+        header.iForeignAccession = aFASTAHeader.substring(foreignIdEnd + 1, foreignAccessionEnd);
+        header.iForeignDescription = foreignDescription;
+        header.descriptionStart = headerOffset + descriptionStart;
+        header.descriptionEnd = headerOffset + length;
+
+        return true;
+    }
+
+    /**
+     * Parses a generic header with splitters, i.e. formatted like
+     * 'generic_some_tag|accession|descr', in a single pass. The description is
+     * extracted from the raw header upon request only. Headers without
+     * splitter or looking like an SGD header are left to the other parsers of
+     * parseFromFASTA, the header is then not modified.
+     *
+     * @param header the header to fill
+     * @param aFASTAHeader the FASTA header without leading '&gt;' and addenda
+     * @param headerOffset the position of the FASTA header in the raw header
+     *
+     * @return a boolean indicating whether the header was parsed
+     */
+    private static boolean parseGenericSplitHeader(Header header, String aFASTAHeader, int headerOffset) {
+
+        if (!aFASTAHeader.startsWith("generic")) {
+            return false;
+        }
+
+        int idEnd = aFASTAHeader.indexOf('|');
+        if (idEnd == -1 || aFASTAHeader.contains("SGDID:")) {
+            return false;
+        }
+
+        header.databaseType = DatabaseType.Generic_Split_Header;
+        header.iID = aFASTAHeader.substring(0, idEnd);
+
+        int accessionEnd = aFASTAHeader.indexOf('|', idEnd + 1);
+        if (accessionEnd == -1) {
+            header.iAccession = aFASTAHeader.substring(idEnd + 1);
+            header.iDescription = "";
+        } else {
+            header.iAccession = aFASTAHeader.substring(idEnd + 1, accessionEnd);
+
+            // trim the description as String.trim does
+            int descriptionStart = accessionEnd + 1;
+            int descriptionEnd = aFASTAHeader.length();
+            while (descriptionStart < descriptionEnd && aFASTAHeader.charAt(descriptionStart) <= ' ') {
+                descriptionStart++;
+            }
+            while (descriptionEnd > descriptionStart && aFASTAHeader.charAt(descriptionEnd - 1) <= ' ') {
+                descriptionEnd--;
+            }
+            if (descriptionEnd > descriptionStart) {
+                header.descriptionStart = headerOffset + descriptionStart;
+                header.descriptionEnd = headerOffset + descriptionEnd;
+            } else {
+                header.iDescription = "";
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Returns the ID.
      * 
@@ -1111,6 +1398,9 @@ public class Header implements Cloneable, Serializable {
      * @return the description
      */
     public String getDescription() {
+        if (iDescription == null && descriptionEnd > descriptionStart) {
+            iDescription = iRawHeader.substring(descriptionStart, descriptionEnd);
+        }
         return iDescription;
     }
 
@@ -1120,7 +1410,10 @@ public class Header implements Cloneable, Serializable {
      * @param aDescription the description
      */
     public void setDescription(String aDescription) {
+        parsePendingUniProtDescription();
         iDescription = aDescription;
+        descriptionStart = -1;
+        descriptionEnd = -1;
     }
 
     /**
@@ -1129,6 +1422,7 @@ public class Header implements Cloneable, Serializable {
      * @return the short description
      */
     public String getDescriptionShort() {
+        parsePendingUniProtDescription();
         return iDescriptionShort;
     }
 
@@ -1138,6 +1432,7 @@ public class Header implements Cloneable, Serializable {
      * @param aDescriptionShort the short description
      */
     public void setDescriptionShort(String aDescriptionShort) {
+        parsePendingUniProtDescription();
         iDescriptionShort = aDescriptionShort;
     }
 
@@ -1147,6 +1442,7 @@ public class Header implements Cloneable, Serializable {
      * @return the protein name
      */
     public String getDescriptionProteinName() {
+        parsePendingUniProtDescription();
         return iDescriptionProteinName;
     }
 
@@ -1156,6 +1452,7 @@ public class Header implements Cloneable, Serializable {
      * @param aDescriptionProteinName the protein name
      */
     public void setDescriptionProteinName(String aDescriptionProteinName) {
+        parsePendingUniProtDescription();
         iDescriptionProteinName = aDescriptionProteinName;
     }
 
@@ -1165,6 +1462,7 @@ public class Header implements Cloneable, Serializable {
      * @return the gene name
      */
     public String getGeneName() {
+        parsePendingUniProtDescription();
         return iGeneName;
     }
 
@@ -1174,6 +1472,7 @@ public class Header implements Cloneable, Serializable {
      * @param aGeneName the gene name
      */
     public void setGeneName(String aGeneName) {
+        parsePendingUniProtDescription();
         iGeneName = aGeneName;
     }
 
@@ -1183,6 +1482,7 @@ public class Header implements Cloneable, Serializable {
      * @return the protein evidence level
      */
     public String getProteinEvidence() {
+        parsePendingUniProtDescription();
         return iProteinEvidence;
     }
 
@@ -1192,6 +1492,7 @@ public class Header implements Cloneable, Serializable {
      * @param aProteinEvidence the protein evidence level
      */
     public void setProteinEvidence(String aProteinEvidence) {
+        parsePendingUniProtDescription();
         iProteinEvidence = aProteinEvidence;
     }
 
@@ -1201,6 +1502,7 @@ public class Header implements Cloneable, Serializable {
      * @return the taxonomy
      */
     public String getTaxonomy() {
+        parsePendingUniProtDescription();
         return iTaxonomy;
     }
 
@@ -1210,6 +1512,7 @@ public class Header implements Cloneable, Serializable {
      * @param aTaxonomy the taxonomy
      */
     public void setTaxonomy(String aTaxonomy) {
+        parsePendingUniProtDescription();
         iTaxonomy = aTaxonomy;
     }
 
@@ -1264,6 +1567,9 @@ public class Header implements Cloneable, Serializable {
      * @param aRawHeader the entire header
      */
     public void setRawHeader(String aRawHeader) {
+        getDescription();
+        descriptionStart = -1;
+        descriptionEnd = -1;
         iRawHeader = aRawHeader;
     }
 
@@ -1280,7 +1586,7 @@ public class Header implements Cloneable, Serializable {
         if (databaseType == DatabaseType.UniProt) {
 
             // get the default simple header
-            String temp = iDescriptionShort + " (" + iDescriptionProteinName + ")";
+            String temp = getDescriptionShort() + " (" + getDescriptionProteinName() + ")";
 
             // see if we need to add a decoy flag
             if (SequenceFactory.getInstance().isDecoyAccession(iAccession)) {
@@ -1288,8 +1594,8 @@ public class Header implements Cloneable, Serializable {
             }
 
             return temp;
-        } else if (iDescription != null) {
-            return iDescription;
+        } else if (getDescription() != null) {
+            return getDescription();
         } else {
             return "";
         }
@@ -1335,7 +1641,7 @@ public class Header implements Cloneable, Serializable {
                         || this.databaseType == DatabaseType.NextProt
                         || this.databaseType == DatabaseType.EnsemblGenomes) {
                     // FASTA entry with pipe ('|') separating core header from description.
-                    result.append("|").append(this.iDescription);
+                    result.append("|").append(this.getDescription());
                 } else if (this.databaseType == DatabaseType.NCBI) {
                     // NCBI entry.
                     result.append("|");
@@ -1348,23 +1654,23 @@ public class Header implements Cloneable, Serializable {
                         }
                     }
                     // Add the Description.
-                    result.append(" ").append(this.iDescription);
+                    result.append(" ").append(this.getDescription());
                 } else if (this.databaseType == DatabaseType.M_Tuberculosis) {
                     // Mycobacterium tuberculosis entry.
-                    result.append("|").append(this.iDescription);
+                    result.append("|").append(this.getDescription());
                 } else if (this.databaseType == DatabaseType.GenomeTranslation) {
                     // Genome to protein sequnece translation.
-                    result = new StringBuffer(">" + this.iAccession + decoyTag + " " + this.iDescription);
+                    result = new StringBuffer(">" + this.iAccession + decoyTag + " " + this.getDescription());
                 } else if (this.databaseType == DatabaseType.PSB_Arabidopsis_thaliana) {
                     // Proprietary PSB A. thaliana entry
-                    result.append(" ").append(this.iDescription);
+                    result.append(" ").append(this.getDescription());
                 }
             } else {
                 if (this.databaseType == DatabaseType.H_Invitation) {
-                    result.append("|").append(this.iDescription);
+                    result.append("|").append(this.getDescription());
                 } else {
                     // Just add a space and the description.
-                    result.append(" ").append(this.iDescription);
+                    result.append(" ").append(this.getDescription());
                 }
             }
         }
@@ -1394,7 +1700,7 @@ public class Header implements Cloneable, Serializable {
         String result;
 
         if (databaseType == DatabaseType.Generic_Split_Header) {
-            result = ">" + this.iID + decoyTag + "|" + this.iAccession + "|" + this.iDescription;
+            result = ">" + this.iID + decoyTag + "|" + this.iAccession + "|" + this.getDescription();
         } else {
             if (this.iID == null) {
                 result = this.getAbbreviatedFASTAHeader(decoyTag);
@@ -1433,9 +1739,9 @@ public class Header implements Cloneable, Serializable {
         } else if (this.iID.equalsIgnoreCase("tr")) {
             score = 2;
         } else if (this.iID.equalsIgnoreCase("ipi")) {
-            if (this.iDescription != null && this.iDescription.toUpperCase().contains("SWISS-PROT")) {
+            if (this.getDescription() != null && this.getDescription().toUpperCase().contains("SWISS-PROT")) {
                 score = 3;
-            } else if (this.iDescription != null && ((this.iDescription.toUpperCase().contains("TREMBL")) || (this.iDescription.toUpperCase().contains("REFSEQ_NP")))) {
+            } else if (this.getDescription() != null && ((this.getDescription().toUpperCase().contains("TREMBL")) || (this.getDescription().toUpperCase().contains("REFSEQ_NP")))) {
                 score = 2;
             } else {
                 score = 1;
@@ -1703,6 +2009,31 @@ public class Header implements Cloneable, Serializable {
         }
     }
 
+    /**
+     * Parses the gene name, protein evidence, taxonomy and short description
+     * from the UniProt description if not done already. These fields are left
+     * null if the description is malformed.
+     */
+    private void parsePendingUniProtDescription() {
+        if (uniProtDescriptionPending) {
+            synchronized (this) {
+                if (uniProtDescriptionPending) {
+                    try {
+                        parseUniProtDescription(this);
+                    } catch (StringIndexOutOfBoundsException e) {
+                        // malformed description, the fields are not available
+                        iGeneName = null;
+                        iProteinEvidence = null;
+                        iTaxonomy = null;
+                        iDescriptionShort = null;
+                        iDescriptionProteinName = null;
+                    }
+                    uniProtDescriptionPending = false;
+                }
+            }
+        }
+    }
+
     /**
      * Tries to extract the gene name, taxonomy and the protein evidence level
      * from a UniProt description.
@@ -1711,39 +2042,41 @@ public class Header implements Cloneable, Serializable {
      */
     private static void parseUniProtDescription(Header header) {
 
+        String description = header.getDescription();
+
         // try to get the gene name from the description
-        if (header.iDescription.contains(" GN=")) {
-            int geneStartIndex = header.iDescription.indexOf(" GN=") + 4;
-            int geneEndIndex = header.iDescription.indexOf(" ", geneStartIndex);
+        if (description.contains(" GN=")) {
+            int geneStartIndex = description.indexOf(" GN=") + 4;
+            int geneEndIndex = description.indexOf(" ", geneStartIndex);
 
             if (geneEndIndex != -1) {
-                header.iGeneName = header.iDescription.substring(geneStartIndex, geneEndIndex);
+                header.iGeneName = description.substring(geneStartIndex, geneEndIndex);
             } else {
-                header.iGeneName = header.iDescription.substring(geneStartIndex);
+                header.iGeneName = description.substring(geneStartIndex);
             }
         }
 
         // try to get the protein evidence level from the description
-        if (header.iDescription.contains(" PE=")) {
-            int evidenceStartIndex = header.iDescription.indexOf(" PE=") + 4;
-            int evidenceEndIndex = header.iDescription.indexOf(" ", evidenceStartIndex);
+        if (description.contains(" PE=")) {
+            int evidenceStartIndex = description.indexOf(" PE=") + 4;
+            int evidenceEndIndex = description.indexOf(" ", evidenceStartIndex);
 
             if (evidenceEndIndex != -1) {
-                header.iProteinEvidence = header.iDescription.substring(evidenceStartIndex, evidenceEndIndex);
+                header.iProteinEvidence = description.substring(evidenceStartIndex, evidenceEndIndex);
             } else {
-                header.iProteinEvidence = header.iDescription.substring(evidenceStartIndex);
+                header.iProteinEvidence = description.substring(evidenceStartIndex);
             }
 
             // http://www.uniprot.org/manual/protein_existence
         }
 
         // try to get the taxonomy name from the description
-        if (header.iDescription.contains(" OS=")) {
+        if (description.contains(" OS=")) {
 
-            int taxonomyStartIndex = header.iDescription.indexOf(" OS=") + 4;
-            int ncbiTaxIdStartIndex = header.iDescription.indexOf(" OX=");
-            int geneNameStartIndex = header.iDescription.indexOf(" GN=");
-            int proteinEvidenceStartIndex = header.iDescription.indexOf(" PE=");
+            int taxonomyStartIndex = description.indexOf(" OS=") + 4;
+            int ncbiTaxIdStartIndex = description.indexOf(" OX=");
+            int geneNameStartIndex = description.indexOf(" GN=");
+            int proteinEvidenceStartIndex = description.indexOf(" PE=");
 
             int taxonomyEndIndex;
             
@@ -1755,13 +2088,13 @@ public class Header implements Cloneable, Serializable {
             } else if (proteinEvidenceStartIndex != -1) {
                 taxonomyEndIndex = proteinEvidenceStartIndex;
             } else {
-                taxonomyEndIndex = header.iDescription.length();
+                taxonomyEndIndex = description.length();
             }
 
-            header.iTaxonomy = header.iDescription.substring(taxonomyStartIndex, taxonomyEndIndex);
+            header.iTaxonomy = description.substring(taxonomyStartIndex, taxonomyEndIndex);
 
             // now we can also shorten the protein description
-            String tempShortHeader = header.iDescription.substring(0, taxonomyStartIndex - 3);
+            String tempShortHeader = description.substring(0, taxonomyStartIndex - 3);
             header.iDescriptionShort = tempShortHeader.substring(tempShortHeader.indexOf(" ") + 1).trim();
             header.iDescriptionProteinName = tempShortHeader.substring(0, tempShortHeader.indexOf(" "));
         }
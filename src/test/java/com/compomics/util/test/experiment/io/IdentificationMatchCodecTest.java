@@ -0,0 +1,146 @@
+package com.compomics.util.test.experiment.io;
+
+import com.compomics.util.db.BlobCodec;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.Advocate;
+import com.compomics.util.experiment.identification.IdentificationMatchCodec;
+import com.compomics.util.experiment.identification.SpectrumIdentificationAssumption;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.matches.PeptideMatch;
+import com.compomics.util.experiment.identification.matches.ProteinMatch;
+import com.compomics.util.experiment.identification.matches.SpectrumMatch;
+import com.compomics.util.experiment.identification.spectrum_assumptions.PeptideAssumption;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.refinementparameters.PepnovoAssumptionDetails;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the binary records of the identification matches.
+ *
+ * @author Marc Vaudel
+ */
+public class IdentificationMatchCodecTest extends TestCase {
+
+    public void testSpectrumMatch() throws IOException, ClassNotFoundException {
+
+        BlobCodec.registerCodec(new IdentificationMatchCodec());
+
+        SpectrumMatch spectrumMatch = new SpectrumMatch("spectrum_file_cus_spectrum_title");
+        spectrumMatch.setSpectrumNumber(12);
+        PeptideAssumption bestAssumption = new PeptideAssumption(getPeptide(), 1, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 2), 0.1, "no file");
+        bestAssumption.setRawScore(42.0);
+        ArrayList<double[]> aminoAcidScores = new ArrayList<double[]>();
+        aminoAcidScores.add(new double[]{1.0, 2.0, 3.0});
+        bestAssumption.setAminoAcidScores(aminoAcidScores);
+        PepnovoAssumptionDetails pepnovoAssumptionDetails = new PepnovoAssumptionDetails();
+        pepnovoAssumptionDetails.setRankScore(1.5);
+        bestAssumption.addUrParam(pepnovoAssumptionDetails);
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), bestAssumption, false);
+        spectrumMatch.addHit(Advocate.mascot.getIndex(), new PeptideAssumption(getPeptide(), 2, Advocate.mascot.getIndex(), new Charge(Charge.PLUS, 3), 0.5, "no file"), false);
+        spectrumMatch.setBestPeptideAssumption(bestAssumption);
+
+        byte[] bytes = BlobCodec.serialize(spectrumMatch);
+        Assert.assertEquals(BlobCodec.CODEC_TAG, bytes[0]);
+        Assert.assertTrue(bytes.length < serialize(spectrumMatch).length);
+
+        SpectrumMatch result = (SpectrumMatch) BlobCodec.deserialize(new ByteArrayInputStream(bytes));
+        Assert.assertEquals(spectrumMatch.getKey(), result.getKey());
+        Assert.assertEquals(12, result.getSpectrumNumber().intValue());
+        ArrayList<SpectrumIdentificationAssumption> assumptions = result.getAllAssumptions(Advocate.mascot.getIndex()).get(0.1);
+        Assert.assertEquals(1, assumptions.size());
+        PeptideAssumption resultAssumption = (PeptideAssumption) assumptions.get(0);
+        Assert.assertTrue(resultAssumption == result.getBestPeptideAssumption());
+        Assert.assertEquals(1, resultAssumption.getRank());
+        Assert.assertEquals(2, resultAssumption.getIdentificationCharge().value);
+        Assert.assertEquals("no file", resultAssumption.getIdentificationFile());
+        Assert.assertEquals(42.0, resultAssumption.getRawScore());
+        Assert.assertEquals(2.0, resultAssumption.getAminoAcidScores().get(0)[1]);
+        PepnovoAssumptionDetails resultDetails = (PepnovoAssumptionDetails) resultAssumption.getUrParam(pepnovoAssumptionDetails);
+        Assert.assertEquals(1.5, resultDetails.getRankScore());
+        Assert.assertEquals(bestAssumption.getPeptide().getKey(), resultAssumption.getPeptide().getKey());
+        Assert.assertEquals(2, resultAssumption.getPeptide().getParentProteinsNoRemapping().size());
+        Assert.assertEquals(3, ((PeptideAssumption) result.getAllAssumptions(Advocate.mascot.getIndex()).get(0.5).get(0)).getIdentificationCharge().value);
+    }
+
+    public void testPeptideAndProteinMatches() throws IOException, ClassNotFoundException {
+
+        BlobCodec.registerCodec(new IdentificationMatchCodec());
+
+        Peptide peptide = getPeptide();
+        PeptideMatch peptideMatch = new PeptideMatch(peptide, peptide.getKey());
+        peptideMatch.addSpectrumMatchKey("spectrum1");
+        peptideMatch.addSpectrumMatchKey("spectrum2");
+
+        PeptideMatch peptideResult = (PeptideMatch) BlobCodec.deserialize(new ByteArrayInputStream(BlobCodec.serialize(peptideMatch)));
+        Assert.assertEquals(peptideMatch.getKey(), peptideResult.getKey());
+        Assert.assertEquals(peptideMatch.getSpectrumMatchesKeys(), peptideResult.getSpectrumMatchesKeys());
+        Assert.assertEquals(2, peptideResult.getTheoreticPeptide().getModificationMatches().size());
+        ModificationMatch modificationMatch = peptideResult.getTheoreticPeptide().getModificationMatches().get(1);
+        Assert.assertEquals("oxidation of m", modificationMatch.getTheoreticPtm());
+        Assert.assertEquals(5, modificationMatch.getModificationSite());
+        Assert.assertTrue(modificationMatch.isVariable());
+        Assert.assertTrue(modificationMatch.isConfident());
+
+        ProteinMatch proteinMatch = new ProteinMatch("test protein1");
+        proteinMatch.addTheoreticProtein("test protein2");
+        proteinMatch.setMainMatch("test protein2");
+        proteinMatch.addPeptideMatchKey(peptideMatch.getKey());
+
+        ProteinMatch proteinResult = (ProteinMatch) BlobCodec.deserialize(new ByteArrayInputStream(BlobCodec.serialize(proteinMatch)));
+        Assert.assertEquals(proteinMatch.getKey(), proteinResult.getKey());
+        Assert.assertEquals("test protein2", proteinResult.getMainMatch());
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), proteinResult.getPeptideMatchesKeys());
+    }
+
+    public void testLegacyFormat() throws IOException, ClassNotFoundException {
+
+        ProteinMatch proteinMatch = new ProteinMatch("test protein1");
+        proteinMatch.addPeptideMatchKey("PEPTIDE");
+
+        ProteinMatch proteinResult = (ProteinMatch) BlobCodec.deserialize(new ByteArrayInputStream(serialize(proteinMatch)));
+        Assert.assertEquals(proteinMatch.getKey(), proteinResult.getKey());
+        Assert.assertEquals(proteinMatch.getPeptideMatchesKeys(), proteinResult.getPeptideMatchesKeys());
+    }
+
+    /**
+     * Returns a modified test peptide.
+     *
+     * @return a test peptide
+     */
+    private Peptide getPeptide() {
+        ArrayList<ModificationMatch> modificationMatches = new ArrayList<ModificationMatch>();
+        modificationMatches.add(new ModificationMatch("oxidation of m", true, 1));
+        ModificationMatch modificationMatch = new ModificationMatch("oxidation of m", true, 5);
+        modificationMatch.setConfident(true);
+        modificationMatches.add(modificationMatch);
+        Peptide peptide = new Peptide("MPEPMTIDE", modificationMatches);
+        ArrayList<String> proteins = new ArrayList<String>();
+        proteins.add("test protein1");
+        proteins.add("test protein2");
+        peptide.setParentProteins(proteins);
+        return peptide;
+    }
+
+    /**
+     * Serializes an object using Java serialization.
+     *
+     * @param object the object
+     *
+     * @return the serialized object
+     *
+     * @throws IOException if an IOException occurs
+     */
+    private byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        oos.writeObject(object);
+        oos.close();
+        return bos.toByteArray();
+    }
+}
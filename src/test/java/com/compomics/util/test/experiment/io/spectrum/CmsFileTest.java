@@ -0,0 +1,207 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.CmsFileWriter;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MS1Spectrum;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the writing and reading of cms files.
+ *
+ * @author Marc Vaudel
+ */
+public class CmsFileTest extends TestCase {
+
+    /**
+     * Tests that the spectra of an mgf file written to a cms file are read
+     * back identical.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testRoundTrip() throws Exception {
+
+        File mgfFile = File.createTempFile("CmsFileTest", ".mgf");
+        File indexFile = new File(mgfFile.getParentFile(), SpectrumFactory.getIndexName(mgfFile.getName()));
+        File cmsFile = new File(mgfFile.getParentFile(), mgfFile.getName() + ".cms");
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        try {
+
+            writeTestFile(mgfFile, 3000);
+            spectrumFactory.addSpectra(mgfFile, null);
+            String mgfFileName = mgfFile.getName();
+
+            CmsFileWriter.writeCmsFile(mgfFileName, cmsFile, null);
+            spectrumFactory.addSpectra(cmsFile, null);
+            String cmsFileName = cmsFile.getName();
+
+            ArrayList<String> titles = spectrumFactory.getSpectrumTitles(mgfFileName);
+            Assert.assertEquals(titles, spectrumFactory.getSpectrumTitles(cmsFileName));
+            Assert.assertEquals(spectrumFactory.getNSpectra(mgfFileName), spectrumFactory.getNSpectra(cmsFileName));
+
+            for (String title : titles) {
+
+                Assert.assertTrue(spectrumFactory.spectrumLoaded(cmsFileName, title));
+                MSnSpectrum mgfSpectrum = (MSnSpectrum) spectrumFactory.getSpectrum(mgfFileName, title, false);
+                MSnSpectrum cmsSpectrum = (MSnSpectrum) spectrumFactory.getSpectrum(cmsFileName, title, false);
+
+                Assert.assertEquals(title, cmsSpectrum.getSpectrumTitle());
+                Assert.assertEquals(cmsFileName, cmsSpectrum.getFileName());
+                Assert.assertEquals(mgfSpectrum.getLevel(), cmsSpectrum.getLevel());
+                Assert.assertEquals(mgfSpectrum.getScanNumber(), cmsSpectrum.getScanNumber());
+                Assert.assertEquals(mgfSpectrum.getScanStartTime(), cmsSpectrum.getScanStartTime());
+                double[][] mgfPeaks = mgfSpectrum.getMzAndIntensityAsArray();
+                double[][] cmsPeaks = cmsSpectrum.getMzAndIntensityAsArray();
+                Assert.assertTrue(Arrays.equals(mgfPeaks[0], cmsPeaks[0]));
+                Assert.assertTrue(Arrays.equals(mgfPeaks[1], cmsPeaks[1]));
+
+                comparePrecursors(mgfSpectrum.getPrecursor(), cmsSpectrum.getPrecursor());
+                comparePrecursors(mgfSpectrum.getPrecursor(), spectrumFactory.getPrecursor(cmsFileName, title, false));
+                Assert.assertEquals(spectrumFactory.getPrecursorMz(Spectrum.getSpectrumKey(mgfFileName, title)),
+                        spectrumFactory.getPrecursorMz(Spectrum.getSpectrumKey(cmsFileName, title)));
+            }
+
+        } finally {
+            spectrumFactory.clearFactory();
+            mgfFile.delete();
+            indexFile.delete();
+            cmsFile.delete();
+        }
+    }
+
+    /**
+     * Tests the spectra without precursor, and that no file is written when
+     * the writing is canceled.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSpectraWithoutPrecursor() throws Exception {
+
+        File cmsFile = File.createTempFile("CmsFileTest", ".cms");
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+
+        try {
+
+            CmsFileWriter cmsFileWriter = new CmsFileWriter(cmsFile, "test");
+            MS1Spectrum ms1Spectrum = new MS1Spectrum(cmsFile.getName(), "ms1", 12.0, null);
+            ms1Spectrum.setPeaks(new double[]{100.0, 200.0}, new double[]{1.0, 2.0});
+            cmsFileWriter.addSpectrum(ms1Spectrum);
+            MSnSpectrum ms2Spectrum = new MSnSpectrum(2, null, "ms2", cmsFile.getName());
+            ms2Spectrum.setPeaks(new double[]{150.0}, new double[]{3.0});
+            cmsFileWriter.addSpectrum(ms2Spectrum);
+            cmsFileWriter.close();
+
+            spectrumFactory.addSpectra(cmsFile, null);
+            String cmsFileName = cmsFile.getName();
+
+            Assert.assertEquals(1, spectrumFactory.getSpectrum(cmsFileName, "ms1", false).getLevel());
+            Assert.assertNull(((MSnSpectrum) spectrumFactory.getSpectrum(cmsFileName, "ms2", false)).getPrecursor());
+            for (String title : new String[]{"ms1", "ms2"}) {
+                try {
+                    spectrumFactory.getPrecursorMz(Spectrum.getSpectrumKey(cmsFileName, title));
+                    Assert.fail("No precursor m/z should be returned for spectrum " + title + ".");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+
+            // a canceled writing leaves no file
+            spectrumFactory.addSpectra(mgfFile, null);
+            File canceledFile = new File(cmsFile.getParentFile(), "canceled_" + cmsFile.getName());
+            WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl();
+            waitingHandler.setRunCanceled();
+            CmsFileWriter.writeCmsFile(mgfFile.getName(), canceledFile, waitingHandler);
+            Assert.assertFalse(canceledFile.exists());
+
+        } finally {
+            spectrumFactory.clearFactory();
+            cmsFile.delete();
+        }
+    }
+
+    /**
+     * Compares two precursors.
+     *
+     * @param expected the expected precursor
+     * @param actual the actual precursor
+     */
+    private static void comparePrecursors(Precursor expected, Precursor actual) {
+        Assert.assertEquals(expected.getMz(), actual.getMz());
+        Assert.assertEquals(expected.getIntensity(), actual.getIntensity());
+        Assert.assertEquals(expected.getRt(), actual.getRt());
+        Assert.assertTrue(Arrays.equals(expected.getRtWindow(), actual.getRtWindow()));
+        ArrayList<Charge> expectedCharges = expected.getPossibleCharges();
+        ArrayList<Charge> actualCharges = actual.getPossibleCharges();
+        Assert.assertEquals(expectedCharges.size(), actualCharges.size());
+        for (int i = 0; i < expectedCharges.size(); i++) {
+            Assert.assertEquals(expectedCharges.get(i).sign, actualCharges.get(i).sign);
+            Assert.assertEquals(expectedCharges.get(i).value, actualCharges.get(i).value);
+        }
+    }
+
+    /**
+     * Writes a test mgf file.
+     *
+     * @param mgfFile the file to write
+     * @param nSpectra the number of spectra
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void writeTestFile(File mgfFile, int nSpectra) throws Exception {
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+
+        try {
+
+            for (int i = 0; i < nSpectra; i++) {
+
+                bw.write("BEGIN IONS");
+                bw.newLine();
+                bw.write("TITLE=spectrum " + i);
+                bw.newLine();
+                if (i % 5 != 0) {
+                    bw.write("PEPMASS=" + (400.0 + i / 7.0) + " " + (1000.0 + i));
+                    bw.newLine();
+                }
+                if (i % 3 == 0) {
+                    bw.write("CHARGE=2+ and 3+");
+                    bw.newLine();
+                } else if (i % 3 == 1) {
+                    bw.write("CHARGE=1-");
+                    bw.newLine();
+                }
+                if (i % 4 == 0) {
+                    bw.write("RTINSECONDS=" + (10.0 + i) + "-" + (12.5 + i));
+                } else {
+                    bw.write("RTINSECONDS=" + (10.0 + i));
+                }
+                bw.newLine();
+                if (i % 2 == 0) {
+                    bw.write("SCANS=" + i);
+                    bw.newLine();
+                }
+                for (int j = 0; j < i % 17; j++) {
+                    bw.write((100.0 + 1.5 * j) + " " + (j * i + 0.25));
+                    bw.newLine();
+                }
+                bw.write("END IONS");
+                bw.newLine();
+            }
+
+        } finally {
+            bw.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
+import com.compomics.util.experiment.io.massspectrometry.MgfIndexer;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the parallel indexing of mgf files.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfIndexerTest extends TestCase {
+
+    /**
+     * Tests that indexing a file in small chunks gives the same index as
+     * indexing it sequentially.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testChunkedIndexing() throws Exception {
+
+        File mgfFile = File.createTempFile("MgfIndexerTest", ".mgf");
+
+        try {
+
+            writeTestFile(mgfFile, 2500);
+
+            MgfIndex sequentialIndex = new MgfIndexer(mgfFile, 1).getIndex(null);
+            Assert.assertEquals(2500, sequentialIndex.getNSpectra());
+            Assert.assertNotNull(sequentialIndex.getDuplicatedSpectrumTitles().get("duplicate"));
+
+            long[] chunkSizes = new long[]{1, 64, 1000, 100000};
+
+            for (long chunkSize : chunkSizes) {
+
+                MgfIndex chunkedIndex = new MgfIndexer(mgfFile, 4, chunkSize).getIndex(null);
+                compareIndexes(sequentialIndex, chunkedIndex);
+            }
+
+            mgfFile.delete();
+            mgfFile.createNewFile();
+            MgfIndex emptyIndex = new MgfIndexer(mgfFile, 4, 1).getIndex(null);
+            Assert.assertEquals(0, emptyIndex.getNSpectra());
+            Assert.assertEquals(0, emptyIndex.getNTitles());
+
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Asserts that two indexes are identical.
+     *
+     * @param expected the expected index
+     * @param actual the actual index
+     */
+    private static void compareIndexes(MgfIndex expected, MgfIndex actual) {
+
+        Assert.assertEquals(expected.getNSpectra(), actual.getNSpectra());
+        Assert.assertEquals(expected.getNTitles(), actual.getNTitles());
+        Assert.assertEquals(expected.getDuplicatedSpectrumTitles(), actual.getDuplicatedSpectrumTitles());
+        Assert.assertEquals(expected.getMinRT(), actual.getMinRT());
+        Assert.assertEquals(expected.getMaxRT(), actual.getMaxRT());
+        Assert.assertEquals(expected.getMaxMz(), actual.getMaxMz());
+        Assert.assertEquals(expected.getMaxIntensity(), actual.getMaxIntensity());
+        Assert.assertEquals(expected.getMaxCharge(), actual.getMaxCharge());
+        Assert.assertEquals(expected.getMaxPeakCount(), actual.getMaxPeakCount());
+        Assert.assertEquals(expected.isPeakPicked(), actual.isPeakPicked());
+        Assert.assertEquals(expected.isPrecursorChargesMissing(), actual.isPrecursorChargesMissing());
+
+        ArrayList<String> titles = expected.getSpectrumTitles();
+        Assert.assertEquals(titles, actual.getSpectrumTitles());
+
+        for (String title : titles) {
+            Assert.assertEquals(expected.getIndex(title), actual.getIndex(title));
+            Integer spectrumIndex = expected.getSpectrumIndex(title);
+            Assert.assertEquals(spectrumIndex, actual.getSpectrumIndex(title));
+        }
+
+        for (int i = 0; i < expected.getNSpectra(); i++) {
+            Assert.assertEquals(expected.getPrecursorMz(i), actual.getPrecursorMz(i));
+        }
+    }
+
+    /**
+     * Writes an mgf file containing spectra with duplicated titles, spectra
+     * without title, and spectra without precursor m/z, notably after the
+     * initial capacity of the arrays of the indexer.
+     *
+     * @param mgfFile the file to write
+     * @param nSpectra the number of spectra
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void writeTestFile(File mgfFile, int nSpectra) throws Exception {
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+
+        try {
+
+            bw.write("MASS=Monoisotopic");
+            bw.newLine();
+            bw.newLine();
+
+            for (int i = 0; i < nSpectra; i++) {
+
+                bw.write("BEGIN IONS");
+                bw.newLine();
+
+                if (i % 7 == 0) {
+                    bw.write("TITLE=duplicate");
+                    bw.newLine();
+                } else if (i % 11 != 0) {
+                    bw.write("TITLE=spectrum%20" + i);
+                    bw.newLine();
+                }
+
+                if (i < 1100 && i % 5 != 0) {
+                    bw.write("PEPMASS=" + (400.0 + i / 10.0) + " " + (1000.0 + i));
+                    bw.newLine();
+                }
+
+                if (i % 3 != 0) {
+                    bw.write("CHARGE=" + (1 + i % 4) + "+");
+                    bw.newLine();
+                }
+
+                bw.write("RTINSECONDS=" + (10.0 + i));
+                bw.newLine();
+
+                for (int j = 0; j <= i % 13; j++) {
+                    bw.write((100.0 + j) + " " + (j * i));
+                    bw.newLine();
+                }
+
+                bw.write("END IONS");
+                bw.newLine();
+                bw.newLine();
+            }
+
+        } finally {
+            bw.close();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MgfReader;
+import com.compomics.util.experiment.io.massspectrometry.MgfSpectrumParser;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the parsing of mgf files from the bytes of the file.
+ *
+ * @author Marc Vaudel
+ */
+public class MgfSpectrumParserTest extends TestCase {
+
+    /**
+     * Numbers in different notations and malformed tokens.
+     */
+    private static final String[] TOKENS = new String[]{
+        "0", "-0", "-0.0", "+0", "+3", "-3", ".5", "-.5", "5.", "5.e1", "1E-5", "1e-5", "1E+05", "2.5E3",
+        "123456789012345", "1234567890123456", "123456789.012345", "1234567.890123456", "0.1234567890123456",
+        "9007199254740991", "9007199254740993", "12345678901234567890", "0.000000000000000000000001",
+        "1e22", "1e23", "1e-22", "1e-23", "1.5e-22", "4.9e-324", "1e-400", "1.7976931348623157e308", "1e309",
+        "1e00000000022", "0x1p3", "1d", "1f", "NaN", "Infinity", "-Infinity",
+        ".", "-", "+", "e5", ".e5", "1e", "1e+", "1e-", "1.2.3", "--1", "+-1", "1x", "1e5.5", "1,5", "0x", "1e99999999999"};
+
+    /**
+     * Tests that the numbers parsed by the parser are the same as the ones
+     * returned by Double.parseDouble and that malformed tokens are ignored.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testNumberParsing() throws Exception {
+
+        File mgfFile = File.createTempFile("MgfSpectrumParserTest", ".mgf");
+
+        try {
+
+            StringBuilder content = new StringBuilder();
+            content.append("BEGIN IONS\nTITLE=intensities\n");
+            for (int i = 0; i < TOKENS.length; i++) {
+                content.append(i + 1).append(' ').append(TOKENS[i]).append('\n');
+            }
+            content.append("END IONS\n");
+            for (String token : TOKENS) {
+                content.append("BEGIN IONS\nTITLE=").append(token).append('\n');
+                if (isMzToken(token)) {
+                    content.append(token).append(" 1\n");
+                }
+                content.append("END IONS\n");
+            }
+            writeFile(mgfFile, content.toString());
+
+            ArrayList<Double> expectedIntensities = new ArrayList<Double>();
+            for (String token : TOKENS) {
+                try {
+                    expectedIntensities.add(Double.parseDouble(token));
+                } catch (NumberFormatException e) {
+                    // malformed token, the peak is ignored
+                }
+            }
+
+            for (int bufferSize : new int[]{16, 64, MgfSpectrumParser.DEFAULT_BUFFER_SIZE}) {
+
+                ArrayList<MSnSpectrum> spectra = parseFile(mgfFile, bufferSize);
+                Assert.assertEquals(TOKENS.length + 1, spectra.size());
+
+                double[] intensities = spectra.get(0).getMzAndIntensityAsArray()[1];
+                Assert.assertEquals(expectedIntensities.size(), intensities.length);
+                for (int i = 0; i < intensities.length; i++) {
+                    Assert.assertEquals(Double.doubleToLongBits(expectedIntensities.get(i)), Double.doubleToLongBits(intensities[i]));
+                }
+
+                for (int i = 0; i < TOKENS.length; i++) {
+                    String token = TOKENS[i];
+                    double[] mzs = spectra.get(i + 1).getMzValuesAsArray();
+                    Double expectedMz = null;
+                    if (isMzToken(token)) {
+                        try {
+                            expectedMz = Double.parseDouble(token);
+                        } catch (NumberFormatException e) {
+                            // malformed token, the peak is ignored
+                        }
+                    }
+                    if (expectedMz == null) {
+                        Assert.assertEquals(token, 0, mzs.length);
+                    } else {
+                        Assert.assertEquals(token, 1, mzs.length);
+                        Assert.assertEquals(token, Double.doubleToLongBits(expectedMz), Double.doubleToLongBits(mzs[0]));
+                    }
+                }
+            }
+
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the spectra parsed from files with Windows line breaks,
+     * blank lines, comments and trailing white spaces are the same as the
+     * ones returned by the reader of the mgf files.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testParsingConsistency() throws Exception {
+
+        File mgfFile = File.createTempFile("MgfSpectrumParserTest", ".mgf");
+
+        try {
+
+            String content = "# comment before the first spectrum\r\n"
+                    + "\r\n"
+                    + "BEGIN IONS\r\n"
+                    + "TITLE=Spectrum%201 \r\n"
+                    + "PEPMASS=512.25 1234.5\r\n"
+                    + "CHARGE=2+ and 3+\r\n"
+                    + "RTINSECONDS=121.5\r\n"
+                    + "SCANS=12\r\n"
+                    + "100.0 10.0\r\n"
+                    + "\r\n"
+                    + "200.5\t20.25  \r\n"
+                    + "300.125 30.5\t\r\n"
+                    + "   \r\n"
+                    + "400.0\r\n"
+                    + "# comment in the peaks\r\n"
+                    + "500.0 50.0 1+\r\n"
+                    + "250.0  25.0\r\n"
+                    + "END IONS\r\n"
+                    + "\n"
+                    + "BEGIN IONS\n"
+                    + "TITLE=Spectrum 2\n"
+                    + "PEPMASS=1024.5\n"
+                    + "RTINSECONDS=10.5-12.5\n"
+                    + "TOL=10\n"
+                    + "150.0 15.0 \n"
+                    + "\t\n"
+                    + "160.0 16.0\r\n"
+                    + "170.0\t\t17.0\n"
+                    + "END IONS\n"
+                    + "BEGIN IONS\r\n"
+                    + "TITLE=Spectrum 3\r\n"
+                    + "PEPMASS=99.5\r\n"
+                    + "END IONS\r\n"
+                    + "BEGIN IONS\r\n"
+                    + "TITLE=Spectrum 4\r\n"
+                    + "PEPMASS=2048.0\r\n"
+                    + "CHARGE=2-\r\n"
+                    + "1e3 1E-5\r\n"
+                    + "-0 .5\r\n"
+                    + "5. +3\r\n"
+                    + "END IONS";
+            writeFile(mgfFile, content);
+
+            ArrayList<MSnSpectrum> expectedSpectra = new ArrayList<MSnSpectrum>();
+            BufferedReader br = new BufferedReader(new FileReader(mgfFile));
+            try {
+                MSnSpectrum spectrum;
+                while ((spectrum = MgfReader.getSpectrum(br, mgfFile.getName())) != null) {
+                    expectedSpectra.add(spectrum);
+                }
+            } finally {
+                br.close();
+            }
+            Assert.assertEquals(4, expectedSpectra.size());
+            Assert.assertEquals(5, expectedSpectra.get(0).getNPeaks());
+
+            for (int bufferSize : new int[]{16, 64, MgfSpectrumParser.DEFAULT_BUFFER_SIZE}) {
+
+                ArrayList<MSnSpectrum> spectra = parseFile(mgfFile, bufferSize);
+                Assert.assertEquals(expectedSpectra.size(), spectra.size());
+
+                for (int i = 0; i < spectra.size(); i++) {
+                    compareSpectra(expectedSpectra.get(i), spectra.get(i));
+                }
+            }
+
+        } finally {
+            mgfFile.delete();
+        }
+    }
+
+    /**
+     * Indicates whether a token is used as m/z value in the number parsing
+     * test, lines starting with letters not being parsed as peaks.
+     *
+     * @param token the token
+     *
+     * @return true if the token is used as m/z value
+     */
+    private static boolean isMzToken(String token) {
+        return !token.endsWith("Infinity") && !token.equals("NaN");
+    }
+
+    /**
+     * Parses all spectra of a file using the mgf spectrum parser.
+     *
+     * @param mgfFile the mgf file
+     * @param bufferSize the size of the read buffer
+     *
+     * @return the spectra of the file
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static ArrayList<MSnSpectrum> parseFile(File mgfFile, int bufferSize) throws Exception {
+
+        ArrayList<MSnSpectrum> spectra = new ArrayList<MSnSpectrum>();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(mgfFile, "r");
+        try {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            MgfSpectrumParser parser = new MgfSpectrumParser(fileChannel, 0, mgfFile.getName(), bufferSize);
+            MSnSpectrum spectrum;
+            while ((spectrum = parser.next()) != null) {
+                spectra.add(spectrum);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+        return spectra;
+    }
+
+    /**
+     * Asserts that two spectra are identical.
+     *
+     * @param expected the expected spectrum
+     * @param actual the actual spectrum
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void compareSpectra(MSnSpectrum expected, MSnSpectrum actual) throws Exception {
+
+        Assert.assertEquals(expected.getSpectrumTitle(), actual.getSpectrumTitle());
+        Assert.assertEquals(expected.getScanNumber(), actual.getScanNumber());
+
+        Precursor expectedPrecursor = expected.getPrecursor();
+        Precursor actualPrecursor = actual.getPrecursor();
+        Assert.assertEquals(expectedPrecursor.getMz(), actualPrecursor.getMz());
+        Assert.assertEquals(expectedPrecursor.getIntensity(), actualPrecursor.getIntensity());
+        Assert.assertEquals(expectedPrecursor.getRt(), actualPrecursor.getRt());
+        Assert.assertEquals(expectedPrecursor.getRtWindow()[0], actualPrecursor.getRtWindow()[0]);
+        Assert.assertEquals(expectedPrecursor.getRtWindow()[1], actualPrecursor.getRtWindow()[1]);
+        Assert.assertEquals(expectedPrecursor.getPossibleChargesAsString(), actualPrecursor.getPossibleChargesAsString());
+
+        double[][] expectedPeaks = expected.getMzAndIntensityAsArray();
+        double[][] actualPeaks = actual.getMzAndIntensityAsArray();
+        Assert.assertEquals(expectedPeaks[0].length, actualPeaks[0].length);
+        for (int i = 0; i < expectedPeaks[0].length; i++) {
+            Assert.assertEquals(Double.doubleToLongBits(expectedPeaks[0][i]), Double.doubleToLongBits(actualPeaks[0][i]));
+            Assert.assertEquals(Double.doubleToLongBits(expectedPeaks[1][i]), Double.doubleToLongBits(actualPeaks[1][i]));
+        }
+    }
+
+    /**
+     * Writes the given content to a file in ASCII.
+     *
+     * @param file the file
+     * @param content the content to write
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void writeFile(File file, String content) throws Exception {
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content.getBytes("US-ASCII"));
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.io.massspectrometry.MzMLReader;
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import uk.ac.ebi.jmzml.model.mzml.BinaryDataArray;
+import uk.ac.ebi.jmzml.model.mzml.CVParam;
+import uk.ac.ebi.jmzml.model.mzml.PrecursorList;
+import uk.ac.ebi.jmzml.model.mzml.ScanList;
+import uk.ac.ebi.jmzml.model.mzml.SelectedIonList;
+import uk.ac.ebi.jmzml.xml.io.MzMLUnmarshaller;
+
+/**
+ * This class tests the mzML reader against the jmzml library.
+ *
+ * @author Marc Vaudel
+ */
+public class MzMLReaderTest extends TestCase {
+
+    /**
+     * Tests the reading of an indexed mzML file.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testIndexedFile() throws Exception {
+        compareToJmzml(new File("src/test/resources/experiment/test_indexed.mzML"), true);
+    }
+
+    /**
+     * Tests the reading of an mzML file without index.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testNonIndexedFile() throws Exception {
+        compareToJmzml(new File("src/test/resources/experiment/test.mzML"), false);
+    }
+
+    /**
+     * Compares the spectra and precursors read by the mzML reader and by the
+     * spectrum factory to the ones obtained using jmzml.
+     *
+     * @param mzMLFile the mzML file
+     * @param indexed indicates whether the file is indexed
+     *
+     * @throws Exception if an exception occurs
+     */
+    private void compareToJmzml(File mzMLFile, boolean indexed) throws Exception {
+
+        MzMLUnmarshaller mzMLUnmarshaller = new MzMLUnmarshaller(mzMLFile);
+        MzMLReader mzMLReader = new MzMLReader(mzMLFile);
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mzMLFile);
+        String fileName = mzMLFile.getName();
+
+        try {
+
+            Assert.assertEquals(indexed, mzMLReader.isIndexed());
+            ArrayList<String> spectrumIds = mzMLReader.getSpectrumIds();
+            Assert.assertEquals(mzMLUnmarshaller.getSpectrumIDs(), new HashSet<String>(spectrumIds));
+            Assert.assertEquals(spectrumIds.size(), mzMLReader.getNSpectra());
+            Assert.assertFalse(mzMLReader.containsSpectrum("not an id"));
+            Assert.assertNull(mzMLReader.getSpectrum("not an id"));
+
+            for (String spectrumId : spectrumIds) {
+
+                uk.ac.ebi.jmzml.model.mzml.Spectrum mzMLSpectrum = mzMLUnmarshaller.getSpectrumById(spectrumId);
+                Assert.assertTrue(mzMLReader.containsSpectrum(spectrumId));
+
+                int level = 2;
+                for (CVParam cvParam : mzMLSpectrum.getCvParam()) {
+                    if (cvParam.getAccession().equals("MS:1000511")) {
+                        level = new Integer(cvParam.getValue());
+                        break;
+                    }
+                }
+                double scanTime = -1.0;
+                ScanList scanList = mzMLSpectrum.getScanList();
+                if (scanList != null) {
+                    for (CVParam cvParam : scanList.getScan().get(scanList.getScan().size() - 1).getCvParam()) {
+                        if (cvParam.getAccession().equals("MS:1000016")) {
+                            scanTime = new Double(cvParam.getValue());
+                            break;
+                        }
+                    }
+                }
+                double precursorMz = 0.0;
+                int precursorCharge = 0;
+                PrecursorList precursorList = mzMLSpectrum.getPrecursorList();
+                if (precursorList != null && precursorList.getCount().intValue() == 1) {
+                    SelectedIonList selectedIonList = precursorList.getPrecursor().get(0).getSelectedIonList();
+                    if (selectedIonList != null) {
+                        for (CVParam cvParam : selectedIonList.getSelectedIon().get(0).getCvParam()) {
+                            if (cvParam.getAccession().equals("MS:1000744") || cvParam.getAccession().equals("MS:1000040")) {
+                                precursorMz = new Double(cvParam.getValue());
+                            } else if (cvParam.getAccession().equals("MS:1000041")) {
+                                precursorCharge = new Integer(cvParam.getValue());
+                            }
+                        }
+                    }
+                }
+                List<BinaryDataArray> binaryDataArrays = mzMLSpectrum.getBinaryDataArrayList().getBinaryDataArray();
+                Number[] mzNumbers = binaryDataArrays.get(0).getBinaryDataAsNumberArray();
+                Number[] intensityNumbers = binaryDataArrays.get(1).getBinaryDataAsNumberArray();
+                double[][] expectedPeaks = getSortedPeaks(mzNumbers, intensityNumbers);
+
+                Spectrum spectrum = mzMLReader.getSpectrum(spectrumId);
+                Spectrum factorySpectrum = spectrumFactory.getSpectrum(fileName, spectrumId, false);
+
+                for (Spectrum currentSpectrum : new Spectrum[]{spectrum, factorySpectrum}) {
+
+                    Assert.assertEquals(spectrumId, currentSpectrum.getSpectrumTitle());
+                    Assert.assertEquals(fileName, currentSpectrum.getFileName());
+                    Assert.assertEquals(level, currentSpectrum.getLevel());
+                    Assert.assertEquals(scanTime, currentSpectrum.getScanStartTime());
+                    double[][] peaks = currentSpectrum.getMzAndIntensityAsArray();
+                    Assert.assertTrue(Arrays.equals(expectedPeaks[0], peaks[0]));
+                    Assert.assertTrue(Arrays.equals(expectedPeaks[1], peaks[1]));
+
+                    if (level > 1) {
+                        comparePrecursor(scanTime, precursorMz, precursorCharge, ((MSnSpectrum) currentSpectrum).getPrecursor());
+                    }
+                }
+
+                if (level > 1) {
+                    comparePrecursor(scanTime, precursorMz, precursorCharge, mzMLReader.getPrecursor(spectrumId));
+                    comparePrecursor(scanTime, precursorMz, precursorCharge, spectrumFactory.getPrecursor(fileName, spectrumId, false));
+                } else {
+                    try {
+                        mzMLReader.getPrecursor(spectrumId);
+                        Assert.fail("No precursor should be returned for an MS1 spectrum.");
+                    } catch (IllegalArgumentException e) {
+                        // expected
+                    }
+                }
+            }
+
+        } finally {
+            mzMLReader.close();
+            spectrumFactory.clearFactory();
+        }
+    }
+
+    /**
+     * Compares a precursor to the values obtained using jmzml.
+     *
+     * @param scanTime the expected scan time
+     * @param precursorMz the expected precursor m/z
+     * @param precursorCharge the expected precursor charge
+     * @param precursor the precursor to compare
+     */
+    private static void comparePrecursor(double scanTime, double precursorMz, int precursorCharge, Precursor precursor) {
+        Assert.assertEquals(scanTime, precursor.getRt());
+        Assert.assertEquals(precursorMz, precursor.getMz());
+        ArrayList<Charge> charges = precursor.getPossibleCharges();
+        Assert.assertEquals(1, charges.size());
+        Assert.assertEquals(Charge.PLUS, charges.get(0).sign);
+        Assert.assertEquals(precursorCharge, charges.get(0).value);
+    }
+
+    /**
+     * Returns the peaks decoded by jmzml sorted by m/z.
+     *
+     * @param mzNumbers the m/z values
+     * @param intensityNumbers the intensity values
+     *
+     * @return the m/z and intensities sorted by m/z
+     */
+    private static double[][] getSortedPeaks(Number[] mzNumbers, Number[] intensityNumbers) {
+        Integer[] order = new Integer[mzNumbers.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final Number[] unsortedMz = mzNumbers;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(unsortedMz[o1].doubleValue(), unsortedMz[o2].doubleValue());
+            }
+        });
+        double[][] peaks = new double[2][order.length];
+        for (int i = 0; i < order.length; i++) {
+            peaks[0][i] = mzNumbers[order[i]].doubleValue();
+            peaks[1][i] = intensityNumbers[order[i]].doubleValue();
+        }
+        return peaks;
+    }
+}
@@ -0,0 +1,207 @@
+package com.compomics.util.test.experiment.io.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.PrefetchingSpectrumIterator;
+import com.compomics.util.experiment.massspectrometry.Spectrum;
+import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the iteration of spectra read ahead of the consumer.
+ *
+ * @author Marc Vaudel
+ */
+public class PrefetchingSpectrumIteratorTest extends TestCase {
+
+    /**
+     * The number of spectra in the test file.
+     */
+    private static final int N_SPECTRA = 50;
+
+    /**
+     * Tests that the spectra are returned in the order of the keys, and that
+     * closing the iterator does not prevent reading the file afterwards.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testIteration() throws Exception {
+
+        File mgfFile = File.createTempFile("PrefetchingSpectrumIteratorTest", ".mgf");
+        File indexFile = new File(mgfFile.getParentFile(), SpectrumFactory.getIndexName(mgfFile.getName()));
+
+        try {
+
+            writeTestFile(mgfFile);
+            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+            spectrumFactory.addSpectra(mgfFile, null);
+            String fileName = mgfFile.getName();
+
+            ArrayList<String> spectrumKeys = new ArrayList<String>();
+            for (String title : spectrumFactory.getSpectrumTitles(fileName)) {
+                spectrumKeys.add(Spectrum.getSpectrumKey(fileName, title));
+            }
+            Assert.assertEquals(N_SPECTRA, spectrumKeys.size());
+
+            // reversed order with duplicated keys, across several windows
+            ArrayList<String> orderedKeys = new ArrayList<String>(spectrumKeys);
+            Collections.reverse(orderedKeys);
+            orderedKeys.add(spectrumKeys.get(3));
+            orderedKeys.add(spectrumKeys.get(3));
+            orderedKeys.add(spectrumKeys.get(0));
+
+            int[] windowSizes = new int[]{1, 7, N_SPECTRA, 2 * N_SPECTRA};
+
+            for (int windowSize : windowSizes) {
+
+                PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(orderedKeys, windowSize);
+                int index = 0;
+                while (iterator.hasNext()) {
+                    MSnSpectrum spectrum = (MSnSpectrum) iterator.next();
+                    String spectrumKey = orderedKeys.get(index++);
+                    Assert.assertEquals(spectrumKey, iterator.getSpectrumKey());
+                    Assert.assertEquals(Spectrum.getSpectrumTitle(spectrumKey), spectrum.getSpectrumTitle());
+                }
+                Assert.assertEquals(orderedKeys.size(), index);
+                iterator.close();
+            }
+
+            // abandon the iteration while the next windows are being read
+            for (int i = 0; i < 10; i++) {
+                spectrumFactory.emptyCache();
+                PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(spectrumKeys, 5);
+                iterator.next();
+                iterator.close();
+            }
+
+            // the file must still be readable
+            spectrumFactory.emptyCache();
+            for (String spectrumKey : spectrumKeys) {
+                MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum(spectrumKey, false);
+                Assert.assertEquals(Spectrum.getSpectrumTitle(spectrumKey), spectrum.getSpectrumTitle());
+            }
+
+            PrefetchingSpectrumIterator emptyIterator = new PrefetchingSpectrumIterator(new ArrayList<String>());
+            Assert.assertFalse(emptyIterator.hasNext());
+            emptyIterator.close();
+
+        } finally {
+            mgfFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Tests that calling next past the end of the iteration or after closing
+     * the iterator throws the expected exceptions.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testIterationLimits() throws Exception {
+
+        File mgfFile = File.createTempFile("PrefetchingSpectrumIteratorTest", ".mgf");
+        File indexFile = new File(mgfFile.getParentFile(), SpectrumFactory.getIndexName(mgfFile.getName()));
+
+        try {
+
+            writeTestFile(mgfFile);
+            SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+            spectrumFactory.addSpectra(mgfFile, null);
+            String fileName = mgfFile.getName();
+
+            ArrayList<String> spectrumKeys = new ArrayList<String>();
+            for (String title : spectrumFactory.getSpectrumTitles(fileName)) {
+                spectrumKeys.add(Spectrum.getSpectrumKey(fileName, title));
+            }
+
+            // past the end
+            for (int windowSize : new int[]{1, 7, N_SPECTRA}) {
+                PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(spectrumKeys, windowSize);
+                for (int i = 0; i < N_SPECTRA; i++) {
+                    Assert.assertNotNull(iterator.next());
+                }
+                Assert.assertFalse(iterator.hasNext());
+                try {
+                    iterator.next();
+                    Assert.fail("No exception thrown past the end of the iteration.");
+                } catch (NoSuchElementException e) {
+                    // expected
+                }
+                iterator.close();
+            }
+
+            PrefetchingSpectrumIterator emptyIterator = new PrefetchingSpectrumIterator(new ArrayList<String>());
+            try {
+                emptyIterator.next();
+                Assert.fail("No exception thrown for an empty iteration.");
+            } catch (NoSuchElementException e) {
+                // expected
+            }
+            emptyIterator.close();
+
+            // after closing, at a window boundary and within a window
+            for (int consumed : new int[]{0, 5, 3}) {
+                PrefetchingSpectrumIterator iterator = new PrefetchingSpectrumIterator(spectrumKeys, 5);
+                for (int i = 0; i < consumed; i++) {
+                    iterator.next();
+                }
+                iterator.close();
+                Assert.assertTrue(iterator.hasNext());
+                try {
+                    iterator.next();
+                    Assert.fail("No exception thrown after closing the iterator.");
+                } catch (IllegalStateException e) {
+                    // expected
+                }
+            }
+
+        } finally {
+            mgfFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Writes a test mgf file.
+     *
+     * @param mgfFile the file to write
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void writeTestFile(File mgfFile) throws Exception {
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(mgfFile));
+
+        try {
+
+            for (int i = 0; i < N_SPECTRA; i++) {
+
+                bw.write("BEGIN IONS");
+                bw.newLine();
+                bw.write("TITLE=spectrum " + i);
+                bw.newLine();
+                bw.write("PEPMASS=" + (400.0 + i));
+                bw.newLine();
+                bw.write("CHARGE=2+");
+                bw.newLine();
+
+                for (int j = 0; j < 100; j++) {
+                    bw.write((100.0 + j) + " " + (j + i));
+                    bw.newLine();
+                }
+
+                bw.write("END IONS");
+                bw.newLine();
+            }
+
+        } finally {
+            bw.close();
+        }
+    }
+}
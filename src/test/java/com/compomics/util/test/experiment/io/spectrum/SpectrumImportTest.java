@@ -1,13 +1,24 @@
 package com.compomics.util.test.experiment.io.spectrum;
 
+import com.compomics.util.experiment.io.massspectrometry.MgfIndex;
 import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
 import com.compomics.util.experiment.massspectrometry.Precursor;
 import com.compomics.util.experiment.massspectrometry.SpectrumFactory;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This test case will test the mgf import and spectrum annotation
@@ -42,4 +53,98 @@ public class SpectrumImportTest extends TestCase {
         Assert.assertTrue(rtMax == 219.71);
         Assert.assertTrue(Math.abs(precursor.getRt() - 218.855) < 0.0001);
     }
+
+    public void testConcurrentSpectrumRetrieval() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        final SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, null);
+        spectrumFactory.emptyCache();
+        final ArrayList<String> titles = spectrumFactory.getSpectrumTitles("test.mgf");
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 16; i++) {
+                futures.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int nPeaks = 0;
+                        for (String title : titles) {
+                            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum("test.mgf", title, false);
+                            Assert.assertEquals(title, spectrum.getSpectrumTitle());
+                            Assert.assertTrue(spectrum.getPrecursor().getMz() > 0);
+                            nPeaks += spectrum.getNPeaks();
+                        }
+                        return nPeaks;
+                    }
+                }));
+            }
+            Integer expected = null;
+            for (Future<Integer> future : futures) {
+                Integer nPeaks = future.get();
+                if (expected == null) {
+                    expected = nPeaks;
+                }
+                Assert.assertEquals(expected, nPeaks);
+            }
+            Assert.assertTrue(expected > 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testInterruptedSpectrumRetrieval() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, null);
+        spectrumFactory.emptyCache();
+        ArrayList<String> titles = spectrumFactory.getSpectrumTitles("test.mgf");
+
+        // reading from an interrupted thread closes the channel of the file
+        Thread.currentThread().interrupt();
+        try {
+            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum("test.mgf", titles.get(0), false);
+            Assert.assertEquals(titles.get(0), spectrum.getSpectrumTitle());
+        } finally {
+            Thread.interrupted();
+        }
+
+        // the channel must be opened again for the other reads
+        for (String title : titles) {
+            MSnSpectrum spectrum = (MSnSpectrum) spectrumFactory.getSpectrum("test.mgf", title, false);
+            Assert.assertEquals(title, spectrum.getSpectrumTitle());
+            Assert.assertTrue(spectrumFactory.getPrecursor("test.mgf", title).getMz() > 0);
+        }
+    }
+
+    public void testMgfIndexSerialization() throws Exception {
+        File mgfFile = new File("src/test/resources/experiment/test.mgf");
+        SpectrumFactory spectrumFactory = SpectrumFactory.getInstance();
+        spectrumFactory.addSpectra(mgfFile, null);
+
+        File indexFile = new File(mgfFile.getParentFile(), SpectrumFactory.getIndexName(mgfFile.getName()));
+        Assert.assertEquals(mgfFile.lastModified(), MgfIndex.getLastModified(indexFile));
+        MgfIndex mgfIndex = spectrumFactory.getIndex(indexFile);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(mgfIndex);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        MgfIndex deserializedIndex = (MgfIndex) in.readObject();
+        in.close();
+
+        ArrayList<String> titles = mgfIndex.getSpectrumTitles();
+        Assert.assertSame(titles, mgfIndex.getSpectrumTitles());
+        Assert.assertEquals(titles, deserializedIndex.getSpectrumTitles());
+        Assert.assertEquals(mgfIndex.getFileName(), deserializedIndex.getFileName());
+        Assert.assertEquals(mgfIndex.getLastModified(), deserializedIndex.getLastModified());
+        for (String title : titles) {
+            Assert.assertEquals(mgfIndex.getIndex(title), deserializedIndex.getIndex(title));
+            Integer spectrumIndex = mgfIndex.getSpectrumIndex(title);
+            Assert.assertEquals(spectrumIndex, deserializedIndex.getSpectrumIndex(title));
+            Assert.assertEquals(mgfIndex.getPrecursorMz(spectrumIndex), deserializedIndex.getPrecursorMz(spectrumIndex));
+        }
+        Assert.assertFalse(deserializedIndex.containsSpectrum("not a title"));
+    }
 }
@@ -0,0 +1,408 @@
+package com.compomics.util.test.experiment.sequences.digestion;
+
+import com.compomics.util.experiment.biology.AminoAcidSequence;
+import com.compomics.util.experiment.biology.Enzyme;
+import com.compomics.util.experiment.biology.EnzymeFactory;
+import com.compomics.util.experiment.biology.Peptide;
+import com.compomics.util.experiment.identification.matches.ModificationMatch;
+import com.compomics.util.experiment.identification.protein_sequences.ProteinSequenceStore;
+import com.compomics.util.experiment.identification.protein_sequences.ProteinSequenceStoreWriter;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.IteratorFactory;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideCandidates;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.PeptideWithPosition;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteinIteratorUtils;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.ProteomeDigester;
+import com.compomics.util.experiment.identification.protein_sequences.digestion.SequenceIterator;
+import com.compomics.util.general.BoxedObject;
+import com.compomics.util.preferences.DigestionPreferences;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeSet;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Tests the proteome digester against the protein sequence iterators and
+ * against an enumeration of all the peptides of the proteins.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteomeDigesterTest extends TestCase {
+
+    /**
+     * The number of proteins in the test file.
+     */
+    private static final int N_PROTEINS = 150;
+
+    /**
+     * Tests the digestion with an enzyme, unspecific and without digestion
+     * against the sequence iterators for the proteins without amino acid
+     * combinations, and against an enumeration of the peptides for all
+     * proteins, with and without fixed modifications.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testDigestion() throws Exception {
+
+        File fastaFile = File.createTempFile("ProteomeDigesterTest", ".fasta");
+        File storeFile = File.createTempFile("ProteomeDigesterTest", ".cps");
+
+        try {
+
+            HashSet<Integer> proteinsWithCombinations = writeTestFile(fastaFile);
+            ProteinSequenceStoreWriter.writeSequenceStore(fastaFile, storeFile, null);
+            ProteinSequenceStore sequenceStore = new ProteinSequenceStore(storeFile);
+            Assert.assertEquals(N_PROTEINS, sequenceStore.getNProteins());
+
+            ArrayList<String> modifications = new ArrayList<String>();
+            modifications.add("Carbamidomethylation of C");
+            modifications.add("Acetylation of protein N-term");
+            modifications.add("Pyrolidone from carbamidomethylated C");
+            ArrayList<ArrayList<String>> fixedModifications = new ArrayList<ArrayList<String>>();
+            fixedModifications.add(new ArrayList<String>());
+            fixedModifications.add(modifications);
+
+            for (ArrayList<String> modificationsList : fixedModifications) {
+
+                DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+                compareToIterators(sequenceStore, modificationsList, digestionPreferences, 400.0, 4000.0, proteinsWithCombinations);
+
+                digestionPreferences = new DigestionPreferences();
+                digestionPreferences.setCleavagePreference(DigestionPreferences.CleavagePreference.unSpecific);
+                compareToIterators(sequenceStore, modificationsList, digestionPreferences, 800.0, 1200.0, proteinsWithCombinations);
+
+                digestionPreferences = new DigestionPreferences();
+                digestionPreferences.setCleavagePreference(DigestionPreferences.CleavagePreference.wholeProtein);
+                compareToIterators(sequenceStore, modificationsList, digestionPreferences, 0.0, 50000.0, proteinsWithCombinations);
+            }
+
+        } finally {
+            fastaFile.delete();
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Tests the digestion with the different specificities of the enzyme
+     * against the peptides obtained by enumerating all the peptides of the
+     * proteins.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSpecificity() throws Exception {
+
+        File fastaFile = File.createTempFile("ProteomeDigesterTest", ".fasta");
+        File storeFile = File.createTempFile("ProteomeDigesterTest", ".cps");
+
+        try {
+
+            writeTestFile(fastaFile);
+            ProteinSequenceStoreWriter.writeSequenceStore(fastaFile, storeFile, null);
+            ProteinSequenceStore sequenceStore = new ProteinSequenceStore(storeFile);
+
+            ArrayList<String> fixedModifications = new ArrayList<String>();
+            fixedModifications.add("Carbamidomethylation of C");
+            fixedModifications.add("Acetylation of protein N-term");
+            double massMin = 600.0;
+            double massMax = 2500.0;
+            int nMissedCleavages = 1;
+
+            for (DigestionPreferences.Specificity specificity : DigestionPreferences.Specificity.values()) {
+
+                DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+                Enzyme enzyme = digestionPreferences.getEnzymes().get(0);
+                digestionPreferences.setSpecificity(enzyme.getName(), specificity);
+                digestionPreferences.setnMissedCleavages(enzyme.getName(), nMissedCleavages);
+                ProteomeDigester proteomeDigester = new ProteomeDigester(sequenceStore, fixedModifications, digestionPreferences, massMin, massMax);
+
+                for (int ordinal = 0; ordinal < N_PROTEINS; ordinal++) {
+
+                    String sequence = sequenceStore.getSequence(ordinal).toString();
+                    HashSet<String> expected = getExpectedPeptides(sequence, fixedModifications, digestionPreferences, massMin, massMax);
+                    Assert.assertEquals(specificity + " protein " + ordinal, expected, getPeptides(proteomeDigester, ordinal));
+                }
+            }
+
+        } finally {
+            fastaFile.delete();
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the digestion preferences not supported are rejected.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testUnsupportedPreferences() throws Exception {
+
+        File fastaFile = File.createTempFile("ProteomeDigesterTest", ".fasta");
+        File storeFile = File.createTempFile("ProteomeDigesterTest", ".cps");
+
+        try {
+
+            writeTestFile(fastaFile);
+            ProteinSequenceStoreWriter.writeSequenceStore(fastaFile, storeFile, null);
+            ProteinSequenceStore sequenceStore = new ProteinSequenceStore(storeFile);
+
+            DigestionPreferences digestionPreferences = DigestionPreferences.getDefaultPreferences();
+            digestionPreferences.addEnzyme(EnzymeFactory.getInstance().getEnzyme("Lys-C"));
+            try {
+                new ProteomeDigester(sequenceStore, new ArrayList<String>(), digestionPreferences, 0.0, 5000.0);
+                Assert.fail("Digestion with multiple enzymes should not be supported.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+        } finally {
+            fastaFile.delete();
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Compares the peptides of a digestion to the peptides returned by the
+     * sequence iterators.
+     *
+     * @param sequenceStore the sequence store
+     * @param fixedModifications the fixed modifications
+     * @param digestionPreferences the digestion preferences
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     * @param proteinsWithCombinations the ordinals of the proteins containing
+     * amino acid combinations
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void compareToIterators(ProteinSequenceStore sequenceStore, ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences,
+            double massMin, double massMax, HashSet<Integer> proteinsWithCombinations) throws Exception {
+
+        ProteomeDigester proteomeDigester = new ProteomeDigester(sequenceStore, fixedModifications, digestionPreferences, massMin, massMax);
+        proteomeDigester.setMinBlockSize(8);
+        PeptideCandidates candidates = proteomeDigester.digest(4, null);
+        IteratorFactory iteratorFactory = new IteratorFactory(fixedModifications);
+
+        HashSet<Integer> actualProteinsWithCombinations = new HashSet<Integer>();
+        for (int ordinal : candidates.getProteinsWithCombinations()) {
+            Assert.assertTrue(actualProteinsWithCombinations.add(ordinal));
+        }
+        Assert.assertEquals(proteinsWithCombinations, actualProteinsWithCombinations);
+
+        int index = 0;
+        int nCombinationPeptides = 0;
+        for (int ordinal = 0; ordinal < N_PROTEINS; ordinal++) {
+
+            String sequence = sequenceStore.getSequence(ordinal).toString();
+
+            // candidates sorted by protein and start
+            PeptideCandidates proteinCandidates = proteomeDigester.digest(ordinal);
+            int proteinIndex = 0;
+            for (; index < candidates.size() && candidates.getProtein(index) == ordinal; index++, proteinIndex++) {
+                if (proteinIndex > 0) {
+                    Assert.assertTrue(candidates.getStart(index - 1) <= candidates.getStart(index));
+                }
+                Assert.assertEquals(proteinCandidates.getStart(proteinIndex), candidates.getStart(index));
+                Assert.assertEquals(proteinCandidates.getEnd(proteinIndex), candidates.getEnd(index));
+                Assert.assertEquals(proteinCandidates.getMass(proteinIndex), candidates.getMass(index));
+            }
+            Assert.assertEquals(proteinIndex, proteinCandidates.size());
+            nCombinationPeptides += proteomeDigester.getCombinationPeptides(ordinal).size();
+
+            HashSet<String> actual = getPeptides(proteomeDigester, ordinal);
+            Assert.assertEquals(digestionPreferences.getCleavagePreference() + " protein " + ordinal,
+                    getExpectedPeptides(sequence, fixedModifications, digestionPreferences, massMin, massMax), actual);
+
+            if (!AminoAcidSequence.hasCombination(sequence)) {
+                HashSet<String> expected = new HashSet<String>();
+                SequenceIterator sequenceIterator = iteratorFactory.getSequenceIterator(sequence, digestionPreferences, massMin, massMax);
+                PeptideWithPosition peptideWithPosition;
+                while ((peptideWithPosition = sequenceIterator.getNextPeptide()) != null) {
+                    expected.add(getKey(peptideWithPosition.getPosition(), peptideWithPosition.getPeptide()));
+                }
+                Assert.assertEquals(digestionPreferences.getCleavagePreference() + " protein " + ordinal, expected, actual);
+            }
+        }
+        Assert.assertEquals(candidates.size(), index);
+        Assert.assertTrue(nCombinationPeptides > 0);
+    }
+
+    /**
+     * Returns the keys of the peptides of a protein given by the candidates
+     * and the peptides covering amino acid combinations, and checks the mass
+     * of the candidates.
+     *
+     * @param proteomeDigester the proteome digester
+     * @param ordinal the ordinal of the protein
+     *
+     * @return the keys of the peptides of the protein
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static HashSet<String> getPeptides(ProteomeDigester proteomeDigester, int ordinal) throws Exception {
+        HashSet<String> peptides = new HashSet<String>();
+        PeptideCandidates candidates = proteomeDigester.digest(ordinal);
+        for (int i = 0; i < candidates.size(); i++) {
+            Assert.assertEquals(ordinal, candidates.getProtein(i));
+            Peptide peptide = proteomeDigester.getPeptide(candidates, i);
+            Assert.assertEquals(peptide.getMass(), candidates.getMass(i), 1e-6);
+            Assert.assertFalse(AminoAcidSequence.hasCombination(peptide.getSequence()));
+            Assert.assertTrue(peptides.add(getKey(candidates.getStart(i), peptide)));
+        }
+        for (PeptideWithPosition peptideWithPosition : proteomeDigester.getCombinationPeptides(ordinal)) {
+            Assert.assertTrue(peptides.add(getKey(peptideWithPosition.getPosition(), peptideWithPosition.getPeptide())));
+        }
+        return peptides;
+    }
+
+    /**
+     * Returns the keys of the peptides of a protein obtained by enumerating
+     * all the stretches of the protein and replacing the amino acid
+     * combinations by every amino acid they stand for.
+     *
+     * @param sequence the protein sequence
+     * @param fixedModifications the fixed modifications
+     * @param digestionPreferences the digestion preferences
+     * @param massMin the minimal mass
+     * @param massMax the maximal mass
+     *
+     * @return the keys of the peptides of the protein
+     */
+    private static HashSet<String> getExpectedPeptides(String sequence, ArrayList<String> fixedModifications, DigestionPreferences digestionPreferences, double massMin, double massMax) {
+
+        ProteinIteratorUtils proteinIteratorUtils = new ProteinIteratorUtils(fixedModifications, null);
+        int length = sequence.length();
+        Enzyme enzyme = null;
+        DigestionPreferences.Specificity specificity = null;
+        int nMissedCleavages = 0;
+        boolean[] cleavageSite = new boolean[length + 1];
+        Arrays.fill(cleavageSite, true);
+        if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.enzyme) {
+            enzyme = digestionPreferences.getEnzymes().get(0);
+            specificity = digestionPreferences.getSpecificity(enzyme.getName());
+            nMissedCleavages = digestionPreferences.getnMissedCleavages(enzyme.getName());
+            for (int i = 1; i < length; i++) {
+                cleavageSite[i] = enzyme.isCleavageSiteNoCombination(sequence.charAt(i - 1), sequence.charAt(i));
+            }
+        }
+
+        HashSet<String> result = new HashSet<String>();
+        for (int start = 0; start < length; start++) {
+            int missedCleavages = 0;
+            int nXs = 0;
+            for (int end = start + 1; end <= length; end++) {
+                if (sequence.charAt(end - 1) == 'X') {
+                    nXs++;
+                }
+                if (nXs > proteinIteratorUtils.getMaxXsInSequence() || missedCleavages > nMissedCleavages) {
+                    break;
+                }
+                boolean specific;
+                if (digestionPreferences.getCleavagePreference() == DigestionPreferences.CleavagePreference.wholeProtein) {
+                    specific = start == 0 && end == length;
+                } else if (enzyme == null) {
+                    specific = true;
+                } else {
+                    switch (specificity) {
+                        case specific:
+                            specific = cleavageSite[start] && cleavageSite[end];
+                            break;
+                        case semiSpecific:
+                            specific = cleavageSite[start] || cleavageSite[end];
+                            break;
+                        case specificNTermOnly:
+                            specific = cleavageSite[start];
+                            break;
+                        default:
+                            specific = cleavageSite[end];
+                    }
+                }
+                if (specific) {
+                    BoxedObject<Boolean> smallMass = new BoxedObject<Boolean>(Boolean.TRUE);
+                    for (StringBuilder combination : AminoAcidSequence.getCombinations(sequence.substring(start, end))) {
+                        Peptide peptide = proteinIteratorUtils.getPeptideFromProtein(combination.toString().toCharArray(), sequence, start, massMin, massMax, smallMass);
+                        if (peptide != null) {
+                            result.add(getKey(start, peptide));
+                        }
+                    }
+                }
+                if (enzyme != null && end < length && cleavageSite[end]) {
+                    missedCleavages++;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a key for a peptide at a given position including its
+     * modifications.
+     *
+     * @param position the position of the peptide on the protein
+     * @param peptide the peptide
+     *
+     * @return a key for the peptide
+     */
+    private static String getKey(int position, Peptide peptide) {
+        TreeSet<String> modifications = new TreeSet<String>();
+        if (peptide.getModificationMatches() != null) {
+            for (ModificationMatch modificationMatch : peptide.getModificationMatches()) {
+                modifications.add(modificationMatch.getTheoreticPtm() + "@" + modificationMatch.getModificationSite());
+            }
+        }
+        return position + "|" + peptide.getSequence() + "|" + modifications;
+    }
+
+    /**
+     * Writes a test FASTA file where some proteins contain amino acid
+     * combinations.
+     *
+     * @param fastaFile the file to write
+     *
+     * @return the ordinals of the proteins containing amino acid combinations
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static HashSet<Integer> writeTestFile(File fastaFile) throws Exception {
+
+        HashSet<Integer> proteinsWithCombinations = new HashSet<Integer>();
+        Random random = new Random(42);
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWYKRKRCCQE";
+        String combinations = "XBZJ";
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+
+        try {
+
+            for (int i = 0; i < N_PROTEINS; i++) {
+
+                String accession = "P" + (10000 + i);
+                bw.write(">sp|" + accession + "|PROT" + i + "_HUMAN Protein " + i + " OS=Homo sapiens GN=GENE" + i + " PE=1 SV=1");
+                bw.newLine();
+
+                StringBuilder sequence = new StringBuilder();
+                int length = 1 + random.nextInt(i % 10 == 0 ? 20 : 150);
+                if (i % 3 == 0) {
+                    sequence.append('M');
+                }
+                while (sequence.length() < length) {
+                    sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                }
+                if (i % 7 == 0) {
+                    sequence.setCharAt(random.nextInt(length), combinations.charAt(random.nextInt(combinations.length())));
+                    proteinsWithCombinations.add(i);
+                }
+                bw.write(sequence.toString());
+                bw.newLine();
+            }
+
+        } finally {
+            bw.close();
+        }
+
+        return proteinsWithCombinations;
+    }
+}
@@ -18,17 +18,22 @@ import com.compomics.util.experiment.identification.identification_parameters.Pt
 import com.compomics.util.experiment.identification.identification_parameters.SearchParameters;
 import com.compomics.util.experiment.identification.matches.ModificationMatch;
 import com.compomics.util.experiment.identification.matches.VariantMatch;
+import com.compomics.util.experiment.identification.protein_inference.PeptideMappingCallback;
 import com.compomics.util.experiment.identification.protein_inference.PeptideProteinMapping;
 import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndex;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.FMIndexSettings;
 import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
 import com.compomics.util.preferences.IdentificationParameters;
 import com.compomics.util.preferences.PeptideVariantsPreferences;
 import com.compomics.util.preferences.SequenceMatchingPreferences;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.regex.Matcher;
@@ -53,6 +58,8 @@ public class FMIndexTest extends TestCase {
     boolean testVariantMatchingGeneric = true;
     boolean testVariantPTMMatching = true;
     boolean testVariantMatchingSpecific = true;
+    boolean testIndexPersistence = true;
+    boolean testBatchMapping = true;
 
     /**
      * Tests the import and the mapping of a few peptide sequences.
@@ -2831,4 +2838,185 @@ public class FMIndexTest extends TestCase {
         Assert.assertTrue(isPresent);
         Assert.assertTrue(correctVariants == 2);
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that an index loaded from its file maps peptides like the index
+     * built from the FASTA file.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testIndexPersistence() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testIndexPersistence) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+
+        File indexFile = FMIndex.getIndexFile(sequences);
+        indexFile.delete();
+        FMIndexSettings notPersistedSettings = new FMIndexSettings();
+        notPersistedSettings.setPersistIndex(false);
+        new FMIndex(null, false, null, peptideVariantsPreferences, notPersistedSettings);
+        Assert.assertFalse(indexFile.exists());
+        FMIndex builtIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        Assert.assertTrue(indexFile.exists());
+        FMIndex loadedIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+        Assert.assertTrue(builtIndex.getAllocatedBytes() == loadedIndex.getAllocatedBytes());
+
+        String[] peptides = new String[]{"SSS", "ECTQDRGKTAFTEAVLLP", "TESTMRITESTCKTESTK"};
+        for (String peptide : peptides) {
+            HashMap<String, HashMap<String, ArrayList<Integer>>> builtMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(builtIndex.getProteinMapping(peptide, SequenceMatchingPreferences.defaultStringMatching));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> loadedMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(loadedIndex.getProteinMapping(peptide, SequenceMatchingPreferences.defaultStringMatching));
+            Assert.assertEquals(builtMapping, loadedMapping);
+        }
+        indexFile.delete();
+
+        // a FASTA file edited after the first megabyte with the same length and modification date must not reuse the index
+        File fastaFile = File.createTempFile("fmIndexTest", ".fasta");
+        File tempIndexFile = FMIndex.getIndexFile(fastaFile);
+        try {
+            byte[] content = new byte[2 * 1024 * 1024];
+            Arrays.fill(content, (byte) 'A');
+            content[0] = '>';
+            content[1] = '\n';
+            writeFile(fastaFile, content);
+            long lastModified = fastaFile.lastModified();
+            long checksum = FMIndex.getFastaChecksum(fastaFile);
+            content[content.length - 10] = 'C';
+            writeFile(fastaFile, content);
+            fastaFile.setLastModified(lastModified);
+            Assert.assertEquals(content.length, fastaFile.length());
+            Assert.assertFalse(checksum == FMIndex.getFastaChecksum(fastaFile));
+            content[content.length - 10] = 'A';
+            writeFile(fastaFile, content);
+            fastaFile.setLastModified(lastModified + 60000);
+            Assert.assertEquals(checksum, FMIndex.getFastaChecksum(fastaFile));
+
+            content = new byte[(int) sequences.length()];
+            FileInputStream fis = new FileInputStream(sequences);
+            try {
+                Assert.assertEquals(content.length, fis.read(content));
+            } finally {
+                fis.close();
+            }
+            writeFile(fastaFile, content);
+            builtIndex.writeIndex(tempIndexFile, fastaFile);
+            lastModified = fastaFile.lastModified();
+            int lastResidue = content.length - 1;
+            while (content[lastResidue] < 'A' || content[lastResidue] > 'Z') {
+                --lastResidue;
+            }
+            content[lastResidue] = content[lastResidue] == 'W' ? (byte) 'Y' : (byte) 'W';
+            writeFile(fastaFile, content);
+            fastaFile.setLastModified(lastModified);
+            FMIndex otherIndex = new FMIndex(null, false, null, peptideVariantsPreferences, notPersistedSettings);
+            Assert.assertFalse(otherIndex.readIndex(tempIndexFile, fastaFile));
+        } finally {
+            fastaFile.delete();
+            tempIndexFile.delete();
+        }
+    }
+
+    /**
+     * Writes the given content to a file.
+     *
+     * @param file the file
+     * @param content the content
+     *
+     * @throws IOException thrown whenever an error occurs while writing the
+     * file
+     */
+    private static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Tests that the batch mapping of peptides returns the same mappings as
+     * the mapping of the peptides one by one.
+     *
+     * @throws FileNotFoundException thrown whenever a file is not found
+     * @throws IOException thrown whenever an error occurs while reading or
+     * writing a file
+     * @throws ClassNotFoundException thrown whenever an error occurs while
+     * deserializing an object
+     * @throws InterruptedException thrown whenever a threading issue occurred
+     * while interacting with the tree
+     * @throws SQLException if an SQLException thrown whenever a problem
+     * occurred while interacting with the tree database
+     */
+    public void testBatchMapping() throws FileNotFoundException, IOException, ClassNotFoundException, SQLException, InterruptedException {
+        if (!testBatchMapping) {
+            return;
+        }
+
+        WaitingHandlerCLIImpl waitingHandlerCLIImpl = new WaitingHandlerCLIImpl();
+        File sequences = new File("src/test/resources/experiment/proteinTreeTestSequences");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+        sequenceFactory.loadFastaFile(sequences, waitingHandlerCLIImpl);
+        PeptideVariantsPreferences peptideVariantsPreferences = PeptideVariantsPreferences.getNoVariantPreferences();
+
+        final FMIndex fmIndex = new FMIndex(null, false, null, peptideVariantsPreferences);
+
+        final SequenceMatchingPreferences sequenceMatchingPreferences = new SequenceMatchingPreferences();
+        sequenceMatchingPreferences.setSequenceMatchingType(SequenceMatchingPreferences.MatchingType.indistiguishableAminoAcids);
+        sequenceMatchingPreferences.setLimitX(0.25);
+
+        ArrayList<String> peptides = new ArrayList<String>(Arrays.asList("SSS", "SSSS", "ASSS", "SSS", "ECTQDRGKTAFTEAVLLP", "TESTMRITESTCKTESTK", "TESTK", "STK", "NOTINTHEDATABASE"));
+        final HashMap<String, ArrayList<PeptideProteinMapping>> batchMappings = new HashMap<String, ArrayList<PeptideProteinMapping>>();
+        fmIndex.getProteinMappings(peptides, sequenceMatchingPreferences, 2, new PeptideMappingCallback() {
+            @Override
+            public void peptideMapped(String peptideSequence, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                Assert.assertFalse(batchMappings.containsKey(peptideSequence));
+                batchMappings.put(peptideSequence, peptideProteinMappings);
+            }
+        });
+        Assert.assertTrue(batchMappings.size() == peptides.size() - 1);
+
+        for (String peptide : peptides) {
+            HashMap<String, HashMap<String, ArrayList<Integer>>> singleMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> batchMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(batchMappings.get(peptide));
+            Assert.assertEquals(singleMapping, batchMapping);
+        }
+
+        // the backward search stored in arrays must give the same mappings
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setPtmSettings(new PtmSettings());
+        FMIndexSettings arraySearchSettings = new FMIndexSettings();
+        arraySearchSettings.setArraySearch(true);
+        FMIndex arrayFmIndex = new FMIndex(null, false, peptideVariantsPreferences, searchParameters, arraySearchSettings);
+        Assert.assertTrue(arrayFmIndex.isArraySearch());
+        final HashMap<String, ArrayList<PeptideProteinMapping>> arrayMappings = new HashMap<String, ArrayList<PeptideProteinMapping>>();
+        arrayFmIndex.getProteinMappings(peptides, sequenceMatchingPreferences, 2, new PeptideMappingCallback() {
+            @Override
+            public void peptideMapped(String peptideSequence, ArrayList<PeptideProteinMapping> peptideProteinMappings) {
+                arrayMappings.put(peptideSequence, peptideProteinMappings);
+            }
+        });
+        for (String peptide : peptides) {
+            HashMap<String, HashMap<String, ArrayList<Integer>>> batchMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(batchMappings.get(peptide));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> singleMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(fmIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> arrayMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(arrayMappings.get(peptide));
+            HashMap<String, HashMap<String, ArrayList<Integer>>> arraySingleMapping = PeptideProteinMapping.getPeptideProteinIndexesMap(arrayFmIndex.getProteinMapping(peptide, sequenceMatchingPreferences));
+            Assert.assertEquals(batchMapping, singleMapping);
+            Assert.assertEquals(batchMapping, arrayMapping);
+            Assert.assertEquals(batchMapping, arraySingleMapping);
+        }
+    }
+}
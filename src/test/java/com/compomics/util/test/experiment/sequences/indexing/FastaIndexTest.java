@@ -0,0 +1,378 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndex;
+import com.compomics.util.experiment.identification.protein_sequences.FastaIndexer;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.io.SerializationUtils;
+import com.compomics.util.protein.Header.DatabaseType;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the indexing of FASTA files.
+ *
+ * @author Marc Vaudel
+ */
+public class FastaIndexTest extends TestCase {
+
+    /**
+     * The index serialized with the previous layout of the FastaIndex class.
+     */
+    private static final File LEGACY_INDEX = new File("src/test/resources/experiment/legacy.fasta.cui");
+    /**
+     * The headers of the FASTA file indexed in the legacy index.
+     */
+    private static final String[] LEGACY_HEADERS = new String[]{
+        ">sp|P00001|PROT1_HUMAN Protein 1 OS=Homo sapiens GN=GENE1 PE=1 SV=1",
+        ">sp|P00002|PROT2_MOUSE Protein 2 OS=Mus musculus GN=GENE2 PE=1 SV=1",
+        ">sp|P00001_REVERSED|PROT1_HUMAN-REVERSED Protein 1-REVERSED OS=Homo sapiens GN=GENE1 PE=1 SV=1",
+        ">sp|P00002_REVERSED|PROT2_MOUSE-REVERSED Protein 2-REVERSED OS=Mus musculus GN=GENE2 PE=1 SV=1"};
+    /**
+     * The sequences of the FASTA file indexed in the legacy index.
+     */
+    private static final String[] LEGACY_SEQUENCES = new String[]{"MKTAYIAKQR", "MSSHEGGKKK", "RQKAIYATKM", "KKKGGEHSSM"};
+    /**
+     * The accessions of the FASTA file indexed in the legacy index.
+     */
+    private static final String[] LEGACY_ACCESSIONS = new String[]{"P00001", "P00002", "P00001_REVERSED", "P00002_REVERSED"};
+    /**
+     * The last modification time of the FASTA file when the legacy index was
+     * written.
+     */
+    private static final long LEGACY_LAST_MODIFIED = 1500000000000L;
+
+    /**
+     * Tests that an index serialized with the previous layout is read.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testLegacyIndex() throws Exception {
+
+        FastaIndex fastaIndex = (FastaIndex) SerializationUtils.readObject(LEGACY_INDEX);
+        Assert.assertEquals("legacy.fasta", fastaIndex.getFileName());
+        Assert.assertEquals(LEGACY_LAST_MODIFIED, fastaIndex.getLastModified().longValue());
+        compareToLegacyIndex(fastaIndex);
+
+        // the converted index is written and read in the current layout
+        File indexFile = File.createTempFile("FastaIndexTest", ".cui");
+        try {
+            SerializationUtils.writeObject(fastaIndex, indexFile);
+            FastaIndex readIndex = (FastaIndex) SerializationUtils.readObject(indexFile);
+            Assert.assertEquals("legacy.fasta", readIndex.getFileName());
+            compareToLegacyIndex(readIndex);
+        } finally {
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Tests that the sequence factory uses an up to date index serialized
+     * with the previous layout, and that the user settings are kept when the
+     * file is re-indexed.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testLegacyIndexInSequenceFactory() throws Exception {
+
+        File fastaFile = File.createTempFile("FastaIndexTest", ".fasta");
+        File indexFile = new File(fastaFile.getParent(), SequenceFactory.getIndexName(fastaFile.getName()));
+
+        try {
+
+            BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+            try {
+                for (int i = 0; i < LEGACY_HEADERS.length; i++) {
+                    bw.write(LEGACY_HEADERS[i] + "\n");
+                    bw.write(LEGACY_SEQUENCES[i] + "\n");
+                }
+            } finally {
+                bw.close();
+            }
+            copyFile(LEGACY_INDEX, indexFile);
+
+            // up to date index
+            Assert.assertTrue(fastaFile.setLastModified(LEGACY_LAST_MODIFIED));
+            FastaIndex fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+            Assert.assertEquals("legacy.fasta", fastaIndex.getFileName());
+            compareToLegacyIndex(fastaIndex);
+
+            // the file changed
+            Assert.assertTrue(fastaFile.setLastModified(LEGACY_LAST_MODIFIED + 10000));
+            fastaIndex = SequenceFactory.getFastaIndex(fastaFile, false, null);
+            Assert.assertEquals(fastaFile.getName(), fastaIndex.getFileName());
+            Assert.assertEquals(fastaFile.lastModified(), fastaIndex.getLastModified().longValue());
+            Assert.assertEquals("Legacy database", fastaIndex.getName());
+            Assert.assertEquals("1.0", fastaIndex.getVersion());
+            Assert.assertEquals("Database indexed with the previous layout", fastaIndex.getDescription());
+            Assert.assertEquals("^sp\\|([^|]+)\\|", fastaIndex.getAccessionParsingRule());
+            Assert.assertEquals("_REVERSED", fastaIndex.getDecoyTag());
+            Assert.assertEquals(Arrays.asList(LEGACY_ACCESSIONS), fastaIndex.getAccessions());
+            Assert.assertEquals(getLegacyIndexes(), fastaIndex.getIndexes());
+            Assert.assertEquals(new HashSet<String>(Arrays.asList(LEGACY_ACCESSIONS[2], LEGACY_ACCESSIONS[3])), fastaIndex.getDecoyAccesions());
+
+        } finally {
+            fastaFile.delete();
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * Tests that indexing a file in small chunks gives the same index as
+     * indexing it sequentially.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testChunkedIndexing() throws Exception {
+
+        File fastaFile = File.createTempFile("FastaIndexTest", ".fasta");
+
+        try {
+
+            HashMap<String, Long> expectedIndexes = new HashMap<String, Long>();
+            HashSet<String> expectedDecoys = new HashSet<String>();
+            writeTestFile(fastaFile, 2000, expectedIndexes, expectedDecoys, false);
+
+            FastaIndex sequentialIndex = new FastaIndexer(fastaFile, 1, Long.MAX_VALUE).getIndex(null, null, null, null);
+            Assert.assertEquals(expectedIndexes, sequentialIndex.getIndexes());
+            Assert.assertEquals(expectedDecoys, sequentialIndex.getDecoyAccesions());
+            Assert.assertEquals(expectedIndexes.size() - expectedDecoys.size(), sequentialIndex.getNTarget());
+            Assert.assertTrue(sequentialIndex.isConcatenatedTargetDecoy());
+            Assert.assertEquals("REVERSED", sequentialIndex.getDecoyTag());
+
+            int[] nThreads = new int[]{2, 4, 64};
+            long[] chunkSizes = new long[]{1, 100, 4096, 100000};
+
+            for (int threads : nThreads) {
+                for (long chunkSize : chunkSizes) {
+                    FastaIndex chunkedIndex = new FastaIndexer(fastaFile, threads, chunkSize).getIndex(null, null, null, null);
+                    compareIndexes(sequentialIndex, chunkedIndex);
+                }
+            }
+
+            // non unique accessions
+            writeTestFile(fastaFile, 2000, new HashMap<String, Long>(), new HashSet<String>(), true);
+            try {
+                new FastaIndexer(fastaFile, 1, Long.MAX_VALUE).getIndex(null, null, null, null);
+                Assert.fail("Non unique accessions should not be accepted.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            for (int threads : nThreads) {
+                for (long chunkSize : chunkSizes) {
+                    try {
+                        new FastaIndexer(fastaFile, threads, chunkSize).getIndex(null, null, null, null);
+                        Assert.fail("Non unique accessions should not be accepted.");
+                    } catch (IllegalArgumentException e) {
+                        // expected
+                    }
+                }
+            }
+
+        } finally {
+            fastaFile.delete();
+        }
+    }
+
+    /**
+     * Asserts that an index corresponds to the legacy index.
+     *
+     * @param fastaIndex the index
+     */
+    private static void compareToLegacyIndex(FastaIndex fastaIndex) {
+
+        Assert.assertEquals(LEGACY_ACCESSIONS.length, fastaIndex.getNSequences());
+        Assert.assertEquals(Arrays.asList(LEGACY_ACCESSIONS), fastaIndex.getAccessions());
+        HashMap<String, Long> legacyIndexes = getLegacyIndexes();
+        Assert.assertEquals(legacyIndexes, fastaIndex.getIndexes());
+        for (int i = 0; i < LEGACY_ACCESSIONS.length; i++) {
+            Assert.assertEquals(i, fastaIndex.getOrdinal(LEGACY_ACCESSIONS[i]));
+            Assert.assertEquals(legacyIndexes.get(LEGACY_ACCESSIONS[i]), fastaIndex.getIndex(LEGACY_ACCESSIONS[i]));
+            Assert.assertEquals(i >= 2, fastaIndex.isDecoy(LEGACY_ACCESSIONS[i]));
+        }
+        Assert.assertNull(fastaIndex.getIndex("P00003"));
+        Assert.assertFalse(fastaIndex.isDecoy("P00003"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList(LEGACY_ACCESSIONS[2], LEGACY_ACCESSIONS[3])), fastaIndex.getDecoyAccesions());
+
+        Assert.assertEquals("Legacy database", fastaIndex.getName());
+        Assert.assertEquals("1.0", fastaIndex.getVersion());
+        Assert.assertEquals("Database indexed with the previous layout", fastaIndex.getDescription());
+        Assert.assertEquals("^sp\\|([^|]+)\\|", fastaIndex.getAccessionParsingRule());
+        Assert.assertEquals("_REVERSED", fastaIndex.getDecoyTag());
+        Assert.assertTrue(fastaIndex.isConcatenatedTargetDecoy());
+        Assert.assertTrue(fastaIndex.isDefaultReversed());
+        Assert.assertEquals(2, fastaIndex.getNTarget());
+        Assert.assertEquals(DatabaseType.UniProt, fastaIndex.getMainDatabaseType());
+        Assert.assertEquals(4, fastaIndex.getDatabaseTypes().get(DatabaseType.UniProt).intValue());
+        Assert.assertEquals(2, fastaIndex.getSpecies().get("Homo sapiens").intValue());
+        Assert.assertEquals(2, fastaIndex.getSpecies().get("Mus musculus").intValue());
+        int[] aaOccurrence = fastaIndex.getAaOccurrence();
+        Assert.assertEquals(26, aaOccurrence.length);
+        for (int i = 0; i < aaOccurrence.length; i++) {
+            Assert.assertEquals(10 * i, aaOccurrence[i]);
+        }
+    }
+
+    /**
+     * Returns the indexes of the proteins in the legacy index.
+     *
+     * @return the indexes of the proteins in the legacy index
+     */
+    private static HashMap<String, Long> getLegacyIndexes() {
+        HashMap<String, Long> result = new HashMap<String, Long>();
+        long index = 0;
+        for (int i = 0; i < LEGACY_ACCESSIONS.length; i++) {
+            result.put(LEGACY_ACCESSIONS[i], index);
+            index += LEGACY_HEADERS[i].length() + LEGACY_SEQUENCES[i].length() + 2;
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that two indexes are identical.
+     *
+     * @param expected the expected index
+     * @param actual the actual index
+     */
+    private static void compareIndexes(FastaIndex expected, FastaIndex actual) {
+
+        Assert.assertEquals(expected.getNSequences(), actual.getNSequences());
+        Assert.assertEquals(expected.getAccessions(), actual.getAccessions());
+        for (int i = 0; i < expected.getNSequences(); i++) {
+            Assert.assertEquals(expected.getIndex(i), actual.getIndex(i));
+        }
+        Assert.assertEquals(expected.getDecoyAccesions(), actual.getDecoyAccesions());
+        Assert.assertEquals(expected.getNTarget(), actual.getNTarget());
+        Assert.assertEquals(expected.isConcatenatedTargetDecoy(), actual.isConcatenatedTargetDecoy());
+        Assert.assertEquals(expected.isDefaultReversed(), actual.isDefaultReversed());
+        Assert.assertEquals(expected.getDecoyTag(), actual.getDecoyTag());
+        Assert.assertEquals(expected.getMainDatabaseType(), actual.getMainDatabaseType());
+        Assert.assertEquals(expected.getDatabaseTypes(), actual.getDatabaseTypes());
+        Assert.assertEquals(expected.getSpecies(), actual.getSpecies());
+        Assert.assertTrue(Arrays.equals(expected.getAaOccurrence(), actual.getAaOccurrence()));
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getLastModified(), actual.getLastModified());
+    }
+
+    /**
+     * Writes a concatenated target/decoy FASTA file with UniProt and generic
+     * headers of different species, sequences on one or several lines, and
+     * lines ending with a carriage return.
+     *
+     * @param fastaFile the file to write
+     * @param nTargets the number of target proteins
+     * @param indexes map where to store the index of every protein
+     * @param decoys set where to store the decoy accessions
+     * @param duplicate if true the last protein has the accession of the first
+     * one
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void writeTestFile(File fastaFile, int nTargets, HashMap<String, Long> indexes, HashSet<String> decoys, boolean duplicate) throws Exception {
+
+        Random random = new Random(42);
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWYXBZU";
+        String[] species = new String[]{"Homo sapiens", "Mus musculus", "Saccharomyces cerevisiae (strain ATCC 204508 / S288c)"};
+        ArrayList<String> accessions = new ArrayList<String>();
+        ArrayList<String> targetSequences = new ArrayList<String>();
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < 2 * nTargets; i++) {
+
+            boolean decoy = i >= nTargets;
+            int targetIndex = decoy ? i - nTargets : i;
+            String lineEnd = targetIndex % 17 == 0 ? "\r\n" : "\n";
+
+            String accession;
+            String header;
+            if (targetIndex % 5 == 0) {
+                accession = "NP" + (10000 + targetIndex);
+                if (decoy) {
+                    accession += "_REVERSED";
+                }
+                header = ">" + accession + " (" + accession + ") Generic protein " + targetIndex;
+            } else {
+                accession = "P" + (10000 + targetIndex);
+                String proteinName = "PROT" + targetIndex + "_HUMAN";
+                String description = "Protein " + targetIndex;
+                if (decoy) {
+                    accession += "_REVERSED";
+                    proteinName += "-REVERSED";
+                    description += "-REVERSED";
+                }
+                header = ">sp|" + accession + "|" + proteinName + " " + description + " OS=" + species[targetIndex % species.length] + " GN=GENE" + targetIndex + " PE=1 SV=1";
+            }
+            if (duplicate && i == 2 * nTargets - 1) {
+                accession = accessions.get(0);
+                header = ">sp|" + accession + "|DUPLICATE_HUMAN Duplicate OS=Homo sapiens GN=DUP PE=1 SV=1";
+            }
+
+            String sequence;
+            if (decoy) {
+                sequence = new StringBuilder(targetSequences.get(targetIndex)).reverse().toString();
+            } else {
+                StringBuilder sequenceBuilder = new StringBuilder();
+                int length = 1 + random.nextInt(targetIndex % 10 == 0 ? 2000 : 300);
+                for (int j = 0; j < length; j++) {
+                    sequenceBuilder.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                }
+                sequence = sequenceBuilder.toString();
+                targetSequences.add(sequence);
+            }
+
+            indexes.put(accession, (long) content.length());
+            accessions.add(accession);
+            if (decoy) {
+                decoys.add(accession);
+            }
+            content.append(header).append(lineEnd);
+            int lineLength = targetIndex % 2 == 0 ? 60 : sequence.length();
+            for (int j = 0; j < sequence.length(); j += lineLength) {
+                content.append(sequence.substring(j, Math.min(j + lineLength, sequence.length()))).append(lineEnd);
+            }
+        }
+
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+        try {
+            bw.write(content.toString());
+        } finally {
+            bw.close();
+        }
+    }
+
+    /**
+     * Copies a file.
+     *
+     * @param source the file to copy
+     * @param destination the destination file
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static void copyFile(File source, File destination) throws Exception {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                byte[] buffer = new byte[1024];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.biology.Protein;
+import com.compomics.util.experiment.identification.protein_sequences.ProteinSequenceStore;
+import com.compomics.util.experiment.identification.protein_sequences.ProteinSequenceStoreWriter;
+import com.compomics.util.experiment.identification.protein_sequences.SequenceFactory;
+import com.compomics.util.gui.waiting.waitinghandlers.WaitingHandlerCLIImpl;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the protein sequence store against the sequences read from
+ * the FASTA file.
+ *
+ * @author Marc Vaudel
+ */
+public class ProteinSequenceStoreTest extends TestCase {
+
+    /**
+     * The number of proteins in the test file.
+     */
+    private static final int N_PROTEINS = 500;
+
+    /**
+     * Tests that the store returns the sequences, accessions and database
+     * types read from the FASTA file.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testStore() throws Exception {
+
+        File fastaFile = File.createTempFile("ProteinSequenceStoreTest", ".fasta");
+        File indexFile = new File(fastaFile.getParent(), SequenceFactory.getIndexName(fastaFile.getName()));
+        File storeFile = new File(fastaFile.getParent(), ProteinSequenceStore.getStoreName(fastaFile.getName()));
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+        try {
+
+            ArrayList<String> accessions = writeTestFile(fastaFile);
+            sequenceFactory.loadFastaFile(fastaFile);
+            Assert.assertNull(sequenceFactory.getSequenceStore());
+            ArrayList<Protein> proteins = getProteins(sequenceFactory, accessions);
+
+            ProteinSequenceStoreWriter.writeSequenceStore(fastaFile, storeFile, null);
+            ProteinSequenceStore store = new ProteinSequenceStore(storeFile);
+
+            Assert.assertEquals(fastaFile.getName(), store.getFastaFileName());
+            Assert.assertEquals(fastaFile.lastModified(), store.getFastaLastModified());
+            Assert.assertEquals(fastaFile.lastModified(), ProteinSequenceStore.getFastaLastModified(storeFile));
+            Assert.assertEquals(N_PROTEINS, store.getNProteins());
+
+            for (int i = 0; i < N_PROTEINS; i++) {
+
+                Protein protein = proteins.get(i);
+                String accession = accessions.get(i);
+                String sequence = protein.getSequence();
+
+                Assert.assertEquals(accession, store.getAccession(i));
+                Assert.assertEquals(i, store.getOrdinal(accession));
+                Assert.assertEquals(protein.getDatabaseType(), store.getDatabaseType(i));
+                Assert.assertEquals(sequence.length(), store.getLength(i));
+                Assert.assertEquals(sequence, store.getSequence(i).toString());
+                Assert.assertEquals(sequence, store.getSequence(accession));
+
+                ByteBuffer sequenceBytes = store.getSequenceBytes(i);
+                Assert.assertEquals(sequence.length(), sequenceBytes.remaining());
+                for (int j = 0; j < sequence.length(); j++) {
+                    Assert.assertEquals(sequence.charAt(j), (char) sequenceBytes.get(j));
+                }
+
+                CharSequence mappedSequence = store.getSequence(i);
+                for (int j = 0; j < sequence.length(); j++) {
+                    Assert.assertEquals(sequence.charAt(j), mappedSequence.charAt(j));
+                }
+                int start = sequence.length() / 3;
+                int end = 2 * sequence.length() / 3;
+                Assert.assertEquals(sequence.substring(start, end), mappedSequence.subSequence(start, end).toString());
+            }
+
+            Assert.assertEquals(-1, store.getOrdinal("not an accession"));
+            Assert.assertNull(store.getSequence("not an accession"));
+            try {
+                store.getAccession(N_PROTEINS);
+                Assert.fail("An ordinal out of bounds should not be accepted.");
+            } catch (IndexOutOfBoundsException e) {
+                // expected
+            }
+
+        } finally {
+            sequenceFactory.clearFactory();
+            fastaFile.delete();
+            indexFile.delete();
+            storeFile.delete();
+        }
+    }
+
+    /**
+     * Tests the creation of the store by the sequence factory, its use when
+     * the FASTA file is loaded, and its replacement when the FASTA file
+     * changed.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSequenceFactoryStore() throws Exception {
+
+        File fastaFile = File.createTempFile("ProteinSequenceStoreTest", ".fasta");
+        File indexFile = new File(fastaFile.getParent(), SequenceFactory.getIndexName(fastaFile.getName()));
+        File storeFile = new File(fastaFile.getParent(), ProteinSequenceStore.getStoreName(fastaFile.getName()));
+        File tempFile = new File(fastaFile.getParent(), storeFile.getName() + "_temp");
+        SequenceFactory sequenceFactory = SequenceFactory.getInstance();
+
+        try {
+
+            ArrayList<String> accessions = writeTestFile(fastaFile);
+            sequenceFactory.loadFastaFile(fastaFile);
+            ArrayList<Protein> proteins = getProteins(sequenceFactory, accessions);
+
+            // a canceled writing leaves no file
+            WaitingHandlerCLIImpl waitingHandler = new WaitingHandlerCLIImpl();
+            waitingHandler.setRunCanceled();
+            sequenceFactory.createSequenceStore(waitingHandler);
+            Assert.assertNull(sequenceFactory.getSequenceStore());
+            Assert.assertFalse(storeFile.exists());
+            Assert.assertFalse(tempFile.exists());
+
+            sequenceFactory.createSequenceStore(null);
+            ProteinSequenceStore store = sequenceFactory.getSequenceStore();
+            Assert.assertNotNull(store);
+            Assert.assertFalse(tempFile.exists());
+
+            // an up to date store in use is kept
+            sequenceFactory.createSequenceStore(null);
+            Assert.assertSame(store, sequenceFactory.getSequenceStore());
+
+            // the store is used when the FASTA file is loaded again
+            sequenceFactory.clearFactory();
+            sequenceFactory.loadFastaFile(fastaFile);
+            Assert.assertNotNull(sequenceFactory.getSequenceStore());
+            compareProteins(proteins, getProteins(sequenceFactory, accessions));
+
+            // an outdated store is ignored and replaced
+            sequenceFactory.clearFactory();
+            Assert.assertTrue(fastaFile.setLastModified(fastaFile.lastModified() - 10000));
+            sequenceFactory.loadFastaFile(fastaFile);
+            Assert.assertNull(sequenceFactory.getSequenceStore());
+            sequenceFactory.createSequenceStore(null);
+            store = sequenceFactory.getSequenceStore();
+            Assert.assertNotNull(store);
+            Assert.assertEquals(fastaFile.lastModified(), store.getFastaLastModified());
+            Assert.assertEquals(fastaFile.lastModified(), ProteinSequenceStore.getFastaLastModified(storeFile));
+            compareProteins(proteins, getProteins(sequenceFactory, accessions));
+
+        } finally {
+            sequenceFactory.clearFactory();
+            fastaFile.delete();
+            indexFile.delete();
+            storeFile.delete();
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Returns the proteins of the given accessions loaded in the sequence
+     * factory. The cache of the factory is emptied first.
+     *
+     * @param sequenceFactory the sequence factory
+     * @param accessions the accessions
+     *
+     * @return the proteins in the order of the accessions
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static ArrayList<Protein> getProteins(SequenceFactory sequenceFactory, ArrayList<String> accessions) throws Exception {
+        Assert.assertEquals(new HashSet<String>(accessions), sequenceFactory.getAccessions());
+        sequenceFactory.emptyCache();
+        ArrayList<Protein> proteins = new ArrayList<Protein>(accessions.size());
+        for (String accession : accessions) {
+            proteins.add(sequenceFactory.getProtein(accession));
+        }
+        return proteins;
+    }
+
+    /**
+     * Asserts that two lists of proteins are identical.
+     *
+     * @param expected the expected proteins
+     * @param actual the actual proteins
+     */
+    private static void compareProteins(ArrayList<Protein> expected, ArrayList<Protein> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getAccession(), actual.get(i).getAccession());
+            Assert.assertEquals(expected.get(i).getDatabaseType(), actual.get(i).getDatabaseType());
+            Assert.assertEquals(expected.get(i).getSequence(), actual.get(i).getSequence());
+            Assert.assertEquals(expected.get(i).isDecoy(), actual.get(i).isDecoy());
+        }
+    }
+
+    /**
+     * Writes a test FASTA file with UniProt and generic headers, sequences
+     * on one or several lines, with and without terminal stop codon.
+     *
+     * @param fastaFile the file to write
+     *
+     * @return the accessions in the order of the file
+     *
+     * @throws Exception if an exception occurs
+     */
+    private static ArrayList<String> writeTestFile(File fastaFile) throws Exception {
+
+        ArrayList<String> accessions = new ArrayList<String>(N_PROTEINS);
+        Random random = new Random(42);
+        String aminoAcids = "ACDEFGHIKLMNPQRSTVWYXBZU";
+        BufferedWriter bw = new BufferedWriter(new FileWriter(fastaFile));
+
+        try {
+
+            for (int i = 0; i < N_PROTEINS; i++) {
+
+                String accession;
+                if (i % 6 == 0) {
+                    accession = "NP" + (10000 + i);
+                    bw.write(">" + accession + " (" + accession + ") Generic protein " + i);
+                } else if (i % 6 == 3) {
+                    accession = "acc_" + i;
+                    bw.write(">generic_tag|" + accession + "|Generic protein " + i);
+                } else {
+                    accession = "P" + (10000 + i);
+                    bw.write(">sp|" + accession + "|PROT" + i + "_HUMAN Protein " + i + " OS=Homo sapiens GN=GENE" + i + " PE=1 SV=1");
+                }
+                bw.newLine();
+                accessions.add(accession);
+
+                StringBuilder sequence = new StringBuilder();
+                int length = 1 + random.nextInt(i % 10 == 0 ? 2000 : 300);
+                for (int j = 0; j < length; j++) {
+                    sequence.append(aminoAcids.charAt(random.nextInt(aminoAcids.length())));
+                }
+                if (i % 7 == 0) {
+                    sequence.append('*');
+                }
+                int lineLength = i % 2 == 0 ? 60 : sequence.length();
+                for (int j = 0; j < sequence.length(); j += lineLength) {
+                    bw.write(sequence.substring(j, Math.min(j + lineLength, sequence.length())));
+                    bw.newLine();
+                }
+            }
+
+        } finally {
+            bw.close();
+        }
+
+        return accessions;
+    }
+}
@@ -0,0 +1,81 @@
+package com.compomics.util.test.experiment.sequences.indexing;
+
+import com.compomics.util.experiment.identification.protein_inference.fm_index.WaveletMatrix;
+import com.compomics.util.experiment.identification.protein_inference.fm_index.WaveletTree;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * Test comparing the wavelet matrix to the wavelet tree.
+ *
+ * @author Marc Vaudel
+ */
+public class WaveletMatrixTest extends TestCase {
+
+    /**
+     * Tests the rank and range queries of the wavelet matrix against the
+     * wavelet tree on a random text.
+     */
+    public void testQueries() {
+        String characters = "ACDEFGHIKLMNPQRSTVWY/";
+        long[] alphabet = new long[2];
+        alphabet[0] |= 1L << '$';
+        for (int i = 0; i < characters.length(); ++i) {
+            char character = characters.charAt(i);
+            alphabet[character >>> 6] |= 1L << (character & 63);
+        }
+
+        Random random = new Random(42);
+        byte[] text = new byte[2000];
+        for (int i = 0; i < text.length - 1; ++i) {
+            text[i] = (byte) characters.charAt(random.nextInt(characters.length()));
+        }
+        text[text.length - 1] = '$';
+
+        WaveletTree waveletTree = new WaveletTree(text, alphabet, null, 128, false);
+        WaveletMatrix waveletMatrix = new WaveletMatrix(text, alphabet, null, 128, false);
+
+        Assert.assertTrue(Arrays.equals(waveletTree.createLessTable(), waveletMatrix.createLessTable()));
+
+        for (int i = 0; i < text.length; ++i) {
+            Assert.assertTrue(Arrays.equals(waveletTree.getCharacterInfo(i), waveletMatrix.getCharacterInfo(i)));
+            for (int j = 0; j < characters.length(); ++j) {
+                char character = characters.charAt(j);
+                Assert.assertEquals(waveletTree.getRank(i, character), waveletMatrix.getRank(i, character));
+            }
+        }
+
+        int[] range = new int[2];
+        for (int k = 0; k < 1000; ++k) {
+            int leftIndex = random.nextInt(text.length) - 1;
+            int rightIndex = leftIndex + 1 + random.nextInt(Math.min(50, text.length - 1 - leftIndex));
+            for (int j = 0; j < characters.length(); ++j) {
+                char character = characters.charAt(j);
+                int[] expected = waveletTree.singleRangeQuery(leftIndex, rightIndex, character);
+                Assert.assertTrue(Arrays.equals(expected, waveletMatrix.singleRangeQuery(leftIndex, rightIndex, character)));
+                waveletMatrix.singleRangeQuery(leftIndex, rightIndex, character, range);
+                Assert.assertTrue(Arrays.equals(expected, range));
+            }
+            Assert.assertEquals(getRanges(waveletTree.rangeQuery(leftIndex, rightIndex)), getRanges(waveletMatrix.rangeQuery(leftIndex, rightIndex)));
+        }
+    }
+
+    /**
+     * Returns the results of a range query as a sorted string.
+     *
+     * @param query the results of a range query
+     *
+     * @return the results as a sorted string
+     */
+    private String getRanges(int[][] query) {
+        int n = query[query.length - 1][0];
+        String[] ranges = new String[n];
+        for (int i = 0; i < n; ++i) {
+            ranges[i] = Arrays.toString(query[i]);
+        }
+        Arrays.sort(ranges);
+        return Arrays.toString(ranges);
+    }
+}
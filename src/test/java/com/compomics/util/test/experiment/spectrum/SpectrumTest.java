@@ -0,0 +1,168 @@
+package com.compomics.util.test.experiment.spectrum;
+
+import com.compomics.util.experiment.massspectrometry.MSnSpectrum;
+import com.compomics.util.experiment.massspectrometry.Peak;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the storage of the peaks in a spectrum.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumTest extends TestCase {
+
+    /**
+     * Tests that the peaks set as arrays are sorted by m/z and that for peaks
+     * of identical m/z only the last one is retained.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSetPeaks() throws Exception {
+
+        MSnSpectrum spectrum = new MSnSpectrum();
+        spectrum.setPeaks(new double[]{300.0, 100.0, 200.0, 100.0, 400.0}, new double[]{3.0, 1.0, 2.0, 10.0, 4.0});
+
+        Assert.assertEquals(4, spectrum.getNPeaks());
+        double[][] peaks = spectrum.getMzAndIntensityAsArray();
+        assertArrayEquals(new double[]{100.0, 200.0, 300.0, 400.0}, peaks[0]);
+        assertArrayEquals(new double[]{10.0, 2.0, 3.0, 4.0}, peaks[1]);
+        Assert.assertEquals(100.0, spectrum.getMinMz());
+        Assert.assertEquals(400.0, spectrum.getMaxMz());
+        Assert.assertEquals(19.0, spectrum.getTotalIntensity());
+        Assert.assertEquals(10.0, spectrum.getMaxIntensity());
+
+        HashMap<Double, Peak> peakMap = spectrum.getPeakMap();
+        Assert.assertEquals(4, peakMap.size());
+        Assert.assertEquals(10.0, peakMap.get(100.0).intensity);
+
+        ArrayList<Peak> peakList = new ArrayList<Peak>();
+        peakList.add(new Peak(250.0, 5.0));
+        peakList.add(new Peak(150.0, 6.0));
+        peakList.add(new Peak(250.0, 7.0));
+        spectrum.setPeaks(peakList);
+        peaks = spectrum.getMzAndIntensityAsArray();
+        assertArrayEquals(new double[]{150.0, 250.0}, peaks[0]);
+        assertArrayEquals(new double[]{6.0, 7.0}, peaks[1]);
+
+        spectrum.addPeak(new Peak(50.0, 8.0));
+        assertArrayEquals(new double[]{50.0, 150.0, 250.0}, spectrum.getOrderedMzValues());
+        assertArrayEquals(new double[]{8.0, 6.0, 7.0}, spectrum.getIntensityValuesAsArray());
+
+        try {
+            spectrum.setPeaks(new double[]{1.0, 2.0}, new double[]{1.0});
+            Assert.fail("Arrays of different lengths should not be accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests that the array getters return the arrays backing the spectrum and
+     * that the copying getter returns copies.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testArrayCopies() throws Exception {
+
+        MSnSpectrum spectrum = new MSnSpectrum();
+        spectrum.setPeaks(new double[]{100.0, 200.0, 300.0}, new double[]{1.0, 2.0, 3.0});
+
+        double[][] peaks = spectrum.getMzAndIntensityAsArray();
+        Assert.assertSame(peaks[0], spectrum.getMzValuesAsArray());
+        Assert.assertSame(peaks[0], spectrum.getOrderedMzValues());
+        Assert.assertSame(peaks[1], spectrum.getIntensityValuesAsArray());
+        Assert.assertSame(peaks[0], spectrum.getMzAndIntensityAsArray()[0]);
+
+        peaks = spectrum.getMzAndIntensityAsArrayCopy();
+        Assert.assertNotSame(spectrum.getMzValuesAsArray(), peaks[0]);
+        Assert.assertNotSame(spectrum.getIntensityValuesAsArray(), peaks[1]);
+        peaks[0][2] = 0.0;
+        peaks[1][2] = 0.0;
+
+        peaks = spectrum.getMzAndIntensityAsArray();
+        assertArrayEquals(new double[]{100.0, 200.0, 300.0}, peaks[0]);
+        assertArrayEquals(new double[]{1.0, 2.0, 3.0}, peaks[1]);
+        Assert.assertEquals(300.0, spectrum.getMaxMz());
+    }
+
+    /**
+     * Tests the extraction of a sub-spectrum.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testGetSubSpectrum() throws Exception {
+
+        MSnSpectrum spectrum = new MSnSpectrum();
+        spectrum.setPeaks(new double[]{100.0, 200.0, 300.0, 400.0, 500.0}, new double[]{1.0, 2.0, 3.0, 4.0, 5.0});
+
+        HashMap<Double, Peak> subSpectrum = spectrum.getSubSpectrum(200.0, 400.0);
+        Assert.assertEquals(2, subSpectrum.size());
+        Assert.assertEquals(2.0, subSpectrum.get(200.0).intensity);
+        Assert.assertEquals(3.0, subSpectrum.get(300.0).intensity);
+
+        subSpectrum = spectrum.getSubSpectrum(150.0, 450.0);
+        Assert.assertEquals(3, subSpectrum.size());
+        Assert.assertTrue(subSpectrum.containsKey(400.0));
+
+        Assert.assertTrue(spectrum.getSubSpectrum(0.0, 100.0).isEmpty());
+        Assert.assertTrue(spectrum.getSubSpectrum(501.0, 600.0).isEmpty());
+        Assert.assertTrue(spectrum.getSubSpectrum(400.0, 200.0).isEmpty());
+        Assert.assertEquals(5, spectrum.getSubSpectrum(0.0, 1000.0).size());
+
+        HashMap<Double, Peak> peakMap = new HashMap<Double, Peak>();
+        peakMap.put(110.0, new Peak(110.0, 11.0));
+        peakMap.put(90.0, new Peak(90.0, 9.0));
+        peakMap.put(130.0, new Peak(130.0, 13.0));
+        spectrum.setPeakList(peakMap);
+        subSpectrum = spectrum.getSubSpectrum(100.0, 130.0);
+        Assert.assertEquals(1, subSpectrum.size());
+        Assert.assertSame(peakMap.get(110.0), subSpectrum.get(110.0));
+    }
+
+    /**
+     * Tests the retrieval of the intensities above a threshold against a
+     * linear scan of the peaks.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testGetPeaksAboveIntensityThreshold() throws Exception {
+
+        double[] mz = new double[]{100.0, 200.0, 300.0, 400.0, 500.0, 600.0};
+        double[] intensities = new double[]{5.0, 1.0, 3.0, 3.0, 8.0, 0.5};
+        MSnSpectrum spectrum = new MSnSpectrum();
+        spectrum.setPeaks(mz, intensities);
+
+        double[] thresholds = new double[]{-1.0, 0.0, 0.5, 1.0, 2.0, 3.0, 4.0, 8.0, 9.0};
+        for (double threshold : thresholds) {
+            ArrayList<Double> expected = new ArrayList<Double>();
+            for (double intensity : intensities) {
+                if (intensity > threshold) {
+                    expected.add(intensity);
+                }
+            }
+            ArrayList<Double> result = spectrum.getPeaksAboveIntensityThreshold(threshold);
+            Collections.sort(expected);
+            Collections.sort(result);
+            Assert.assertEquals("Threshold " + threshold, expected, result);
+        }
+
+        Assert.assertTrue(new MSnSpectrum().getPeaksAboveIntensityThreshold(0.0).isEmpty());
+    }
+
+    /**
+     * Asserts that two arrays of doubles are equal.
+     *
+     * @param expected the expected array
+     * @param actual the actual array
+     */
+    private static void assertArrayEquals(double[] expected, double[] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            Assert.assertEquals(expected[i], actual[i]);
+        }
+    }
+}
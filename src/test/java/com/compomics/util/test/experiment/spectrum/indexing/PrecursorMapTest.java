@@ -0,0 +1,363 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.experiment.massspectrometry.Charge;
+import com.compomics.util.experiment.massspectrometry.Precursor;
+import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap;
+import com.compomics.util.experiment.massspectrometry.indexes.PrecursorMap.PrecursorWithTitle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import org.apache.commons.math.util.FastMath;
+
+/**
+ * This class tests the precursor map against a linear scan of the precursors.
+ *
+ * @author Marc Vaudel
+ */
+public class PrecursorMapTest extends TestCase {
+
+    /**
+     * Tests the matching of precursors and the bins with a tolerance in Th.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMatchingSpectraAbsolute() throws Exception {
+        HashMap<String, Precursor> precursors = getRandomPrecursors(new Random(42), 3000);
+        double[] tolerances = new double[]{0.001, 0.02, 0.5};
+        for (double tolerance : tolerances) {
+            compareToLinearScan(precursors, tolerance, false, new Random(7));
+        }
+    }
+
+    /**
+     * Tests the matching of precursors and the bins with a tolerance in ppm.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMatchingSpectraPpm() throws Exception {
+        HashMap<String, Precursor> precursors = getRandomPrecursors(new Random(43), 3000);
+        double[] tolerances = new double[]{1.0, 10.0, 100.0};
+        for (double tolerance : tolerances) {
+            compareToLinearScan(precursors, tolerance, true, new Random(8));
+        }
+    }
+
+    /**
+     * Tests the m/z and mass range queries.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testRanges() throws Exception {
+
+        HashMap<String, Precursor> precursors = getRandomPrecursors(new Random(44), 3000);
+        PrecursorMap precursorMap = new PrecursorMap(precursors, 10.0, true);
+        Random random = new Random(9);
+
+        // m/z ranges
+        for (int i = 0; i < 500; i++) {
+            double lowMz = 100.0 + 1500.0 * random.nextDouble();
+            double highMz = lowMz + (i % 2 == 0 ? 0.1 : 50.0) * random.nextDouble();
+            ArrayList<String> expected = new ArrayList<String>();
+            for (String title : precursors.keySet()) {
+                double mz = precursors.get(title).getMz();
+                if (mz >= lowMz && mz <= highMz) {
+                    expected.add(title);
+                }
+            }
+            ArrayList<PrecursorWithTitle> result = precursorMap.getPrecursorsInMzRange(lowMz, highMz);
+            Assert.assertEquals(getSortedTitles(expected), getSortedTitles(result));
+            for (int j = 1; j < result.size(); j++) {
+                Assert.assertTrue(result.get(j - 1).precursor.getMz() <= result.get(j).precursor.getMz());
+            }
+        }
+        ArrayList<PrecursorWithTitle> allPrecursors = precursorMap.getPrecursorsInMzRange(precursorMap.getMinMz(), precursorMap.getMaxMz());
+        Assert.assertEquals(precursors.size(), allPrecursors.size());
+        Assert.assertTrue(precursorMap.getPrecursorsInMzRange(200.0, 100.0).isEmpty());
+
+        // charge partitions
+        HashMap<Integer, HashSet<String>> titlesByCharge = getTitlesByCharge(precursors);
+        ArrayList<Integer> expectedCharges = new ArrayList<Integer>(titlesByCharge.keySet());
+        Collections.sort(expectedCharges);
+        int[] charges = precursorMap.getCharges();
+        Assert.assertEquals(expectedCharges.size(), charges.length);
+        for (int i = 0; i < charges.length; i++) {
+            Assert.assertEquals(expectedCharges.get(i).intValue(), charges[i]);
+        }
+        Assert.assertEquals(0, precursorMap.getNPrecursors(7));
+        Assert.assertTrue(precursorMap.getPrecursorsInMassRange(7, 0.0, 10000.0).isEmpty());
+        Assert.assertEquals(0, precursorMap.getMassRangeEnd(7, 10000.0) - precursorMap.getMassRangeStart(7, 0.0));
+
+        for (int charge : charges) {
+
+            HashSet<String> chargeTitles = titlesByCharge.get(charge);
+            Assert.assertEquals(chargeTitles.size(), precursorMap.getNPrecursors(charge));
+            HashSet<String> partitionTitles = new HashSet<String>();
+            for (int i = 0; i < precursorMap.getNPrecursors(charge); i++) {
+                PrecursorWithTitle precursorWithTitle = precursorMap.getPrecursor(charge, i);
+                partitionTitles.add(precursorWithTitle.spectrumTitle);
+                Assert.assertEquals(precursorWithTitle.precursor.getMass(charge), precursorMap.getPrecursorMass(charge, i));
+                if (i > 0) {
+                    Assert.assertTrue(precursorMap.getPrecursorMass(charge, i - 1) <= precursorMap.getPrecursorMass(charge, i));
+                }
+            }
+            Assert.assertEquals(chargeTitles, partitionTitles);
+
+            // mass ranges
+            for (int i = 0; i < 200; i++) {
+                double lowMass = 100.0 + 4000.0 * random.nextDouble();
+                double highMass = lowMass + (i % 2 == 0 ? 0.1 : 100.0) * random.nextDouble();
+                ArrayList<String> expected = new ArrayList<String>();
+                for (String title : chargeTitles) {
+                    double mass = precursors.get(title).getMass(charge);
+                    if (mass >= lowMass && mass <= highMass) {
+                        expected.add(title);
+                    }
+                }
+                ArrayList<PrecursorWithTitle> result = precursorMap.getPrecursorsInMassRange(charge, lowMass, highMass);
+                Assert.assertEquals(getSortedTitles(expected), getSortedTitles(result));
+                int start = precursorMap.getMassRangeStart(charge, lowMass);
+                int end = precursorMap.getMassRangeEnd(charge, highMass);
+                Assert.assertEquals(result.size(), Math.max(end - start, 0));
+                for (int j = start; j < end; j++) {
+                    Assert.assertSame(result.get(j - start), precursorMap.getPrecursor(charge, j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the sweep of sorted candidate masses against the range queries.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMassRanges() throws Exception {
+
+        HashMap<String, Precursor> precursors = getRandomPrecursors(new Random(45), 3000);
+        PrecursorMap precursorMap = new PrecursorMap(precursors, 0.02, false);
+        Random random = new Random(10);
+
+        double[] candidateMasses = new double[2000];
+        for (int i = 0; i < candidateMasses.length; i++) {
+            candidateMasses[i] = 100.0 + 4000.0 * random.nextDouble();
+        }
+        // repeated candidates
+        candidateMasses[1] = candidateMasses[0];
+        candidateMasses[2] = candidateMasses[0];
+        Arrays.sort(candidateMasses);
+
+        double[][] shifts = new double[][]{{-0.02, 0.02}, {-500.0, 500.0}, {-0.5, 100.0}, {0.1, 0.2}};
+        int[] rangeStarts = new int[candidateMasses.length];
+        int[] rangeEnds = new int[candidateMasses.length];
+
+        for (int charge = 1; charge <= 5; charge++) {
+            for (double[] shift : shifts) {
+                precursorMap.getMassRanges(charge, candidateMasses, shift[0], shift[1], rangeStarts, rangeEnds);
+                for (int i = 0; i < candidateMasses.length; i++) {
+                    double lowMass = candidateMasses[i] + shift[0];
+                    double highMass = candidateMasses[i] + shift[1];
+                    Assert.assertEquals(precursorMap.getMassRangeStart(charge, lowMass), rangeStarts[i]);
+                    int expectedSize = precursorMap.getPrecursorsInMassRange(charge, lowMass, highMass).size();
+                    Assert.assertEquals(expectedSize, rangeEnds[i] - rangeStarts[i]);
+                }
+            }
+        }
+
+        try {
+            precursorMap.getMassRanges(2, new double[]{500.0, 400.0}, -1.0, 1.0, rangeStarts, rangeEnds);
+            Assert.fail("Unsorted candidate masses should not be accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            precursorMap.getMassRanges(2, candidateMasses, -1.0, 1.0, new int[1], rangeEnds);
+            Assert.fail("Range arrays shorter than the candidates should not be accepted.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tests an empty map.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testEmptyMap() throws Exception {
+        PrecursorMap precursorMap = new PrecursorMap(new HashMap<String, Precursor>(), 10.0, true);
+        Assert.assertNull(precursorMap.getMinMz());
+        Assert.assertNull(precursorMap.getMaxMz());
+        Assert.assertTrue(precursorMap.getMatchingSpectra(500.0).isEmpty());
+        Assert.assertTrue(precursorMap.getBins().isEmpty());
+        Assert.assertEquals(0, precursorMap.getCharges().length);
+        int[] rangeStarts = new int[1];
+        int[] rangeEnds = new int[1];
+        precursorMap.getMassRanges(2, new double[]{500.0}, -500.0, 500.0, rangeStarts, rangeEnds);
+        Assert.assertEquals(0, rangeEnds[0] - rangeStarts[0]);
+    }
+
+    /**
+     * Compares the precursors matched by a map to the ones found by a linear
+     * scan, as well as the bins and the m/z limits.
+     *
+     * @param precursors the precursors to map
+     * @param tolerance the tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param random the random number generator used to draw the queries
+     */
+    private static void compareToLinearScan(HashMap<String, Precursor> precursors, double tolerance, boolean ppm, Random random) {
+
+        PrecursorMap precursorMap = new PrecursorMap(precursors, tolerance, ppm);
+
+        // bins as computed by the map
+        double scalingFactor = FastMath.log((1000000 - tolerance) / (1000000 + tolerance));
+        double mzAnchorLog = FastMath.log(1000);
+        HashMap<Integer, HashMap<Double, HashSet<String>>> expectedBins = new HashMap<Integer, HashMap<Double, HashSet<String>>>();
+        double minMz = Double.MAX_VALUE;
+        double maxMz = -Double.MAX_VALUE;
+        for (String title : precursors.keySet()) {
+            double mz = precursors.get(title).getMz();
+            minMz = Math.min(minMz, mz);
+            maxMz = Math.max(maxMz, mz);
+            Integer bin = ppm ? (int) ((FastMath.log(mz) - mzAnchorLog) / scalingFactor) : (int) (mz / tolerance);
+            HashMap<Double, HashSet<String>> precursorsInBin = expectedBins.get(bin);
+            if (precursorsInBin == null) {
+                precursorsInBin = new HashMap<Double, HashSet<String>>();
+                expectedBins.put(bin, precursorsInBin);
+            }
+            HashSet<String> titles = precursorsInBin.get(mz);
+            if (titles == null) {
+                titles = new HashSet<String>();
+                precursorsInBin.put(mz, titles);
+            }
+            titles.add(title);
+        }
+        Assert.assertEquals(minMz, precursorMap.getMinMz());
+        Assert.assertEquals(maxMz, precursorMap.getMaxMz());
+        Assert.assertEquals(expectedBins.keySet(), new HashSet<Integer>(precursorMap.getBins()));
+        for (Integer bin : expectedBins.keySet()) {
+            HashMap<Double, HashSet<String>> expectedPrecursors = expectedBins.get(bin);
+            HashMap<Double, ArrayList<PrecursorWithTitle>> precursorsInBin = precursorMap.getPrecursorsInBin(bin);
+            Assert.assertEquals(expectedPrecursors.keySet(), precursorsInBin.keySet());
+            for (Double mz : expectedPrecursors.keySet()) {
+                ArrayList<PrecursorWithTitle> precursorsAtMz = precursorsInBin.get(mz);
+                Assert.assertEquals(expectedPrecursors.get(mz).size(), precursorsAtMz.size());
+                for (PrecursorWithTitle precursorWithTitle : precursorsAtMz) {
+                    Assert.assertTrue(expectedPrecursors.get(mz).contains(precursorWithTitle.spectrumTitle));
+                }
+            }
+        }
+
+        // queries around the precursors, at the limits of the tolerance, and random
+        ArrayList<Double> queries = new ArrayList<Double>();
+        int i = 0;
+        for (Precursor precursor : precursors.values()) {
+            if (i++ % 10 == 0) {
+                double mz = precursor.getMz();
+                double delta = ppm ? mz * tolerance / 1000000 : tolerance;
+                queries.add(mz);
+                queries.add(mz + 0.99 * delta);
+                queries.add(mz - 0.99 * delta);
+                queries.add(mz + 1.01 * delta);
+                queries.add(mz - 1.01 * delta);
+            }
+        }
+        for (i = 0; i < 1000; i++) {
+            queries.add(50.0 + 2000.0 * random.nextDouble());
+        }
+
+        for (double referenceMz : queries) {
+            ArrayList<String> expected = new ArrayList<String>();
+            for (String title : precursors.keySet()) {
+                double mz = precursors.get(title).getMz();
+                double error = ppm ? 1000000 * (mz - referenceMz) / referenceMz : mz - referenceMz;
+                if (Math.abs(error) <= tolerance) {
+                    expected.add(title);
+                }
+            }
+            Assert.assertEquals("m/z " + referenceMz, getSortedTitles(expected), getSortedTitles(precursorMap.getMatchingSpectra(referenceMz)));
+        }
+    }
+
+    /**
+     * Returns the spectrum titles of the precursors carrying every charge.
+     *
+     * @param precursors the precursors indexed by spectrum title
+     *
+     * @return the spectrum titles indexed by charge
+     */
+    private static HashMap<Integer, HashSet<String>> getTitlesByCharge(HashMap<String, Precursor> precursors) {
+        HashMap<Integer, HashSet<String>> result = new HashMap<Integer, HashSet<String>>();
+        for (String title : precursors.keySet()) {
+            for (Charge charge : precursors.get(title).getPossibleCharges()) {
+                HashSet<String> titles = result.get(charge.value);
+                if (titles == null) {
+                    titles = new HashSet<String>();
+                    result.put(charge.value, titles);
+                }
+                titles.add(title);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the given titles sorted.
+     *
+     * @param titles the titles
+     *
+     * @return the sorted titles
+     */
+    private static ArrayList<String> getSortedTitles(ArrayList<String> titles) {
+        ArrayList<String> result = new ArrayList<String>(titles);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns the titles of the given precursors sorted.
+     *
+     * @param precursors the precursors
+     *
+     * @return the sorted titles
+     */
+    private static ArrayList<String> getSortedTitles(Iterable<PrecursorWithTitle> precursors) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (PrecursorWithTitle precursorWithTitle : precursors) {
+            result.add(precursorWithTitle.spectrumTitle);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Returns random precursors, some sharing the same m/z, some without
+     * charge, and some listing the same charge twice.
+     *
+     * @param random the random number generator
+     * @param nPrecursors the number of precursors
+     *
+     * @return random precursors indexed by spectrum title
+     */
+    private static HashMap<String, Precursor> getRandomPrecursors(Random random, int nPrecursors) {
+        HashMap<String, Precursor> precursors = new HashMap<String, Precursor>(nPrecursors);
+        double mz = 0.0;
+        for (int i = 0; i < nPrecursors; i++) {
+            if (i % 50 != 1) {
+                mz = 100.0 + 1500.0 * random.nextDouble();
+            }
+            ArrayList<Charge> charges = new ArrayList<Charge>();
+            if (i % 13 != 0) {
+                charges.add(new Charge(Charge.PLUS, 1 + random.nextInt(4)));
+                if (i % 3 == 0) {
+                    charges.add(new Charge(Charge.PLUS, 1 + random.nextInt(4)));
+                }
+            }
+            precursors.put("spectrum " + i, new Precursor(i, mz, charges));
+        }
+        return precursors;
+    }
+}
@@ -0,0 +1,194 @@
+package com.compomics.util.test.experiment.spectrum.indexing;
+
+import com.compomics.util.experiment.massspectrometry.Peak;
+import com.compomics.util.experiment.massspectrometry.indexes.SpectrumIndex;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+/**
+ * This class tests the spectrum index against a linear scan of the peaks.
+ *
+ * @author Marc Vaudel
+ */
+public class SpectrumIndexTest extends TestCase {
+
+    /**
+     * Tests the matching of peaks with a tolerance in Da.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMatchingPeaksAbsolute() throws Exception {
+        HashMap<Double, Peak> peaks = getRandomPeaks(new Random(42), 2000);
+        double[] tolerances = new double[]{0.001, 0.02, 0.5, 5.0};
+        double[] intensityLimits = new double[]{0.0, 50.0, 1000.0};
+        for (double tolerance : tolerances) {
+            for (double intensityLimit : intensityLimits) {
+                compareToLinearScan(peaks, intensityLimit, tolerance, false, new Random(7));
+            }
+        }
+    }
+
+    /**
+     * Tests the matching of peaks with a tolerance in ppm.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testMatchingPeaksPpm() throws Exception {
+        HashMap<Double, Peak> peaks = getRandomPeaks(new Random(43), 2000);
+        double[] tolerances = new double[]{1.0, 10.0, 100.0};
+        double[] intensityLimits = new double[]{0.0, 50.0, 1000.0};
+        for (double tolerance : tolerances) {
+            for (double intensityLimit : intensityLimits) {
+                compareToLinearScan(peaks, intensityLimit, tolerance, true, new Random(8));
+            }
+        }
+    }
+
+    /**
+     * Tests the empty indexes.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testEmptyIndex() throws Exception {
+        SpectrumIndex emptyIndex = new SpectrumIndex();
+        Assert.assertEquals(0, emptyIndex.getNPeaks());
+        Assert.assertTrue(emptyIndex.getMatchingPeaks(500.0).isEmpty());
+        Assert.assertFalse(emptyIndex.isMatch(emptyIndex.getMatchStart(500.0), 500.0));
+
+        emptyIndex = new SpectrumIndex(new HashMap<Double, Peak>(), 0.0, 0.02, false);
+        Assert.assertTrue(emptyIndex.getMatchingPeaks(500.0).isEmpty());
+        Assert.assertTrue(emptyIndex.getBins().isEmpty());
+        Assert.assertNull(emptyIndex.getBinMin());
+        Assert.assertNull(emptyIndex.getBinMax());
+        Assert.assertEquals(0.0, emptyIndex.getTotalIntensity());
+    }
+
+    /**
+     * Compares the peaks matched by an index to the ones found by a linear
+     * scan, as well as the bins, the bin limits and the total intensity.
+     *
+     * @param peaks the peaks to index
+     * @param intensityLimit the intensity limit
+     * @param tolerance the tolerance
+     * @param ppm boolean indicating whether the tolerance is in ppm
+     * @param random the random number generator used to draw the queries
+     */
+    private static void compareToLinearScan(HashMap<Double, Peak> peaks, double intensityLimit, double tolerance, boolean ppm, Random random) {
+
+        SpectrumIndex spectrumIndex = new SpectrumIndex(peaks, intensityLimit, tolerance, ppm);
+
+        // peaks retained and bins
+        ArrayList<Peak> retainedPeaks = new ArrayList<Peak>();
+        HashMap<Integer, HashMap<Double, Peak>> expectedBins = new HashMap<Integer, HashMap<Double, Peak>>();
+        double totalIntensity = 0.0;
+        for (Peak peak : peaks.values()) {
+            if (peak.intensity >= intensityLimit) {
+                retainedPeaks.add(peak);
+                totalIntensity += peak.intensity;
+                Integer bin = spectrumIndex.getBin(peak.mz);
+                HashMap<Double, Peak> peaksInBin = expectedBins.get(bin);
+                if (peaksInBin == null) {
+                    peaksInBin = new HashMap<Double, Peak>();
+                    expectedBins.put(bin, peaksInBin);
+                }
+                peaksInBin.put(peak.mz, peak);
+            }
+        }
+        Assert.assertEquals(retainedPeaks.size(), spectrumIndex.getNPeaks());
+        Assert.assertEquals(totalIntensity, spectrumIndex.getTotalIntensity(), 1e-6 * totalIntensity);
+        Assert.assertEquals(expectedBins.keySet(), new HashSet<Integer>(spectrumIndex.getBins()));
+        Assert.assertEquals(expectedBins.keySet(), spectrumIndex.getRawBins());
+        for (Integer bin : expectedBins.keySet()) {
+            Assert.assertEquals(expectedBins.get(bin), spectrumIndex.getPeaksInBin(bin));
+        }
+        if (!expectedBins.isEmpty()) {
+            Assert.assertEquals(Collections.min(expectedBins.keySet()), spectrumIndex.getBinMin());
+            Assert.assertEquals(Collections.max(expectedBins.keySet()), spectrumIndex.getBinMax());
+        }
+
+        // peaks sorted by m/z
+        Collections.sort(retainedPeaks, new Comparator<Peak>() {
+            @Override
+            public int compare(Peak peak1, Peak peak2) {
+                return Double.compare(peak1.mz, peak2.mz);
+            }
+        });
+        for (int i = 0; i < retainedPeaks.size(); i++) {
+            Assert.assertSame(retainedPeaks.get(i), spectrumIndex.getPeak(i));
+            Assert.assertEquals(retainedPeaks.get(i).mz, spectrumIndex.getMz(i));
+            Assert.assertEquals(retainedPeaks.get(i).intensity, spectrumIndex.getIntensity(i));
+        }
+
+        // queries around the peaks, at the limits of the tolerance, and random
+        ArrayList<Double> queries = new ArrayList<Double>();
+        for (int i = 0; i < retainedPeaks.size(); i += 10) {
+            double mz = retainedPeaks.get(i).mz;
+            double delta = ppm ? mz * tolerance / 1000000 : tolerance;
+            queries.add(mz);
+            queries.add(mz + delta);
+            queries.add(mz - delta);
+            queries.add(mz + 0.99 * delta);
+            queries.add(mz - 1.01 * delta);
+        }
+        for (int i = 0; i < 1000; i++) {
+            queries.add(50.0 + 2000.0 * random.nextDouble());
+        }
+        queries.add(1.0);
+        queries.add(10000.0);
+
+        for (double mz : queries) {
+
+            HashSet<Peak> expected = new HashSet<Peak>();
+            for (Peak peak : retainedPeaks) {
+                double error = ppm ? 1000000 * (peak.mz - mz) / mz : peak.mz - mz;
+                if (Math.abs(error) <= tolerance) {
+                    expected.add(peak);
+                }
+            }
+
+            ArrayList<Peak> matchingPeaks = spectrumIndex.getMatchingPeaks(mz);
+            Assert.assertEquals("m/z " + mz, expected, new HashSet<Peak>(matchingPeaks));
+            Assert.assertEquals(expected.size(), matchingPeaks.size());
+            for (int i = 1; i < matchingPeaks.size(); i++) {
+                Assert.assertTrue(matchingPeaks.get(i - 1).mz < matchingPeaks.get(i).mz);
+            }
+
+            ArrayList<Peak> iteratedPeaks = new ArrayList<Peak>();
+            for (int i = spectrumIndex.getMatchStart(mz); spectrumIndex.isMatch(i, mz); i++) {
+                iteratedPeaks.add(spectrumIndex.getPeak(i));
+            }
+            Assert.assertEquals(matchingPeaks, iteratedPeaks);
+        }
+    }
+
+    /**
+     * Returns random peaks with distinct m/z.
+     *
+     * @param random the random number generator
+     * @param nPeaks the number of peaks
+     *
+     * @return random peaks indexed by m/z
+     */
+    private static HashMap<Double, Peak> getRandomPeaks(Random random, int nPeaks) {
+        HashMap<Double, Peak> peaks = new HashMap<Double, Peak>(nPeaks);
+        while (peaks.size() < nPeaks) {
+            double mz = 100.0 + 1900.0 * random.nextDouble();
+            if (peaks.size() % 20 == 0) {
+                // clusters of close peaks
+                for (int i = 0; i < 5; i++) {
+                    double clusterMz = mz + i * 0.001;
+                    peaks.put(clusterMz, new Peak(clusterMz, 2000.0 * random.nextDouble()));
+                }
+            } else {
+                peaks.put(mz, new Peak(mz, 2000.0 * random.nextDouble()));
+            }
+        }
+        return peaks;
+    }
+}
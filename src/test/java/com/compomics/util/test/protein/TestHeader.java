@@ -12,7 +12,9 @@
  */
 package com.compomics.util.test.protein;
 
+import com.compomics.util.io.SerializationUtils;
 import com.compomics.util.protein.Header;
+import java.io.File;
 import junit.framework.Assert;
 import junit.framework.TestCase;
 import org.apache.log4j.Logger;
@@ -1518,4 +1520,208 @@ public class TestHeader extends TestCase {
         Assert.assertEquals(3, h.getStartLocation());
         Assert.assertEquals(8, h.getEndLocation());
     }
+
+    /**
+     * This method tests the single pass parsing of the standard UniProt
+     * headers, and of the headers close to them, against the values obtained
+     * with the regular expression based parsing.
+     */
+    public void testUniProtHeaders() {
+
+        Header header;
+        header = Header.parseFromFASTA(">sp|P35527|K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P35527", "K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", "Keratin, type I cytoskeletal 9", "K1CI_HUMAN", "KRT9", "1", "Homo sapiens", null, -1, -1, ">sp|P35527|K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", ">sp|P35527|K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3");
+        header = Header.parseFromFASTA(">tr|Q8N1N2|Q8N1N2_HUMAN Full-length cDNA clone CS0DI055YM17 of Placenta Cot 25-normalized of Homo sapiens (human) OS=Homo sapiens PE=2 SV=1");
+        compareHeader(header, Header.DatabaseType.UniProt, "tr", "Q8N1N2", "Q8N1N2_HUMAN Full-length cDNA clone CS0DI055YM17 of Placenta Cot 25-normalized of Homo sapiens (human) OS=Homo sapiens PE=2 SV=1", "Full-length cDNA clone CS0DI055YM17 of Placenta Cot 25-normalized of Homo sapiens (human)", "Q8N1N2_HUMAN", null, "2", "Homo sapiens", null, -1, -1, ">tr|Q8N1N2|Q8N1N2_HUMAN Full-length cDNA clone CS0DI055YM17 of Placenta Cot 25-normalized of Homo sapiens (human) OS=Homo sapiens PE=2 SV=1", ">tr|Q8N1N2|Q8N1N2_HUMAN Full-length cDNA clone CS0DI055YM17 of Placenta Cot 25-normalized of Homo sapiens (human) OS=Homo sapiens PE=2 SV=1");
+        header = Header.parseFromFASTA(">sp|P0C7M7|ACSM4_HUMAN Acyl-coenzyme A synthetase ACSM4, mitochondrial OS=Homo sapiens OX=9606 GN=ACSM4 PE=2 SV=2");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P0C7M7", "ACSM4_HUMAN Acyl-coenzyme A synthetase ACSM4, mitochondrial OS=Homo sapiens OX=9606 GN=ACSM4 PE=2 SV=2", "Acyl-coenzyme A synthetase ACSM4, mitochondrial", "ACSM4_HUMAN", "ACSM4", "2", "Homo sapiens", null, -1, -1, ">sp|P0C7M7|ACSM4_HUMAN Acyl-coenzyme A synthetase ACSM4, mitochondrial OS=Homo sapiens OX=9606 GN=ACSM4 PE=2 SV=2", ">sp|P0C7M7|ACSM4_HUMAN Acyl-coenzyme A synthetase ACSM4, mitochondrial OS=Homo sapiens OX=9606 GN=ACSM4 PE=2 SV=2");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN Protein without any tag");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein without any tag", null, null, null, null, null, null, -1, -1, ">sp|P12345|ABC_HUMAN Protein without any tag", ">sp|P12345|ABC_HUMAN Protein without any tag");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN Protein x OS=Homo sapiens GN=ABC PE=1 SV=2^A>sp|P12346|ABD_HUMAN Protein y");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein x OS=Homo sapiens GN=ABC PE=1 SV=2", "Protein x", "ABC_HUMAN", "ABC", "1", "Homo sapiens", null, -1, -1, ">sp|P12345|ABC_HUMAN Protein x OS=Homo sapiens GN=ABC PE=1 SV=2", ">sp|P12345|ABC_HUMAN Protein x OS=Homo sapiens GN=ABC PE=1 SV=2^A>sp|P12346|ABD_HUMAN Protein y");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN (5-12) Protein with a location");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN (5-12) Protein with a location", null, null, null, null, null, null, -1, -1, ">sp|P12345|ABC_HUMAN (5-12) Protein with a location", ">sp|P12345|ABC_HUMAN (5-12) Protein with a location");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN Protein with SGDID:S000001 tag");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein with SGDID:S000001 tag", null, null, null, null, null, null, -1, -1, ">sp|P12345|ABC_HUMAN Protein with SGDID:S000001 tag", ">sp|P12345|ABC_HUMAN Protein with SGDID:S000001 tag");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN\tProtein after a tab");
+        compareHeader(header, Header.DatabaseType.Generic_Header, null, "P12345", "ABC_HUMAN\tProtein after a tab", null, null, null, null, null, "sp|P12345|ABC_HUMAN\tProtein after a tab", -1, -1, ">sp|P12345|ABC_HUMAN\tProtein after a tab", ">sp|P12345|ABC_HUMAN\tProtein after a tab");
+        header = Header.parseFromFASTA(">sp|P12345|ABCHUMAN Protein without underscore");
+        compareHeader(header, Header.DatabaseType.Generic_Header, null, "P12345", "ABCHUMAN Protein without underscore", null, null, null, null, null, "sp|P12345|ABCHUMAN Protein without underscore", -1, -1, ">sp|P12345|ABCHUMAN Protein without underscore", ">sp|P12345|ABCHUMAN Protein without underscore");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_ Protein with a trailing underscore");
+        compareHeader(header, Header.DatabaseType.Generic_Header, null, "P12345", "ABC_ Protein with a trailing underscore", null, null, null, null, null, "sp|P12345|ABC_ Protein with a trailing underscore", -1, -1, ">sp|P12345|ABC_ Protein with a trailing underscore", ">sp|P12345|ABC_ Protein with a trailing underscore");
+        header = Header.parseFromFASTA(">sp|P12345|_HUMAN Protein with a leading underscore");
+        compareHeader(header, Header.DatabaseType.UniProt, "sw", "sp", "P12345|_HUMAN Protein with a leading underscore", null, null, null, null, null, null, -1, -1, ">sw|sp|P12345|_HUMAN Protein with a leading underscore", ">sw|sp|P12345|_HUMAN Protein with a leading underscore");
+        header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN");
+        compareHeader(header, Header.DatabaseType.Generic_Header, null, "P12345", "ABC_HUMAN", null, null, null, null, null, "sp|P12345|ABC_HUMAN", -1, -1, ">sp|P12345|ABC_HUMAN", ">sp|P12345|ABC_HUMAN");
+        header = Header.parseFromFASTA(">sp|P12345 (3-8)|ABC_HUMAN Protein with a location in the accession");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein with a location in the accession", null, null, null, null, null, null, 3, 8, ">sp|P12345 (3-8)|ABC_HUMAN Protein with a location in the accession", ">sp|P12345 (3-8)|ABC_HUMAN Protein with a location in the accession");
+        header = Header.parseFromFASTA(">sp| P12345 |ABC_HUMAN Protein with spaces around the accession");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein with spaces around the accession", null, null, null, null, null, null, -1, -1, ">sp|P12345|ABC_HUMAN Protein with spaces around the accession", ">sp|P12345|ABC_HUMAN Protein with spaces around the accession");
+        header = Header.parseFromFASTA(">sp|P12345_REVERSED|ABC_HUMAN-REVERSED Protein x-REVERSED OS=Homo sapiens GN=ABC PE=1 SV=2");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345_REVERSED", "ABC_HUMAN-REVERSED Protein x-REVERSED OS=Homo sapiens GN=ABC PE=1 SV=2", "Protein x-REVERSED", "ABC_HUMAN-REVERSED", "ABC", "1", "Homo sapiens", null, -1, -1, ">sp|P12345_REVERSED|ABC_HUMAN-REVERSED Protein x-REVERSED OS=Homo sapiens GN=ABC PE=1 SV=2", ">sp|P12345_REVERSED|ABC_HUMAN-REVERSED Protein x-REVERSED OS=Homo sapiens GN=ABC PE=1 SV=2");
+
+        // the description is extracted from the raw header upon request only
+        final String spStandard = ">sp|P35527|K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3";
+        header = Header.parseFromFASTA(spStandard);
+        Header clone = (Header) header.clone();
+        Assert.assertEquals("K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", clone.getDescription());
+        Assert.assertEquals("KRT9", clone.getGeneName());
+
+        header.setRawHeader(">other header");
+        Assert.assertEquals("K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", header.getDescription());
+        Assert.assertEquals("Homo sapiens", header.getTaxonomy());
+
+        header = Header.parseFromFASTA(spStandard);
+        header.setDescription(null);
+        Assert.assertNull(header.getDescription());
+        Assert.assertEquals("Keratin, type I cytoskeletal 9", header.getDescriptionShort());
+    }
+
+    /**
+     * This method tests that the gene name, protein evidence, taxonomy and
+     * short description are left null when the UniProt description is
+     * malformed.
+     */
+    public void testMalformedUniProtDescription() {
+
+        Header header = Header.parseFromFASTA(">sp|P12345|ABC_HUMAN Protein x OX=9606 OS=Homo sapiens GN=ABC PE=1 SV=2");
+        compareHeader(header, Header.DatabaseType.UniProt, "sp", "P12345", "ABC_HUMAN Protein x OX=9606 OS=Homo sapiens GN=ABC PE=1 SV=2", null, null, null, null, null, null, -1, -1, ">sp|P12345|ABC_HUMAN Protein x OX=9606 OS=Homo sapiens GN=ABC PE=1 SV=2", ">sp|P12345|ABC_HUMAN Protein x OX=9606 OS=Homo sapiens GN=ABC PE=1 SV=2");
+        header = Header.parseFromFASTA(">tr|Q12345|ABC_HUMAN Protein x GN=ABC OS=Homo sapiens");
+        Assert.assertNull(header.getTaxonomy());
+        Assert.assertNull(header.getGeneName());
+        Assert.assertEquals("ABC_HUMAN Protein x GN=ABC OS=Homo sapiens", header.getDescription());
+
+        // the fields can still be set
+        header.setGeneName("ABC");
+        Assert.assertEquals("ABC", header.getGeneName());
+    }
+
+    /**
+     * This method tests the single pass parsing of the standard NCBI and
+     * generic headers, and of the headers close to them, against the values
+     * obtained with the tokenizer based parsing.
+     */
+    public void testNcbiAndGenericHeaders() {
+
+        Header header = Header.parseFromFASTA(">gi|20149565|ref|NP_004878.2| small inducible cytokine B14 precursor [Homo sapiens]");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "20149565", "small inducible cytokine B14 precursor [Homo sapiens]", null, null, null, null, null, null, -1, -1, ">gi|20149565|ref|NP_004878.2| small inducible cytokine B14 precursor [Homo sapiens]", ">gi|20149565|ref|NP_004878.2| small inducible cytokine B14 precursor [Homo sapiens]");
+        Assert.assertEquals("ref", header.getForeignID());
+        Assert.assertEquals("NP_004878.2", header.getForeignAccession());
+        Assert.assertNull(header.getForeignDescription());
+        header = Header.parseFromFASTA(">gi|21542145|sp|Q9ULX9|MAFF_HUMAN Transcription factor MafF (U-Maf)");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "21542145", "Transcription factor MafF (U-Maf)", null, null, null, null, null, null, -1, -1, ">gi|21542145|sp|Q9ULX9|MAFF_HUMAN Transcription factor MafF (U-Maf)", ">gi|21542145|sp|Q9ULX9|MAFF_HUMAN Transcription factor MafF (U-Maf)");
+        Assert.assertEquals("sp", header.getForeignID());
+        Assert.assertEquals("Q9ULX9", header.getForeignAccession());
+        Assert.assertEquals("MAFF_HUMAN", header.getForeignDescription());
+        header = Header.parseFromFASTA(">GI|1|ref|NP_1|  two spaces");
+        compareHeader(header, Header.DatabaseType.NCBI, "GI", "1", " two spaces", null, null, null, null, null, null, -1, -1, ">GI|1|ref|NP_1|  two spaces", ">GI|1|ref|NP_1|  two spaces");
+        header = Header.parseFromFASTA(">gi|1|ref|NP_1| desc^A>gi|2|ref|NP_2| other");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "desc", null, null, null, null, null, null, -1, -1, ">gi|1|ref|NP_1| desc", ">gi|1|ref|NP_1| desc^A>gi|2|ref|NP_2| other");
+        header = Header.parseFromFASTA(">gi|1|ref|NP_1| ^A>gi|2|ref|NP_2| other");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "", null, null, null, null, null, null, -1, -1, ">gi|1|ref|NP_1| ", ">gi|1|ref|NP_1| ^A>gi|2|ref|NP_2| other");
+        header = Header.parseFromFASTA(">gi|1|ref|NP_1|MAFF ^A>gi|2|ref|NP_2| other");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "", null, null, null, null, null, null, -1, -1, ">gi|1|ref|NP_1|MAFF ", ">gi|1|ref|NP_1|MAFF ^A>gi|2|ref|NP_2| other");
+        Assert.assertEquals("MAFF", header.getForeignDescription());
+        header = Header.parseFromFASTA(">gi|1|ref|NP_1| desc|more");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "descmore", null, null, null, null, null, null, -1, -1, ">gi|1|ref|NP_1| descmore", ">gi|1|ref|NP_1| descmore");
+        header = Header.parseFromFASTA(">gi|1||ref|NP_1| desc");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "desc", null, null, null, null, null, null, -1, -1, ">gi|1|ref|NP_1| desc", ">gi|1|ref|NP_1| desc");
+        header = Header.parseFromFASTA(">gi|1 (3-8)|ref|NP_1| desc");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "desc", null, null, null, null, null, null, 3, 8, ">gi|1 (3-8)|ref|NP_1| desc", ">gi|1 (3-8)|ref|NP_1| desc");
+        header = Header.parseFromFASTA(">gi|1|ref|| desc");
+        compareHeader(header, Header.DatabaseType.NCBI, "gi", "1", "desc", null, null, null, null, null, null, -1, -1, ">gi|1|ref|null| desc", ">gi|1|ref|null| desc");
+        Assert.assertNull(header.getForeignAccession());
+        try {
+            Header.parseFromFASTA(">gi|1|ref|NP_1|MAFF");
+            Assert.fail("No exception thrown for an NCBI header without description.");
+        } catch (StringIndexOutOfBoundsException e) {
+            // expected
+        }
+
+        header = Header.parseFromFASTA(">generic_tag|ACC1|a description");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "a description", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|a description", ">generic_tag|ACC1");
+        header = Header.parseFromFASTA(">generic_tag|ACC1|  spaced description\t x");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "spaced description\t x", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|spaced description\t x", ">generic_tag|ACC1");
+        header = Header.parseFromFASTA(">generic_tag|ACC1");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|", ">generic_tag|ACC1");
+        header = Header.parseFromFASTA(">generic_tag|ACC1|");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|", ">generic_tag|ACC1");
+        header = Header.parseFromFASTA(">generic_tag|ACC1|desc|with pipe");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "desc|with pipe", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|desc|with pipe", ">generic_tag|ACC1");
+        header = Header.parseFromFASTA(">generic_tag|ACC1|desc ^A>generic_tag|ACC2|other");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "desc", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|desc", ">generic_tag|ACC1^A>generic_tag|ACC2|other");
+        header = Header.parseFromFASTA(">generic_tag|ACC1|^A>generic_tag|ACC2|other");
+        compareHeader(header, Header.DatabaseType.Generic_Split_Header, "generic_tag", "ACC1", "", null, null, null, null, null, null, -1, -1, ">generic_tag|ACC1|", ">generic_tag|ACC1^A>generic_tag|ACC2|other");
+        header = Header.parseFromFASTA(">generic|ACC1|desc SGDID:S1, x");
+        compareHeader(header, Header.DatabaseType.SGD, "", "generic|ACC1|desc", "SGDID:S1, x", null, null, null, null, null, null, -1, -1, ">generic|ACC1|desc SGDID:S1, x", ">generic|ACC1|desc SGDID:S1, x");
+        try {
+            Header.parseFromFASTA(">generic_no_splitter");
+            Assert.fail("No exception thrown for a generic header without splitter.");
+        } catch (StringIndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    /**
+     * This method tests that headers parsed in a single pass, and headers
+     * serialized before the single pass parsing was introduced, are
+     * deserialized with their description.
+     *
+     * @throws Exception if an exception occurs
+     */
+    public void testSerialization() throws Exception {
+
+        final String spStandard = ">sp|P35527|K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3";
+
+        Header[] legacyHeaders = (Header[]) SerializationUtils.readObject(new File("src/test/resources/experiment/legacy.header"));
+        compareHeader(legacyHeaders[1], Header.DatabaseType.Generic_Header, null, null, null, null, null, null, null, null, "Unknown header type.", -1, -1, ">Unknown header type.", ">Unknown header type.");
+        compareHeader(legacyHeaders[0], Header.DatabaseType.UniProt, "sp", "P35527", "K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", "Keratin, type I cytoskeletal 9", "K1CI_HUMAN", "KRT9", "1", "Homo sapiens", null, -1, -1, spStandard, spStandard);
+
+        File headerFile = File.createTempFile("TestHeader", ".header");
+        try {
+            SerializationUtils.writeObject(Header.parseFromFASTA(spStandard), headerFile);
+            Header header = (Header) SerializationUtils.readObject(headerFile);
+            compareHeader(header, Header.DatabaseType.UniProt, "sp", "P35527", "K1CI_HUMAN Keratin, type I cytoskeletal 9 OS=Homo sapiens GN=KRT9 PE=1 SV=3", "Keratin, type I cytoskeletal 9", "K1CI_HUMAN", "KRT9", "1", "Homo sapiens", null, -1, -1, spStandard, spStandard);
+        } finally {
+            headerFile.delete();
+        }
+    }
+
+    /**
+     * Asserts that the fields of a header have the expected values.
+     *
+     * @param header the header
+     * @param databaseType the expected database type
+     * @param id the expected ID
+     * @param accession the expected accession
+     * @param description the expected description
+     * @param descriptionShort the expected short description
+     * @param descriptionProteinName the expected protein name
+     * @param geneName the expected gene name
+     * @param proteinEvidence the expected protein evidence
+     * @param taxonomy the expected taxonomy
+     * @param rest the expected rest
+     * @param start the expected start location
+     * @param end the expected end location
+     * @param fullHeader the expected full header
+     * @param fullHeaderWithAddenda the expected header with addenda
+     */
+    private static void compareHeader(Header header, Header.DatabaseType databaseType, String id, String accession, String description,
+            String descriptionShort, String descriptionProteinName, String geneName, String proteinEvidence, String taxonomy, String rest,
+            int start, int end, String fullHeader, String fullHeaderWithAddenda) {
+        Assert.assertEquals(databaseType, header.getDatabaseType());
+        Assert.assertEquals(id, header.getID());
+        Assert.assertEquals(accession, header.getAccession());
+        Assert.assertEquals(description, header.getDescription());
+        Assert.assertEquals(descriptionShort, header.getDescriptionShort());
+        Assert.assertEquals(descriptionProteinName, header.getDescriptionProteinName());
+        Assert.assertEquals(geneName, header.getGeneName());
+        Assert.assertEquals(proteinEvidence, header.getProteinEvidence());
+        Assert.assertEquals(taxonomy, header.getTaxonomy());
+        Assert.assertEquals(rest, header.getRest());
+        Assert.assertEquals(start, header.getStartLocation());
+        Assert.assertEquals(end, header.getEndLocation());
+        Assert.assertEquals(fullHeader, header.toString());
+        Assert.assertEquals(fullHeaderWithAddenda, header.getAbbreviatedFASTAHeaderWithAddenda());
+    }
 }